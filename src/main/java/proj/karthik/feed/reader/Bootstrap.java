@@ -22,9 +22,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
 
+import proj.karthik.feed.reader.sql.SchemaMigrator;
 import proj.karthik.feed.reader.store.ArticleStore;
+import proj.karthik.feed.reader.store.ArticleWriteQueue;
 import proj.karthik.feed.reader.store.FeedStore;
+import proj.karthik.feed.reader.store.ReadStateStore;
+import proj.karthik.feed.reader.store.SearchIndex;
+import proj.karthik.feed.reader.store.SegmentBlobStore;
 import proj.karthik.feed.reader.store.SubscriptionStore;
+import proj.karthik.feed.reader.store.TimelineEngine;
 import proj.karthik.feed.reader.store.UserStore;
 import proj.karthik.feed.reader.web.RouteManager;
 
@@ -72,7 +78,7 @@ public class Bootstrap {
                 } else {
                     System.out.println("Web server listening at localhost:4567");
                 }
-                initStores(injector);
+                initStores(injector, appConfig);
                 RouteManager routeManager = injector.getInstance(RouteManager.class);
                 routeManager.initRoutes(appConfig);
             } else {
@@ -85,7 +91,9 @@ public class Bootstrap {
         }
     }
 
-    private static void initStores(final Injector injector) {
+    private static void initStores(final Injector injector, final Properties appConfig) {
+        // The memory backend keeps no tables, bodies or fan-out state of its own.
+        boolean database = !CoreModule.isMemoryBackend(appConfig);
         FeedStore feedStore = injector.getInstance(FeedStore.class);
         LOGGER.info("Initializing feed store");
         feedStore.init();
@@ -95,9 +103,38 @@ public class Bootstrap {
         SubscriptionStore subscriptionStore = injector.getInstance(SubscriptionStore.class);
         LOGGER.info("Initializing subscription store");
         subscriptionStore.init();
+        if (database) {
+            SegmentBlobStore blobStore = injector.getInstance(SegmentBlobStore.class);
+            LOGGER.info("Initializing blob store");
+            blobStore.init();
+        }
+        SearchIndex searchIndex = injector.getInstance(SearchIndex.class);
+        LOGGER.info("Initializing search index");
+        searchIndex.init();
         ArticleStore articleStore = injector.getInstance(ArticleStore.class);
         LOGGER.info("Initializing article store");
         articleStore.init();
+        ReadStateStore readStateStore = injector.getInstance(ReadStateStore.class);
+        LOGGER.info("Initializing read state store");
+        readStateStore.init();
+        if (database) {
+            TimelineEngine timelineEngine = injector.getInstance(TimelineEngine.class);
+            LOGGER.info("Initializing timeline engine");
+            timelineEngine.init();
+            // Every store created its tables, migrations bring them up to the latest schema.
+            SchemaMigrator schemaMigrator = injector.getInstance(SchemaMigrator.class);
+            LOGGER.info("Migrating database schema");
+            schemaMigrator.migrate();
+        }
+        ArticleWriteQueue articleWriteQueue = injector.getInstance(ArticleWriteQueue.class);
+        LOGGER.info("Initializing article write queue");
+        articleWriteQueue.init();
+        // Commits the articles still queued and writes out the buffered part of the search
+        // index when the process is stopped.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            articleWriteQueue.shutdown();
+            searchIndex.shutdown();
+        }, "store-shutdown"));
     }
 
     private static void setupDirs(Properties conf) {
@@ -112,7 +149,7 @@ public class Bootstrap {
             System.out.printf("Creating new feed directory: %s%n", feedDir.toString());
             feedDir.toFile().mkdirs();
         }
-        conf.setProperty(Constants.FEED_DIR, dataDir.toAbsolutePath().toString());
+        conf.setProperty(Constants.FEED_DIR, feedDir.toAbsolutePath().toString());
     }
 
     private static void setupLogFile() throws IOException {
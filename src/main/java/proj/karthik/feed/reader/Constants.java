@@ -12,6 +12,53 @@ public class Constants {
     public static final String DB_CONFIG_PROPS = "db-config.properties";
     public static final String APP_CONFIG_PROPS = "app-config.properties";
     public static final String DEFAULT_FEEDS = "default_feeds";
+    public static final String FANOUT_ON_WRITE = "fanout_on_write";
+    public static final String FANOUT_THRESHOLD = "fanout_threshold";
+    public static final String RECENT_ARTICLES_PER_FEED = "recent_articles_per_feed";
+    public static final String BODY_STORE = "body_store";
+    public static final String BODY_STORE_SEGMENT = "segment";
+    public static final String BLOB_SEGMENT_BYTES = "blob_segment_bytes";
+    public static final String BODY_CODEC = "body_codec";
+    public static final String BODY_CODEC_MIN_BYTES = "body_codec_min_bytes";
+    public static final String SEARCH_INDEX = "search_index";
+    public static final String SEARCH_INDEX_DIR = "search_index_dir";
+    public static final String SEARCH_FLUSH_DOCS = "search_flush_docs";
+    public static final String SEARCH_MERGE_FACTOR = "search_merge_factor";
+    public static final String BULK_CHUNK_SIZE = "bulk_chunk_size";
+    public static final String LOCK_STRIPES = "lock_stripes";
+    public static final String STATEMENT_CACHE_SIZE = "statement_cache_size";
+    public static final String USER_CACHE_SIZE = "user_cache_size";
+    public static final String USER_NEGATIVE_CACHE_SIZE = "user_negative_cache_size";
+    public static final String TIMELINE_VERSION_USERS = "timeline_version_users";
+    public static final String ASYNC_INGEST = "async_ingest";
+    public static final String ASYNC_QUEUE_CAPACITY = "async_queue_capacity";
+    public static final String ASYNC_BATCH_SIZE = "async_batch_size";
+    public static final String ASYNC_MAX_DELAY_MS = "async_max_delay_ms";
+    public static final String WORKER_MODE = "worker_mode";
+    public static final String WORKER_MODE_VIRTUAL = "virtual";
+    public static final String WORKER_THREADS_MIN = "worker_threads_min";
+    public static final String WORKER_THREADS_MAX = "worker_threads_max";
+    public static final String WORKER_IDLE_TIMEOUT_MS = "worker_idle_timeout_ms";
+    public static final String WORKER_QUEUE_CAPACITY = "worker_queue_capacity";
+    public static final String WORKER_CONCURRENCY = "worker_concurrency";
+    public static final String ADMISSION_CONTROL = "admission_control";
+    public static final String ADMISSION_USER_RATE = "admission_user_rate";
+    public static final String ADMISSION_USER_BURST = "admission_user_burst";
+    public static final String ADMISSION_USER_BUCKETS = "admission_user_buckets";
+    public static final String ADMISSION_READ_RATE = "admission_read_rate";
+    public static final String ADMISSION_WRITE_RATE = "admission_write_rate";
+    public static final String ADMISSION_BULK_RATE = "admission_bulk_rate";
+    public static final String ADMISSION_LATENCY_TARGET_MS = "admission_latency_target_ms";
+    public static final String ADMISSION_MIN_CONCURRENCY = "admission_min_concurrency";
+    public static final String ADMISSION_MAX_CONCURRENCY = "admission_max_concurrency";
+    public static final String EXECUTION_LANES = "execution_lanes";
+    public static final String LANE_THREADS = "lane_%s_threads";
+    public static final String LANE_QUEUE_CAPACITY = "lane_queue_capacity";
+    public static final String LANE_CONNECTIONS = "lane_%s_connections";
+    public static final String READ_DATA_SOURCE = "read_data_source";
+    public static final String BULK_DATA_SOURCE = "bulk_data_source";
+    public static final String STORE_BACKEND = "store_backend";
+    public static final String STORE_BACKEND_MEMORY = "memory";
     //-------------- Constants used in entity classes ------------//
     public static final String ARTICLE = "article";
     public static final String TITLE = "title";
@@ -20,7 +67,32 @@ public class Constants {
     public static final String CREATED_ON = "created_on";
     public static final String USER = "user";
     public static final String ID = "id";
+    public static final String ARTICLES = "articles";
+    public static final String SYNC_TOKEN = "sync_token";
+    public static final String GAP = "gap";
+    public static final String TOTAL = "total";
+    public static final String FEEDS = "feeds";
+    public static final String LINE = "line";
+    public static final String STATUS = "status";
+    public static final String ERROR = "error";
     //--------------- Constants used in routes -------------------//
     public static final String FEED = "feed";
     public static final String APPLICATION_JSON = "application/json";
+    public static final String LIMIT = "limit";
+    public static final String AFTER = "after";
+    public static final String HEADLINES = "headlines";
+    public static final String SINCE = "since";
+    public static final String QUERY = "q";
+    public static final String OFFSET = "offset";
+    public static final String DURABLE = "durable";
+    public static final String HEADER_NEXT_CURSOR = "X-Next-Cursor";
+    public static final String HEADER_SYNC_TOKEN = "X-Sync-Token";
+    public static final String HEADER_SYNC_GAP = "X-Sync-Gap";
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_SEARCH_RESULTS = 10000;
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 500;
 }
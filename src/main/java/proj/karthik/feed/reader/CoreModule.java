@@ -19,16 +19,38 @@ import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import proj.karthik.feed.reader.sql.Lane;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
 import proj.karthik.feed.reader.store.ArticleStore;
+import proj.karthik.feed.reader.store.ArticleWriteQueue;
+import proj.karthik.feed.reader.store.BodyCodec;
 import proj.karthik.feed.reader.store.DbArticleStore;
 import proj.karthik.feed.reader.store.DbFeedStore;
+import proj.karthik.feed.reader.store.DbReadStateStore;
 import proj.karthik.feed.reader.store.DbSubscriptionStore;
 import proj.karthik.feed.reader.store.DbUserStore;
+import proj.karthik.feed.reader.store.FeedDictionary;
 import proj.karthik.feed.reader.store.FeedStore;
+import proj.karthik.feed.reader.store.MemArticleStore;
+import proj.karthik.feed.reader.store.MemFeedStore;
+import proj.karthik.feed.reader.store.MemReadStateStore;
+import proj.karthik.feed.reader.store.MemSubscriptionStore;
+import proj.karthik.feed.reader.store.MemTables;
+import proj.karthik.feed.reader.store.MemUserStore;
+import proj.karthik.feed.reader.store.ReadStateStore;
+import proj.karthik.feed.reader.store.RecentArticleCache;
+import proj.karthik.feed.reader.store.SearchIndex;
+import proj.karthik.feed.reader.store.SegmentBlobStore;
+import proj.karthik.feed.reader.store.SubscriptionGraph;
 import proj.karthik.feed.reader.store.SubscriptionStore;
+import proj.karthik.feed.reader.store.TimelineEngine;
+import proj.karthik.feed.reader.store.TimelineVersions;
 import proj.karthik.feed.reader.store.UserStore;
+import proj.karthik.feed.reader.web.AdmissionControl;
+import proj.karthik.feed.reader.web.ExecutionLanes;
 import proj.karthik.feed.reader.web.RouteManager;
+import proj.karthik.feed.reader.web.WorkerPool;
 
 import static proj.karthik.feed.reader.Constants.DB_CONFIG_PROPS;
 
@@ -61,7 +83,10 @@ public class CoreModule extends AbstractModule {
                 .toInstance(appConfig);
 
         addJsonDependencies();
-        addDatabaseDependencies();
+        // The memory backend needs no connection pool and opens no database.
+        if (!isMemoryBackend(appConfig)) {
+            addDatabaseDependencies();
+        }
         addServices();
     }
 
@@ -76,11 +101,10 @@ public class CoreModule extends AbstractModule {
 
     protected void addDatabaseDependencies() {
         File dbConfig = new File(this.confDirPath.toFile(), DB_CONFIG_PROPS);
+        HikariConfig config;
         if (dbConfig.exists()) {
             LOG.info("Loading db configuration from {}", dbConfig.toString());
-            HikariConfig config = new HikariConfig(dbConfig.getAbsolutePath());
-            HikariDataSource hikariDataSource = new HikariDataSource(config);
-            bind(DataSource.class).toInstance(hikariDataSource);
+            config = new HikariConfig(dbConfig.getAbsolutePath());
         } else {
             LOG.warn("DB configuration file {} does not exist. Using defaults.",
                     dbConfig.toString());
@@ -91,10 +115,39 @@ public class CoreModule extends AbstractModule {
                 LOG.info("Using JDBC url: {}", jdbcUrl);
                 props.setProperty(JDBC_URL, jdbcUrl);
             }
-            HikariConfig config = new HikariConfig(props);
+            config = new HikariConfig(props);
+        }
+        addDataSources(config);
+        bind(SQLUtils.class).asEagerSingleton();
+    }
+
+    /**
+     * Binds the connection pool. With execution lanes, the configured connections are split into
+     * a pool for every lane: the write pool also serves work outside the lanes, and reads and bulk
+     * work get a pool each, so that every lane has a connection budget of its own.
+     *
+     * @param config
+     */
+    protected void addDataSources(HikariConfig config) {
+        boolean lanes = Boolean.parseBoolean(
+                appConfig.getProperty(Constants.EXECUTION_LANES, "false").trim());
+        if (!lanes) {
             bind(DataSource.class).toInstance(new HikariDataSource(config));
-            bind(SQLUtils.class).asEagerSingleton();
+            return;
         }
+        // Bulk work gets a fifth of the connections, reads and writes half of the rest each.
+        int poolSize = config.getMaximumPoolSize();
+        int bulkConnections = Math.max(1, poolSize / 5);
+        int writeConnections = Math.max(1, (poolSize - bulkConnections) / 2);
+        int readConnections = Math.max(1, poolSize - bulkConnections - writeConnections);
+        bind(DataSource.class).toInstance(newLaneDataSource(config, Lane.WRITE,
+                writeConnections));
+        bind(DataSource.class)
+                .annotatedWith(Names.named(Constants.READ_DATA_SOURCE))
+                .toInstance(newLaneDataSource(config, Lane.READ, readConnections));
+        bind(DataSource.class)
+                .annotatedWith(Names.named(Constants.BULK_DATA_SOURCE))
+                .toInstance(newLaneDataSource(config, Lane.BULK, bulkConnections));
     }
 
     protected Properties getDefaultProperties() {
@@ -111,10 +164,45 @@ public class CoreModule extends AbstractModule {
 
     protected void addServices() {
         bind(RouteManager.class).asEagerSingleton();
-        bind(ArticleStore.class).to(DbArticleStore.class).asEagerSingleton();
-        bind(FeedStore.class).to(DbFeedStore.class).asEagerSingleton();
-        bind(UserStore.class).to(DbUserStore.class).asEagerSingleton();
-        bind(SubscriptionStore.class).to(DbSubscriptionStore.class).asEagerSingleton();
+        bind(WorkerPool.class).asEagerSingleton();
+        bind(AdmissionControl.class).asEagerSingleton();
+        bind(ExecutionLanes.class).asEagerSingleton();
+        if (isMemoryBackend(appConfig)) {
+            LOG.info("Keeping feeds, users, subscriptions and articles in memory");
+            bind(MemTables.class).asEagerSingleton();
+            bind(ArticleStore.class).to(MemArticleStore.class).asEagerSingleton();
+            bind(FeedStore.class).to(MemFeedStore.class).asEagerSingleton();
+            bind(UserStore.class).to(MemUserStore.class).asEagerSingleton();
+            bind(SubscriptionStore.class).to(MemSubscriptionStore.class).asEagerSingleton();
+            bind(ReadStateStore.class).to(MemReadStateStore.class).asEagerSingleton();
+        } else {
+            bind(ArticleStore.class).to(DbArticleStore.class).asEagerSingleton();
+            bind(FeedStore.class).to(DbFeedStore.class).asEagerSingleton();
+            bind(UserStore.class).to(DbUserStore.class).asEagerSingleton();
+            bind(SubscriptionStore.class).to(DbSubscriptionStore.class).asEagerSingleton();
+            bind(ReadStateStore.class).to(DbReadStateStore.class).asEagerSingleton();
+            bind(TimelineEngine.class).asEagerSingleton();
+            bind(SubscriptionGraph.class).asEagerSingleton();
+            bind(SchemaMigrator.class).asEagerSingleton();
+        }
+        bind(RecentArticleCache.class).asEagerSingleton();
+        bind(SegmentBlobStore.class).asEagerSingleton();
+        bind(BodyCodec.class).asEagerSingleton();
+        bind(TimelineVersions.class).asEagerSingleton();
+        bind(FeedDictionary.class).asEagerSingleton();
+        bind(SearchIndex.class).asEagerSingleton();
+        bind(ArticleWriteQueue.class).asEagerSingleton();
+    }
+
+    /**
+     * Returns true if the stores keep their data in memory rather than in the database.
+     *
+     * @param appConfig
+     * @return true if the memory store backend is configured
+     */
+    public static boolean isMemoryBackend(Properties appConfig) {
+        return Constants.STORE_BACKEND_MEMORY.equalsIgnoreCase(
+                appConfig.getProperty(Constants.STORE_BACKEND, "").trim());
     }
 
     protected String getDataDir() {
@@ -124,4 +212,19 @@ public class CoreModule extends AbstractModule {
         }
         return dataDir;
     }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private HikariDataSource newLaneDataSource(final HikariConfig config, final Lane lane,
+            final int defaultConnections) {
+        HikariConfig laneConfig = new HikariConfig();
+        config.copyState(laneConfig);
+        laneConfig.setMaximumPoolSize(Math.max(1, Integer.parseInt(appConfig.getProperty(
+                String.format(Constants.LANE_CONNECTIONS, lane.getName()),
+                String.valueOf(defaultConnections)).trim())));
+        laneConfig.setPoolName(lane.getName() + "-pool");
+        LOG.info("Using {} connections for {} requests", laneConfig.getMaximumPoolSize(),
+                lane.getName());
+        return new HikariDataSource(laneConfig);
+    }
 }
@@ -1,8 +1,10 @@
 package proj.karthik.feed.reader.entity;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonRootName;
 import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.annotation.JsonView;
 
 import java.sql.Timestamp;
 import java.util.Optional;
@@ -10,6 +12,8 @@ import java.util.Optional;
 import static proj.karthik.feed.reader.Constants.ARTICLE;
 import static proj.karthik.feed.reader.Constants.BODY;
 import static proj.karthik.feed.reader.Constants.CREATED_ON;
+import static proj.karthik.feed.reader.Constants.FEED;
+import static proj.karthik.feed.reader.Constants.ID;
 import static proj.karthik.feed.reader.Constants.TITLE;
 
 
@@ -19,9 +23,11 @@ import static proj.karthik.feed.reader.Constants.TITLE;
 @JsonRootName(ARTICLE)
 public class Article {
 
+    private Optional<Long> id;
     private String title;
     private String body;
     private Optional<Timestamp> createdOn;
+    private String feed;
 
     public Article() {
     }
@@ -37,6 +43,20 @@ public class Article {
         this.createdOn = Optional.of(createdOn);
     }
 
+    // Ids are assigned by the store, an id sent by a client is ignored.
+    @JsonProperty(value = ID, access = JsonProperty.Access.READ_ONLY)
+    public Long getId() {
+        if (id != null) {
+            return id.orElse(null);
+        } else {
+            return null;
+        }
+    }
+
+    public void setId(final Long id) {
+        this.id = Optional.ofNullable(id);
+    }
+
     @JsonGetter(TITLE)
     public String getTitle() {
         return title;
@@ -48,6 +68,7 @@ public class Article {
     }
 
     @JsonGetter(BODY)
+    @JsonView(Views.Full.class)
     public String getBody() {
         return body;
     }
@@ -70,4 +91,14 @@ public class Article {
             return null;
         }
     }
+
+    @JsonGetter(FEED)
+    public String getFeed() {
+        return feed;
+    }
+
+    @JsonSetter(FEED)
+    public void setFeed(final String feed) {
+        this.feed = feed;
+    }
 }
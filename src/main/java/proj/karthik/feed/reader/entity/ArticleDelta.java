@@ -0,0 +1,53 @@
+package proj.karthik.feed.reader.entity;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+
+import java.util.List;
+
+import static proj.karthik.feed.reader.Constants.ARTICLES;
+import static proj.karthik.feed.reader.Constants.GAP;
+import static proj.karthik.feed.reader.Constants.SYNC_TOKEN;
+
+/**
+ * Entity class representing the articles that arrived in a user's feeds since the last sync,
+ * along with the token to pass to the next sync.
+ */
+public class ArticleDelta {
+
+    private final List<Article> articles;
+    private final String syncToken;
+    private final boolean gap;
+
+    public ArticleDelta(final List<Article> articles, final String syncToken, final boolean gap) {
+        this.articles = articles;
+        this.syncToken = syncToken;
+        this.gap = gap;
+    }
+
+    @JsonGetter(ARTICLES)
+    public List<Article> getArticles() {
+        return articles;
+    }
+
+    /**
+     * Returns the opaque token that covers every article up to this delta.
+     *
+     * @return syncToken
+     */
+    @JsonGetter(SYNC_TOKEN)
+    public String getSyncToken() {
+        return syncToken;
+    }
+
+    /**
+     * Returns true if some articles since the last sync are missing from this delta, either
+     * because too many arrived or because the token did not match the store. The client has to
+     * fall back to a full fetch to fill the gap.
+     *
+     * @return gap
+     */
+    @JsonGetter(GAP)
+    public boolean isGap() {
+        return gap;
+    }
+}
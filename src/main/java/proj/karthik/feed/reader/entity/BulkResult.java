@@ -0,0 +1,60 @@
+package proj.karthik.feed.reader.entity;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import static proj.karthik.feed.reader.Constants.ERROR;
+import static proj.karthik.feed.reader.Constants.ID;
+import static proj.karthik.feed.reader.Constants.LINE;
+import static proj.karthik.feed.reader.Constants.STATUS;
+
+/**
+ * Entity class representing the outcome of one article of a bulk upload. Added articles carry
+ * their id, rejected ones the reason.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkResult {
+
+    private Integer line;
+    private final int status;
+    private final Long id;
+    private final String error;
+
+    public BulkResult(final long id) {
+        this(200, id, null);
+    }
+
+    public BulkResult(final int status, final String error) {
+        this(status, null, error);
+    }
+
+    private BulkResult(final int status, final Long id, final String error) {
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+
+    @JsonGetter(LINE)
+    public Integer getLine() {
+        return line;
+    }
+
+    public void setLine(final int line) {
+        this.line = line;
+    }
+
+    @JsonGetter(STATUS)
+    public int getStatus() {
+        return status;
+    }
+
+    @JsonGetter(ID)
+    public Long getId() {
+        return id;
+    }
+
+    @JsonGetter(ERROR)
+    public String getError() {
+        return error;
+    }
+}
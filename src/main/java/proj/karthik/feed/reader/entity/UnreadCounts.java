@@ -0,0 +1,31 @@
+package proj.karthik.feed.reader.entity;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+
+import java.util.Map;
+
+import static proj.karthik.feed.reader.Constants.FEEDS;
+import static proj.karthik.feed.reader.Constants.TOTAL;
+
+/**
+ * Entity class representing the number of unread articles of a user, per subscribed feed and in
+ * total.
+ */
+public class UnreadCounts {
+
+    private final Map<String, Long> feeds;
+
+    public UnreadCounts(final Map<String, Long> feeds) {
+        this.feeds = feeds;
+    }
+
+    @JsonGetter(TOTAL)
+    public long getTotal() {
+        return feeds.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @JsonGetter(FEEDS)
+    public Map<String, Long> getFeeds() {
+        return feeds;
+    }
+}
@@ -0,0 +1,23 @@
+package proj.karthik.feed.reader.entity;
+
+/**
+ * JSON views of the entity classes. Properties that are not tagged with a view are part of every
+ * view.
+ */
+public final class Views {
+
+    /**
+     * Lightweight view used for listings. Leaves out large properties like the article body.
+     */
+    public static class Headline {
+    }
+
+    /**
+     * Complete view.
+     */
+    public static class Full extends Headline {
+    }
+
+    private Views() {
+    }
+}
@@ -0,0 +1,87 @@
+package proj.karthik.feed.reader.sql;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Class of work that runs isolated from the others, on threads and pooled connections of its
+ * own, so that a burst of one class cannot hold up the others.
+ * <p>
+ * A thread runs in a lane while it runs a task wrapped by {@link #wrap(Runnable)} or passed to
+ * {@link #call(Callable)}.
+ * {@link SQLUtils} checks out connections from the pool of the lane of the calling thread, or
+ * from the default pool on threads that run in no lane.
+ */
+public enum Lane {
+    /** Latency sensitive reads, like timelines */
+    READ("read"),
+    /** Interactive writes, like adding users, subscriptions or single articles */
+    WRITE("write"),
+    /** Bulk uploads and background ingest */
+    BULK("bulk");
+
+    private static final ThreadLocal<Lane> CURRENT = new ThreadLocal<>();
+    private final String name;
+
+    Lane(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the lane of the calling thread.
+     *
+     * @return lane, null if the thread runs in no lane
+     */
+    public static Lane current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the task in this lane on the calling thread.
+     *
+     * @param task
+     * @param <T> Result type
+     * @return result of the task
+     * @throws Exception thrown by the task
+     */
+    public <T> T call(final Callable<T> task) throws Exception {
+        Lane previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Returns a task that runs the given one in this lane.
+     *
+     * @param task
+     * @return task
+     */
+    public Runnable wrap(final Runnable task) {
+        return () -> {
+            Lane previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private static void restore(final Lane previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
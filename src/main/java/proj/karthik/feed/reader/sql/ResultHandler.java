@@ -0,0 +1,19 @@
+package proj.karthik.feed.reader.sql;
+
+import java.io.IOException;
+
+/**
+ * Interface used to consume processed rows one at a time while a query result is streamed.
+ *
+ * @param <T> Processed result type
+ */
+public interface ResultHandler<T> {
+
+    /**
+     * Handles a single processed row.
+     *
+     * @param result
+     * @throws IOException
+     */
+    void handle(T result) throws IOException;
+}
@@ -1,36 +1,154 @@
 package proj.karthik.feed.reader.sql;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import proj.karthik.feed.reader.entity.User;
 import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
 
 /**
  * Utility class that holds various SQL related methods.
+ * <p>
+ * Every method checks out a connection from the pool and commits on its own, unless it is called
+ * from a {@link UnitOfWork}. Then it runs on the connection of the unit of work, which commits
+ * once at the end, so the unit never holds more than one pooled connection.
+ * <p>
+ * Connections come from the pool of the {@link Lane} the calling thread runs in, if that lane
+ * has one, and from the default pool otherwise.
+ * <p>
+ * Writes that break a constraint fail with the code the memory stores answer with: {@code 409}
+ * for a duplicate key or a row that is still referenced, {@code 404} for a reference to a row
+ * that does not exist. Other database errors fail with {@code 500}.
  */
 public class SQLUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(SQLUtils.class);
+    public static final int STREAM_FETCH_SIZE = 100;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 128;
+    // Unique index violated, referenced row still has children, referenced parent is missing.
+    private static final Map<String, Integer> CONSTRAINT_CODES = new HashMap<>();
+
+    static {
+        CONSTRAINT_CODES.put("23505", 409);
+        CONSTRAINT_CODES.put("23503", 409);
+        CONSTRAINT_CODES.put("23506", 404);
+    }
+
     private final DataSource dataSource;
+    private final Map<Lane, DataSource> laneDataSources = new EnumMap<>(Lane.class);
+    private final ThreadLocal<Transaction> unitOfWork = new ThreadLocal<>();
+    private volatile StatementCache statementCache =
+            new StatementCache(DEFAULT_STATEMENT_CACHE_SIZE);
 
     @Inject
     public SQLUtils(final DataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    /**
+     * Sets the number of prepared statements kept open per pooled connection from the
+     * application configuration. 0 prepares every statement afresh.
+     *
+     * @param appConfig
+     */
+    @Inject(optional = true)
+    public void configureStatementCache(@Named(Constants.APP_CONF) Properties appConfig) {
+        int size = Integer.parseInt(appConfig.getProperty(Constants.STATEMENT_CACHE_SIZE,
+                String.valueOf(DEFAULT_STATEMENT_CACHE_SIZE)).trim());
+        this.statementCache = new StatementCache(size);
+    }
+
+    /**
+     * Sets the pools of the read and bulk lanes. Writes, and threads that run in no lane, use
+     * the default pool.
+     *
+     * @param readDataSource
+     * @param bulkDataSource
+     */
+    @Inject(optional = true)
+    public void configureLanes(@Named(Constants.READ_DATA_SOURCE) DataSource readDataSource,
+            @Named(Constants.BULK_DATA_SOURCE) DataSource bulkDataSource) {
+        laneDataSources.put(Lane.READ, readDataSource);
+        laneDataSources.put(Lane.BULK, bulkDataSource);
+    }
+
+    /**
+     * Returns the hit rate of the prepared statement cache, and the connections in use and
+     * waited for in the default pool and the pools of the lanes.
+     *
+     * @return stats
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("statement_cache", statementCache.getStats());
+        Map<String, Object> pools = new LinkedHashMap<>();
+        addPoolStats(pools, "default", dataSource);
+        laneDataSources.forEach((lane, laneDataSource) ->
+                addPoolStats(pools, lane.getName(), laneDataSource));
+        stats.put("pools", pools);
+        return stats;
+    }
+
+    /**
+     * Runs the given {@link UnitOfWork} on a single connection and commits once it returns. If
+     * it throws, everything it did is rolled back. The connection is checked out by the first
+     * statement of the unit, and a unit of work started from another one joins it.
+     *
+     * @param work
+     * @param <T> Result type
+     * @return result of the work
+     */
+    public <T> T transaction(final UnitOfWork<T> work) {
+        if (unitOfWork.get() != null) {
+            return work.execute();
+        }
+        Transaction transaction = new Transaction();
+        unitOfWork.set(transaction);
+        try {
+            T result = work.execute();
+            if (transaction.connection != null) {
+                transaction.connection.commit();
+            }
+            return result;
+        } catch (SQLException e) {
+            rollback(transaction.connection);
+            throw new AppException(getCode(e), "Error committing unit of work", e);
+        } catch (RuntimeException e) {
+            if (transaction.connection != null) {
+                rollback(transaction.connection);
+            }
+            throw e;
+        } finally {
+            unitOfWork.remove();
+            if (transaction.connection != null) {
+                close(transaction.connection);
+            }
+        }
+    }
+
     /**
      * Executes the given {@link DDLStatement}
      *
@@ -38,66 +156,81 @@ public class SQLUtils {
      */
     public void ddl(final DDLStatement ddlStatement) {
         LOG.info("Executing DDL Statement");
-        Connection connection = getConnection();
+        Connection connection = checkout();
         Statement statement = null;
         try {
             statement = connection.createStatement();
             ddlStatement.execute(statement);
-            connection.commit();
+            commit(connection);
         } catch (SQLException e) {
             throw new AppException(500, "Error writing to database", e);
         } finally {
-            close(connection, statement);
+            close(statement);
+            release(connection);
         }
 
     }
 
     /**
-     * Performs a DML operation using the given {@link DMLStatement}
+     * Performs the DML operations using the given {@link DMLStatement}s. Statements are executed
+     * in order on the same connection and committed together.
      *
-     * @param dmlStatement
+     * @param dmlStatements
+     * @return number of rows changed by each statement
      */
-    public void dml(final DMLStatement dmlStatement) {
-        Connection connection = getConnection();
-        PreparedStatement preparedStatement = null;
+    public int[] dml(final DMLStatement... dmlStatements) {
+        Connection connection = checkout();
+        List<PreparedStatement> preparedStatements = new ArrayList<>(dmlStatements.length);
+        int[] updateCounts = new int[dmlStatements.length];
         try {
-            preparedStatement = dmlStatement.execute(connection);
-            int updateCount = preparedStatement.executeUpdate();
-            LOG.debug("DML statement resulted in {} changes", updateCount);
-            connection.commit();
+            for (int i = 0; i < dmlStatements.length; i++) {
+                PreparedStatement preparedStatement = dmlStatements[i].execute(connection);
+                preparedStatements.add(preparedStatement);
+                updateCounts[i] = preparedStatement.executeUpdate();
+                LOG.debug("DML statement resulted in {} changes", updateCounts[i]);
+            }
+            commit(connection);
+            return updateCounts;
         } catch (SQLException e) {
-            try {
-                connection.rollback();
-            } catch (SQLException e1) {
-                throw new AppException(500, "Error rolling back sql operations", e1);
+            if (!inUnitOfWork(connection)) {
+                rollback(connection);
             }
-            throw new AppException(500, "Error executing DML statement", e);
+            throw new AppException(getCode(e), "Error executing DML statement", e);
         } finally {
-            close(connection, preparedStatement);
+            preparedStatements.forEach(this::close);
+            release(connection);
         }
     }
 
     /**
-     * Performs a DML operation as a batch using the given {@link DMLStatement}
+     * Performs the DML operations as batches using the given {@link DMLStatement}s. Batches are
+     * executed in order on the same connection and committed together.
      *
-     * @param dmlStatement
+     * @param dmlStatements
+     * @return number of rows changed by each batch
      */
-    public void batchDML(final DMLStatement dmlStatement) {
-        Connection connection = getConnection();
-        PreparedStatement preparedStatement = null;
+    public int[] batchDML(final DMLStatement... dmlStatements) {
+        Connection connection = checkout();
+        List<PreparedStatement> preparedStatements = new ArrayList<>(dmlStatements.length);
+        int[] updateCounts = new int[dmlStatements.length];
         try {
-            preparedStatement = dmlStatement.execute(connection);
-            preparedStatement.executeBatch();
-            connection.commit();
+            for (int i = 0; i < dmlStatements.length; i++) {
+                PreparedStatement preparedStatement = dmlStatements[i].execute(connection);
+                preparedStatements.add(preparedStatement);
+                for (int batchCount : preparedStatement.executeBatch()) {
+                    updateCounts[i] += Math.max(batchCount, 0);
+                }
+            }
+            commit(connection);
+            return updateCounts;
         } catch (SQLException e) {
-            try {
-                connection.rollback();
-            } catch (SQLException e1) {
-                throw new AppException(500, "Error rolling back sql operations", e1);
+            if (!inUnitOfWork(connection)) {
+                rollback(connection);
             }
-            throw new AppException(500, "Error executing DML statement", e);
+            throw new AppException(getCode(e), "Error executing DML statement", e);
         } finally {
-            close(connection, preparedStatement);
+            preparedStatements.forEach(this::close);
+            release(connection);
         }
     }
 
@@ -111,7 +244,7 @@ public class SQLUtils {
      * @return
      */
     public <T> List<T> query(final DMLStatement dmlStatement, ResultProcessor<T> processor) {
-        Connection connection = getConnection();
+        Connection connection = checkout();
         PreparedStatement preparedStatement = null;
         try {
             preparedStatement = dmlStatement.execute(connection);
@@ -124,7 +257,51 @@ public class SQLUtils {
         } catch (SQLException e) {
             throw new AppException(500, "Error querying database", e);
         } finally {
-            close(connection, preparedStatement);
+            close(preparedStatement);
+            release(connection);
+        }
+    }
+
+    /**
+     * Executes the given DML query statement, applies the {@link ResultProcessor} and hands each
+     * processed row to the {@link ResultHandler} as soon as it is read. The result set is read
+     * forward only with a bounded fetch size, so only a window of rows is held in memory no
+     * matter how large the result is. The statement must be prepared with the default
+     * {@link ResultSet#TYPE_FORWARD_ONLY} type.
+     *
+     * @param dmlStatement
+     * @param processor
+     * @param handler
+     * @param <T> Result type
+     * @return number of rows streamed
+     */
+    public <T> int stream(final DMLStatement dmlStatement, final ResultProcessor<T> processor,
+            final ResultHandler<T> handler) {
+        Connection connection = checkout();
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = dmlStatement.execute(connection);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            preparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+            resultSet = preparedStatement.executeQuery();
+            int count = 0;
+            while (resultSet.next()) {
+                handler.handle(processor.process(resultSet));
+                count++;
+            }
+            LOG.debug("Streamed {} rows", count);
+            return count;
+        } catch (SQLException e) {
+            throw new AppException(500, "Error querying database", e);
+        } catch (IOException e) {
+            throw new AppException(500, "Error streaming query results", e);
+        } finally {
+            if (resultSet != null) {
+                close(resultSet);
+            }
+            close(preparedStatement);
+            release(connection);
         }
     }
 
@@ -141,22 +318,22 @@ public class SQLUtils {
 
     /**
      * Creates a batch using the given {@link PreparedStatement} for the given list of user ids
-     * and feed.
+     * and feed id.
      *
      * @param batchStatement
      * @param userIds
-     * @param feed
+     * @param feedId
      * @return batchStatement
      */
     public PreparedStatement batch(PreparedStatement batchStatement, List<User> userIds,
-            String feed) {
+            Integer feedId) {
         userIds.stream()
                 .forEach(
                         userId -> {
                             try {
                                 batchStatement.setLong(1, userId.getId());
-                                if (feed != null) {
-                                    batchStatement.setString(2, feed);
+                                if (feedId != null) {
+                                    batchStatement.setInt(2, feedId);
                                 }
                                 batchStatement.addBatch();
                             } catch (SQLException e) {
@@ -223,12 +400,101 @@ public class SQLUtils {
 
     //---------------------------------------- Private Methods ----------------------------------//
 
+    /**
+     * Returns the code to fail with for the given error, looking through the errors chained to it
+     * as a failed batch reports the one that caused it that way.
+     */
+    private static int getCode(final SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            Integer code = CONSTRAINT_CODES.get(next.getSQLState());
+            if (code != null) {
+                return code;
+            }
+        }
+        return 500;
+    }
+
+    /**
+     * Returns the connection of the unit of work running on this thread, or one from the pool.
+     */
+    private Connection checkout() {
+        Transaction transaction = unitOfWork.get();
+        if (transaction == null) {
+            return getConnection();
+        }
+        if (transaction.connection == null) {
+            transaction.connection = getConnection();
+        }
+        return transaction.connection;
+    }
+
+    private boolean inUnitOfWork(final Connection connection) {
+        Transaction transaction = unitOfWork.get();
+        return transaction != null && transaction.connection == connection;
+    }
+
+    /**
+     * Returns the connection to the pool unless it belongs to the unit of work.
+     */
+    private void release(final Connection connection) {
+        if (!inUnitOfWork(connection)) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Commits unless the connection belongs to the unit of work, which commits once at its end.
+     */
+    private void commit(final Connection connection) throws SQLException {
+        if (!inUnitOfWork(connection)) {
+            connection.commit();
+        }
+    }
+
+    private void rollback(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new AppException(500, "Error rolling back sql operations", e);
+        }
+    }
+
     private Connection getConnection() {
         try {
             LOG.debug("Checking out connection from pool");
-            return this.dataSource.getConnection();
+            return statementCache.lease(getDataSource(Lane.current()).getConnection());
         } catch (SQLException e) {
             throw new AppException(500, "Error getting connection from the pool", e);
         }
     }
+
+    private static void addPoolStats(final Map<String, Object> pools, final String name,
+            final DataSource pooledDataSource) {
+        if (!(pooledDataSource instanceof HikariDataSource)) {
+            return;
+        }
+        HikariPoolMXBean pool = ((HikariDataSource) pooledDataSource).getHikariPoolMXBean();
+        if (pool != null) {
+            Map<String, Object> poolStats = new LinkedHashMap<>();
+            poolStats.put("active", pool.getActiveConnections());
+            poolStats.put("idle", pool.getIdleConnections());
+            poolStats.put("waiting", pool.getThreadsAwaitingConnection());
+            pools.put(name, poolStats);
+        }
+    }
+
+    private DataSource getDataSource(final Lane lane) {
+        DataSource laneDataSource = lane == null ? null : laneDataSources.get(lane);
+        return laneDataSource == null ? this.dataSource : laneDataSource;
+    }
+
+    //---------------------------------------- Private Class ------------------------------------//
+
+    /**
+     * The unit of work running on a thread, with its connection once the first statement
+     * checked it out.
+     */
+    private static class Transaction {
+        private Connection connection;
+    }
 }
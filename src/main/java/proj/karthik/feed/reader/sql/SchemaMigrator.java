@@ -0,0 +1,246 @@
+package proj.karthik.feed.reader.sql;
+
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.AppException;
+
+/**
+ * Brings the database schema up to date with numbered migrations, applied once each and in
+ * order.
+ * <p>
+ * Stores still create their tables when they start. Changes to the schema after that, such as
+ * indexes, are migrations in {@code migration_sql.properties}: one statement each, named
+ * {@code V<version>_<DESCRIPTION>} with versions counting up from 1. The SCHEMA_VERSION table
+ * records every migration applied, and at startup those above the recorded version are applied
+ * in order, each followed by its record. The database commits schema changes as they run, so a
+ * migration is not atomic with its record: one interrupted in between runs again at the next
+ * startup, and every migration must be safe to repeat ({@code if not exists}, {@code if exists}).
+ * A database whose version is newer than the migrations this build knows of is refused rather
+ * than run against a schema it does not know.
+ * <p>
+ * The database refuses to drop a column that a constraint or an index covers, and constraints
+ * created without a name have a generated name that differs between databases. Before a
+ * migration that drops a column, the constraints on the column are dropped along with the
+ * foreign keys backed by one of its indexes, and then the indexes left on it. Migrations after
+ * it add back the keys that are to stay.
+ */
+public class SchemaMigrator {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaMigrator.class);
+    private static final String SCHEMA_SQL_PROPERTIES = "/schema_sql.properties";
+    private static final String MIGRATION_SQL_PROPERTIES = "/migration_sql.properties";
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)_(\\w+)");
+    private static final Pattern DROP_COLUMN = Pattern.compile(
+            "alter table (\\w+) drop column if exists (\\w+);?", Pattern.CASE_INSENSITIVE);
+    private static final String REFERENTIAL = "REFERENTIAL";
+    private final SQLUtils sqlUtils;
+    private final StatementRegistry schemaSqlStatements;
+    private final SortedMap<Integer, Migration> migrations;
+
+    @Inject
+    public SchemaMigrator(SQLUtils sqlUtils) {
+        this(sqlUtils, StatementRegistry.load(MIGRATION_SQL_PROPERTIES));
+    }
+
+    /**
+     * @param sqlUtils
+     * @param migrationStatements migrations, named {@code V<version>_<DESCRIPTION>}
+     */
+    SchemaMigrator(final SQLUtils sqlUtils, final StatementRegistry migrationStatements) {
+        this.sqlUtils = sqlUtils;
+        this.schemaSqlStatements = StatementRegistry.load(SCHEMA_SQL_PROPERTIES);
+        this.migrations = Collections.unmodifiableSortedMap(
+                toMigrations(migrationStatements));
+    }
+
+    /**
+     * Applies the migrations the database has not seen yet.
+     *
+     * @return number of migrations applied
+     */
+    public int migrate() {
+        // create table IF NOT EXISTS SCHEMA_VERSION(version int PRIMARY KEY,
+        // description varchar, applied_on timestamp, duration_ms bigint);
+        sqlUtils.ddl(statement -> statement.execute(
+                schemaSqlStatements.get("CREATE_TBL_SCHEMA_VERSION")));
+        int version = getVersion();
+        int latest = getLatestVersion();
+        if (version > latest) {
+            throw new AppException(500, "Database schema version %s is newer than version %s " +
+                    "known to this build", String.valueOf(version), String.valueOf(latest));
+        }
+        Map<Integer, Migration> pending = migrations.tailMap(version + 1);
+        for (Migration migration : pending.values()) {
+            LOG.info("Migrating schema to version {}: {}", migration.version,
+                    migration.description);
+            long start = System.nanoTime();
+            Matcher dropColumn = DROP_COLUMN.matcher(migration.sql);
+            if (dropColumn.matches()) {
+                dropColumnKeys(dropColumn.group(1).toUpperCase(),
+                        dropColumn.group(2).toUpperCase());
+            }
+            sqlUtils.ddl(statement -> statement.execute(migration.sql));
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+            sqlUtils.dml(connection -> {
+                // insert into SCHEMA_VERSION(version, description, applied_on,
+                // duration_ms) values(?, ?, CURRENT_TIMESTAMP(), ?);
+                PreparedStatement insertVersion = connection.prepareStatement(
+                        schemaSqlStatements.get("INSERT_SCHEMA_VERSION"));
+                insertVersion.setInt(1, migration.version);
+                insertVersion.setString(2, migration.description);
+                insertVersion.setLong(3, durationMillis);
+                return insertVersion;
+            });
+        }
+        LOG.info("Database schema is at version {}, {} migrations applied", latest,
+                pending.size());
+        return pending.size();
+    }
+
+    /**
+     * Returns the version of the database schema, 0 if no migration was applied.
+     *
+     * @return version
+     */
+    public int getVersion() {
+        // select coalesce(max(version), 0) from SCHEMA_VERSION;
+        return sqlUtils.query(connection -> connection.prepareStatement(
+                schemaSqlStatements.get("SELECT_SCHEMA_VERSION")),
+                resultSet -> resultSet.getInt(1)).get(0);
+    }
+
+    /**
+     * Returns the version the migrations bring the schema to.
+     *
+     * @return latest version
+     */
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.lastKey();
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Drops the constraints and indexes that keep the column of the table from being dropped.
+     * Foreign keys go first, a primary key dropped before them hands its index over to them.
+     */
+    private void dropColumnKeys(final String table, final String column) {
+        List<Set<String>> columnIndexes = getIndexes(table).values().stream()
+                .filter(columns -> columns.contains(column))
+                .collect(Collectors.toList());
+        // select constraint_name, constraint_type, column_list
+        // from INFORMATION_SCHEMA.CONSTRAINTS where table_name = ? order by ...;
+        List<String> constraints = sqlUtils.query(connection -> {
+            PreparedStatement selectConstraints = connection.prepareStatement(
+                    schemaSqlStatements.get("SELECT_TABLE_CONSTRAINTS"));
+            selectConstraints.setString(1, table);
+            return selectConstraints;
+        }, resultSet -> {
+            Set<String> columns = new HashSet<>(Arrays.asList(resultSet.getString(3)
+                    .split(",")));
+            boolean covered = columns.contains(column)
+                    || (REFERENTIAL.equals(resultSet.getString(2)) && columnIndexes.stream()
+                            .anyMatch(index -> index.containsAll(columns)));
+            return covered ? resultSet.getString(1) : null;
+        }).stream().filter(Objects::nonNull).collect(Collectors.toList());
+        sqlUtils.ddl(statement -> {
+            for (String constraint : constraints) {
+                LOG.info("Dropping constraint {} on {}.{}", constraint, table, column);
+                statement.execute(String.format(schemaSqlStatements.get("DROP_CONSTRAINT"),
+                        table, constraint));
+            }
+        });
+        List<String> indexes = getIndexes(table).entrySet().stream()
+                .filter(index -> index.getValue().contains(column))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        sqlUtils.ddl(statement -> {
+            for (String index : indexes) {
+                LOG.info("Dropping index {} on {}.{}", index, table, column);
+                statement.execute(String.format(schemaSqlStatements.get("DROP_INDEX"), index));
+            }
+        });
+    }
+
+    /**
+     * Returns the columns of every index of the table by index name.
+     */
+    private Map<String, Set<String>> getIndexes(final String table) {
+        Map<String, Set<String>> indexes = new HashMap<>();
+        // select index_name, column_name from INFORMATION_SCHEMA.INDEXES where table_name = ?;
+        sqlUtils.query(connection -> {
+            PreparedStatement selectIndexes = connection.prepareStatement(
+                    schemaSqlStatements.get("SELECT_TABLE_INDEXES"));
+            selectIndexes.setString(1, table);
+            return selectIndexes;
+        }, resultSet -> new AbstractMap.SimpleEntry<>(resultSet.getString(1),
+                resultSet.getString(2)))
+                .forEach(index -> indexes.computeIfAbsent(index.getKey(),
+                        name -> new HashSet<>()).add(index.getValue()));
+        return indexes;
+    }
+
+    /**
+     * Orders the migrations by version, checking that versions count up from 1 without gaps.
+     */
+    private static SortedMap<Integer, Migration> toMigrations(
+            final StatementRegistry migrationStatements) {
+        SortedMap<Integer, Migration> ordered = new TreeMap<>();
+        for (String name : migrationStatements.getNames()) {
+            Matcher matcher = MIGRATION_NAME.matcher(name);
+            if (!matcher.matches()) {
+                throw new AppException(500, "Migration %s is not named V<version>_<DESCRIPTION>",
+                        name);
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            Migration migration = new Migration(version, matcher.group(2),
+                    migrationStatements.get(name));
+            Migration clash = ordered.put(version, migration);
+            if (clash != null) {
+                throw new AppException(500, "Migrations %s and %s have the same version",
+                        clash.description, migration.description);
+            }
+        }
+        int expected = 1;
+        for (int version : ordered.keySet()) {
+            if (version != expected) {
+                throw new AppException(500, "Migration version %s is missing",
+                        String.valueOf(expected));
+            }
+            expected++;
+        }
+        return ordered;
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String sql;
+
+        private Migration(final int version, final String description, final String sql) {
+            this.version = version;
+            this.description = description;
+            this.sql = sql;
+        }
+    }
+}
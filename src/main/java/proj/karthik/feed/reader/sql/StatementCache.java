@@ -0,0 +1,291 @@
+package proj.karthik.feed.reader.sql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the prepared statements of every pooled connection open across checkouts, so a
+ * statement is parsed and planned once per connection and later requests only bind and execute
+ * it.
+ * <p>
+ * A checked out connection is leased: preparing a statement on the lease returns the cached
+ * statement of the underlying connection, and closing such a statement leaves it open. When the
+ * lease is closed its statements are cleared and handed back to the cache. A statement that is
+ * prepared again while the first one is still in use is prepared afresh and not cached.
+ * <p>
+ * Every connection keeps at most the configured number of statements and evicts the least
+ * recently used one beyond that.
+ */
+class StatementCache {
+    private static final Logger LOG = LoggerFactory.getLogger(StatementCache.class);
+    private final int capacity;
+    private final Map<Connection, Statements> byConnection = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param capacity statements kept per connection, 0 turns the cache off
+     */
+    StatementCache(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Returns a lease of the given pooled connection whose prepared statements come from the
+     * cache. Closing the lease closes the connection.
+     *
+     * @param connection
+     * @return lease, or the connection itself if the cache is off
+     */
+    Connection lease(final Connection connection) {
+        if (capacity == 0) {
+            return connection;
+        }
+        Connection physical = unwrap(connection);
+        Statements statements = byConnection.get(physical);
+        if (statements == null) {
+            // A connection the pool opened since, the ones it closed take their statements
+            // with them.
+            byConnection.keySet().removeIf(StatementCache::isClosed);
+            statements = new Statements();
+            byConnection.put(physical, statements);
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new Lease(connection, physical, statements));
+    }
+
+    /**
+     * Returns the hit and miss counts, and how many statements were prepared without the cache
+     * or evicted from it.
+     *
+     * @return stats
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        stats.put("capacity", capacity);
+        stats.put("connections", byConnection.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hit_rate", hitCount + missCount == 0 ? 0.0
+                : (double) hitCount / (hitCount + missCount));
+        stats.put("bypassed", bypassed.sum());
+        stats.put("evicted", evicted.sum());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Returns the connection the pool wraps. Statements prepared on the pooled connection are
+     * closed by the pool whenever the connection is returned.
+     */
+    private static Connection unwrap(final Connection connection) {
+        try {
+            if (connection.isWrapperFor(Connection.class)) {
+                return connection.unwrap(Connection.class);
+            }
+        } catch (SQLException e) {
+            LOG.debug("Caching statements of the pooled connection", e);
+        }
+        return connection;
+    }
+
+    private static boolean isClosed(final Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(final PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LOG.debug("Error closing cached statement", e);
+        }
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Identifies a statement by its SQL and result set type and concurrency.
+     */
+    private static class Key {
+        private final String sql;
+        private final int type;
+        private final int concurrency;
+
+        private Key(final String sql, final int type, final int concurrency) {
+            this.sql = sql;
+            this.type = type;
+            this.concurrency = concurrency;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return type == key.type && concurrency == key.concurrency && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return (sql.hashCode() * 31 + type) * 31 + concurrency;
+        }
+    }
+
+    /**
+     * A statement of the cache and the view of it handed out, whose close leaves it open.
+     */
+    private static class Cached {
+        private final PreparedStatement statement;
+        private final PreparedStatement view;
+        private boolean inUse;
+
+        private Cached(final PreparedStatement statement) {
+            this.statement = statement;
+            this.view = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                return null;
+                            case "isClosed":
+                                return false;
+                            default:
+                                return invoke(statement, method, args);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * The statements of one connection, least recently used first. Only the thread that has
+     * the connection checked out touches them.
+     */
+    private class Statements extends LinkedHashMap<Key, Cached> {
+
+        private Statements() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Cached> eldest) {
+            if (size() <= capacity || eldest.getValue().inUse) {
+                return false;
+            }
+            closeQuietly(eldest.getValue().statement);
+            evicted.increment();
+            return true;
+        }
+    }
+
+    /**
+     * A checked out connection that prepares statements through the cache.
+     */
+    private class Lease implements InvocationHandler {
+        private final Connection connection;
+        private final Connection physical;
+        private final Statements statements;
+        private final List<Map.Entry<Key, Cached>> leased = new ArrayList<>();
+
+        private Lease(final Connection connection, final Connection physical,
+                final Statements statements) {
+            this.connection = connection;
+            this.physical = physical;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+                throws Throwable {
+            if ("prepareStatement".equals(method.getName()) && args[0] instanceof String) {
+                if (args.length == 1) {
+                    return prepare((String) args[0], ResultSet.TYPE_FORWARD_ONLY,
+                            ResultSet.CONCUR_READ_ONLY);
+                }
+                if (args.length == 3) {
+                    return prepare((String) args[0], (Integer) args[1], (Integer) args[2]);
+                }
+            } else if ("close".equals(method.getName())) {
+                release();
+            }
+            return StatementCache.invoke(connection, method, args);
+        }
+
+        private PreparedStatement prepare(final String sql, final int type,
+                final int concurrency) throws SQLException {
+            Key key = new Key(sql, type, concurrency);
+            Cached cached = statements.get(key);
+            if (cached != null && cached.inUse) {
+                bypassed.increment();
+                return connection.prepareStatement(sql, type, concurrency);
+            }
+            if (cached != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                cached = new Cached(physical.prepareStatement(sql, type, concurrency));
+                statements.put(key, cached);
+            }
+            cached.inUse = true;
+            leased.add(new AbstractMap.SimpleImmutableEntry<>(key, cached));
+            return cached.view;
+        }
+
+        /**
+         * Hands the statements of the lease back to the cache. One that cannot be cleared is
+         * closed and dropped.
+         */
+        private void release() {
+            for (Map.Entry<Key, Cached> entry : leased) {
+                Cached cached = entry.getValue();
+                cached.inUse = false;
+                try {
+                    ResultSet resultSet = cached.statement.getResultSet();
+                    if (resultSet != null) {
+                        resultSet.close();
+                    }
+                    cached.statement.clearParameters();
+                    cached.statement.clearBatch();
+                } catch (SQLException e) {
+                    statements.remove(entry.getKey());
+                    closeQuietly(cached.statement);
+                }
+            }
+            leased.clear();
+        }
+    }
+}
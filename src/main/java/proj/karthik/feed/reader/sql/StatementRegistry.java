@@ -0,0 +1,127 @@
+package proj.karthik.feed.reader.sql;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import proj.karthik.feed.reader.AppException;
+
+/**
+ * The SQL statements of a store, loaded from a properties file on the classpath. Every statement
+ * is checked when it is loaded, so a malformed one stops the application from starting instead
+ * of failing the first request that runs it. Statements are kept in an immutable map, looking
+ * one up does not synchronize like {@link Properties} does.
+ */
+public class StatementRegistry {
+    private final String source;
+    private final Map<String, String> statements;
+
+    /**
+     * @param source where the statements came from, used in error messages
+     * @param statements name and SQL of each statement
+     */
+    public StatementRegistry(final String source, final Properties statements) {
+        this.source = source;
+        Map<String, String> validated = new HashMap<>();
+        for (String name : statements.stringPropertyNames()) {
+            String sql = statements.getProperty(name).trim();
+            validate(name, sql);
+            validated.put(name, sql);
+        }
+        this.statements = Collections.unmodifiableMap(validated);
+    }
+
+    /**
+     * Loads and validates the statements of the given properties file on the classpath.
+     *
+     * @param resourceFile
+     * @return registry
+     */
+    public static StatementRegistry load(final String resourceFile) {
+        URL resource = StatementRegistry.class.getResource(resourceFile);
+        if (resource == null) {
+            throw new AppException(500, "Sql statements %s not found", resourceFile);
+        }
+        Properties statements = new Properties();
+        try (InputStream inStream = resource.openStream()) {
+            statements.load(inStream);
+        } catch (IOException e) {
+            throw new AppException(500, "Error loading sql statements from %s", e,
+                    resourceFile);
+        }
+        return new StatementRegistry(resourceFile, statements);
+    }
+
+    /**
+     * Returns the SQL of the statement with the given name.
+     *
+     * @param name
+     * @return sql
+     */
+    public String get(final String name) {
+        String sql = statements.get(name);
+        if (sql == null) {
+            throw new AppException(500, "Unknown sql statement %s in %s", name, source);
+        }
+        return sql;
+    }
+
+    /**
+     * Returns the names of the statements.
+     *
+     * @return names
+     */
+    public Set<String> getNames() {
+        return statements.keySet();
+    }
+
+    /**
+     * Returns the number of statements.
+     *
+     * @return size
+     */
+    public int size() {
+        return statements.size();
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Checks that the statement is a single statement with balanced quotes and parentheses.
+     */
+    private void validate(final String name, final String sql) {
+        if (StringUtils.isBlank(sql)) {
+            throw new AppException(500, "Sql statement %s in %s is empty", name, source);
+        }
+        char quote = 0;
+        int depth = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth < 0) {
+                break;
+            } else if (c == ';' && !sql.substring(i + 1).trim().isEmpty()) {
+                throw new AppException(500, "Sql statement %s in %s holds more than one " +
+                        "statement", name, source);
+            }
+        }
+        if (quote != 0 || depth != 0) {
+            throw new AppException(500, "Sql statement %s in %s has unbalanced quotes or " +
+                    "parentheses", name, source);
+        }
+    }
+}
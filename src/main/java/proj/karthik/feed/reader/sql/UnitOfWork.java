@@ -0,0 +1,19 @@
+package proj.karthik.feed.reader.sql;
+
+/**
+ * Interface implemented to run several SQL operations as one transaction using
+ * {@link SQLUtils#transaction(UnitOfWork)}.
+ *
+ * @param <T> Result type
+ */
+@FunctionalInterface
+public interface UnitOfWork<T> {
+
+    /**
+     * Runs the operations. Every {@link SQLUtils} call made from here runs on the connection of
+     * the unit of work and is committed with it.
+     *
+     * @return result
+     */
+    T execute();
+}
@@ -0,0 +1,100 @@
+package proj.karthik.feed.reader.store;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.entity.Article;
+
+/**
+ * Opaque keyset cursor over an article timeline. It captures the (created_on, id) position of
+ * the last article returned so that the next page resumes right after it instead of skipping
+ * over an offset.
+ */
+public class ArticleCursor {
+    private static final Pattern PATTERN_SEPARATOR = Pattern.compile(":");
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    /** Position before the newest possible article. Used when a range has no upper bound. */
+    public static final ArticleCursor NEWEST = new ArticleCursor(
+            Timestamp.valueOf("9999-12-31 23:59:59"), Long.MAX_VALUE);
+    /** Position of the oldest possible article. Used when a range has no lower bound. */
+    public static final ArticleCursor OLDEST = new ArticleCursor(new Timestamp(0), Long.MIN_VALUE);
+
+    /** Orders positions the way timelines are read, newest first. */
+    public static final Comparator<ArticleCursor> NEWEST_FIRST = Comparator
+            .comparing(ArticleCursor::getCreatedOn)
+            .thenComparingLong(ArticleCursor::getId)
+            .reversed();
+
+    private final Timestamp createdOn;
+    private final long id;
+
+    public ArticleCursor(final Timestamp createdOn, final long id) {
+        this.createdOn = createdOn;
+        this.id = id;
+    }
+
+    /**
+     * Returns the cursor positioned at the given {@link Article}.
+     *
+     * @param article
+     * @return cursor
+     */
+    public static ArticleCursor of(final Article article) {
+        return new ArticleCursor(article.getCreatedOn(), article.getId());
+    }
+
+    /**
+     * Decodes the given cursor or returns the default one if the cursor is null.
+     *
+     * @param cursor
+     * @param defaultCursor
+     * @return articleCursor
+     */
+    public static ArticleCursor decode(final String cursor, final ArticleCursor defaultCursor) {
+        return cursor == null ? defaultCursor : decode(cursor);
+    }
+
+    /**
+     * Decodes a cursor previously produced by {@link #encode()}.
+     *
+     * @param cursor
+     * @return articleCursor
+     */
+    public static ArticleCursor decode(final String cursor) {
+        try {
+            String decoded = new String(DECODER.decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = PATTERN_SEPARATOR.split(decoded);
+            if (parts.length != 3) {
+                throw new AppException(400, "Invalid cursor: %s", cursor);
+            }
+            Timestamp createdOn = new Timestamp(Long.parseLong(parts[0]));
+            createdOn.setNanos(Integer.parseInt(parts[1]));
+            return new ArticleCursor(createdOn, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new AppException(400, "Invalid cursor: %s", e, cursor);
+        }
+    }
+
+    /**
+     * Encodes the cursor as an url safe string.
+     *
+     * @return encodedCursor
+     */
+    public String encode() {
+        String raw = createdOn.getTime() + ":" + createdOn.getNanos() + ":" + id;
+        return ENCODER.encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Timestamp getCreatedOn() {
+        return createdOn;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -1,8 +1,12 @@
 package proj.karthik.feed.reader.store;
 
 import java.util.List;
+import java.util.Optional;
 
 import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.ArticleDelta;
+import proj.karthik.feed.reader.entity.BulkResult;
+import proj.karthik.feed.reader.sql.ResultHandler;
 
 /**
  * {@link StoreService} interface for handling article related operations.
@@ -16,18 +20,80 @@ public interface ArticleStore extends StoreService {
     void add(Article article, String feed);
 
     /**
-     * Get {@link Article}s for the given user from the subscribed feeds.
+     * Adds the given {@link Article}s, each to the feed it names, in a single transaction.
+     * Articles that cannot be added are reported instead of failing the others.
      *
-     * @param userName
-     * @return articles
+     * @param articles
+     * @return results one per article, in the same order
      */
-    List<Article> getArticles(String userName);
+    List<BulkResult> add(List<Article> articles);
 
     /**
-     * Get {@link Article}s for the given user id from the subscribed feeds.
+     * Returns the cursor pointing at the last {@link Article} of the page of the given size that
+     * starts after the given cursor, or null if that page is the last one.
      *
      * @param userId
+     * @param limit maximum number of articles in the page
+     * @param after cursor returned with the previous page or null for the first page
+     * @return nextCursor
+     */
+    String getNextCursor(long userId, int limit, String after);
+
+    /**
+     * Streams the {@link Article}s of the given user id that fall strictly after the
+     * {@code after} cursor and up to and including the {@code until} cursor to the handler,
+     * newest first. Either cursor can be null to leave that end of the range open. Headlines
+     * carry everything but the body, which is then not read at all.
+     *
+     * @param userId
+     * @param after
+     * @param until
+     * @param headlines true to stream headlines instead of complete articles
+     * @param handler
+     * @return number of articles streamed
+     */
+    int streamArticles(long userId, String after, String until, boolean headlines,
+            ResultHandler<Article> handler);
+
+    /**
+     * Returns the {@link Article}s that were added to the feeds of the given user id since the
+     * sync that returned the {@code since} token, newest first, along with the token for the
+     * next sync. An empty token returns the most recent articles of every feed.
+     *
+     * @param userId
+     * @param since token returned by the previous sync or empty for the first sync
+     * @param limit maximum number of articles per feed
+     * @return delta
+     */
+    ArticleDelta getArticlesSince(long userId, String since, int limit);
+
+    /**
+     * Get the {@link Article} with the given id.
+     *
+     * @param articleId
+     * @return article or empty if there is no such article
+     */
+    Optional<Article> getArticle(long articleId);
+
+    /**
+     * Searches the articles of the feeds the given user id is subscribed to. Returns the
+     * articles that contain every word of the query, best match first.
+     *
+     * @param userId
+     * @param query
+     * @param offset number of matches to skip
+     * @param limit
+     * @param headlines if true, article bodies are left out
      * @return articles
      */
-    List<Article> getArticles(long userId);
+    List<Article> search(long userId, String query, int offset, int limit, boolean headlines);
+
+    /**
+     * Returns a version of the timeline of the given user id. The version changes whenever an
+     * article is added to one of the user's feeds or the user's subscriptions change.
+     *
+     * @param userId
+     * @return version
+     */
+    String getTimelineVersion(long userId);
 }
@@ -0,0 +1,276 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.BulkResult;
+import proj.karthik.feed.reader.sql.Lane;
+
+/**
+ * Write behind queue for new articles. Articles are accepted into a bounded queue and a single
+ * writer thread adds them to the {@link ArticleStore} in groups, one transaction per group.
+ * <p>
+ * A group is committed once it holds the configured number of articles or the oldest article in
+ * it has waited for the configured delay, whichever comes first. Under load the groups fill up
+ * straight from the queue, when it is quiet an article waits at most the delay.
+ * <p>
+ * Accepted articles live only in memory until their group commits, so a crash loses them.
+ * Callers that cannot afford that wait for the commit.
+ */
+public class ArticleWriteQueue implements StoreService {
+    private static final Logger LOG = LoggerFactory.getLogger(ArticleWriteQueue.class);
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 5;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private final ArticleStore articleStore;
+    private final boolean enabled;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingArticle> queue;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram commitMillis = new Histogram();
+    private final Histogram queueMillis = new Histogram();
+    private volatile boolean running;
+    private Thread writer;
+
+    @Inject
+    public ArticleWriteQueue(@Named(Constants.APP_CONF) Properties appConfig,
+            ArticleStore articleStore) {
+        this.articleStore = articleStore;
+        this.enabled = Boolean.parseBoolean(
+                appConfig.getProperty(Constants.ASYNC_INGEST, "false").trim());
+        this.capacity = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.ASYNC_QUEUE_CAPACITY, String.valueOf(DEFAULT_CAPACITY)).trim()));
+        this.batchSize = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.ASYNC_BATCH_SIZE, String.valueOf(DEFAULT_BATCH_SIZE)).trim()));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(appConfig.getProperty(
+                Constants.ASYNC_MAX_DELAY_MS, String.valueOf(DEFAULT_MAX_DELAY_MILLIS)).trim()));
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public synchronized void init() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        // Group commits are background ingest, they use the connections of the bulk lane.
+        writer = new Thread(Lane.BULK.wrap(this::drain), "article-writer");
+        writer.setDaemon(true);
+        writer.start();
+        LOG.info("Article write queue started with capacity {} and batches of {}", capacity,
+                batchSize);
+    }
+
+    /**
+     * Stops accepting articles and waits for the writer to commit the ones already accepted.
+     */
+    @Override
+    public void shutdown() {
+        Thread stopped;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            stopped = writer;
+        }
+        try {
+            stopped.join(TimeUnit.MINUTES.toMillis(1));
+            if (stopped.isAlive()) {
+                LOG.warn("Article write queue did not finish with {} articles left",
+                        queue.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns true if new articles go through the queue.
+     *
+     * @return isEnabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Accepts an article for the feed it names. The article is checked up front, whether its
+     * feed exists is only known once its group commits.
+     *
+     * @param article
+     * @return result completed once the group of the article committed
+     */
+    public CompletableFuture<BulkResult> submit(final Article article) {
+        checkForNull("Feed", article.getFeed());
+        checkForNull("Article title", article.getTitle());
+        checkForNull("Article body", article.getBody());
+        PendingArticle pending = new PendingArticle(article);
+        // Checked together with the offer, so that nothing is accepted after the writer was
+        // told to stop.
+        synchronized (this) {
+            if (!running) {
+                throw new AppException(503, "Article write queue is not running");
+            }
+            if (!queue.offer(pending)) {
+                rejected.incrementAndGet();
+                throw new AppException(503, "Article write queue is full");
+            }
+        }
+        submitted.incrementAndGet();
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+        return pending.result;
+    }
+
+    /**
+     * Waits for the group of a submitted article to commit and returns the result of the
+     * article.
+     *
+     * @param result returned by {@link #submit(Article)}
+     * @return result
+     */
+    public BulkResult await(final CompletableFuture<BulkResult> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException(503, "Interrupted while waiting for the article to commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AppException) {
+                throw (AppException) e.getCause();
+            }
+            throw new AppException(500, "Error adding article", e.getCause());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("depth", queue.size());
+        stats.put("max_depth", maxDepth.get());
+        stats.put("capacity", capacity);
+        stats.put("submitted", submitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("committed", committed.get());
+        stats.put("failed", failed.get());
+        stats.put("batch_size", batchSizes.toMap());
+        stats.put("queue_millis", queueMillis.toMap());
+        stats.put("commit_millis", commitMillis.toMap());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Body of the writer thread. Runs until the queue is stopped and empty.
+     */
+    private void drain() {
+        List<PendingArticle> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingArticle first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedAt + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingArticle next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("Article writer interrupted, committing the accepted articles");
+                running = false;
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(final List<PendingArticle> batch) {
+        long start = System.nanoTime();
+        batch.forEach(pending -> queueMillis.record(
+                TimeUnit.NANOSECONDS.toMillis(start - pending.enqueuedAt)));
+        try {
+            List<BulkResult> results = articleStore.add(batch.stream()
+                    .map(pending -> pending.article)
+                    .collect(Collectors.toList()));
+            for (int i = 0; i < batch.size(); i++) {
+                BulkResult result = results.get(i);
+                if (result.getStatus() == 200) {
+                    committed.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+                batch.get(i).result.complete(result);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Error committing {} queued articles", batch.size(), e);
+            failed.addAndGet(batch.size());
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+        }
+        batchSizes.record(batch.size());
+        commitMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void checkForNull(final String field, final String value) {
+        if (StringUtils.isBlank(value)) {
+            throw new AppException(400, String.format("%s attribute cannot be empty", field));
+        }
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * An accepted article waiting for its group to commit.
+     */
+    private static class PendingArticle {
+        private final Article article;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<BulkResult> result = new CompletableFuture<>();
+
+        private PendingArticle(final Article article) {
+            this.article = article;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package proj.karthik.feed.reader.store;
+
+/**
+ * Location of a blob within the segment files of a {@link SegmentBlobStore}.
+ */
+public class BlobRef {
+    private final int segment;
+    private final long offset;
+    private final int length;
+
+    public BlobRef(final int segment, final long offset, final int length) {
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of the segment file holding the blob.
+     *
+     * @return segment
+     */
+    public int getSegment() {
+        return segment;
+    }
+
+    /**
+     * Returns the position of the blob's record within its segment.
+     *
+     * @return offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the length of the blob in bytes.
+     *
+     * @return length
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return segment + ":" + offset + ":" + length;
+    }
+}
@@ -1,35 +1,68 @@
 package proj.karthik.feed.reader.store;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.commons.lang3.StringUtils;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
 
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
 import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
 
 /**
  * DatabaseStoreService is an implementation of {@link StoreService} that uses database as the
  * backing store.
+ * <p>
+ * Operations are protected by a {@link StripedLock} keyed by the user or feed they work on, so
+ * only operations on the same key wait for each other. The number of stripes comes from
+ * {@value Constants#LOCK_STRIPES}, 0 turns the locks off and leaves consistency to the
+ * database.
  */
 public abstract class DatabaseStoreService implements StoreService {
+    public static final int DEFAULT_LOCK_STRIPES = 64;
+    // Duplicate key, lock timeout and H2's concurrent update.
+    private static final Set<String> WRITE_CONFLICT_STATES = new HashSet<>(
+            Arrays.asList("23505", "HYT00", "90131"));
+    private static final String SCHEMA_SQL_PROPERTIES = "/schema_sql.properties";
     protected final SQLUtils sqlUtils;
-    protected final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    protected final Lock readLock = readWriteLock.readLock();
-    protected final Lock writeLock = readWriteLock.writeLock();
+    protected StripedLock locks = createLocks(DEFAULT_LOCK_STRIPES);
 
     @Inject
     public DatabaseStoreService(SQLUtils sqlUtils) {
         this.sqlUtils = sqlUtils;
     }
 
+    /**
+     * Replaces the default locks with the configured number of stripes. Injected right after
+     * construction, before the store is shared with other threads.
+     *
+     * @param appConfig
+     */
+    @Inject(optional = true)
+    public void configureLocks(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.locks = createLocks(Integer.parseInt(appConfig.getProperty(
+                Constants.LOCK_STRIPES, String.valueOf(DEFAULT_LOCK_STRIPES)).trim()));
+    }
+
+    /**
+     * Returns true if the store relies on the database alone.
+     *
+     * @return isLockFree
+     */
+    public boolean isLockFree() {
+        return locks.isLockFree();
+    }
+
     @Override
     public void init() {
     }
@@ -39,14 +72,12 @@ public abstract class DatabaseStoreService implements StoreService {
     }
 
     //------------------------------- protected methods ---------------------------------------//
-    protected void loadStatements(String resourceFile, Properties properties) {
-        URL statements = DatabaseStoreService.class.getResource(resourceFile);
-        try (InputStream inStream = statements.openStream()) {
-            properties.load(inStream);
-        } catch (IOException e) {
-            throw new AppException(500, "Error loading sql statements from %s", e,
-                    resourceFile);
-        }
+    protected StatementRegistry loadStatements(String resourceFile) {
+        return StatementRegistry.load(resourceFile);
+    }
+
+    protected boolean isEnabled(final Properties appConfig, final String key) {
+        return Boolean.parseBoolean(appConfig.getProperty(key, "false").trim());
     }
 
     protected void checkForNull(final String field, final String value) {
@@ -55,21 +86,72 @@ public abstract class DatabaseStoreService implements StoreService {
         }
     }
 
-    protected <T> T read(ReadProtected<T> runnable) {
-        readLock.lock();
-        try {
-            return runnable.read();
-        } finally {
-            readLock.unlock();
-        }
+    /**
+     * Returns the locks for the given number of stripes. Stores that keep in memory state in step
+     * with the database override this to keep locking when the stripes are turned off.
+     *
+     * @param stripes
+     * @return locks
+     */
+    protected StripedLock createLocks(final int stripes) {
+        return new StripedLock(stripes);
     }
 
-    protected void write(WriteProtected writeProtected) {
-        writeLock.lock();
-        try {
-            writeProtected.write();
-        } finally {
-            writeLock.unlock();
+    /**
+     * Returns true if the given error was caused by a unique index violation or a row another
+     * transaction kept locked, which is how a write that lost a race shows up when the store
+     * locks are turned off. Such a write can simply be tried again.
+     *
+     * @param e
+     * @return isWriteConflict
+     */
+    protected boolean isWriteConflict(final AppException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException
+                    && WRITE_CONFLICT_STATES.contains(((SQLException) cause).getSQLState())) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Returns true if the given table has the given column. Stores use it at startup to find
+     * tables that still have the shape of an earlier release.
+     *
+     * @param table
+     * @param column
+     * @return hasColumn
+     */
+    protected boolean hasColumn(final String table, final String column) {
+        // select count(*) from INFORMATION_SCHEMA.COLUMNS
+        // where table_name = ? and column_name = ?;
+        return sqlUtils.query(connection -> {
+            PreparedStatement selectColumn = connection.prepareStatement(
+                    loadStatements(SCHEMA_SQL_PROPERTIES).get("SELECT_COLUMN_COUNT"));
+            selectColumn.setString(1, table);
+            selectColumn.setString(2, column);
+            return selectColumn;
+        }, resultSet -> resultSet.getInt(1)).get(0) > 0;
+    }
+
+    protected Map<String, Object> getLockStats() {
+        return locks.getStats();
+    }
+
+    protected <T> T read(Object key, ReadProtected<T> runnable) {
+        return locks.read(key, runnable);
+    }
+
+    protected <T> T read(Collection<?> keys, ReadProtected<T> runnable) {
+        return locks.read(keys, runnable);
+    }
+
+    protected void write(Object key, WriteProtected writeProtected) {
+        locks.write(key, writeProtected);
+    }
+
+    protected void write(Collection<?> keys, WriteProtected writeProtected) {
+        locks.write(keys, writeProtected);
     }
 }
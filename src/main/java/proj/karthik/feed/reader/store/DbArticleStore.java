@@ -5,15 +5,42 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.entity.Article;
-import proj.karthik.feed.reader.entity.User;
+import proj.karthik.feed.reader.entity.ArticleDelta;
+import proj.karthik.feed.reader.entity.BulkResult;
+import proj.karthik.feed.reader.sql.DMLStatement;
+import proj.karthik.feed.reader.sql.ResultHandler;
+import proj.karthik.feed.reader.sql.ResultProcessor;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
 
 /**
  * {@link ArticleStore} implementation that uses database as the backing store.
@@ -23,24 +50,84 @@ import proj.karthik.feed.reader.sql.SQLUtils;
 public class DbArticleStore extends DatabaseStoreService implements ArticleStore {
     private static final Logger LOG = LoggerFactory.getLogger(DbArticleStore.class);
     private static final String ARTICLE_SQL_PROPERTIES = "/article_sql.properties";
-    private final Properties articleSqlStatements = new Properties();
-    private final UserStore userStore;
+    private final StatementRegistry articleSqlStatements;
+    private static final String INBOX_PREFIX = "INBOX_";
+    private static final String FEED_PREFIX = "FEED_";
+    private static final String HEADLINE_PREFIX = "HEADLINE_";
+    private static final String FOR_USERID = "_FOR_USERID";
+    private static final int MAX_BULK_ATTEMPTS = 20;
+    private static final int MAX_BACKOFF_MILLIS = 64;
+    private final SubscriptionStore subscriptionStore;
+    private final TimelineEngine timelineEngine;
+    private final RecentArticleCache recentArticleCache;
+    private final SegmentBlobStore blobStore;
+    private final BodyCodec bodyCodec;
+    private final TimelineVersions timelineVersions;
+    private final SearchIndex searchIndex;
+    private final FeedDictionary feedDictionary;
+    private final AtomicLong bulkChunks = new AtomicLong();
+    private final AtomicLong bulkArticles = new AtomicLong();
+    private final Lock indexOrder = new ReentrantLock();
 
     @Inject
-    public DbArticleStore(SQLUtils sqlUtils, UserStore userStore) {
+    public DbArticleStore(SQLUtils sqlUtils, SubscriptionStore subscriptionStore,
+            TimelineEngine timelineEngine, RecentArticleCache recentArticleCache,
+            SegmentBlobStore blobStore, BodyCodec bodyCodec, TimelineVersions timelineVersions,
+            SearchIndex searchIndex, FeedDictionary feedDictionary) {
         super(sqlUtils);
-        this.userStore = userStore;
-        loadStatements(ARTICLE_SQL_PROPERTIES, articleSqlStatements);
+        this.subscriptionStore = subscriptionStore;
+        this.timelineEngine = timelineEngine;
+        this.recentArticleCache = recentArticleCache;
+        this.blobStore = blobStore;
+        this.bodyCodec = bodyCodec;
+        this.timelineVersions = timelineVersions;
+        this.searchIndex = searchIndex;
+        this.feedDictionary = feedDictionary;
+        articleSqlStatements = loadStatements(ARTICLE_SQL_PROPERTIES);
     }
 
     @Override
     public void init() {
+        // Releases before feeds had ids kept the name of the feed on every article.
+        boolean named = hasColumn("ARTICLE", "FEED_NAME");
         sqlUtils.ddl(statement -> {
             // create table IF NOT EXISTS ARTICLE(id bigint auto_increment PRIMARY KEY,
-            // title varchar(1024), created_on timestamp, body varchar, feed_name varchar,
-            // FOREIGN KEY (feed_name) REFERENCES public.feed(name));
-            statement.execute(articleSqlStatements.getProperty("CREATE_TBL_ARTICLE"));
+            // title varchar(1024), created_on timestamp, body varchar, feed_id int);
+            statement.execute(articleSqlStatements.get("CREATE_TBL_ARTICLE"));
+            // alter table ARTICLE add column if not exists body_segment int;
+            statement.execute(articleSqlStatements.get("ALTER_TBL_ARTICLE_BODY_SEGMENT"));
+            // alter table ARTICLE add column if not exists body_offset bigint;
+            statement.execute(articleSqlStatements.get("ALTER_TBL_ARTICLE_BODY_OFFSET"));
+            // alter table ARTICLE add column if not exists body_length int;
+            statement.execute(articleSqlStatements.get("ALTER_TBL_ARTICLE_BODY_LENGTH"));
+            // alter table ARTICLE add column if not exists body_data varbinary;
+            statement.execute(articleSqlStatements.get("ALTER_TBL_ARTICLE_BODY_DATA"));
+            // alter table ARTICLE add column if not exists feed_seq bigint;
+            statement.execute(articleSqlStatements.get("ALTER_TBL_ARTICLE_FEED_SEQ"));
+            // alter table ARTICLE add column if not exists feed_id int;
+            statement.execute(articleSqlStatements.get("ALTER_TBL_ARTICLE_FEED_ID"));
+            if (named) {
+                // Fills in the id of the feed of articles added before feeds had ids. A
+                // migration drops the name once every store has started.
+                statement.execute(articleSqlStatements.get("BACKFILL_ARTICLE_FEED_ID"));
+            }
+            // Numbers the articles that were added before feeds had sequence numbers, in the
+            // order they were added.
+            statement.execute(articleSqlStatements.get("BACKFILL_ARTICLE_FEED_SEQ"));
+            // create unique index if not exists IDX_ARTICLE_FEED_SEQ
+            // on ARTICLE(feed_id, feed_seq);
+            statement.execute(articleSqlStatements.get("CREATE_IDX_ARTICLE_FEED_SEQ"));
+            // The foreign key on feed_id is added by a migration once the timeline index it
+            // is backed by exists, an index of its own would only duplicate that one.
+            // Brings the newest sequence number kept on every feed in line with its articles.
+            statement.execute(articleSqlStatements.get("SYNC_FEED_LAST_SEQ"));
         });
+        if (recentArticleCache.isEnabled()) {
+            loadRecentArticles();
+        }
+        if (searchIndex.isEnabled()) {
+            indexArticles();
+        }
     }
 
     @Override
@@ -49,49 +136,721 @@ public class DbArticleStore extends DatabaseStoreService implements ArticleStore
         checkForNull("Article title", article.getTitle());
         checkForNull("Article body", article.getBody());
         LOG.info("Adding article: {} to feed: {}", article.getTitle(), feed);
-        write(() -> sqlUtils.dml(connection -> {
-            // Insert into ARTICLE values(default, ?, CURRENT_TIMESTAMP(), ?, ?);
-            PreparedStatement feedLookup = connection.prepareStatement(
-                    articleSqlStatements.getProperty("INSERT_ARTICLE"));
-            feedLookup.setString(1, article.getTitle());
-            feedLookup.setString(2, article.getBody());
-            feedLookup.setString(3, feed);
+        byte[] body = bodyCodec.encode(article.getBody());
+        // The body goes to the blob store first, so the row never references bytes that are not
+        // on disk. A body whose row fails to commit is simply never referenced.
+        BlobRef bodyRef = blobStore.isEnabled() ? blobStore.append(body) : null;
+        int feedId = feedDictionary.getId(feed);
+        DMLStatement nextFeedSeq = connection -> {
+            // update FEED set last_seq = last_seq + 1 where id = ?;
+            PreparedStatement nextSeq = connection.prepareStatement(
+                    articleSqlStatements.get("NEXT_FEED_SEQ"));
+            nextSeq.setInt(1, feedId);
+            return nextSeq;
+        };
+        DMLStatement insertArticle = connection -> {
+            PreparedStatement feedLookup;
+            // Every insert takes the sequence number just reserved on the feed row. The update
+            // locks the row until commit and the unique index catches anything it misses.
+            if (bodyRef == null && bodyCodec.isEncoded(body)) {
+                // Insert into ARTICLE(id, title, created_on, feed_id, body_data, feed_seq)
+                // values(default, ?, CURRENT_TIMESTAMP(), ?, ?, (select last_seq ...));
+                feedLookup = connection.prepareStatement(
+                        articleSqlStatements.get("INSERT_ARTICLE_BODY_DATA"));
+                feedLookup.setString(1, article.getTitle());
+                feedLookup.setInt(2, feedId);
+                feedLookup.setBytes(3, body);
+                feedLookup.setInt(4, feedId);
+            } else if (bodyRef == null) {
+                // Insert into ARTICLE(id, title, created_on, body, feed_id, feed_seq)
+                // values(default, ?, CURRENT_TIMESTAMP(), ?, ?, (select last_seq ...));
+                feedLookup = connection.prepareStatement(
+                        articleSqlStatements.get("INSERT_ARTICLE"));
+                feedLookup.setString(1, article.getTitle());
+                feedLookup.setString(2, article.getBody());
+                feedLookup.setInt(3, feedId);
+                feedLookup.setInt(4, feedId);
+            } else {
+                feedLookup = connection.prepareStatement(
+                        articleSqlStatements.get("INSERT_ARTICLE_BODY_REF"));
+                feedLookup.setString(1, article.getTitle());
+                feedLookup.setInt(2, feedId);
+                feedLookup.setInt(3, bodyRef.getSegment());
+                feedLookup.setLong(4, bodyRef.getOffset());
+                feedLookup.setInt(5, bodyRef.getLength());
+                feedLookup.setInt(6, feedId);
+            }
             return feedLookup;
-        }));
+        };
+        write(feed, () -> inIndexOrder(() -> timelineEngine.publish(feed, push -> {
+            Article added = sqlUtils.transaction(() -> {
+                sqlUtils.dml(nextFeedSeq, insertArticle);
+                if (push) {
+                    // Copies a reference to the article just inserted into the inbox of every
+                    // subscriber of the feed, in the same transaction as the insert. Subscribers
+                    // do not change while the feed publishes.
+                    LongStream.Builder subscribers = LongStream.builder();
+                    subscriptionStore.forEachSubscriber(feed, subscribers);
+                    sqlUtils.batchDML(connection -> {
+                        // insert into INBOX select ?, id, created_on, feed_id from ARTICLE
+                        // where id = IDENTITY();
+                        PreparedStatement fanOut = connection.prepareStatement(
+                                articleSqlStatements.get("FANOUT_ARTICLE"));
+                        for (long userId : subscribers.build().toArray()) {
+                            fanOut.setLong(1, userId);
+                            fanOut.addBatch();
+                        }
+                        return fanOut;
+                    });
+                }
+                if (!recentArticleCache.isEnabled() && !searchIndex.isEnabled()) {
+                    return null;
+                }
+                // Reads the row by the id generated on this connection, concurrent writers of
+                // the feed may have added newer articles.
+                return sqlUtils.query(connection -> connection.prepareStatement(
+                        articleSqlStatements.get("SELECT_INSERTED_ARTICLE")),
+                        this::getArticleResultProcessor).get(0);
+            });
+            if (added != null) {
+                if (recentArticleCache.isEnabled()) {
+                    recentArticleCache.add(feed, added);
+                }
+                if (searchIndex.isEnabled()) {
+                    searchIndex.add(added.getId(), feed, article.getTitle(), article.getBody());
+                }
+            }
+            timelineVersions.articleAdded(feed);
+        })));
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sequence numbers are reserved for the whole list up front, so the articles go in with a
+     * single batch per statement and one commit. If the commit fails, none of the articles are
+     * added. Without store locks a concurrent writer can reserve the same numbers, the unique
+     * index on the sequence numbers then fails one of the commits and that one is retried.
+     */
     @Override
-    public List<Article> getArticles(final String userName) {
-        checkForNull("Username", userName);
-        LOG.info("Getting articles for user: {}", userName);
-        return read(() -> sqlUtils.query(connection -> {
-            PreparedStatement selectArticleFromFeed = connection.prepareStatement(
-                    articleSqlStatements.getProperty("SELECT_ARTICLE_FOR_USERID"),
-                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            List<User> userIds = userStore.getId(userName);
-            return sqlUtils.batch(selectArticleFromFeed, userIds);
-        }, this::getArticleResultProcessor));
+    public List<BulkResult> add(final List<Article> articles) {
+        LOG.info("Adding {} articles in bulk", articles.size());
+        BulkResult[] results = new BulkResult[articles.size()];
+        List<PendingArticle> pending = new ArrayList<>(articles.size());
+        for (int i = 0; i < articles.size(); i++) {
+            Article article = articles.get(i);
+            try {
+                checkForNull("Feed", article.getFeed());
+                checkForNull("Article title", article.getTitle());
+                checkForNull("Article body", article.getBody());
+            } catch (AppException e) {
+                results[i] = new BulkResult(e.getCode(), e.getMessage());
+                continue;
+            }
+            byte[] body = bodyCodec.encode(article.getBody());
+            pending.add(new PendingArticle(i, article, body,
+                    blobStore.isEnabled() ? blobStore.append(body) : null));
+        }
+        if (!pending.isEmpty()) {
+            Set<String> feeds = pending.stream()
+                    .map(article -> article.article.getFeed())
+                    .collect(Collectors.toSet());
+            try {
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        write(feeds, () -> inIndexOrder(() -> addPending(pending, results)));
+                        break;
+                    } catch (AppException e) {
+                        if (!isLockFree() || attempt == MAX_BULK_ATTEMPTS
+                                || !isWriteConflict(e)) {
+                            throw e;
+                        }
+                        LOG.info("Sequence numbers taken by a concurrent writer, retrying");
+                        backOff(attempt);
+                    }
+                }
+            } catch (AppException e) {
+                for (PendingArticle article : pending) {
+                    results[article.index] = new BulkResult(e.getCode(), e.getMessage());
+                }
+            }
+        }
+        return Arrays.asList(results);
     }
 
     @Override
-    public List<Article> getArticles(final long userId) {
-        LOG.info("Getting articles for user with id: {}", userId);
-        return read(() -> sqlUtils.query(connection -> {
-            PreparedStatement selectArticleFromFeed = connection.prepareStatement(
-                    articleSqlStatements.getProperty("SELECT_ARTICLE_FOR_USERID"),
-                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            selectArticleFromFeed.setLong(1, userId);
-            return selectArticleFromFeed;
-        }, this::getArticleResultProcessor));
+    public String getNextCursor(final long userId, final int limit, final String after) {
+        if (limit <= 0) {
+            throw new AppException(400, "Limit must be a positive number");
+        }
+        ArticleCursor upper = ArticleCursor.decode(after, ArticleCursor.NEWEST);
+        LOG.info("Looking up page boundary for user with id: {} after: {}", userId, after);
+        Optional<List<Article>> cached = recentArticleCache.getTimeline(getFeeds(userId), upper,
+                ArticleCursor.OLDEST, limit + 1);
+        if (cached.isPresent()) {
+            List<Article> articles = cached.get();
+            return articles.size() <= limit ? null
+                    : ArticleCursor.of(articles.get(limit - 1)).encode();
+        }
+        List<String> pulledFeeds = getPulledFeeds(userId);
+        if (!pulledFeeds.isEmpty()) {
+            List<ArticleCursor> keys = read(userId, () -> mergeSources(userId, pulledFeeds, "",
+                    "SELECT_ARTICLE_KEYS", statement -> bindUpper(statement, upper, limit + 1),
+                    this::getCursorResultProcessor, Function.identity(), limit + 1));
+            return keys.size() <= limit ? null : keys.get(limit - 1).encode();
+        }
+        // Fetches the last article of the page and the one right after it. The page has a next
+        // page only when both exist.
+        List<ArticleCursor> boundary = read(userId, () -> sqlUtils.query(connection -> {
+            PreparedStatement selectBoundary = connection.prepareStatement(
+                    timelineStatement("SELECT_ARTICLE_BOUNDARY_FOR_USERID"));
+            selectBoundary.setLong(1, userId);
+            selectBoundary.setTimestamp(2, upper.getCreatedOn());
+            selectBoundary.setTimestamp(3, upper.getCreatedOn());
+            selectBoundary.setLong(4, upper.getId());
+            selectBoundary.setInt(5, limit - 1);
+            return selectBoundary;
+        }, this::getCursorResultProcessor));
+        return boundary.size() < 2 ? null : boundary.get(0).encode();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The store lock is intentionally not held while streaming. The range is pinned by the two
+     * cursors so concurrent inserts cannot shift it, and holding the lock for as long as a slow
+     * client takes to read the response would stall every writer.
+     */
+    @Override
+    public int streamArticles(final long userId, final String after, final String until,
+            final boolean headlines, final ResultHandler<Article> handler) {
+        ArticleCursor upper = ArticleCursor.decode(after, ArticleCursor.NEWEST);
+        ArticleCursor lower = ArticleCursor.decode(until, ArticleCursor.OLDEST);
+        LOG.info("Streaming articles for user with id: {} after: {} until: {}", userId, after,
+                until);
+        Optional<List<Article>> cached = recentArticleCache.getTimeline(getFeeds(userId), upper,
+                lower, Integer.MAX_VALUE);
+        if (cached.isPresent()) {
+            List<Article> articles = cached.get();
+            return handle(headlines ? articles.stream().map(this::toHeadline)
+                    .collect(Collectors.toList()) : articles, handler);
+        }
+        String prefix = headlines ? HEADLINE_PREFIX : "";
+        ResultProcessor<Article> processor = headlines ? this::getHeadlineResultProcessor
+                : this::getArticleResultProcessor;
+        List<String> pulledFeeds = getPulledFeeds(userId);
+        if (!pulledFeeds.isEmpty()) {
+            // Sources have to be merged before anything can be handed out, so the page is
+            // buffered. It is bounded by the cursors.
+            return handle(mergeSources(userId, pulledFeeds, prefix, "SELECT_ARTICLE_RANGE",
+                    statement -> {
+                        bindUpper(statement, upper, null);
+                        statement.setTimestamp(5, lower.getCreatedOn());
+                        statement.setTimestamp(6, lower.getCreatedOn());
+                        statement.setLong(7, lower.getId());
+                    }, processor, ArticleCursor::of, Integer.MAX_VALUE), handler);
+        }
+        return sqlUtils.stream(connection -> {
+            PreparedStatement selectArticleRange = connection.prepareStatement(
+                    timelineStatement(prefix, "SELECT_ARTICLE_RANGE_FOR_USERID"));
+            selectArticleRange.setLong(1, userId);
+            selectArticleRange.setTimestamp(2, upper.getCreatedOn());
+            selectArticleRange.setTimestamp(3, upper.getCreatedOn());
+            selectArticleRange.setLong(4, upper.getId());
+            selectArticleRange.setTimestamp(5, lower.getCreatedOn());
+            selectArticleRange.setTimestamp(6, lower.getCreatedOn());
+            selectArticleRange.setLong(7, lower.getId());
+            return selectArticleRange;
+        }, processor, handler);
+    }
+
+    @Override
+    public Optional<Article> getArticle(final long articleId) {
+        LOG.info("Getting article with id: {}", articleId);
+        List<Article> articles = sqlUtils.query(connection -> {
+            PreparedStatement selectArticle = connection.prepareStatement(
+                    articleSqlStatements.get("SELECT_ARTICLE_BY_ID"));
+            selectArticle.setLong(1, articleId);
+            return selectArticle;
+        }, this::getArticleResultProcessor);
+        return articles.stream().findFirst();
+    }
+
+    @Override
+    public List<Article> search(final long userId, final String query, final int offset,
+            final int limit, final boolean headlines) {
+        checkForNull("Search query", query);
+        if (!searchIndex.isEnabled()) {
+            throw new AppException(503, "Search is not enabled");
+        }
+        if (offset < 0 || limit <= 0 || offset + limit > Constants.MAX_SEARCH_RESULTS) {
+            throw new AppException(400, "Offset and limit must select a page within the first "
+                    + "%s results", String.valueOf(Constants.MAX_SEARCH_RESULTS));
+        }
+        LOG.info("Searching articles for user with id: {} query: {}", userId, query);
+        return read(userId, () -> {
+            Set<String> feeds = new HashSet<>(getFeeds(userId));
+            if (feeds.isEmpty()) {
+                return Collections.<Article>emptyList();
+            }
+            List<Long> ids = searchIndex.search(query, feeds, offset, limit);
+            if (ids.isEmpty()) {
+                return Collections.<Article>emptyList();
+            }
+            Map<Long, Article> articles = sqlUtils.query(connection -> {
+                PreparedStatement selectArticles = connection.prepareStatement(
+                        articleSqlStatements.get(headlines
+                                ? HEADLINE_PREFIX + "SELECT_ARTICLES_BY_IDS"
+                                : "SELECT_ARTICLES_BY_IDS"));
+                selectArticles.setObject(1, ids.toArray());
+                return selectArticles;
+            }, headlines ? this::getHeadlineResultProcessor : this::getArticleResultProcessor)
+                    .stream()
+                    .collect(Collectors.toMap(Article::getId, Function.identity()));
+            // Back into the order of the ranking. Articles that are gone from the database but
+            // not yet from the index are left out.
+            return ids.stream()
+                    .map(articles::get)
+                    .filter(article -> article != null)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * At most {@code limit} articles are returned per feed, the newest ones. The token still
+     * moves past the older ones, and the delta is marked as having a gap.
+     */
+    @Override
+    public ArticleDelta getArticlesSince(final long userId, final String since, final int limit) {
+        if (limit <= 0) {
+            throw new AppException(400, "Limit must be a positive number");
+        }
+        SyncToken token = SyncToken.decode(since);
+        LOG.info("Syncing articles for user with id: {} since: {}", userId, since);
+        return read(userId, () -> {
+            // The newest sequence number of every subscribed feed. Feeds that are in the token
+            // but no longer subscribed to drop out of the new token.
+            List<Map.Entry<Integer, Long>> heads = sqlUtils.query(connection -> {
+                PreparedStatement selectHeads = connection.prepareStatement(
+                        articleSqlStatements.get("SELECT_FEED_HEADS_FOR_USERID"));
+                selectHeads.setLong(1, userId);
+                return selectHeads;
+            }, resultSet -> new AbstractMap.SimpleEntry<>(resultSet.getInt(1),
+                    resultSet.getLong(2)));
+            List<List<Article>> sources = new ArrayList<>(heads.size());
+            Map<String, Long> sequences = new LinkedHashMap<>();
+            boolean gap = false;
+            for (Map.Entry<Integer, Long> head : heads) {
+                int feedId = head.getKey();
+                String feed = feedDictionary.getName(feedId);
+                long seen = token.getSequence(feed);
+                sequences.put(feed, head.getValue());
+                if (seen > head.getValue()) {
+                    // The token is ahead of the store, it did not come from this store.
+                    gap = true;
+                    continue;
+                }
+                if (seen == head.getValue()) {
+                    continue;
+                }
+                List<Article> articles = sqlUtils.query(connection -> {
+                    PreparedStatement selectSince = connection.prepareStatement(
+                            articleSqlStatements.get("SELECT_FEED_ARTICLES_SINCE"));
+                    selectSince.setInt(1, feedId);
+                    selectSince.setLong(2, seen);
+                    selectSince.setLong(3, head.getValue());
+                    selectSince.setInt(4, limit + 1);
+                    return selectSince;
+                }, this::getArticleResultProcessor);
+                if (articles.size() > limit) {
+                    gap = true;
+                    articles = articles.subList(0, limit);
+                }
+                sources.add(articles);
+            }
+            return new ArticleDelta(TimelineEngine.merge(sources, ArticleCursor::of,
+                    Integer.MAX_VALUE), new SyncToken(sequences).encode(), gap);
+        });
+    }
+
+    @Override
+    public String getTimelineVersion(final long userId) {
+        return timelineVersions.getTimelineVersion(userId, this::getFeeds);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("timeline", timelineEngine.getStats());
+        stats.put("recent_articles", recentArticleCache.getStats());
+        stats.put("bodies", blobStore.getStats());
+        stats.put("body_codec", bodyCodec.getStats());
+        stats.put("versions", timelineVersions.getStats());
+        stats.put("search", searchIndex.getStats());
+        stats.put("bulk_chunks", bulkChunks.get());
+        stats.put("bulk_articles", bulkArticles.get());
+        stats.put("locks", getLockStats());
+        return stats;
     }
 
     //------------------------------------- Private methods -------------------------------------//
 
+    /**
+     * Returns the timeline query with the given name and optional prefix. When fan out on
+     * write is enabled the query reads the user's inbox instead of joining articles with
+     * subscriptions. Both variants take the same parameters.
+     */
+    private String timelineStatement(final String name) {
+        return timelineStatement("", name);
+    }
+
+    private String timelineStatement(final String prefix, final String name) {
+        return articleSqlStatements.get(prefix
+                + (timelineEngine.isFanOutOnWrite() ? INBOX_PREFIX + name : name));
+    }
+
+    /**
+     * Fills the recent article cache with the newest articles of every feed.
+     */
+    private void loadRecentArticles() {
+        List<String> feeds = sqlUtils.query(connection -> connection.prepareStatement(
+                articleSqlStatements.get("SELECT_FEED_NAMES")),
+                resultSet -> resultSet.getString(1));
+        feeds.forEach(feed -> recentArticleCache.load(feed,
+                getRecentArticles(feed, recentArticleCache.getCapacity())));
+        recentArticleCache.loaded(feeds.size());
+    }
+
+    /**
+     * Indexes the articles that were added after the newest article in the search index, in
+     * id order.
+     */
+    private void indexArticles() {
+        long indexedUpTo = searchIndex.getIndexedUpTo();
+        int indexed = sqlUtils.stream(connection -> {
+            PreparedStatement selectArticles = connection.prepareStatement(
+                    articleSqlStatements.get("SELECT_ARTICLES_AFTER_ID"));
+            selectArticles.setLong(1, indexedUpTo);
+            return selectArticles;
+        }, this::getArticleResultProcessor, article -> searchIndex.add(article.getId(),
+                article.getFeed(), article.getTitle(), article.getBody()));
+        LOG.info("Indexed {} articles added after article {}", indexed, indexedUpTo);
+    }
+
+    /**
+     * Runs an article add while holding the index order lock if the search index is enabled.
+     * The index takes articles in id order, so while it is enabled adds to different feeds
+     * cannot commit in parallel either.
+     */
+    private void inIndexOrder(final WriteProtected writeProtected) {
+        if (!searchIndex.isEnabled()) {
+            writeProtected.write();
+            return;
+        }
+        indexOrder.lock();
+        try {
+            writeProtected.write();
+        } finally {
+            indexOrder.unlock();
+        }
+    }
+
+    /**
+     * Waits a random time that doubles with every attempt, so that writers that keep clashing
+     * spread out.
+     */
+    private void backOff(final int attempt) {
+        int bound = Math.min(MAX_BACKOFF_MILLIS, 1 << attempt);
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextInt(bound));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException(503, "Interrupted while adding articles", e);
+        }
+    }
+
+    /**
+     * Inserts the pending articles of a bulk upload. Articles of feeds that do not exist are
+     * rejected, the rest take consecutive sequence numbers on their feed and are inserted in the
+     * order given, which keeps ids and sequence numbers in the same order.
+     */
+    private void addPending(final List<PendingArticle> pending, final BulkResult[] results) {
+        Set<String> feeds = pending.stream()
+                .map(article -> article.article.getFeed())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        // Writers of the same feeds hold their stripes, so nothing else moves the sequence
+        // numbers until the batch commits. Without locks the unique index catches a clash.
+        Map<String, Long> lastSeqs = sqlUtils.query(connection -> {
+            PreparedStatement selectLastSeqs = connection.prepareStatement(
+                    articleSqlStatements.get("SELECT_FEED_LAST_SEQS"));
+            selectLastSeqs.setObject(1, feeds.stream().map(feedDictionary::getId).toArray());
+            return selectLastSeqs;
+        }, resultSet -> new AbstractMap.SimpleEntry<>(feedDictionary.getName(resultSet.getInt(1)),
+                resultSet.getLong(2))).stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        Map<String, Long> nextSeqs = new LinkedHashMap<>();
+        List<PendingArticle> inserts = new ArrayList<>(pending.size());
+        for (PendingArticle article : pending) {
+            String feed = article.article.getFeed();
+            if (!lastSeqs.containsKey(feed)) {
+                results[article.index] = new BulkResult(404, String.format(
+                        "Feed %s not found", feed));
+                continue;
+            }
+            article.seq = nextSeqs.merge(feed, lastSeqs.get(feed) + 1, (seq, one) -> seq + 1);
+            inserts.add(article);
+        }
+        if (inserts.isEmpty()) {
+            return;
+        }
+        DMLStatement setLastSeqs = connection -> {
+            // update FEED set last_seq = ? where id = ? and last_seq = ?;
+            // Never moves the sequence number back over a concurrent writer. Whoever moved it
+            // inserted the numbers reserved here, so the inserts below fail on the index.
+            PreparedStatement setLastSeq = connection.prepareStatement(
+                    articleSqlStatements.get("SET_FEED_LAST_SEQ"));
+            for (Map.Entry<String, Long> nextSeq : nextSeqs.entrySet()) {
+                setLastSeq.setLong(1, nextSeq.getValue());
+                setLastSeq.setInt(2, feedDictionary.getId(nextSeq.getKey()));
+                setLastSeq.setLong(3, lastSeqs.get(nextSeq.getKey()));
+                setLastSeq.addBatch();
+            }
+            return setLastSeq;
+        };
+        DMLStatement insertArticles = connection -> {
+            // One statement for every way of storing the body, so that the batch keeps the
+            // order of the articles.
+            PreparedStatement insertArticle = connection.prepareStatement(
+                    articleSqlStatements.get("BULK_INSERT_ARTICLE"));
+            for (PendingArticle article : inserts) {
+                bindBulkInsert(insertArticle, article);
+                insertArticle.addBatch();
+            }
+            return insertArticle;
+        };
+        timelineEngine.publish(nextSeqs.keySet(), pushFeeds -> {
+            if (pushFeeds.isEmpty()) {
+                sqlUtils.batchDML(setLastSeqs, insertArticles);
+            } else {
+                // Copies references to the articles just inserted into the inbox of every
+                // current subscriber of their feed, in the same transaction as the inserts.
+                sqlUtils.batchDML(setLastSeqs, insertArticles, connection -> {
+                    PreparedStatement fanout = connection.prepareStatement(
+                            articleSqlStatements.get("FANOUT_ARTICLES_AFTER_SEQ"));
+                    for (String feed : pushFeeds) {
+                        fanout.setInt(1, feedDictionary.getId(feed));
+                        fanout.setLong(2, lastSeqs.get(feed));
+                        fanout.addBatch();
+                    }
+                    return fanout;
+                });
+            }
+            Map<String, Map<Long, Article>> added = new LinkedHashMap<>();
+            for (String feed : nextSeqs.keySet()) {
+                added.put(feed, sqlUtils.query(connection -> {
+                    PreparedStatement selectKeys = connection.prepareStatement(
+                            articleSqlStatements.get("SELECT_ARTICLE_KEYS_AFTER_SEQ"));
+                    selectKeys.setInt(1, feedDictionary.getId(feed));
+                    selectKeys.setLong(2, lastSeqs.get(feed));
+                    return selectKeys;
+                }, resultSet -> {
+                    Article article = new Article();
+                    article.setId(resultSet.getLong(2));
+                    article.setCreatedOn(resultSet.getTimestamp(3));
+                    return new AbstractMap.SimpleEntry<>(resultSet.getLong(1), article);
+                }).stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+            }
+            for (PendingArticle article : inserts) {
+                String feed = article.article.getFeed();
+                Article inserted = added.get(feed).get(article.seq);
+                inserted.setTitle(article.article.getTitle());
+                inserted.setBody(article.article.getBody());
+                inserted.setFeed(feed);
+                recentArticleCache.add(feed, inserted);
+                if (searchIndex.isEnabled()) {
+                    searchIndex.add(inserted.getId(), feed, inserted.getTitle(),
+                            inserted.getBody());
+                }
+                results[article.index] = new BulkResult(inserted.getId());
+            }
+            nextSeqs.keySet().forEach(timelineVersions::articleAdded);
+            bulkChunks.incrementAndGet();
+            bulkArticles.addAndGet(inserts.size());
+        });
+    }
+
+    private void bindBulkInsert(final PreparedStatement statement, final PendingArticle article)
+            throws SQLException {
+        // Insert into ARTICLE(id, title, created_on, body, feed_id, body_segment,
+        // body_offset, body_length, body_data, feed_seq)
+        // values(default, ?, CURRENT_TIMESTAMP(), ?, ?, ?, ?, ?, ?, ?);
+        statement.setString(1, article.article.getTitle());
+        statement.setNull(2, Types.VARCHAR);
+        statement.setInt(3, feedDictionary.getId(article.article.getFeed()));
+        statement.setNull(4, Types.INTEGER);
+        statement.setNull(5, Types.BIGINT);
+        statement.setNull(6, Types.INTEGER);
+        statement.setNull(7, Types.VARBINARY);
+        statement.setLong(8, article.seq);
+        if (article.bodyRef != null) {
+            statement.setInt(4, article.bodyRef.getSegment());
+            statement.setLong(5, article.bodyRef.getOffset());
+            statement.setInt(6, article.bodyRef.getLength());
+        } else if (bodyCodec.isEncoded(article.body)) {
+            statement.setBytes(7, article.body);
+        } else {
+            statement.setString(2, article.article.getBody());
+        }
+    }
+
+    private List<Article> getRecentArticles(final String feed, final int limit) {
+        return sqlUtils.query(connection -> {
+            PreparedStatement selectRecent = connection.prepareStatement(
+                    articleSqlStatements.get("SELECT_RECENT_ARTICLES_FOR_FEED"));
+            selectRecent.setInt(1, feedDictionary.getId(feed));
+            selectRecent.setInt(2, limit);
+            return selectRecent;
+        }, this::getArticleResultProcessor);
+    }
+
+    private int handle(final List<Article> articles, final ResultHandler<Article> handler) {
+        try {
+            for (Article article : articles) {
+                handler.handle(article);
+            }
+        } catch (IOException e) {
+            throw new AppException(500, "Error streaming query results", e);
+        }
+        return articles.size();
+    }
+
+    /**
+     * Returns the pulled feeds that the user is subscribed to. These have to be merged with
+     * the user's inbox at read time.
+     */
+    private List<String> getPulledFeeds(final long userId) {
+        if (!timelineEngine.hasPulledFeeds()) {
+            return Collections.emptyList();
+        }
+        return getFeeds(userId).stream()
+                .filter(timelineEngine::isPulled)
+                .collect(Collectors.toList());
+    }
+
+    private List<String> getFeeds(final long userId) {
+        return subscriptionStore.getFeedNames(userId);
+    }
+
+    /**
+     * Reads one sorted list from the user's inbox and one from each of the given pulled feeds
+     * and merges them newest first. The first parameter of each query is bound to the user id
+     * or the feed id and the binder binds the rest.
+     */
+    private <T> List<T> mergeSources(final long userId, final List<String> pulledFeeds,
+            final String prefix, final String statementName, final ParameterBinder binder,
+            final ResultProcessor<T> processor, final Function<T, ArticleCursor> position,
+            final int limit) {
+        List<List<T>> sources = new ArrayList<>(pulledFeeds.size() + 1);
+        sources.add(sqlUtils.query(connection -> {
+            PreparedStatement selectInbox = connection.prepareStatement(
+                    articleSqlStatements.get(
+                            prefix + INBOX_PREFIX + statementName + FOR_USERID));
+            selectInbox.setLong(1, userId);
+            binder.bind(selectInbox);
+            return selectInbox;
+        }, processor));
+        for (String feed : pulledFeeds) {
+            sources.add(sqlUtils.query(connection -> {
+                PreparedStatement selectFeed = connection.prepareStatement(
+                        articleSqlStatements.get(prefix + FEED_PREFIX + statementName));
+                selectFeed.setInt(1, feedDictionary.getId(feed));
+                binder.bind(selectFeed);
+                return selectFeed;
+            }, processor));
+        }
+        return TimelineEngine.merge(sources, position, limit);
+    }
+
+    private void bindUpper(final PreparedStatement statement, final ArticleCursor upper,
+            final Integer limit) throws SQLException {
+        statement.setTimestamp(2, upper.getCreatedOn());
+        statement.setTimestamp(3, upper.getCreatedOn());
+        statement.setLong(4, upper.getId());
+        if (limit != null) {
+            statement.setInt(5, limit);
+        }
+    }
+
+    private ArticleCursor getCursorResultProcessor(ResultSet resultSet) throws SQLException {
+        return new ArticleCursor(resultSet.getTimestamp(2), resultSet.getLong(1));
+    }
+
     private Article getArticleResultProcessor(ResultSet resultSet) throws SQLException {
         Article article = new Article();
-        article.setTitle(resultSet.getString(1));
-        article.setCreatedOn(resultSet.getTimestamp(2));
-        article.setBody(resultSet.getString(3));
+        article.setId(resultSet.getLong(1));
+        article.setTitle(resultSet.getString(2));
+        article.setCreatedOn(resultSet.getTimestamp(3));
+        article.setBody(resultSet.getString(4));
+        article.setFeed(feedDictionary.getName(resultSet.getInt(5)));
+        int segment = resultSet.getInt(6);
+        if (!resultSet.wasNull()) {
+            BlobRef bodyRef = new BlobRef(segment, resultSet.getLong(7), resultSet.getInt(8));
+            article.setBody(bodyCodec.decode(blobStore.read(bodyRef)));
+        }
+        byte[] body = resultSet.getBytes(9);
+        if (body != null) {
+            article.setBody(bodyCodec.decode(ByteBuffer.wrap(body)));
+        }
+        return article;
+    }
+
+    private Article getHeadlineResultProcessor(ResultSet resultSet) throws SQLException {
+        Article article = new Article();
+        article.setId(resultSet.getLong(1));
+        article.setTitle(resultSet.getString(2));
+        article.setCreatedOn(resultSet.getTimestamp(3));
+        article.setFeed(feedDictionary.getName(resultSet.getInt(4)));
         return article;
     }
+
+    private Article toHeadline(final Article article) {
+        Article headline = new Article();
+        headline.setId(article.getId());
+        headline.setTitle(article.getTitle());
+        headline.setCreatedOn(article.getCreatedOn());
+        headline.setFeed(article.getFeed());
+        return headline;
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Binds the parameters of a timeline query that follow the user id or feed id.
+     */
+    @FunctionalInterface
+    private interface ParameterBinder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * An article of a bulk upload on its way into the store, with its position in the upload
+     * and its body as stored.
+     */
+    private static class PendingArticle {
+        private final int index;
+        private final Article article;
+        private final byte[] body;
+        private final BlobRef bodyRef;
+        private long seq;
+
+        private PendingArticle(final int index, final Article article, final byte[] body,
+                final BlobRef bodyRef) {
+            this.index = index;
+            this.article = article;
+            this.body = body;
+            this.bodyRef = bodyRef;
+        }
+    }
 }
@@ -8,14 +8,18 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.AbstractMap;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
 import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.entity.Feed;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
 
 /**
  * {@link FeedStore} implementation that uses database as the backing store.
@@ -27,21 +31,44 @@ public class DbFeedStore extends DatabaseStoreService implements FeedStore {
     private static final String FEED_SQL_PROPERTIES = "/feed_sql.properties";
     private static final Pattern PATTERN_COMMA = Pattern.compile(",");
     private final Properties appConfig;
-    private final Properties feedSqlStatements = new Properties();
+    private final StatementRegistry feedSqlStatements;
+    private final FeedDictionary feedDictionary;
 
     @Inject
-    public DbFeedStore(Properties appConfig, SQLUtils sqlUtils) {
+    public DbFeedStore(Properties appConfig, SQLUtils sqlUtils, FeedDictionary feedDictionary) {
         super(sqlUtils);
         this.appConfig = appConfig;
-        loadStatements(FEED_SQL_PROPERTIES, feedSqlStatements);
+        this.feedDictionary = feedDictionary;
+        feedSqlStatements = loadStatements(FEED_SQL_PROPERTIES);
     }
 
     @Override
     public void init() {
         sqlUtils.ddl(statement -> {
             // create table IF NOT EXISTS FEED(name varchar PRIMARY KEY, created_on timestamp);
-            statement.execute(feedSqlStatements.getProperty("CREATE_TBL_FEED"));
+            statement.execute(feedSqlStatements.get("CREATE_TBL_FEED"));
+            // Sequence number of the newest article of the feed, kept by the article store.
+            // alter table FEED add column if not exists last_seq bigint default 0 not null;
+            statement.execute(feedSqlStatements.get("ALTER_TBL_FEED_LAST_SEQ"));
+            // Integer id the other tables refer to the feed by.
+            // create sequence if not exists FEED_ID_SEQ;
+            statement.execute(feedSqlStatements.get("CREATE_SEQ_FEED_ID"));
+            // alter table FEED add column if not exists id int;
+            statement.execute(feedSqlStatements.get("ALTER_TBL_FEED_ID"));
+            // Numbers the feeds that were added before feeds had ids.
+            statement.execute(feedSqlStatements.get("BACKFILL_FEED_ID"));
+            // alter table FEED alter column id set not null;
+            statement.execute(feedSqlStatements.get("ALTER_TBL_FEED_ID_NOT_NULL"));
+            // create unique index if not exists IDX_FEED_ID on FEED(id);
+            statement.execute(feedSqlStatements.get("CREATE_IDX_FEED_ID"));
         });
+        // select id, name from FEED;
+        int loaded = sqlUtils.stream(connection -> connection.prepareStatement(
+                feedSqlStatements.get("LIST_FEED_IDS")),
+                resultSet -> new AbstractMap.SimpleEntry<>(resultSet.getInt(1),
+                        resultSet.getString(2)),
+                feed -> feedDictionary.put(feed.getKey(), feed.getValue()));
+        LOG.info("Loaded ids of {} feeds", loaded);
         String defaultFeeds = this.appConfig.getProperty(Constants.DEFAULT_FEEDS);
         if (StringUtils.isNotBlank(defaultFeeds)) {
             String[] feeds = PATTERN_COMMA.split(defaultFeeds.trim());
@@ -54,35 +81,61 @@ public class DbFeedStore extends DatabaseStoreService implements FeedStore {
     public void add(final String feed) {
         checkForNull("Feed", feed);
         LOG.debug("Adding new feed: {}", feed);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement insertFeed = connection.prepareStatement(
-                    feedSqlStatements.getProperty("INSERT_FEED"));
-            insertFeed.setString(1, feed);
-            return insertFeed;
-        }));
+        write(feed, () -> {
+            int id = sqlUtils.transaction(() -> {
+                sqlUtils.dml(connection -> {
+                    // Insert into FEED(name, created_on, id)
+                    // values(?, CURRENT_TIMESTAMP(), next value for FEED_ID_SEQ);
+                    PreparedStatement insertFeed = connection.prepareStatement(
+                            feedSqlStatements.get("INSERT_FEED"));
+                    insertFeed.setString(1, feed);
+                    return insertFeed;
+                });
+                // select id from FEED where name=?;
+                return sqlUtils.query(connection -> {
+                    PreparedStatement selectId = connection.prepareStatement(
+                            feedSqlStatements.get("SELECT_FEED_ID"));
+                    selectId.setString(1, feed);
+                    return selectId;
+                }, resultSet -> resultSet.getInt(1)).get(0);
+            });
+            feedDictionary.put(id, feed);
+        });
     }
 
     @Override
     public void delete(final String feed) {
         checkForNull("Feed", feed);
         LOG.debug("Deleting feed: {}", feed);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement deleteFeed = connection.prepareStatement(
-                    feedSqlStatements.getProperty("DELETE_FEED"));
-            deleteFeed.setString(1, feed);
-            return deleteFeed;
-        }));
+        write(feed, () -> {
+            sqlUtils.dml(connection -> {
+                PreparedStatement deleteFeed = connection.prepareStatement(
+                        feedSqlStatements.get("DELETE_FEED"));
+                deleteFeed.setString(1, feed);
+                return deleteFeed;
+            });
+            feedDictionary.remove(feed);
+        });
     }
 
     @Override
     public List<Feed> list() {
         LOG.debug("List all feeds");
-        return read(() -> sqlUtils.query(connection -> {
+        // A single statement over every feed, there is no stripe to take.
+        return sqlUtils.query(connection -> {
             PreparedStatement listFeeds = connection.prepareStatement(
-                    feedSqlStatements.getProperty("LIST_FEEDS"),
+                    feedSqlStatements.get("LIST_FEEDS"),
                     ResultSet.TYPE_SCROLL_INSENSITIVE,
                     ResultSet.CONCUR_READ_ONLY);
             return listFeeds;
-        }, resultSet -> new Feed(resultSet.getString(1), resultSet.getTimestamp(2))));
+        }, resultSet -> new Feed(resultSet.getString(1), resultSet.getTimestamp(2)));
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dictionary", feedDictionary.getStats());
+        stats.put("locks", getLockStats());
+        return stats;
     }
 }
@@ -0,0 +1,190 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
+
+/**
+ * {@link ReadStateStore} implementation that uses database as the backing store.
+ * <p>
+ * Every (user, feed) pair has at most one row holding its {@link ReadMarks}. Unread counts are
+ * computed from the newest sequence number that the article store keeps on every feed, so they
+ * take one row per subscription and never touch the articles.
+ */
+public class DbReadStateStore extends DatabaseStoreService implements ReadStateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(DbReadStateStore.class);
+    private static final String READ_STATE_SQL_PROPERTIES = "/read_state_sql.properties";
+    private static final int MAX_MARK_ATTEMPTS = 10;
+    private final StatementRegistry readStateSqlStatements;
+    private final FeedDictionary feedDictionary;
+    private final AtomicLong articlesMarked = new AtomicLong();
+    private final AtomicLong feedsMarked = new AtomicLong();
+    private final AtomicLong unreadQueries = new AtomicLong();
+
+    @Inject
+    public DbReadStateStore(SQLUtils sqlUtils, FeedDictionary feedDictionary) {
+        super(sqlUtils);
+        this.feedDictionary = feedDictionary;
+        readStateSqlStatements = loadStatements(READ_STATE_SQL_PROPERTIES);
+    }
+
+    @Override
+    public void init() {
+        sqlUtils.ddl(statement -> {
+            // create table IF NOT EXISTS READ_STATE(user_id bigint, feed_id int,
+            // high_water_mark bigint not null, read_bitmap varbinary,
+            // PRIMARY KEY (user_id, feed_id),
+            // FOREIGN KEY(feed_id) REFERENCES public.feed(id),
+            // FOREIGN KEY(user_id) REFERENCES public.user(id));
+            statement.execute(readStateSqlStatements.get("CREATE_TBL_READ_STATE"));
+        });
+    }
+
+    @Override
+    public void markArticleRead(final long userId, final long articleId) {
+        LOG.info("Marking article: {} read for user with id: {}", articleId, userId);
+        write(userId, () -> {
+            List<Map.Entry<Integer, Long>> articles = sqlUtils.query(connection -> {
+                PreparedStatement selectSeq = connection.prepareStatement(
+                        readStateSqlStatements.get("SELECT_ARTICLE_SEQ_BY_ID"));
+                selectSeq.setLong(1, articleId);
+                return selectSeq;
+            }, resultSet -> new AbstractMap.SimpleEntry<>(resultSet.getInt(1),
+                    resultSet.getLong(2)));
+            if (articles.isEmpty()) {
+                throw new AppException(404, "Article %s not found", String.valueOf(articleId));
+            }
+            int feedId = articles.get(0).getKey();
+            // Writers of the user hold its stripe, so the marks normally cannot change between
+            // the read and the write. Without store locks the write only goes through if the
+            // marks are still the ones read, otherwise they are read again.
+            for (int attempt = 1; !markRead(userId, feedId, articles.get(0).getValue());
+                    attempt++) {
+                if (attempt == MAX_MARK_ATTEMPTS) {
+                    throw new AppException(503, "Read state of feed %s is changing too often",
+                            feedDictionary.getName(feedId));
+                }
+            }
+            articlesMarked.incrementAndGet();
+        });
+    }
+
+    @Override
+    public void markFeedRead(final long userId, final String feed) {
+        checkForNull("Feed", feed);
+        LOG.info("Marking feed: {} read for user with id: {}", feed, userId);
+        write(userId, () -> {
+            // The mark moves to the newest article of the feed, which clears the bitmap.
+            int merged = sqlUtils.dml(connection -> {
+                PreparedStatement markFeed = connection.prepareStatement(
+                        readStateSqlStatements.get("MARK_FEED_READ"));
+                markFeed.setLong(1, userId);
+                markFeed.setInt(2, feedDictionary.getId(feed));
+                return markFeed;
+            })[0];
+            if (merged == 0) {
+                throw new AppException(404, "Feed %s not found", feed);
+            }
+            feedsMarked.incrementAndGet();
+        });
+    }
+
+    @Override
+    public Map<String, Long> getUnreadCounts(final long userId) {
+        LOG.info("Getting unread counts for user with id: {}", userId);
+        unreadQueries.incrementAndGet();
+        List<Map.Entry<String, Long>> counts = read(userId, () -> sqlUtils.query(connection -> {
+            PreparedStatement selectUnread = connection.prepareStatement(
+                    readStateSqlStatements.get("SELECT_UNREAD_FOR_USERID"));
+            selectUnread.setLong(1, userId);
+            return selectUnread;
+        }, resultSet -> {
+            // Feeds the user never read anything of have no read state.
+            ReadMarks marks = new ReadMarks(resultSet.getLong(3), resultSet.getBytes(4));
+            return new AbstractMap.SimpleEntry<>(resultSet.getString(1),
+                    marks.getUnread(resultSet.getLong(2)));
+        }));
+        Map<String, Long> unreadCounts = new LinkedHashMap<>();
+        counts.forEach(count -> unreadCounts.put(count.getKey(), count.getValue()));
+        return unreadCounts;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("articles_marked", articlesMarked.get());
+        stats.put("feeds_marked", feedsMarked.get());
+        stats.put("unread_queries", unreadQueries.get());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Marks the article with the given sequence number read and returns false if the stored
+     * marks changed after they were read.
+     */
+    private boolean markRead(final long userId, final int feedId, final long seq) {
+        List<ReadMarks> stored = sqlUtils.query(connection -> {
+            PreparedStatement selectState = connection.prepareStatement(
+                    readStateSqlStatements.get("SELECT_READ_STATE"));
+            selectState.setLong(1, userId);
+            selectState.setInt(2, feedId);
+            return selectState;
+        }, resultSet -> new ReadMarks(resultSet.getLong(1), resultSet.getBytes(2)));
+        ReadMarks marks = stored.isEmpty() ? new ReadMarks(0, null) : stored.get(0);
+        long readMark = marks.getHighWaterMark();
+        byte[] readBitmap = marks.getBitmap();
+        if (!marks.markRead(seq)) {
+            return true;
+        }
+        if (stored.isEmpty()) {
+            try {
+                sqlUtils.dml(connection -> {
+                    // insert into READ_STATE(user_id, feed_id, high_water_mark, read_bitmap)
+                    // values(?, ?, ?, ?);
+                    PreparedStatement insertState = connection.prepareStatement(
+                            readStateSqlStatements.get("INSERT_READ_STATE"));
+                    insertState.setLong(1, userId);
+                    insertState.setInt(2, feedId);
+                    insertState.setLong(3, marks.getHighWaterMark());
+                    insertState.setBytes(4, marks.getBitmap());
+                    return insertState;
+                });
+                return true;
+            } catch (AppException e) {
+                if (isWriteConflict(e)) {
+                    return false;
+                }
+                throw e;
+            }
+        }
+        return sqlUtils.dml(connection -> {
+            // update READ_STATE set high_water_mark = ?, read_bitmap = ?
+            // where user_id = ? and feed_id = ? and high_water_mark = ?
+            // and coalesce(read_bitmap, X'') = ?;
+            PreparedStatement updateState = connection.prepareStatement(
+                    readStateSqlStatements.get("UPDATE_READ_STATE_IF_UNCHANGED"));
+            updateState.setLong(1, marks.getHighWaterMark());
+            updateState.setBytes(2, marks.getBitmap());
+            updateState.setLong(3, userId);
+            updateState.setInt(4, feedId);
+            updateState.setLong(5, readMark);
+            updateState.setBytes(6, readBitmap == null ? new byte[0] : readBitmap);
+            return updateState;
+        })[0] == 1;
+    }
+}
@@ -5,13 +5,25 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
+import proj.karthik.feed.reader.AppException;
 import proj.karthik.feed.reader.entity.Feed;
 import proj.karthik.feed.reader.entity.User;
+import proj.karthik.feed.reader.sql.DMLStatement;
+import proj.karthik.feed.reader.sql.ResultHandler;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
 
 /**
  * {@link FeedStore} implementation that uses database as the backing store.
@@ -21,25 +33,60 @@ import proj.karthik.feed.reader.sql.SQLUtils;
 public class DbSubscriptionStore extends DatabaseStoreService implements SubscriptionStore {
     private static final Logger LOG = LoggerFactory.getLogger(DbSubscriptionStore.class);
     private static final String SUBSCRIPTION_SQL_PROPERTIES = "/subscription_sql.properties";
-    private final Properties subscriptionSqlStatements = new Properties();
+    private final StatementRegistry subscriptionSqlStatements;
     private final UserStore userStore;
+    private final TimelineEngine timelineEngine;
+    private final TimelineVersions timelineVersions;
+    private final FeedDictionary feedDictionary;
+    private final SubscriptionGraph graph;
 
     @Inject
-    public DbSubscriptionStore(SQLUtils sqlUtils, UserStore userStore) {
+    public DbSubscriptionStore(SQLUtils sqlUtils, UserStore userStore,
+            TimelineEngine timelineEngine, TimelineVersions timelineVersions,
+            FeedDictionary feedDictionary, SubscriptionGraph graph) {
         super(sqlUtils);
         this.userStore = userStore;
-        loadStatements(SUBSCRIPTION_SQL_PROPERTIES, subscriptionSqlStatements);
+        this.timelineEngine = timelineEngine;
+        this.timelineVersions = timelineVersions;
+        this.feedDictionary = feedDictionary;
+        this.graph = graph;
+        subscriptionSqlStatements = loadStatements(SUBSCRIPTION_SQL_PROPERTIES);
     }
 
     @Override
     public void init() {
+        // Releases before feeds had ids keyed subscriptions by the name of the feed.
+        boolean named = hasColumn("SUBSCRIPTION", "FEED_NAME");
         sqlUtils.ddl(statement -> {
-            // create table IF NOT EXISTS SUBSCRIPTION(user_id bigint, feed_name varchar,
-            // PRIMARY KEY (user_id, feed_name)
-            // FOREIGN KEY(feed_name) REFERENCES public.feed(name),
-            // FOREIGN KEY(user_id) REFERENCES public.user(id));
-            statement.execute(subscriptionSqlStatements.getProperty("CREATE_TBL_SUBSCRIPTION"));
+            // create table IF NOT EXISTS SUBSCRIPTION(user_id bigint, feed_id int,
+            // CONSTRAINT PK_SUBSCRIPTION PRIMARY KEY (user_id, feed_id),
+            // CONSTRAINT FK_SUBSCRIPTION_USER_ID FOREIGN KEY(user_id)
+            // REFERENCES public.user(id));
+            statement.execute(subscriptionSqlStatements.get("CREATE_TBL_SUBSCRIPTION"));
+            // alter table SUBSCRIPTION add column if not exists feed_id int;
+            statement.execute(subscriptionSqlStatements.get("ALTER_TBL_SUBSCRIPTION_FEED_ID"));
+            if (named) {
+                // Fills in the id of the feed of subscriptions made before feeds had ids. The
+                // migrations drop the name and key the table by the id once every store has
+                // started.
+                statement.execute(subscriptionSqlStatements.get(
+                        "BACKFILL_SUBSCRIPTION_FEED_ID"));
+            }
+            // create index if not exists IDX_SUBSCRIPTION_FEED_ID
+            // on SUBSCRIPTION(feed_id, user_id);
+            statement.execute(subscriptionSqlStatements.get("CREATE_IDX_SUBSCRIPTION_FEED_ID"));
+            // alter table SUBSCRIPTION add constraint if not exists FK_SUBSCRIPTION_FEED_ID
+            // FOREIGN KEY(feed_id) REFERENCES public.feed(id);
+            statement.execute(subscriptionSqlStatements.get("CREATE_FK_SUBSCRIPTION_FEED_ID"));
         });
+        // select s.user_id, f.name, f.created_on from SUBSCRIPTION s JOIN FEED f on
+        // f.id=s.feed_id;
+        int loaded = sqlUtils.stream(connection -> connection.prepareStatement(
+                subscriptionSqlStatements.get("LIST_SUBSCRIPTIONS")),
+                resultSet -> new AbstractMap.SimpleEntry<>(resultSet.getLong(1),
+                        new Feed(resultSet.getString(2), resultSet.getTimestamp(3))),
+                subscription -> graph.subscribe(subscription.getKey(), subscription.getValue()));
+        LOG.info("Loaded {} subscriptions", loaded);
     }
 
     @Override
@@ -47,25 +94,38 @@ public class DbSubscriptionStore extends DatabaseStoreService implements Subscri
         checkForNull("Username", userName);
         checkForNull("Feed", feed);
         LOG.info("Subscribing {} to feed:{}", userName, feed);
-        write(() -> sqlUtils.batchDML(connection -> {
+        // The users are resolved before the stripe of the feed is taken, so that the user store
+        // is never waited on while holding it.
+        List<User> userIds = userStore.getId(userName);
+        changeSubscriptions(feed, push -> sqlUtils.batchDML(inboxAware(push, connection -> {
             PreparedStatement subscribeById = connection.prepareStatement(
-                    subscriptionSqlStatements.getProperty("INSERT_SUBSCRIPTION_BY_ID"));
-            List<User> userIds = userStore.getId(userName);
-            return sqlUtils.batch(subscribeById, userIds, feed);
-        }));
+                    subscriptionSqlStatements.get("INSERT_SUBSCRIPTION_BY_ID"));
+            for (User user : userIds) {
+                subscribeById.setLong(1, user.getId());
+                subscribeById.setInt(2, feedDictionary.getId(feed));
+                subscribeById.addBatch();
+            }
+            return subscribeById;
+        }, connection -> sqlUtils.batch(connection.prepareStatement(
+                subscriptionSqlStatements.get("BACKFILL_INBOX_BY_ID")), userIds,
+                feedDictionary.getId(feed))))[0],
+                () -> userIds.forEach(user -> subscribed(user.getId(), feed)));
     }
 
     @Override
     public void addSubscriptionById(final String feed, final long userId) {
         checkForNull("Feed", feed);
         LOG.info("Subscribing user with id:{} to feed:{}", userId, feed);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement subscribeById = connection.prepareStatement(
-                    subscriptionSqlStatements.getProperty("INSERT_SUBSCRIPTION_BY_ID"));
-            subscribeById.setLong(1, userId);
-            subscribeById.setString(2, feed);
-            return subscribeById;
-        }));
+        changeSubscriptions(feed, push -> sqlUtils.dml(
+                inboxAware(push, connection -> {
+                    PreparedStatement subscribeById = connection.prepareStatement(
+                            subscriptionSqlStatements.get("INSERT_SUBSCRIPTION_BY_ID"));
+                    // Insert into SUBSCRIPTION(user_id, feed_id) VALUES (?, ?)
+                    subscribeById.setLong(1, userId);
+                    subscribeById.setInt(2, feedDictionary.getId(feed));
+                    return subscribeById;
+                }, connection -> byId(connection, "BACKFILL_INBOX_BY_ID", userId, feed)))[0],
+                () -> subscribed(userId, feed));
     }
 
     @Override
@@ -73,47 +133,164 @@ public class DbSubscriptionStore extends DatabaseStoreService implements Subscri
         checkForNull("Username", userName);
         checkForNull("Feed", feed);
         LOG.info("Unsubscribing {} to feed:{}", userName, feed);
-        write(() -> sqlUtils.batchDML(connection -> {
+        List<User> userIds = userStore.getId(userName);
+        changeSubscriptions(feed, push -> -sqlUtils.batchDML(inboxAware(push, connection -> {
             PreparedStatement unsubscribeById = connection.prepareStatement(
-                    subscriptionSqlStatements.getProperty("DELETE_SUBSCRIPTION_BY_ID"));
-            List<User> userIds = userStore.getId(userName);
-            return sqlUtils.batch(unsubscribeById, userIds, feed);
-        }));
+                    subscriptionSqlStatements.get("DELETE_SUBSCRIPTION_BY_ID"));
+            return sqlUtils.batch(unsubscribeById, userIds, feedDictionary.getId(feed));
+        }, connection -> sqlUtils.batch(connection.prepareStatement(
+                subscriptionSqlStatements.get("DELETE_INBOX_BY_ID")), userIds,
+                feedDictionary.getId(feed))))[0],
+                () -> userIds.forEach(user -> unsubscribed(user.getId(), feed)));
     }
 
     @Override
     public void deleteSubscriptionById(final String feed, final Long userId) {
         checkForNull("Feed", feed);
         LOG.info("Unsubscribing user with id:{} to feed:{}", userId, feed);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement unsubscribeById = connection.prepareStatement(
-                    subscriptionSqlStatements.getProperty("DELETE_SUBSCRIPTION_BY_ID"));
-            unsubscribeById.setLong(1, userId);
-            unsubscribeById.setString(2, feed);
-            return unsubscribeById;
-        }));
+        changeSubscriptions(feed, push -> -sqlUtils.dml(
+                inboxAware(push, connection -> {
+                    PreparedStatement unsubscribeById = connection.prepareStatement(
+                            subscriptionSqlStatements.get("DELETE_SUBSCRIPTION_BY_ID"));
+                    unsubscribeById.setLong(1, userId);
+                    unsubscribeById.setInt(2, feedDictionary.getId(feed));
+                    return unsubscribeById;
+                }, connection -> byId(connection, "DELETE_INBOX_BY_ID", userId, feed)))[0],
+                () -> unsubscribed(userId, feed));
     }
 
     @Override
     public List<Feed> getUserSubscriptionsByName(final String userName) {
         checkForNull("Username", userName);
         LOG.info("Getting subscriptions for user:{}", userName);
-        return read(() -> sqlUtils.query(connection -> {
-            PreparedStatement listSubscriptionsById = connection.prepareStatement(
-                    subscriptionSqlStatements.getProperty("LIST_SUBSCRIPTIONS_BY_ID"));
-            List<User> userIds = userStore.getId(userName);
-            return sqlUtils.batch(listSubscriptionsById, userIds);
-        }, resultSet -> new Feed(resultSet.getString(1), resultSet.getTimestamp(2))));
+        List<User> users = userStore.getId(userName);
+        if (users.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return graph.getFeeds(users.get(0).getId());
     }
 
     @Override
     public List<Feed> getUserSubscriptionsById(final long userId) {
         LOG.info("Looking up subscriptions for user with id:{}", userId);
-        return read(() -> sqlUtils.query(connection -> {
-            PreparedStatement listSubscriptionsById = connection.prepareStatement(
-                    subscriptionSqlStatements.getProperty("LIST_SUBSCRIPTIONS_BY_ID"));
-            listSubscriptionsById.setLong(1, userId);
-            return listSubscriptionsById;
-        }, resultSet -> new Feed(resultSet.getString(1), resultSet.getTimestamp(2))));
+        return graph.getFeeds(userId);
+    }
+
+    @Override
+    public int streamUserSubscriptionsById(final long userId, final ResultHandler<Feed> handler) {
+        LOG.info("Streaming subscriptions for user with id:{}", userId);
+        List<Feed> feeds = graph.getFeeds(userId);
+        try {
+            for (Feed feed : feeds) {
+                handler.handle(feed);
+            }
+        } catch (IOException e) {
+            throw new AppException(500, "Error streaming subscriptions", e);
+        }
+        return feeds.size();
+    }
+
+    @Override
+    public List<String> getFeedNames(final long userId) {
+        return graph.getFeedNames(userId);
+    }
+
+    @Override
+    public String getSubscriptionVersion(final long userId) {
+        return timelineVersions.getSubscriptionVersion(userId);
+    }
+
+    @Override
+    public int forEachSubscriber(final String feed, final LongConsumer consumer) {
+        return graph.forEachSubscriber(feed, consumer);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("graph", graph.getStats());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Subscription changes keep locking when the store locks are turned off, the subscription
+     * graph has to see them in commit order.
+     */
+    @Override
+    protected StripedLock createLocks(final int stripes) {
+        return new StripedLock(Math.max(1, stripes));
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Applies a subscription change to the given feed through the {@link TimelineEngine} and
+     * then updates the subscription graph and the timeline versions, all under the stripe of
+     * the feed so that concurrent changes reach the graph in commit order.
+     */
+    private void changeSubscriptions(final String feed, final Function<Boolean, Integer> change,
+            final Runnable afterCommit) {
+        write(feed, () -> timelineEngine.changeSubscribers(feed, push -> {
+            int delta = change.apply(push);
+            // The graph is updated before the feed publishes again, new articles are fanned out
+            // to the subscribers it holds.
+            afterCommit.run();
+            return delta;
+        }));
+    }
+
+    /**
+     * Records a committed subscription in the graph and the timeline versions. The feed is looked up when nobody was subscribed to it yet.
+     */
+    private void subscribed(final long userId, final String feed) {
+        Feed subscribed = graph.getFeed(feed);
+        if (subscribed == null) {
+            // select name, created_on from FEED where name=?;
+            List<Feed> feeds = sqlUtils.query(connection -> {
+                PreparedStatement selectFeed = connection.prepareStatement(
+                        subscriptionSqlStatements.get("SELECT_FEED"));
+                selectFeed.setString(1, feed);
+                return selectFeed;
+            }, resultSet -> new Feed(resultSet.getString(1), resultSet.getTimestamp(2)));
+            if (feeds.isEmpty()) {
+                // The feed cannot be deleted while it has subscribers, so the subscription went
+                // with it before we got here.
+                LOG.warn("Feed {} was deleted right after user {} subscribed", feed, userId);
+                return;
+            }
+            subscribed = feeds.get(0);
+        }
+        graph.subscribe(userId, subscribed);
+        timelineVersions.subscriptionsChanged(userId);
+    }
+
+    private void unsubscribed(final long userId, final String feed) {
+        graph.unsubscribe(userId, feed);
+        timelineVersions.subscriptionsChanged(userId);
+    }
+
+    /**
+     * Returns the subscription statement followed by the inbox statement when the feed is
+     * pushed to inboxes, so that the inbox is backfilled or cleaned up in the same transaction
+     * as the subscription change.
+     */
+    private DMLStatement[] inboxAware(final boolean push,
+            final DMLStatement subscriptionStatement, final DMLStatement inboxStatement) {
+        if (push) {
+            return new DMLStatement[] {subscriptionStatement, inboxStatement};
+        }
+        return new DMLStatement[] {subscriptionStatement};
+    }
+
+    private PreparedStatement byId(final Connection connection, final String statementName,
+            final long userId, final String feed) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                subscriptionSqlStatements.get(statementName));
+        statement.setLong(1, userId);
+        statement.setInt(2, feedDictionary.getId(feed));
+        return statement;
     }
 }
@@ -1,16 +1,23 @@
 package proj.karthik.feed.reader.store;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
 
+import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.entity.User;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
 
 /**
  * {@link ArticleStore} implementation that uses database as the backing store.
@@ -20,12 +27,43 @@ import proj.karthik.feed.reader.sql.SQLUtils;
 public class DbUserStore extends DatabaseStoreService implements UserStore {
     private static final Logger LOG = LoggerFactory.getLogger(DbUserStore.class);
     private static final String USER_SQL_PROPERTIES = "/user_sql.properties";
-    private final Properties userSqlStatements = new Properties();
+    private static final int DEFAULT_NAME_CACHE_SIZE = 10000;
+    private static final int DEFAULT_NEGATIVE_NAME_CACHE_SIZE = 1000;
+    private final StatementRegistry userSqlStatements;
+    private UserNameCache nameCache = new UserNameCache(DEFAULT_NAME_CACHE_SIZE,
+            DEFAULT_NEGATIVE_NAME_CACHE_SIZE);
+    private TimelineVersions timelineVersions;
 
     @Inject
     public DbUserStore(SQLUtils sqlUtils) {
         super(sqlUtils);
-        loadStatements(USER_SQL_PROPERTIES, userSqlStatements);
+        userSqlStatements = loadStatements(USER_SQL_PROPERTIES);
+    }
+
+    /**
+     * Sizes the cache of user names from the application configuration. Injected right after
+     * construction, before the store is shared with other threads.
+     *
+     * @param appConfig
+     */
+    @Inject(optional = true)
+    public void configureNameCache(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.nameCache = new UserNameCache(
+                Integer.parseInt(appConfig.getProperty(Constants.USER_CACHE_SIZE,
+                        String.valueOf(DEFAULT_NAME_CACHE_SIZE)).trim()),
+                Integer.parseInt(appConfig.getProperty(Constants.USER_NEGATIVE_CACHE_SIZE,
+                        String.valueOf(DEFAULT_NEGATIVE_NAME_CACHE_SIZE)).trim()));
+    }
+
+    /**
+     * Drops the timeline versions of deleted users. Injected right after construction, before
+     * the store is shared with other threads.
+     *
+     * @param timelineVersions
+     */
+    @Inject(optional = true)
+    public void configureVersions(TimelineVersions timelineVersions) {
+        this.timelineVersions = timelineVersions;
     }
 
     @Override
@@ -33,7 +71,7 @@ public class DbUserStore extends DatabaseStoreService implements UserStore {
         sqlUtils.ddl(statement -> {
             // create table IF NOT EXISTS USER(id bigint auto_increment PRIMARY KEY, name varchar,
             // created_on timestamp);
-            statement.execute(userSqlStatements.getProperty("CREATE_TBL_USER"));
+            statement.execute(userSqlStatements.get("CREATE_TBL_USER"));
         });
     }
 
@@ -41,47 +79,82 @@ public class DbUserStore extends DatabaseStoreService implements UserStore {
     public void add(final String userName) {
         checkForNull("Username", userName);
         LOG.info("Adding user: {}", userName);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement insertUser = connection.prepareStatement(
-                    userSqlStatements.getProperty("INSERT_USER"));
-            insertUser.setString(1, userName);
-            return insertUser;
-        }));
+        write(userName, () -> {
+            sqlUtils.dml(connection -> {
+                PreparedStatement insertUser = connection.prepareStatement(
+                        userSqlStatements.get("INSERT_USER"));
+                insertUser.setString(1, userName);
+                return insertUser;
+            });
+            nameCache.invalidate(userName);
+        });
     }
 
     @Override
     public void delete(final String userName) {
         checkForNull("Username", userName);
         LOG.info("Deleting user: {}", userName);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement deleteUserByName = connection.prepareStatement(
-                    userSqlStatements.getProperty("DELETE_USER_BY_NAME"));
-            deleteUserByName.setString(1, userName);
-            return deleteUserByName;
-        }));
+        write(userName, () -> {
+            List<User> users = timelineVersions == null ? Collections.emptyList()
+                    : listUsers(userName);
+            sqlUtils.dml(connection -> {
+                PreparedStatement deleteUserByName = connection.prepareStatement(
+                        userSqlStatements.get("DELETE_USER_BY_NAME"));
+                deleteUserByName.setString(1, userName);
+                return deleteUserByName;
+            });
+            nameCache.invalidate(userName);
+            users.forEach(user -> timelineVersions.userDeleted(user.getId()));
+        });
     }
 
     @Override
     public void delete(final long userId) {
         LOG.info("Adding user with id: {}", userId);
-        write(() -> sqlUtils.dml(connection -> {
-            PreparedStatement deleteUserByName = connection.prepareStatement(
-                    userSqlStatements.getProperty("DELETE_USER_BY_ID"));
-            deleteUserByName.setLong(1, userId);
-            return deleteUserByName;
-        }));
+        write(userId, () -> {
+            sqlUtils.dml(connection -> {
+                PreparedStatement deleteUserByName = connection.prepareStatement(
+                        userSqlStatements.get("DELETE_USER_BY_ID"));
+                deleteUserByName.setLong(1, userId);
+                return deleteUserByName;
+            });
+            nameCache.invalidate(userId);
+            if (timelineVersions != null) {
+                timelineVersions.userDeleted(userId);
+            }
+        });
     }
 
     @Override
     public List<User> getId(final String userName) {
         checkForNull("Username", userName);
+        Optional<List<User>> cached = nameCache.get(userName);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
         LOG.info("Looking up id for user: {}", userName);
-        return read(() -> sqlUtils.query(connection -> {
+        long version = nameCache.getVersion();
+        List<User> users = read(userName, () -> listUsers(userName));
+        return nameCache.put(userName, users, version);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name_cache", nameCache.getStats());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private List<User> listUsers(final String userName) {
+        return sqlUtils.query(connection -> {
             PreparedStatement listUserByName = connection.prepareStatement(
-                    userSqlStatements.getProperty("LIST_USER_BY_NAME"));
+                    userSqlStatements.get("LIST_USER_BY_NAME"));
             listUserByName.setString(1, userName);
             return listUserByName;
         }, resultSet -> new User(resultSet.getLong(1), resultSet.getString(2),
-                resultSet .getTimestamp(3))));
+                resultSet.getTimestamp(3)));
     }
 }
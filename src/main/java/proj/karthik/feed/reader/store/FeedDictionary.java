@@ -0,0 +1,114 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory dictionary between feed names and the integer ids the database keys feeds by.
+ * <p>
+ * The API takes feed names and the stores hand the database the id of the feed instead, so that
+ * subscriptions and articles are joined on ints rather than on names. The feed store loads the
+ * dictionary at startup and keeps it in line with the feeds it adds and deletes, once the change
+ * committed. A name that is not in the dictionary has no feed: it maps to {@link #NO_ID}, which
+ * no feed ever gets, so statements given it match nothing and inserts fail their foreign key.
+ * <p>
+ * Lookups share a read lock and changes take the write lock.
+ */
+public class FeedDictionary {
+    /** Id of feeds that do not exist, feed ids start at 1. */
+    public static final int NO_ID = 0;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final LongHashMap<String> names = new LongHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+
+    /**
+     * Returns the id of the feed.
+     *
+     * @param feed
+     * @return id, {@link #NO_ID} if there is no such feed
+     */
+    public int getId(final String feed) {
+        lookups.incrementAndGet();
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(feed);
+            if (id == null) {
+                unknown.incrementAndGet();
+                return NO_ID;
+            }
+            return id;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the name of the feed with the given id.
+     *
+     * @param id
+     * @return name, null if there is no such feed
+     */
+    public String getName(final int id) {
+        lock.readLock().lock();
+        try {
+            return names.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the id of the feed.
+     *
+     * @param id
+     * @param feed
+     */
+    void put(final int id, final String feed) {
+        lock.writeLock().lock();
+        try {
+            Integer previous = ids.put(feed, id);
+            if (previous != null) {
+                names.remove(previous);
+            }
+            names.put(id, feed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets the feed.
+     *
+     * @param feed
+     */
+    void remove(final String feed) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(feed);
+            if (id != null) {
+                names.remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("feeds", ids.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("lookups", lookups.get());
+        stats.put("unknown", unknown.get());
+        return stats;
+    }
+}
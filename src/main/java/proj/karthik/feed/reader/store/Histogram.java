@@ -0,0 +1,62 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram with power of two buckets. Bucket i counts the values above 2^(i-1) and up
+ * to 2^i, the last bucket counts everything larger.
+ */
+class Histogram {
+    private static final int BUCKETS = 32;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given value. Negative values are recorded as 0.
+     *
+     * @param value
+     */
+    void record(final long value) {
+        long recorded = Math.max(0, value);
+        int bucket = recorded <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(recorded - 1);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        count.incrementAndGet();
+        sum.addAndGet(recorded);
+        max.accumulateAndGet(recorded, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return count
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the count, mean and maximum followed by the non empty buckets, keyed by their
+     * upper bound.
+     *
+     * @return histogram
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        long total = count.get();
+        histogram.put("count", total);
+        histogram.put("mean", total == 0 ? 0.0 : (double) sum.get() / total);
+        histogram.put("max", max.get());
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = counts.get(i);
+            if (bucketCount > 0) {
+                histogram.put(i == BUCKETS - 1 ? "inf" : "le_" + (1L << i), bucketCount);
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,119 @@
+package proj.karthik.feed.reader.store;
+
+/**
+ * Map from longs to objects in open addressed arrays, without a boxed {@link Long} key or an
+ * entry object per mapping. Collisions are resolved by linear probing, removals shift the
+ * following entries back. The table grows at three quarters full.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <V> value type
+ */
+class LongHashMap<V> {
+    private static final int MIN_CAPACITY = 4;
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    LongHashMap() {
+        this.keys = new long[MIN_CAPACITY];
+        this.values = new Object[MIN_CAPACITY];
+    }
+
+    /**
+     * Returns the value of the key, null if there is none.
+     *
+     * @param key
+     * @return value
+     */
+    @SuppressWarnings("unchecked")
+    V get(final long key) {
+        return (V) values[indexOf(keys, values, key)];
+    }
+
+    /**
+     * Maps the key to the non null value.
+     *
+     * @param key
+     * @param value
+     */
+    void put(final long key, final V value) {
+        int slot = indexOf(keys, values, key);
+        if (values[slot] == null) {
+            size++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (size * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes the mapping of the key.
+     *
+     * @param key
+     */
+    void remove(final long key) {
+        int slot = indexOf(keys, values, key);
+        if (values[slot] == null) {
+            return;
+        }
+        size--;
+        int mask = keys.length - 1;
+        int gap = slot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == null) {
+                break;
+            }
+            int home = hash(keys[slot]) & mask;
+            // Move the entry into the gap unless its home lies cyclically after the gap.
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Returns the slot holding the key, or the free slot it would go to. A slot is free when
+     * it has no value, so any long can be a key.
+     */
+    private static int indexOf(final long[] keys, final Object[] values, final long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(final long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void resize(final int capacity) {
+        long[] resizedKeys = new long[capacity];
+        Object[] resizedValues = new Object[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                int slot = indexOf(resizedKeys, resizedValues, keys[i]);
+                resizedKeys[slot] = keys[i];
+                resizedValues[slot] = values[i];
+            }
+        }
+        keys = resizedKeys;
+        values = resizedValues;
+    }
+}
@@ -0,0 +1,166 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Set of longs in a single open addressed array, without a boxed {@link Long} per entry.
+ * Collisions are resolved by linear probing, removals shift the following entries back so that
+ * no tombstones are left behind. The table grows at three quarters full.
+ * <p>
+ * Not thread safe.
+ */
+class LongHashSet {
+    private static final int MIN_CAPACITY = 4;
+    private static final long FREE = 0;
+    private long[] slots;
+    private int size;
+    // 0 marks a free slot, so it is kept apart.
+    private boolean containsFree;
+
+    LongHashSet() {
+        this.slots = new long[MIN_CAPACITY];
+    }
+
+    /**
+     * Adds the value.
+     *
+     * @param value
+     * @return true if it was not in the set yet
+     */
+    boolean add(final long value) {
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        int slot = indexOf(slots, value);
+        if (slots[slot] == value) {
+            return false;
+        }
+        slots[slot] = value;
+        size++;
+        if (size * 4 > slots.length * 3) {
+            resize(slots.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the value.
+     *
+     * @param value
+     * @return true if it was in the set
+     */
+    boolean remove(final long value) {
+        if (value == FREE) {
+            if (!containsFree) {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+        int slot = indexOf(slots, value);
+        if (slots[slot] != value) {
+            return false;
+        }
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    boolean contains(final long value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+        return slots[indexOf(slots, value)] == value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Hands every value to the consumer, in no particular order.
+     *
+     * @param consumer
+     */
+    void forEach(final LongConsumer consumer) {
+        if (containsFree) {
+            consumer.accept(FREE);
+        }
+        for (long value : slots) {
+            if (value != FREE) {
+                consumer.accept(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the values, in no particular order.
+     *
+     * @return values
+     */
+    long[] toArray() {
+        long[] values = new long[size];
+        int[] count = new int[1];
+        forEach(value -> values[count[0]++] = value);
+        return values;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Returns the slot holding the value, or the free slot it would go to.
+     */
+    private static int indexOf(final long[] slots, final long value) {
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while (slots[slot] != FREE && slots[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(final long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Frees the slot and moves the entries that probed past it back, so that every entry stays
+     * reachable from its home slot.
+     */
+    private void shiftBack(final int freed) {
+        int mask = slots.length - 1;
+        int gap = freed;
+        int slot = freed;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long value = slots[slot];
+            if (value == FREE) {
+                break;
+            }
+            int home = hash(value) & mask;
+            // Move the entry into the gap unless its home lies cyclically after the gap.
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                slots[gap] = value;
+                gap = slot;
+            }
+        }
+        slots[gap] = FREE;
+    }
+
+    private void resize(final int capacity) {
+        long[] resized = new long[capacity];
+        for (long value : slots) {
+            if (value != FREE) {
+                resized[indexOf(resized, value)] = value;
+            }
+        }
+        slots = resized;
+    }
+}
@@ -0,0 +1,317 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.ArticleDelta;
+import proj.karthik.feed.reader.entity.BulkResult;
+import proj.karthik.feed.reader.sql.ResultHandler;
+
+/**
+ * {@link ArticleStore} implementation that keeps articles in memory.
+ * <p>
+ * Timelines are merged at read time from the articles of the subscribed feeds. The articles of
+ * a feed are in timeline order already, so every feed contributes the articles below the cursor
+ * found by a binary search, and {@link TimelineEngine#merge} interleaves them. Bodies are kept as
+ * they are, there is nothing to page in.
+ * <p>
+ * Articles are indexed for search while they are added if the {@link SearchIndex} is enabled.
+ * The index may be kept on disk, so new articles get ids above the newest indexed one, and ids it
+ * returns for articles of a previous run are left out of the results.
+ */
+public class MemArticleStore extends MemoryStoreService implements ArticleStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MemArticleStore.class);
+    private final TimelineVersions timelineVersions;
+    private final SearchIndex searchIndex;
+    private final AtomicLong bulkChunks = new AtomicLong();
+    private final AtomicLong bulkArticles = new AtomicLong();
+
+    @Inject
+    public MemArticleStore(MemTables tables, TimelineVersions timelineVersions,
+            SearchIndex searchIndex) {
+        super(tables);
+        this.timelineVersions = timelineVersions;
+        this.searchIndex = searchIndex;
+    }
+
+    @Override
+    public void init() {
+        if (searchIndex.isEnabled()) {
+            tables.write(() -> tables.reserveArticleIds(searchIndex.getIndexedUpTo()));
+        }
+    }
+
+    @Override
+    public void add(final Article article, final String feed) {
+        checkForNull("Feed", feed);
+        checkForNull("Article title", article.getTitle());
+        checkForNull("Article body", article.getBody());
+        LOG.info("Adding article: {} to feed: {}", article.getTitle(), feed);
+        tables.write(() -> insert(tables.requireFeed(feed), article));
+        timelineVersions.articleAdded(feed);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The articles are added under a single write lock, so readers see all of them or none.
+     */
+    @Override
+    public List<BulkResult> add(final List<Article> articles) {
+        LOG.info("Adding {} articles in bulk", articles.size());
+        BulkResult[] results = new BulkResult[articles.size()];
+        List<Integer> pending = new ArrayList<>(articles.size());
+        for (int i = 0; i < articles.size(); i++) {
+            Article article = articles.get(i);
+            try {
+                checkForNull("Feed", article.getFeed());
+                checkForNull("Article title", article.getTitle());
+                checkForNull("Article body", article.getBody());
+                pending.add(i);
+            } catch (AppException e) {
+                results[i] = new BulkResult(e.getCode(), e.getMessage());
+            }
+        }
+        Set<String> feeds = new LinkedHashSet<>();
+        tables.write(() -> {
+            for (int index : pending) {
+                Article article = articles.get(index);
+                MemTables.FeedRow feed = tables.getFeed(article.getFeed());
+                if (feed == null) {
+                    results[index] = new BulkResult(404, String.format("Feed %s not found",
+                            article.getFeed()));
+                    continue;
+                }
+                results[index] = new BulkResult(insert(feed, article).getId());
+                feeds.add(feed.getName());
+            }
+        });
+        if (!feeds.isEmpty()) {
+            feeds.forEach(timelineVersions::articleAdded);
+            bulkChunks.incrementAndGet();
+            bulkArticles.addAndGet(Arrays.stream(results)
+                    .filter(result -> result.getStatus() == 200)
+                    .count());
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public String getNextCursor(final long userId, final int limit, final String after) {
+        if (limit <= 0) {
+            throw new AppException(400, "Limit must be a positive number");
+        }
+        ArticleCursor upper = ArticleCursor.decode(after, ArticleCursor.NEWEST);
+        LOG.info("Looking up page boundary for user with id: {} after: {}", userId, after);
+        List<MemTables.ArticleRow> articles = tables.read(() -> getTimeline(userId, upper,
+                ArticleCursor.OLDEST, limit + 1));
+        return articles.size() <= limit ? null : articles.get(limit - 1).getPosition().encode();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The range is copied out under the read lock and handed to the handler after it is
+     * released, so a slow client does not hold up writers.
+     */
+    @Override
+    public int streamArticles(final long userId, final String after, final String until,
+            final boolean headlines, final ResultHandler<Article> handler) {
+        ArticleCursor upper = ArticleCursor.decode(after, ArticleCursor.NEWEST);
+        ArticleCursor lower = ArticleCursor.decode(until, ArticleCursor.OLDEST);
+        LOG.info("Streaming articles for user with id: {} after: {} until: {}", userId, after,
+                until);
+        List<Article> articles = toArticles(tables.read(() -> getTimeline(userId, upper, lower,
+                Integer.MAX_VALUE)), headlines);
+        try {
+            for (Article article : articles) {
+                handler.handle(article);
+            }
+        } catch (IOException e) {
+            throw new AppException(500, "Error streaming query results", e);
+        }
+        return articles.size();
+    }
+
+    @Override
+    public Optional<Article> getArticle(final long articleId) {
+        LOG.info("Getting article with id: {}", articleId);
+        return tables.read(() -> Optional.ofNullable(tables.getArticle(articleId))
+                .map(article -> article.toArticle(false)));
+    }
+
+    @Override
+    public List<Article> search(final long userId, final String query, final int offset,
+            final int limit, final boolean headlines) {
+        checkForNull("Search query", query);
+        if (!searchIndex.isEnabled()) {
+            throw new AppException(503, "Search is not enabled");
+        }
+        if (offset < 0 || limit <= 0 || offset + limit > Constants.MAX_SEARCH_RESULTS) {
+            throw new AppException(400, "Offset and limit must select a page within the first "
+                    + "%s results", String.valueOf(Constants.MAX_SEARCH_RESULTS));
+        }
+        LOG.info("Searching articles for user with id: {} query: {}", userId, query);
+        Set<String> feeds = new HashSet<>(getFeeds(userId));
+        if (feeds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = searchIndex.search(query, feeds, offset, limit);
+        return tables.read(() -> ids.stream()
+                .map(tables::getArticle)
+                .filter(article -> article != null)
+                .map(article -> article.toArticle(headlines))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * At most {@code limit} articles are returned per feed, the newest ones. The token still
+     * moves past the older ones, and the delta is marked as having a gap.
+     */
+    @Override
+    public ArticleDelta getArticlesSince(final long userId, final String since, final int limit) {
+        if (limit <= 0) {
+            throw new AppException(400, "Limit must be a positive number");
+        }
+        SyncToken token = SyncToken.decode(since);
+        LOG.info("Syncing articles for user with id: {} since: {}", userId, since);
+        return tables.read(() -> {
+            List<List<MemTables.ArticleRow>> sources = new ArrayList<>();
+            Map<String, Long> sequences = new LinkedHashMap<>();
+            boolean gap = false;
+            for (String subscribed : tables.getSubscriptions().getFeedNames(userId)) {
+                MemTables.FeedRow feed = tables.getFeed(subscribed);
+                long head = feed.getLastSeq();
+                long seen = token.getSequence(feed.getName());
+                sequences.put(feed.getName(), head);
+                if (seen > head) {
+                    // The token is ahead of the store, it did not come from this store.
+                    gap = true;
+                    continue;
+                }
+                List<MemTables.ArticleRow> articles = new ArrayList<>();
+                for (long seq = head; seq > seen; seq--) {
+                    if (articles.size() == limit) {
+                        gap = true;
+                        break;
+                    }
+                    articles.add(tables.getArticle(feed, seq));
+                }
+                sources.add(articles);
+            }
+            return new ArticleDelta(toArticles(TimelineEngine.merge(sources,
+                    MemTables.ArticleRow::getPosition, Integer.MAX_VALUE), false),
+                    new SyncToken(sequences).encode(), gap);
+        });
+    }
+
+    @Override
+    public String getTimelineVersion(final long userId) {
+        return timelineVersions.getTimelineVersion(userId, this::getFeeds);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("articles", tables.getArticleCount());
+        stats.put("versions", timelineVersions.getStats());
+        stats.put("search", searchIndex.getStats());
+        stats.put("bulk_chunks", bulkChunks.get());
+        stats.put("bulk_articles", bulkArticles.get());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Adds the article to the feed and indexes it. Must hold the write lock, which also keeps
+     * the index in id order.
+     */
+    private MemTables.ArticleRow insert(final MemTables.FeedRow feed, final Article article) {
+        MemTables.ArticleRow added = tables.insertArticle(feed, article.getTitle(),
+                article.getBody());
+        if (searchIndex.isEnabled()) {
+            searchIndex.add(added.getId(), feed.getName(), added.getTitle(), added.getBody());
+        }
+        return added;
+    }
+
+    /**
+     * Returns the articles of the feeds of the user that fall strictly after the upper position
+     * and up to and including the lower one, newest first. Must hold the lock.
+     */
+    private List<MemTables.ArticleRow> getTimeline(final long userId, final ArticleCursor upper,
+            final ArticleCursor lower, final int limit) {
+        List<String> feeds = tables.getSubscriptions().getFeedNames(userId);
+        List<List<MemTables.ArticleRow>> sources = new ArrayList<>(feeds.size());
+        for (String subscribed : feeds) {
+            MemTables.FeedRow feed = tables.getFeed(subscribed);
+            List<MemTables.ArticleRow> articles = new ArrayList<>();
+            for (long seq = getOlderThan(feed, upper); seq > 0 && articles.size() < limit;
+                    seq--) {
+                MemTables.ArticleRow article = tables.getArticle(feed, seq);
+                if (ArticleCursor.NEWEST_FIRST.compare(article.getPosition(), lower) > 0) {
+                    break;
+                }
+                articles.add(article);
+            }
+            sources.add(articles);
+        }
+        return TimelineEngine.merge(sources, MemTables.ArticleRow::getPosition, limit);
+    }
+
+    /**
+     * Returns the sequence number of the newest article of the feed that comes after the
+     * position in the timeline, 0 if there is none. The articles of a feed are in timeline
+     * order, oldest first, so those that come after the position are a prefix of them.
+     */
+    private long getOlderThan(final MemTables.FeedRow feed, final ArticleCursor position) {
+        long low = 0;
+        long high = feed.getLastSeq();
+        while (low < high) {
+            long middle = (low + high + 1) >>> 1;
+            if (ArticleCursor.NEWEST_FIRST.compare(tables.getArticle(feed, middle).getPosition(),
+                    position) > 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private List<String> getFeeds(final long userId) {
+        return tables.getSubscriptions().getFeedNames(userId);
+    }
+
+    private List<Article> toArticles(final List<MemTables.ArticleRow> articles,
+            final boolean headlines) {
+        List<Article> converted = new ArrayList<>(articles.size());
+        for (MemTables.ArticleRow article : articles) {
+            converted.add(article.toArticle(headlines));
+        }
+        return converted;
+    }
+}
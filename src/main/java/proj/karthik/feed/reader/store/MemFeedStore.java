@@ -0,0 +1,78 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.entity.Feed;
+
+/**
+ * {@link FeedStore} implementation that keeps feeds in memory.
+ */
+public class MemFeedStore extends MemoryStoreService implements FeedStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MemFeedStore.class);
+    private static final Pattern PATTERN_COMMA = Pattern.compile(",");
+    private final Properties appConfig;
+    private final FeedDictionary feedDictionary;
+
+    @Inject
+    public MemFeedStore(@Named(Constants.APP_CONF) Properties appConfig, MemTables tables,
+            FeedDictionary feedDictionary) {
+        super(tables);
+        this.appConfig = appConfig;
+        this.feedDictionary = feedDictionary;
+    }
+
+    @Override
+    public void init() {
+        String defaultFeeds = this.appConfig.getProperty(Constants.DEFAULT_FEEDS);
+        if (StringUtils.isNotBlank(defaultFeeds)) {
+            String[] feeds = PATTERN_COMMA.split(defaultFeeds.trim());
+            Arrays.stream(feeds)
+                    .forEach(feed -> add(feed.trim()));
+        }
+    }
+
+    @Override
+    public void add(final String feed) {
+        checkForNull("Feed", feed);
+        LOG.debug("Adding new feed: {}", feed);
+        tables.write(() -> tables.insertFeed(feed));
+    }
+
+    @Override
+    public void delete(final String feed) {
+        checkForNull("Feed", feed);
+        LOG.debug("Deleting feed: {}", feed);
+        tables.write(() -> tables.deleteFeed(feed));
+    }
+
+    @Override
+    public List<Feed> list() {
+        LOG.debug("List all feeds");
+        return tables.read(() -> tables.getFeeds().stream()
+                .map(feed -> new Feed(feed.getName(), feed.getCreatedOn()))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dictionary", feedDictionary.getStats());
+        stats.put("feeds", tables.getFeedCount());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+}
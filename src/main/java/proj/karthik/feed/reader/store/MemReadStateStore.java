@@ -0,0 +1,88 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import proj.karthik.feed.reader.AppException;
+
+/**
+ * {@link ReadStateStore} implementation that keeps the {@link ReadMarks} of every (user, feed)
+ * pair in memory. Unread counts come from the newest sequence number of every feed, as they do in
+ * the database.
+ */
+public class MemReadStateStore extends MemoryStoreService implements ReadStateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MemReadStateStore.class);
+    private final AtomicLong articlesMarked = new AtomicLong();
+    private final AtomicLong feedsMarked = new AtomicLong();
+    private final AtomicLong unreadQueries = new AtomicLong();
+
+    @Inject
+    public MemReadStateStore(MemTables tables) {
+        super(tables);
+    }
+
+    @Override
+    public void markArticleRead(final long userId, final long articleId) {
+        LOG.info("Marking article: {} read for user with id: {}", articleId, userId);
+        tables.write(() -> {
+            MemTables.ArticleRow article = tables.getArticle(articleId);
+            if (article == null) {
+                throw new AppException(404, "Article %s not found", String.valueOf(articleId));
+            }
+            MemTables.FeedRow feed = tables.getFeed(article.getFeed());
+            ReadMarks marks = tables.getReadMarks(userId, feed);
+            if (marks == null) {
+                marks = new ReadMarks(0, null);
+                tables.putReadMarks(userId, feed, marks);
+            }
+            marks.markRead(article.getSeq());
+        });
+        articlesMarked.incrementAndGet();
+    }
+
+    @Override
+    public void markFeedRead(final long userId, final String feed) {
+        checkForNull("Feed", feed);
+        LOG.info("Marking feed: {} read for user with id: {}", feed, userId);
+        tables.write(() -> {
+            MemTables.FeedRow feedRow = tables.requireFeed(feed);
+            // The mark moves to the newest article of the feed, which clears the bitmap.
+            tables.putReadMarks(userId, feedRow, new ReadMarks(feedRow.getLastSeq(), null));
+        });
+        feedsMarked.incrementAndGet();
+    }
+
+    @Override
+    public Map<String, Long> getUnreadCounts(final long userId) {
+        LOG.info("Getting unread counts for user with id: {}", userId);
+        unreadQueries.incrementAndGet();
+        return tables.read(() -> {
+            Map<String, Long> unreadCounts = new LinkedHashMap<>();
+            for (String subscribed : tables.getSubscriptions().getFeedNames(userId)) {
+                MemTables.FeedRow feed = tables.getFeed(subscribed);
+                // Feeds the user never read anything of have no read state.
+                ReadMarks marks = tables.getReadMarks(userId, feed);
+                unreadCounts.put(feed.getName(), marks == null ? feed.getLastSeq()
+                        : marks.getUnread(feed.getLastSeq()));
+            }
+            return unreadCounts;
+        });
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("articles_marked", articlesMarked.get());
+        stats.put("feeds_marked", feedsMarked.get());
+        stats.put("unread_queries", unreadQueries.get());
+        stats.put("read_states", tables.getReadStateCount());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+}
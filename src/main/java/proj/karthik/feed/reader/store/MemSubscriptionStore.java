@@ -0,0 +1,148 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.entity.Feed;
+import proj.karthik.feed.reader.entity.User;
+import proj.karthik.feed.reader.sql.ResultHandler;
+
+/**
+ * {@link SubscriptionStore} implementation that keeps subscriptions in the
+ * {@link SubscriptionGraph} of the {@link MemTables}.
+ */
+public class MemSubscriptionStore extends MemoryStoreService implements SubscriptionStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MemSubscriptionStore.class);
+    private final TimelineVersions timelineVersions;
+
+    @Inject
+    public MemSubscriptionStore(MemTables tables, TimelineVersions timelineVersions) {
+        super(tables);
+        this.timelineVersions = timelineVersions;
+    }
+
+    @Override
+    public void addSubscriptionByName(final String feed, final String userName) {
+        checkForNull("Username", userName);
+        checkForNull("Feed", feed);
+        LOG.info("Subscribing {} to feed:{}", userName, feed);
+        List<User> users = new ArrayList<>();
+        tables.write(() -> {
+            users.addAll(tables.getUsers(userName));
+            if (users.isEmpty()) {
+                return;
+            }
+            MemTables.FeedRow feedRow = tables.requireFeed(feed);
+            // Either every user of the name is subscribed or none is.
+            for (User user : users) {
+                if (isSubscribed(user.getId(), feed)) {
+                    throw new AppException(409, "User %s is already subscribed to feed %s",
+                            String.valueOf(user.getId()), feed);
+                }
+            }
+            users.forEach(user -> tables.insertSubscription(user.getId(), feedRow));
+        });
+        users.forEach(user -> timelineVersions.subscriptionsChanged(user.getId()));
+    }
+
+    @Override
+    public void addSubscriptionById(final String feed, final long userId) {
+        checkForNull("Feed", feed);
+        LOG.info("Subscribing user with id:{} to feed:{}", userId, feed);
+        tables.write(() -> tables.insertSubscription(userId, tables.requireFeed(feed)));
+        timelineVersions.subscriptionsChanged(userId);
+    }
+
+    @Override
+    public void deleteSubscriptionByName(final String feed, final String userName) {
+        checkForNull("Username", userName);
+        checkForNull("Feed", feed);
+        LOG.info("Unsubscribing {} to feed:{}", userName, feed);
+        List<User> users = new ArrayList<>();
+        tables.write(() -> {
+            users.addAll(tables.getUsers(userName));
+            users.forEach(user -> tables.getSubscriptions().unsubscribe(user.getId(), feed));
+        });
+        users.forEach(user -> timelineVersions.subscriptionsChanged(user.getId()));
+    }
+
+    @Override
+    public void deleteSubscriptionById(final String feed, final Long userId) {
+        checkForNull("Feed", feed);
+        LOG.info("Unsubscribing user with id:{} to feed:{}", userId, feed);
+        tables.write(() -> tables.getSubscriptions().unsubscribe(userId, feed));
+        timelineVersions.subscriptionsChanged(userId);
+    }
+
+    @Override
+    public List<Feed> getUserSubscriptionsByName(final String userName) {
+        checkForNull("Username", userName);
+        LOG.info("Getting subscriptions for user:{}", userName);
+        return tables.read(() -> {
+            List<User> users = tables.getUsers(userName);
+            if (users.isEmpty()) {
+                return new ArrayList<Feed>();
+            }
+            return tables.getSubscriptions().getFeeds(users.get(0).getId());
+        });
+    }
+
+    @Override
+    public List<Feed> getUserSubscriptionsById(final long userId) {
+        LOG.info("Looking up subscriptions for user with id:{}", userId);
+        return tables.getSubscriptions().getFeeds(userId);
+    }
+
+    @Override
+    public int streamUserSubscriptionsById(final long userId, final ResultHandler<Feed> handler) {
+        LOG.info("Streaming subscriptions for user with id:{}", userId);
+        List<Feed> feeds = tables.getSubscriptions().getFeeds(userId);
+        try {
+            for (Feed feed : feeds) {
+                handler.handle(feed);
+            }
+        } catch (IOException e) {
+            throw new AppException(500, "Error streaming subscriptions", e);
+        }
+        return feeds.size();
+    }
+
+    @Override
+    public List<String> getFeedNames(final long userId) {
+        return tables.getSubscriptions().getFeedNames(userId);
+    }
+
+    @Override
+    public String getSubscriptionVersion(final long userId) {
+        return timelineVersions.getSubscriptionVersion(userId);
+    }
+
+    @Override
+    public int forEachSubscriber(final String feed, final LongConsumer consumer) {
+        return tables.getSubscriptions().forEachSubscriber(feed, consumer);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("graph", tables.getSubscriptions().getStats());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private boolean isSubscribed(final long userId, final String feed) {
+        return tables.getSubscriptions().getFeedNames(userId).contains(feed);
+    }
+}
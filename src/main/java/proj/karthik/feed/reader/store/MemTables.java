@@ -0,0 +1,468 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.Feed;
+import proj.karthik.feed.reader.entity.User;
+
+/**
+ * In memory counterpart of the database schema that the in memory stores share: the feed, user,
+ * article, subscription and read state tables, along with the foreign keys between them.
+ * <p>
+ * Users and articles are kept in {@link LongHashMap}s keyed by their ids. Every feed holds the
+ * ids of its articles in a growing array in sequence number order, so the article with sequence
+ * number n sits at index n - 1 and the newest sequence number of a feed is the number of its
+ * articles. Subscriptions live in a {@link SubscriptionGraph} and read state in a
+ * {@link ReadMarks} per (user, feed id) pair. Ids are handed out in increasing order and creation
+ * times never go back, so ordering articles by id orders them the way timelines are read.
+ * <p>
+ * The tables are guarded by a single read write lock. Lookups share it and changes take it
+ * exclusively, which makes the checks of the foreign keys and the change they guard atomic, the
+ * way a transaction does in the database. Nothing in here is held for long, the lock is never
+ * taken while waiting on anything else.
+ */
+public class MemTables {
+    private static final Object TABLES = MemTables.class;
+    private final StripedLock lock = new StripedLock(1);
+    private final FeedDictionary feedDictionary;
+    private final Map<String, FeedRow> feeds = new HashMap<>();
+    private final LongHashMap<User> users = new LongHashMap<>();
+    private final Map<String, LongHashSet> userIdsByName = new HashMap<>();
+    private final LongHashMap<ArticleRow> articles = new LongHashMap<>();
+    private final SubscriptionGraph subscriptions = new SubscriptionGraph();
+    private final LongHashMap<LongHashMap<ReadMarks>> readMarks = new LongHashMap<>();
+    private int lastFeedId;
+    private long lastUserId;
+    private long lastArticleId;
+    private long lastCreatedOn;
+    private long readStates;
+
+    @Inject
+    public MemTables(FeedDictionary feedDictionary) {
+        this.feedDictionary = feedDictionary;
+    }
+
+    <T> T read(final ReadProtected<T> readProtected) {
+        return lock.read(TABLES, readProtected);
+    }
+
+    void write(final WriteProtected writeProtected) {
+        lock.write(TABLES, writeProtected);
+    }
+
+    /**
+     * Adds the feed with the next feed id. Must hold the write lock.
+     *
+     * @param name
+     */
+    void insertFeed(final String name) {
+        if (feeds.containsKey(name)) {
+            throw new AppException(409, "Feed %s already exists", name);
+        }
+        FeedRow feed = new FeedRow(++lastFeedId, name, nextCreatedOn());
+        feeds.put(name, feed);
+        feedDictionary.put(feed.id, name);
+    }
+
+    /**
+     * Deletes the feed unless it is still referred to. Must hold the write lock.
+     *
+     * @param name
+     */
+    void deleteFeed(final String name) {
+        FeedRow feed = feeds.get(name);
+        if (feed == null) {
+            return;
+        }
+        if (subscriptions.getSubscriberCount(name) > 0) {
+            throw new AppException(409, "Feed %s still has subscribers", name);
+        }
+        if (feed.size > 0) {
+            throw new AppException(409, "Feed %s still has articles", name);
+        }
+        if (feed.readStates > 0) {
+            throw new AppException(409, "Feed %s still has read state", name);
+        }
+        feeds.remove(name);
+        feedDictionary.remove(name);
+    }
+
+    /**
+     * Returns the feed. Must hold the lock.
+     *
+     * @param name
+     * @return feed, null if there is no such feed
+     */
+    FeedRow getFeed(final String name) {
+        return feeds.get(name);
+    }
+
+    /**
+     * Returns the feed or fails with {@code 404}. Must hold the lock.
+     *
+     * @param name
+     * @return feed
+     */
+    FeedRow requireFeed(final String name) {
+        FeedRow feed = feeds.get(name);
+        if (feed == null) {
+            throw new AppException(404, "Feed %s not found", name);
+        }
+        return feed;
+    }
+
+    /**
+     * Returns all feeds in the order they were added. Must hold the lock.
+     *
+     * @return feeds
+     */
+    List<FeedRow> getFeeds() {
+        List<FeedRow> rows = new ArrayList<>(feeds.values());
+        rows.sort((left, right) -> Integer.compare(left.id, right.id));
+        return rows;
+    }
+
+    /**
+     * Adds a user with the next user id. Must hold the write lock.
+     *
+     * @param name
+     */
+    void insertUser(final String name) {
+        long id = ++lastUserId;
+        users.put(id, new User(id, name, nextCreatedOn()));
+        userIdsByName.computeIfAbsent(name, key -> new LongHashSet()).add(id);
+    }
+
+    /**
+     * Deletes every user with the name, or none of them if one of them is still referred to.
+     * Must hold the write lock.
+     *
+     * @param name
+     */
+    void deleteUsers(final String name) {
+        LongHashSet ids = userIdsByName.get(name);
+        if (ids == null) {
+            return;
+        }
+        long[] userIds = ids.toArray();
+        for (long userId : userIds) {
+            checkUnreferenced(userId);
+        }
+        for (long userId : userIds) {
+            users.remove(userId);
+        }
+        userIdsByName.remove(name);
+    }
+
+    /**
+     * Deletes the user unless it is still referred to. Must hold the write lock.
+     *
+     * @param userId
+     */
+    void deleteUser(final long userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            return;
+        }
+        checkUnreferenced(userId);
+        users.remove(userId);
+        LongHashSet ids = userIdsByName.get(user.getName());
+        ids.remove(userId);
+        if (ids.size() == 0) {
+            userIdsByName.remove(user.getName());
+        }
+    }
+
+    /**
+     * Returns the users with the name, by id. Must hold the lock.
+     *
+     * @param name
+     * @return users
+     */
+    List<User> getUsers(final String name) {
+        LongHashSet ids = userIdsByName.get(name);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        long[] userIds = ids.toArray();
+        Arrays.sort(userIds);
+        List<User> named = new ArrayList<>(userIds.length);
+        for (long userId : userIds) {
+            User user = users.get(userId);
+            named.add(new User(user.getId(), user.getName(), user.getCreatedOn()));
+        }
+        return named;
+    }
+
+    /**
+     * Fails with {@code 404} if there is no user with the id. Must hold the lock.
+     *
+     * @param userId
+     */
+    void requireUser(final long userId) {
+        if (users.get(userId) == null) {
+            throw new AppException(404, "User %s not found", String.valueOf(userId));
+        }
+    }
+
+    /**
+     * Reserves the article ids up to the given one, so that articles added from now on get
+     * higher ids. Must hold the write lock.
+     *
+     * @param articleId
+     */
+    void reserveArticleIds(final long articleId) {
+        lastArticleId = Math.max(lastArticleId, articleId);
+    }
+
+    /**
+     * Appends an article to the feed with the next article id and sequence number of the feed.
+     * Must hold the write lock.
+     *
+     * @param feed
+     * @param title
+     * @param body
+     * @return article
+     */
+    ArticleRow insertArticle(final FeedRow feed, final String title, final String body) {
+        ArticleRow article = new ArticleRow(++lastArticleId, feed.size + 1, feed.name, title,
+                body, nextCreatedOn());
+        articles.put(article.getId(), article);
+        feed.append(article.getId());
+        return article;
+    }
+
+    /**
+     * Returns the article. Must hold the lock.
+     *
+     * @param articleId
+     * @return article, null if there is no such article
+     */
+    ArticleRow getArticle(final long articleId) {
+        return articles.get(articleId);
+    }
+
+    /**
+     * Returns the article of the feed with the given sequence number. Must hold the lock.
+     *
+     * @param feed
+     * @param seq from 1 to the newest sequence number of the feed
+     * @return article
+     */
+    ArticleRow getArticle(final FeedRow feed, final long seq) {
+        return articles.get(feed.articleIds[(int) (seq - 1)]);
+    }
+
+    /**
+     * Returns the subscriptions. Changing them requires the write lock, reading them only their
+     * own lock.
+     *
+     * @return subscriptions
+     */
+    SubscriptionGraph getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Subscribes the user to the feed. Must hold the write lock.
+     *
+     * @param userId
+     * @param feed
+     */
+    void insertSubscription(final long userId, final FeedRow feed) {
+        requireUser(userId);
+        if (!subscriptions.subscribe(userId, new Feed(feed.name, feed.createdOn))) {
+            throw new AppException(409, "User %s is already subscribed to feed %s",
+                    String.valueOf(userId), feed.name);
+        }
+    }
+
+    /**
+     * Returns the read marks of the user in the feed. Must hold the lock.
+     *
+     * @param userId
+     * @param feed
+     * @return marks, null if the user has no read state in the feed
+     */
+    ReadMarks getReadMarks(final long userId, final FeedRow feed) {
+        LongHashMap<ReadMarks> userMarks = readMarks.get(userId);
+        return userMarks == null ? null : userMarks.get(feed.id);
+    }
+
+    /**
+     * Sets the read marks of the user in the feed. Must hold the write lock.
+     *
+     * @param userId
+     * @param feed
+     * @param marks
+     */
+    void putReadMarks(final long userId, final FeedRow feed, final ReadMarks marks) {
+        requireUser(userId);
+        LongHashMap<ReadMarks> userMarks = readMarks.get(userId);
+        if (userMarks == null) {
+            userMarks = new LongHashMap<>();
+            readMarks.put(userId, userMarks);
+        }
+        if (userMarks.get(feed.id) == null) {
+            feed.readStates++;
+            readStates++;
+        }
+        userMarks.put(feed.id, marks);
+    }
+
+    int getFeedCount() {
+        return read(feeds::size);
+    }
+
+    int getUserCount() {
+        return read(users::size);
+    }
+
+    int getArticleCount() {
+        return read(articles::size);
+    }
+
+    long getReadStateCount() {
+        return read(() -> readStates);
+    }
+
+    Map<String, Object> getLockStats() {
+        return lock.getStats();
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private void checkUnreferenced(final long userId) {
+        if (!subscriptions.getFeeds(userId).isEmpty()) {
+            throw new AppException(409, "User %s still has subscriptions",
+                    String.valueOf(userId));
+        }
+        if (readMarks.get(userId) != null) {
+            throw new AppException(409, "User %s still has read state", String.valueOf(userId));
+        }
+    }
+
+    /**
+     * Returns the current time, or the last time handed out if the clock went back since.
+     */
+    private Timestamp nextCreatedOn() {
+        lastCreatedOn = Math.max(lastCreatedOn, System.currentTimeMillis());
+        return new Timestamp(lastCreatedOn);
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * A row of the feed table along with the ids of its articles, oldest first.
+     */
+    static class FeedRow {
+        private static final long[] NO_ARTICLES = new long[0];
+        private final int id;
+        private final String name;
+        private final Timestamp createdOn;
+        private long[] articleIds = NO_ARTICLES;
+        private int size;
+        private int readStates;
+
+        private FeedRow(final int id, final String name, final Timestamp createdOn) {
+            this.id = id;
+            this.name = name;
+            this.createdOn = createdOn;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Timestamp getCreatedOn() {
+            return createdOn;
+        }
+
+        /**
+         * Returns the newest sequence number of the feed, 0 if it has no articles.
+         *
+         * @return lastSeq
+         */
+        long getLastSeq() {
+            return size;
+        }
+
+        private void append(final long articleId) {
+            if (size == articleIds.length) {
+                articleIds = Arrays.copyOf(articleIds, Math.max(16, size * 2));
+            }
+            articleIds[size++] = articleId;
+        }
+    }
+
+    /**
+     * A row of the article table. Rows never change once added.
+     */
+    static class ArticleRow {
+        private final ArticleCursor position;
+        private final long seq;
+        private final String feed;
+        private final String title;
+        private final String body;
+
+        private ArticleRow(final long id, final long seq, final String feed, final String title,
+                final String body, final Timestamp createdOn) {
+            this.position = new ArticleCursor(createdOn, id);
+            this.seq = seq;
+            this.feed = feed;
+            this.title = title;
+            this.body = body;
+        }
+
+        long getId() {
+            return position.getId();
+        }
+
+        long getSeq() {
+            return seq;
+        }
+
+        String getFeed() {
+            return feed;
+        }
+
+        String getTitle() {
+            return title;
+        }
+
+        String getBody() {
+            return body;
+        }
+
+        ArticleCursor getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns a copy of the article, without its body if only the headline is wanted.
+         *
+         * @param headline
+         * @return article
+         */
+        Article toArticle(final boolean headline) {
+            Article article = new Article();
+            article.setId(position.getId());
+            article.setTitle(title);
+            article.setCreatedOn(new Timestamp(position.getCreatedOn().getTime()));
+            if (!headline) {
+                article.setBody(body);
+            }
+            article.setFeed(feed);
+            return article;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import proj.karthik.feed.reader.entity.User;
+
+/**
+ * {@link UserStore} implementation that keeps users in memory. Names are looked up in a map of
+ * their own, so there is nothing to cache.
+ */
+public class MemUserStore extends MemoryStoreService implements UserStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MemUserStore.class);
+
+    private TimelineVersions timelineVersions;
+
+    @Inject
+    public MemUserStore(MemTables tables) {
+        super(tables);
+    }
+
+    /**
+     * Drops the timeline versions of deleted users. Injected right after construction, before
+     * the store is shared with other threads.
+     *
+     * @param timelineVersions
+     */
+    @Inject(optional = true)
+    public void configureVersions(TimelineVersions timelineVersions) {
+        this.timelineVersions = timelineVersions;
+    }
+
+    @Override
+    public void add(final String userName) {
+        checkForNull("Username", userName);
+        LOG.info("Adding user: {}", userName);
+        tables.write(() -> tables.insertUser(userName));
+    }
+
+    @Override
+    public void delete(final String userName) {
+        checkForNull("Username", userName);
+        LOG.info("Deleting user: {}", userName);
+        List<User> users = new ArrayList<>();
+        tables.write(() -> {
+            users.addAll(tables.getUsers(userName));
+            tables.deleteUsers(userName);
+        });
+        users.forEach(user -> userDeleted(user.getId()));
+    }
+
+    @Override
+    public void delete(final long userId) {
+        LOG.info("Deleting user with id: {}", userId);
+        tables.write(() -> tables.deleteUser(userId));
+        userDeleted(userId);
+    }
+
+    @Override
+    public List<User> getId(final String userName) {
+        checkForNull("Username", userName);
+        LOG.info("Looking up id for user: {}", userName);
+        return tables.read(() -> tables.getUsers(userName));
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("users", tables.getUserCount());
+        stats.put("locks", getLockStats());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private void userDeleted(final long userId) {
+        if (timelineVersions != null) {
+            timelineVersions.userDeleted(userId);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package proj.karthik.feed.reader.store;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+
+import proj.karthik.feed.reader.AppException;
+
+/**
+ * MemoryStoreService is an implementation of {@link StoreService} that keeps everything in the
+ * {@link MemTables} of the process, for nodes that trade durability for latency and as a baseline
+ * to measure the database backed stores against. Nothing survives a restart.
+ */
+public abstract class MemoryStoreService implements StoreService {
+    protected final MemTables tables;
+
+    public MemoryStoreService(MemTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    //------------------------------- protected methods ---------------------------------------//
+    protected void checkForNull(final String field, final String value) {
+        if (StringUtils.isBlank(value)) {
+            throw new AppException(400, String.format("%s attribute cannot be empty", field));
+        }
+    }
+
+    protected Map<String, Object> getLockStats() {
+        return tables.getLockStats();
+    }
+}
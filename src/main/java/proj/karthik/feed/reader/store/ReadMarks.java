@@ -0,0 +1,90 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.BitSet;
+
+/**
+ * ReadMarks is what one user has read of one feed, in terms of the feed's article sequence
+ * numbers. Every article up to the high water mark has been read. Articles above it that were
+ * read out of order are kept in a bitmap, where bit i stands for sequence number
+ * {@code highWaterMark + 1 + i}. The mark moves up over the leading read articles, so in the
+ * common case of reading in order the bitmap stays empty.
+ * <p>
+ * The bitmap covers at most {@link #MAX_WINDOW} articles above the mark. Reading an article
+ * beyond that moves the mark up, which counts the oldest articles of the window as read. This
+ * bounds the stored state of a feed to a kilobyte.
+ */
+class ReadMarks {
+    static final int MAX_WINDOW = 8192;
+
+    private long highWaterMark;
+    private BitSet bits;
+
+    ReadMarks(final long highWaterMark, final byte[] bitmap) {
+        this.highWaterMark = highWaterMark;
+        this.bits = bitmap == null ? new BitSet() : BitSet.valueOf(bitmap);
+    }
+
+    /**
+     * Marks the article with the given sequence number as read. Returns false if it was read
+     * already.
+     *
+     * @param sequence
+     * @return changed
+     */
+    boolean markRead(final long sequence) {
+        if (sequence <= highWaterMark) {
+            return false;
+        }
+        if (sequence - highWaterMark > MAX_WINDOW) {
+            advance(sequence - MAX_WINDOW);
+        }
+        int bit = (int) (sequence - highWaterMark - 1);
+        if (bits.get(bit)) {
+            return false;
+        }
+        bits.set(bit);
+        advance(highWaterMark + bits.nextClearBit(0));
+        return true;
+    }
+
+    /**
+     * Returns the number of unread articles of a feed whose newest article has the given
+     * sequence number.
+     *
+     * @param head
+     * @return unread
+     */
+    long getUnread(final long head) {
+        if (head <= highWaterMark) {
+            return 0;
+        }
+        long window = head - highWaterMark;
+        int read = window >= bits.length() ? bits.cardinality()
+                : bits.get(0, (int) window).cardinality();
+        return window - read;
+    }
+
+    long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Returns the bitmap as stored, or null if no article above the mark has been read.
+     *
+     * @return bitmap
+     */
+    byte[] getBitmap() {
+        return bits.isEmpty() ? null : bits.toByteArray();
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private void advance(final long mark) {
+        long shift = mark - highWaterMark;
+        if (shift <= 0) {
+            return;
+        }
+        bits = shift >= bits.length() ? new BitSet() : bits.get((int) shift, bits.length());
+        highWaterMark = mark;
+    }
+}
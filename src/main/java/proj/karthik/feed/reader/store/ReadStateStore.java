@@ -0,0 +1,35 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.Map;
+
+/**
+ * {@link StoreService} interface for tracking which articles users have read.
+ */
+public interface ReadStateStore extends StoreService {
+
+    /**
+     * Marks the article with the given id as read by the user with the given user id.
+     *
+     * @param userId
+     * @param articleId
+     */
+    void markArticleRead(long userId, long articleId);
+
+    /**
+     * Marks every article currently in the feed as read by the user with the given user id.
+     *
+     * @param userId
+     * @param feed
+     */
+    void markFeedRead(long userId, String feed);
+
+    /**
+     * Returns the number of unread articles in every feed the user with the given user id is
+     * subscribed to, by feed name. Articles added before the user subscribed count as unread
+     * until they are marked read.
+     *
+     * @param userId
+     * @return unread counts
+     */
+    Map<String, Long> getUnreadCounts(long userId);
+}
@@ -0,0 +1,242 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.entity.Article;
+
+/**
+ * RecentArticleCache keeps the most recent articles of every feed in a bounded ring buffer, so
+ * that reads near the head of a timeline can be answered without going to the database. The
+ * caller hands in the feeds of the timeline, the cache does not keep subscriptions of its own.
+ * <p>
+ * A buffer holds the {@code recent_articles_per_feed} newest articles of its feed. Everything
+ * that fell out of a buffer is older than the oldest article still in it, so a timeline page is
+ * served from memory only when, for every subscribed feed whose buffer has evicted articles, the
+ * page does not reach past the oldest buffered article of that feed. Anything else is a miss and
+ * has to be read from the database.
+ */
+public class RecentArticleCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RecentArticleCache.class);
+    private static final int DEFAULT_CAPACITY = 100;
+    private final int capacity;
+    private final ConcurrentMap<String, RingBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean loaded;
+
+    @Inject
+    public RecentArticleCache(@Named(Constants.APP_CONF) Properties appConfig) {
+        String capacity = appConfig.getProperty(Constants.RECENT_ARTICLES_PER_FEED);
+        this.capacity = capacity == null ? DEFAULT_CAPACITY : Integer.parseInt(capacity.trim());
+    }
+
+    /**
+     * Returns true if recent articles are cached.
+     *
+     * @return isEnabled
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Returns the number of articles kept per feed.
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Loads the most recent articles of a feed, newest first. A feed that has fewer articles than
+     * the capacity of its buffer is cached in full.
+     *
+     * @param feed
+     * @param articles
+     */
+    public void load(final String feed, final List<Article> articles) {
+        RingBuffer buffer = new RingBuffer(capacity);
+        for (int i = articles.size() - 1; i >= 0; i--) {
+            buffer.add(articles.get(i));
+        }
+        buffer.complete = articles.size() < capacity;
+        buffers.put(feed, buffer);
+    }
+
+    /**
+     * Marks the cache as loaded. Lookups miss until then.
+     *
+     * @param feedCount
+     */
+    public void loaded(final int feedCount) {
+        LOG.info("Cached recent articles of {} feeds, {} articles per feed", feedCount, capacity);
+        loaded = true;
+    }
+
+    /**
+     * Adds a newly committed article to the buffer of its feed.
+     *
+     * @param feed
+     * @param article
+     */
+    public void add(final String feed, final Article article) {
+        if (!isEnabled()) {
+            return;
+        }
+        RingBuffer buffer = buffers.computeIfAbsent(feed, name -> {
+            RingBuffer empty = new RingBuffer(capacity);
+            // Feeds are created empty, so a feed without a buffer has no articles yet.
+            empty.complete = true;
+            return empty;
+        });
+        buffer.add(article);
+    }
+
+    /**
+     * Returns the articles of the given feeds that are older than {@code upper} and not older
+     * than {@code lower}, newest first and at most {@code limit} of them, if the cached articles
+     * are enough to answer exactly.
+     *
+     * @param feeds the feeds of the timeline
+     * @param upper exclusive
+     * @param lower inclusive
+     * @param limit
+     * @return articles or empty if the timeline has to be read from the database
+     */
+    public Optional<List<Article>> getTimeline(final Collection<String> feeds,
+            final ArticleCursor upper, final ArticleCursor lower, final int limit) {
+        if (!isEnabled() || !loaded) {
+            return Optional.empty();
+        }
+        List<List<Article>> sources = new ArrayList<>(feeds.size());
+        List<ArticleCursor> horizons = new ArrayList<>(feeds.size());
+        for (String feed : feeds) {
+            RingBuffer buffer = buffers.get(feed);
+            if (buffer != null) {
+                buffer.snapshot(upper, lower, sources, horizons);
+            }
+        }
+        List<Article> articles = TimelineEngine.merge(sources, ArticleCursor::of, limit);
+        // The page is exact if nothing a buffer evicted could belong to it. Evicted articles
+        // are older than the horizon of their buffer, so the page must not reach past it.
+        ArticleCursor end = articles.size() < limit ? lower
+                : ArticleCursor.of(articles.get(articles.size() - 1));
+        for (ArticleCursor horizon : horizons) {
+            if (ArticleCursor.NEWEST_FIRST.compare(end, horizon) > 0) {
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+        }
+        hits.incrementAndGet();
+        return Optional.of(articles);
+    }
+
+    /**
+     * Returns cache counters.
+     *
+     * @return stats
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(Constants.RECENT_ARTICLES_PER_FEED, capacity);
+        stats.put("cached_feeds", buffers.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Fixed size buffer of the newest articles of a feed.
+     */
+    private static class RingBuffer {
+        private final Article[] slots;
+        private int next;
+        private int size;
+        // True while the buffer holds every article of the feed.
+        private boolean complete;
+
+        RingBuffer(final int capacity) {
+            this.slots = new Article[capacity];
+        }
+
+        synchronized void add(final Article article) {
+            if (size > 0 && ArticleCursor.NEWEST_FIRST.compare(ArticleCursor.of(article),
+                    ArticleCursor.of(slots[index(1)])) >= 0) {
+                // Only happens if the clock moved backwards. Rebuild the buffer in timeline
+                // order so that everything buffered stays newer than everything evicted.
+                List<Article> articles = new ArrayList<>(size + 1);
+                for (int i = size; i >= 1; i--) {
+                    articles.add(slots[index(i)]);
+                }
+                articles.add(article);
+                articles.sort(Comparator.comparing(ArticleCursor::of,
+                        ArticleCursor.NEWEST_FIRST.reversed()));
+                Arrays.fill(slots, null);
+                next = 0;
+                size = 0;
+                articles.forEach(this::append);
+            } else {
+                append(article);
+            }
+        }
+
+        /**
+         * Adds the buffered articles in the given range, newest first, to the sources and the
+         * position of the oldest buffered article to the horizons if older articles were evicted.
+         */
+        synchronized void snapshot(final ArticleCursor upper, final ArticleCursor lower,
+                final List<List<Article>> sources, final List<ArticleCursor> horizons) {
+            List<Article> articles = new ArrayList<>(size);
+            for (int i = 1; i <= size; i++) {
+                Article article = slots[index(i)];
+                ArticleCursor position = ArticleCursor.of(article);
+                if (ArticleCursor.NEWEST_FIRST.compare(position, upper) > 0
+                        && ArticleCursor.NEWEST_FIRST.compare(position, lower) <= 0) {
+                    articles.add(article);
+                }
+            }
+            sources.add(articles);
+            if (!complete) {
+                horizons.add(ArticleCursor.of(slots[index(size)]));
+            }
+        }
+
+        private void append(final Article article) {
+            if (size == slots.length) {
+                complete = false;
+            } else {
+                size++;
+            }
+            slots[next] = article;
+            next = (next + 1) % slots.length;
+        }
+
+        /**
+         * Returns the slot of the i-th newest article.
+         */
+        private int index(final int i) {
+            return (next - i + slots.length) % slots.length;
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+
+/**
+ * SearchIndex is an inverted index over the titles and bodies of articles, kept up to date as
+ * articles are added.
+ * <p>
+ * New articles go into an in memory buffer. Once {@code search_flush_docs} articles have been
+ * buffered the buffer is turned into an immutable {@link SearchSegment}, which is written to the
+ * index directory in the background. Segments are merged in the background as well: whenever
+ * {@code search_merge_factor} segments of the same level have been written they are merged into
+ * one segment of the next level, so every article is merged a logarithmic number of times.
+ * <p>
+ * Articles in the buffer, or in segments that were not written yet, are lost on a crash. The
+ * article store indexes every article after {@link #getIndexedUpTo()} again when it starts.
+ * <p>
+ * Queries match the articles that contain all query terms and rank them with BM25.
+ */
+public class SearchIndex implements StoreService {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchIndex.class);
+    private static final Pattern PATTERN_SEGMENT = Pattern.compile("index-(\\d+)\\.seg");
+    private static final String SEGMENT_FORMAT = "index-%010d.seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int DEFAULT_FLUSH_DOCS = 1000;
+    private static final int DEFAULT_MERGE_FACTOR = 10;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_QUERY_TERMS = 16;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Comparator<Hit> RANKING = Comparator.<Hit>comparingDouble(hit -> hit.score)
+            .thenComparingLong(hit -> hit.id);
+    private final boolean enabled;
+    private final Path directory;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private ExecutorService background;
+    private volatile List<SearchSegment> segments = new ArrayList<>();
+    private Buffer buffer = new Buffer();
+    private long nextGeneration;
+    private long indexedUpTo;
+
+    @Inject
+    public SearchIndex(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.enabled = Boolean.parseBoolean(
+                appConfig.getProperty(Constants.SEARCH_INDEX, "false").trim());
+        this.directory = Paths.get(appConfig.getProperty(Constants.SEARCH_INDEX_DIR,
+                Paths.get(".", "data", "index").toString()));
+        this.flushDocs = Integer.parseInt(appConfig.getProperty(Constants.SEARCH_FLUSH_DOCS,
+                String.valueOf(DEFAULT_FLUSH_DOCS)).trim());
+        this.mergeFactor = Math.max(2, Integer.parseInt(appConfig.getProperty(
+                Constants.SEARCH_MERGE_FACTOR, String.valueOf(DEFAULT_MERGE_FACTOR)).trim()));
+    }
+
+    @Override
+    public synchronized void init() {
+        if (!enabled) {
+            return;
+        }
+        background = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+            segments = load();
+        } catch (IOException e) {
+            // The index can always be rebuilt from the articles.
+            LOG.warn("Discarding search index at {}", directory, e);
+            try {
+                clear();
+            } catch (IOException e1) {
+                throw new AppException(500, "Error clearing search index at %s", e1,
+                        directory.toString());
+            }
+            segments = new ArrayList<>();
+        }
+        for (SearchSegment segment : segments) {
+            indexedUpTo = Math.max(indexedUpTo, segment.getLastDocId());
+        }
+        LOG.info("Search index opened at {} with {} segments, indexed up to article {}",
+                directory, segments.size(), indexedUpTo);
+    }
+
+    /**
+     * Stops the background work and writes the buffered articles, so that they do not have to
+     * be indexed again on the next start.
+     */
+    @Override
+    public void shutdown() {
+        if (background == null) {
+            return;
+        }
+        synchronized (this) {
+            flush();
+        }
+        background.shutdown();
+        try {
+            if (!background.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Search index did not finish writing segments");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns true if articles are indexed and can be searched.
+     *
+     * @return isEnabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the id of the newest indexed article. Articles are indexed in id order, so every
+     * article with a higher id still has to be indexed.
+     *
+     * @return article id
+     */
+    public synchronized long getIndexedUpTo() {
+        return indexedUpTo;
+    }
+
+    /**
+     * Indexes the article. Articles must be added in id order, articles up to
+     * {@link #getIndexedUpTo()} are ignored.
+     *
+     * @param articleId
+     * @param feed
+     * @param title
+     * @param body
+     */
+    public synchronized void add(final long articleId, final String feed, final String title,
+            final String body) {
+        if (articleId <= indexedUpTo) {
+            return;
+        }
+        Map<String, Integer> freqs = new HashMap<>();
+        int length = tokenize(title, term -> freqs.merge(term, 1, Integer::sum))
+                + tokenize(body, term -> freqs.merge(term, 1, Integer::sum));
+        buffer.add(articleId, feed, length, freqs);
+        indexedUpTo = articleId;
+        if (buffer.getDocCount() >= flushDocs) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the ids of the articles of the given feeds that contain every term of the query,
+     * best match first.
+     *
+     * @param query
+     * @param feeds
+     * @param offset number of matches to skip
+     * @param limit
+     * @return article ids
+     */
+    public List<Long> search(final String query, final Set<String> feeds, final int offset,
+            final int limit) {
+        Set<String> queryTerms = new LinkedHashSet<>();
+        tokenize(query, term -> {
+            if (queryTerms.size() < MAX_QUERY_TERMS) {
+                queryTerms.add(term);
+            }
+        });
+        if (queryTerms.isEmpty()) {
+            throw new AppException(400, "Search query has no words: %s", query);
+        }
+        long start = System.nanoTime();
+        String[] terms = queryTerms.toArray(new String[queryTerms.size()]);
+        PriorityQueue<Hit> top = new PriorityQueue<>(RANKING);
+        int capacity = offset + limit;
+        List<SearchSegment> searched;
+        long docCount;
+        long totalLength;
+        long[] docFreqs = new long[terms.length];
+        synchronized (this) {
+            // Statistics have to cover the buffer as well, so it is scored while holding the
+            // lock. Segments never change, they are scored without it.
+            searched = segments;
+            List<SearchSource> sources = new ArrayList<>(searched);
+            sources.add(buffer);
+            docCount = 0;
+            totalLength = 0;
+            for (SearchSource source : sources) {
+                docCount += source.getDocCount();
+                totalLength += source.getTotalLength();
+                for (int i = 0; i < terms.length; i++) {
+                    SearchSegment.Postings postings = source.getPostings(terms[i]);
+                    docFreqs[i] += postings == null ? 0 : postings.getDocFreq();
+                }
+            }
+            if (docCount == 0) {
+                return new ArrayList<>();
+            }
+            score(buffer, terms, docFreqs, docCount, totalLength, feeds, top, capacity);
+        }
+        for (SearchSegment segment : searched) {
+            score(segment, terms, docFreqs, docCount, totalLength, feeds, top, capacity);
+        }
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(RANKING.reversed());
+        List<Long> ids = new ArrayList<>(limit);
+        for (int i = offset; i < hits.size(); i++) {
+            ids.add(hits.get(i).id);
+        }
+        queries.incrementAndGet();
+        queryNanos.addAndGet(System.nanoTime() - start);
+        return ids;
+    }
+
+    @Override
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        long docs = buffer.getDocCount();
+        long terms = 0;
+        for (SearchSegment segment : segments) {
+            docs += segment.getDocCount();
+            terms += segment.getTermCount();
+        }
+        stats.put("indexed_docs", docs);
+        stats.put("buffered_docs", buffer.getDocCount());
+        stats.put("segments", segments.size());
+        stats.put("segment_terms", terms);
+        stats.put("flushes", flushes.get());
+        stats.put("merges", merges.get());
+        stats.put("queries", queries.get());
+        stats.put("avg_query_micros", queries.get() == 0 ? 0
+                : queryNanos.get() / queries.get() / 1000);
+        return stats;
+    }
+
+    /**
+     * Splits the text into lower case terms made of letters and digits, and returns the number
+     * of terms. Overly long terms are cut.
+     *
+     * @param text
+     * @param consumer
+     * @return number of terms
+     */
+    static int tokenize(final String text, final TermConsumer consumer) {
+        if (text == null) {
+            return 0;
+        }
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                consumer.accept(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH))
+                        .toLowerCase(Locale.ROOT));
+                count++;
+                start = -1;
+            }
+        }
+        return count;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Scores the articles of the source that contain all terms and belong to one of the feeds,
+     * keeping the best {@code capacity} of all sources in the queue.
+     */
+    private void score(final SearchSource source, final String[] terms, final long[] docFreqs,
+            final long docCount, final long totalLength, final Set<String> feeds,
+            final PriorityQueue<Hit> top, final int capacity) {
+        SearchSegment.Postings[] postings = new SearchSegment.Postings[terms.length];
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            postings[i] = source.getPostings(terms[i]);
+            if (postings[i] == null) {
+                return;
+            }
+            order[i] = i;
+        }
+        // Rarest term first, so that the candidates only ever shrink from the smallest list.
+        Arrays.sort(order, Comparator.comparingInt(i -> postings[i].getDocFreq()));
+        double averageLength = (double) totalLength / docCount;
+        int[] candidates = null;
+        double[] scores = null;
+        int count = 0;
+        for (int i : order) {
+            double idf = Math.log(1 + (docCount - docFreqs[i] + 0.5) / (docFreqs[i] + 0.5));
+            int[] docs = new int[postings[i].getDocFreq()];
+            int[] freqs = new int[docs.length];
+            postings[i].decode(docs, freqs);
+            if (candidates == null) {
+                candidates = new int[docs.length];
+                scores = new double[docs.length];
+                for (int d = 0; d < docs.length; d++) {
+                    if (feeds.contains(source.getFeed(docs[d]))) {
+                        candidates[count] = docs[d];
+                        scores[count++] = bm25(idf, freqs[d], source.getLength(docs[d]),
+                                averageLength);
+                    }
+                }
+                continue;
+            }
+            // Both lists are sorted, keep the candidates that also contain this term.
+            int matched = 0;
+            int d = 0;
+            for (int c = 0; c < count && d < docs.length; c++) {
+                while (d < docs.length && docs[d] < candidates[c]) {
+                    d++;
+                }
+                if (d < docs.length && docs[d] == candidates[c]) {
+                    candidates[matched] = candidates[c];
+                    scores[matched++] = scores[c] + bm25(idf, freqs[d],
+                            source.getLength(candidates[c]), averageLength);
+                }
+            }
+            count = matched;
+        }
+        for (int c = 0; c < count; c++) {
+            top.add(new Hit(source.getDocId(candidates[c]), scores[c]));
+            if (top.size() > capacity) {
+                top.poll();
+            }
+        }
+    }
+
+    private double bm25(final double idf, final int freq, final int length,
+            final double averageLength) {
+        return idf * freq * (K1 + 1) / (freq + K1 * (1 - B + B * length / averageLength));
+    }
+
+    /**
+     * Turns the buffer into a segment and schedules writing it. Must be called holding the
+     * lock.
+     */
+    private void flush() {
+        if (buffer.getDocCount() == 0) {
+            return;
+        }
+        SearchSegment segment = buffer.toSegment(nextGeneration++);
+        buffer = new Buffer();
+        List<SearchSegment> updated = new ArrayList<>(segments);
+        updated.add(segment);
+        segments = updated;
+        flushes.incrementAndGet();
+        background.execute(() -> {
+            try {
+                write(segment);
+            } catch (IOException e) {
+                LOG.error("Error writing search segment {}", segment.getGeneration(), e);
+                return;
+            }
+            mergeSegments();
+        });
+    }
+
+    /**
+     * Merges the written segments of the lowest level that has enough of them, until no level
+     * has. Runs on the background thread.
+     */
+    private void mergeSegments() {
+        while (true) {
+            List<SearchSegment> merged = new ArrayList<>();
+            long generation;
+            synchronized (this) {
+                Map<Integer, List<SearchSegment>> levels = new HashMap<>();
+                for (SearchSegment segment : segments) {
+                    if (segment.isPersisted()) {
+                        levels.computeIfAbsent(segment.getLevel(), level -> new ArrayList<>())
+                                .add(segment);
+                    }
+                }
+                for (int level = 0; merged.isEmpty() && !levels.isEmpty(); level++) {
+                    List<SearchSegment> candidates = levels.remove(level);
+                    if (candidates != null && candidates.size() >= mergeFactor) {
+                        merged = candidates.subList(0, mergeFactor);
+                    }
+                }
+                if (merged.isEmpty()) {
+                    return;
+                }
+                generation = nextGeneration++;
+            }
+            SearchSegment segment = SearchSegment.merge(generation, merged);
+            try {
+                write(segment);
+            } catch (IOException e) {
+                LOG.error("Error writing merged search segment {}", generation, e);
+                return;
+            }
+            synchronized (this) {
+                // Lower levels only hold newer articles, so segments of one level are next to
+                // each other and the merged segment takes the place of the first of them.
+                List<SearchSegment> updated = new ArrayList<>(segments);
+                int position = updated.indexOf(merged.get(0));
+                updated.removeAll(merged);
+                updated.add(position, segment);
+                segments = updated;
+            }
+            merges.incrementAndGet();
+            for (SearchSegment replaced : merged) {
+                delete(replaced.getGeneration());
+            }
+            LOG.info("Merged {} search segments into segment {} with {} articles",
+                    merged.size(), generation, segment.getDocCount());
+        }
+    }
+
+    private void write(final SearchSegment segment) throws IOException {
+        Path file = directory.resolve(String.format(SEGMENT_FORMAT, segment.getGeneration()));
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        segment.write(temp);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void delete(final long generation) {
+        try {
+            Files.deleteIfExists(directory.resolve(String.format(SEGMENT_FORMAT, generation)));
+        } catch (IOException e) {
+            LOG.warn("Error deleting search segment {}", generation, e);
+        }
+    }
+
+    /**
+     * Reads every segment in the index directory and removes the ones that were merged into
+     * another segment, and unfinished writes.
+     */
+    private List<SearchSegment> load() throws IOException {
+        List<SearchSegment> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = PATTERN_SEGMENT.matcher(name);
+                if (matcher.matches()) {
+                    loaded.add(SearchSegment.read(file));
+                    nextGeneration = Math.max(nextGeneration, Long.parseLong(matcher.group(1)) + 1);
+                } else if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Set<Long> replaced = new HashSet<>();
+        for (SearchSegment segment : loaded) {
+            for (long generation : segment.getReplaced()) {
+                replaced.add(generation);
+            }
+        }
+        List<SearchSegment> live = new ArrayList<>();
+        for (SearchSegment segment : loaded) {
+            if (replaced.contains(segment.getGeneration())) {
+                delete(segment.getGeneration());
+            } else {
+                live.add(segment);
+            }
+        }
+        live.sort(Comparator.comparingLong(SearchSegment::getFirstDocId));
+        return live;
+    }
+
+    private void clear() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (PATTERN_SEGMENT.matcher(name).matches() || name.endsWith(TEMP_SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Receives the terms of a text.
+     */
+    @FunctionalInterface
+    interface TermConsumer {
+        void accept(String term);
+    }
+
+    /**
+     * A scored article.
+     */
+    private static class Hit {
+        private final long id;
+        private final double score;
+
+        Hit(final long id, final double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Articles that were added since the last flush.
+     */
+    private static class Buffer implements SearchSource {
+        private final Map<String, SearchSegment.TermPostings> termPostings = new HashMap<>();
+        private final List<String> feeds = new ArrayList<>();
+        private final Map<String, Integer> feedOrdinals = new HashMap<>();
+        private long[] docIds = new long[16];
+        private int[] docFeeds = new int[16];
+        private int[] docLengths = new int[16];
+        private int docCount;
+        private long totalLength;
+
+        void add(final long articleId, final String feed, final int length,
+                final Map<String, Integer> freqs) {
+            if (docCount == docIds.length) {
+                docIds = Arrays.copyOf(docIds, docCount * 2);
+                docFeeds = Arrays.copyOf(docFeeds, docCount * 2);
+                docLengths = Arrays.copyOf(docLengths, docCount * 2);
+            }
+            int doc = docCount++;
+            docIds[doc] = articleId;
+            docFeeds[doc] = feedOrdinals.computeIfAbsent(feed, name -> {
+                feeds.add(name);
+                return feeds.size() - 1;
+            });
+            docLengths[doc] = length;
+            totalLength += length;
+            freqs.forEach((term, freq) -> termPostings.computeIfAbsent(term,
+                    key -> new SearchSegment.TermPostings()).add(doc, freq));
+        }
+
+        SearchSegment toSegment(final long generation) {
+            return SearchSegment.of(generation, feeds, Arrays.copyOf(docIds, docCount),
+                    Arrays.copyOf(docFeeds, docCount), Arrays.copyOf(docLengths, docCount),
+                    termPostings);
+        }
+
+        @Override
+        public int getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public long getTotalLength() {
+            return totalLength;
+        }
+
+        @Override
+        public long getDocId(final int doc) {
+            return docIds[doc];
+        }
+
+        @Override
+        public String getFeed(final int doc) {
+            return feeds.get(docFeeds[doc]);
+        }
+
+        @Override
+        public int getLength(final int doc) {
+            return docLengths[doc];
+        }
+
+        @Override
+        public SearchSegment.Postings getPostings(final String term) {
+            SearchSegment.TermPostings postings = termPostings.get(term);
+            return postings == null ? null : postings.toPostings();
+        }
+    }
+}
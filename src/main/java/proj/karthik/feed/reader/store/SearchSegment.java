@@ -0,0 +1,452 @@
+package proj.karthik.feed.reader.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * SearchSegment is an immutable part of the {@link SearchIndex}. It holds a number of articles
+ * in article id order, numbered from 0 within the segment, and a sorted dictionary of the terms
+ * that occur in them. Each term points at its postings: the numbers of the articles that contain
+ * the term, each stored as the varint encoded difference to the previous number and followed by
+ * the number of times the term occurs in the article. The postings of all terms are
+ * concatenated into a single byte array.
+ * <p>
+ * Segments are written to a single file followed by the CRC32 of its contents. A segment that
+ * was merged out of others lists their generations, so that files left behind by a crash in the
+ * middle of a merge can be recognized and removed.
+ */
+class SearchSegment implements SearchSource {
+    private static final int MAGIC = 0x46534958;
+    private static final int VERSION = 1;
+
+    private final long generation;
+    private final int level;
+    private final long[] replaced;
+    private final String[] feeds;
+    private final long[] docIds;
+    private final int[] docFeeds;
+    private final int[] docLengths;
+    private final long totalLength;
+    private final String[] terms;
+    private final int[] docFreqs;
+    private final int[] offsets;
+    private final byte[] postings;
+    private volatile boolean persisted;
+
+    private SearchSegment(final long generation, final int level, final long[] replaced,
+            final String[] feeds, final long[] docIds, final int[] docFeeds,
+            final int[] docLengths, final String[] terms, final int[] docFreqs,
+            final int[] offsets, final byte[] postings) {
+        this.generation = generation;
+        this.level = level;
+        this.replaced = replaced;
+        this.feeds = feeds;
+        this.docIds = docIds;
+        this.docFeeds = docFeeds;
+        this.docLengths = docLengths;
+        this.terms = terms;
+        this.docFreqs = docFreqs;
+        this.offsets = offsets;
+        this.postings = postings;
+        long length = 0;
+        for (int docLength : docLengths) {
+            length += docLength;
+        }
+        this.totalLength = length;
+    }
+
+    /**
+     * Merges the given segments, which must be in article id order, into one segment a level
+     * above the highest of them.
+     *
+     * @param generation
+     * @param segments
+     * @return merged segment
+     */
+    static SearchSegment merge(final long generation, final List<SearchSegment> segments) {
+        int docCount = 0;
+        int level = 0;
+        TreeSet<String> allTerms = new TreeSet<>();
+        for (SearchSegment segment : segments) {
+            docCount += segment.docIds.length;
+            level = Math.max(level, segment.level + 1);
+            allTerms.addAll(Arrays.asList(segment.terms));
+        }
+        List<String> feeds = new ArrayList<>();
+        Map<String, Integer> feedOrdinals = new HashMap<>();
+        long[] docIds = new long[docCount];
+        int[] docFeeds = new int[docCount];
+        int[] docLengths = new int[docCount];
+        long[] replaced = new long[segments.size()];
+        int base = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            SearchSegment segment = segments.get(i);
+            replaced[i] = segment.generation;
+            for (int doc = 0; doc < segment.docIds.length; doc++) {
+                docIds[base + doc] = segment.docIds[doc];
+                docFeeds[base + doc] = feedOrdinals.computeIfAbsent(
+                        segment.feeds[segment.docFeeds[doc]], feed -> {
+                            feeds.add(feed);
+                            return feeds.size() - 1;
+                        });
+                docLengths[base + doc] = segment.docLengths[doc];
+            }
+            base += segment.docIds.length;
+        }
+        String[] terms = allTerms.toArray(new String[allTerms.size()]);
+        int[] docFreqs = new int[terms.length];
+        int[] offsets = new int[terms.length + 1];
+        PostingsWriter merged = new PostingsWriter();
+        for (int t = 0; t < terms.length; t++) {
+            offsets[t] = merged.size;
+            base = 0;
+            int lastDoc = -1;
+            for (SearchSegment segment : segments) {
+                Postings termPostings = segment.getPostings(terms[t]);
+                if (termPostings != null) {
+                    int[] docs = new int[termPostings.docFreq];
+                    int[] freqs = new int[termPostings.docFreq];
+                    termPostings.decode(docs, freqs);
+                    for (int i = 0; i < docs.length; i++) {
+                        merged.add(base + docs[i], lastDoc, freqs[i]);
+                        lastDoc = base + docs[i];
+                    }
+                    docFreqs[t] += docs.length;
+                }
+                base += segment.docIds.length;
+            }
+        }
+        offsets[terms.length] = merged.size;
+        return new SearchSegment(generation, level, replaced,
+                feeds.toArray(new String[feeds.size()]), docIds, docFeeds, docLengths, terms,
+                docFreqs, offsets, Arrays.copyOf(merged.data, merged.size));
+    }
+
+    /**
+     * Builds a segment out of the articles and the postings of every term, which are all
+     * written into one array in term order.
+     */
+    static SearchSegment of(final long generation, final List<String> feeds,
+            final long[] docIds, final int[] docFeeds, final int[] docLengths,
+            final Map<String, TermPostings> termPostings) {
+        String[] terms = termPostings.keySet().toArray(new String[termPostings.size()]);
+        Arrays.sort(terms);
+        int[] docFreqs = new int[terms.length];
+        int[] offsets = new int[terms.length + 1];
+        for (int i = 0; i < terms.length; i++) {
+            TermPostings term = termPostings.get(terms[i]);
+            docFreqs[i] = term.docFreq;
+            offsets[i + 1] = offsets[i] + term.writer.size;
+        }
+        byte[] postings = new byte[offsets[terms.length]];
+        for (int i = 0; i < terms.length; i++) {
+            PostingsWriter writer = termPostings.get(terms[i]).writer;
+            System.arraycopy(writer.data, 0, postings, offsets[i], writer.size);
+        }
+        return new SearchSegment(generation, 0, new long[0],
+                feeds.toArray(new String[feeds.size()]), docIds, docFeeds, docLengths,
+                terms, docFreqs, offsets, postings);
+    }
+
+    /**
+     * Reads a segment written by {@link #write(Path)}.
+     *
+     * @param file
+     * @return segment
+     * @throws IOException if the file cannot be read or its checksum does not match
+     */
+    static SearchSegment read(final Path file) throws IOException {
+        // The checksum is verified before anything is parsed, so that damaged sizes are never
+        // used to allocate arrays.
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < Long.BYTES) {
+            throw new IOException("Truncated search segment: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - Long.BYTES);
+        if (ByteBuffer.wrap(data, data.length - Long.BYTES, Long.BYTES).getLong()
+                != crc.getValue()) {
+            throw new IOException("Checksum mismatch in search segment: " + file);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a search segment: " + file);
+        }
+        long generation = in.readLong();
+        int level = in.readInt();
+        long[] replaced = new long[in.readInt()];
+        for (int i = 0; i < replaced.length; i++) {
+            replaced[i] = in.readLong();
+        }
+        String[] feeds = new String[in.readInt()];
+        for (int i = 0; i < feeds.length; i++) {
+            feeds[i] = in.readUTF();
+        }
+        int docCount = in.readInt();
+        long[] docIds = new long[docCount];
+        int[] docFeeds = new int[docCount];
+        int[] docLengths = new int[docCount];
+        for (int i = 0; i < docCount; i++) {
+            docIds[i] = in.readLong();
+            docFeeds[i] = in.readInt();
+            docLengths[i] = in.readInt();
+        }
+        String[] terms = new String[in.readInt()];
+        int[] docFreqs = new int[terms.length];
+        int[] offsets = new int[terms.length + 1];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = in.readUTF();
+            docFreqs[i] = in.readInt();
+            offsets[i + 1] = offsets[i] + in.readInt();
+        }
+        byte[] postings = new byte[offsets[terms.length]];
+        in.readFully(postings);
+        SearchSegment segment = new SearchSegment(generation, level, replaced, feeds, docIds,
+                docFeeds, docLengths, terms, docFreqs, offsets, postings);
+        segment.persisted = true;
+        return segment;
+    }
+
+    /**
+     * Writes the segment to the given file and forces it to disk.
+     *
+     * @param file
+     * @throws IOException
+     */
+    void write(final Path file) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(outputStream), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(level);
+            out.writeInt(replaced.length);
+            for (long replacedGeneration : replaced) {
+                out.writeLong(replacedGeneration);
+            }
+            out.writeInt(feeds.length);
+            for (String feed : feeds) {
+                out.writeUTF(feed);
+            }
+            out.writeInt(docIds.length);
+            for (int i = 0; i < docIds.length; i++) {
+                out.writeLong(docIds[i]);
+                out.writeInt(docFeeds[i]);
+                out.writeInt(docLengths[i]);
+            }
+            out.writeInt(terms.length);
+            for (int i = 0; i < terms.length; i++) {
+                out.writeUTF(terms[i]);
+                out.writeInt(docFreqs[i]);
+                out.writeInt(offsets[i + 1] - offsets[i]);
+            }
+            out.write(postings);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        persisted = true;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    long[] getReplaced() {
+        return replaced;
+    }
+
+    boolean isPersisted() {
+        return persisted;
+    }
+
+    /**
+     * Returns the id of the last article in the segment.
+     *
+     * @return lastDocId
+     */
+    long getLastDocId() {
+        return docIds[docIds.length - 1];
+    }
+
+    long getFirstDocId() {
+        return docIds[0];
+    }
+
+    int getTermCount() {
+        return terms.length;
+    }
+
+    @Override
+    public int getDocCount() {
+        return docIds.length;
+    }
+
+    @Override
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    @Override
+    public long getDocId(final int doc) {
+        return docIds[doc];
+    }
+
+    @Override
+    public String getFeed(final int doc) {
+        return feeds[docFeeds[doc]];
+    }
+
+    @Override
+    public int getLength(final int doc) {
+        return docLengths[doc];
+    }
+
+    @Override
+    public Postings getPostings(final String term) {
+        int index = Arrays.binarySearch(terms, term);
+        if (index < 0) {
+            return null;
+        }
+        return new Postings(postings, offsets[index], offsets[index + 1], docFreqs[index]);
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Delta encoded postings of a single term.
+     */
+    static class Postings {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final int docFreq;
+
+        Postings(final byte[] data, final int start, final int end, final int docFreq) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.docFreq = docFreq;
+        }
+
+        /**
+         * Returns the number of articles that contain the term.
+         *
+         * @return docFreq
+         */
+        int getDocFreq() {
+            return docFreq;
+        }
+
+        /**
+         * Decodes the article numbers and term frequencies into the given arrays, which must
+         * hold {@link #getDocFreq()} elements.
+         *
+         * @param docs
+         * @param freqs
+         */
+        void decode(final int[] docs, final int[] freqs) {
+            int position = start;
+            int doc = -1;
+            for (int i = 0; position < end; i++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += value;
+                docs[i] = doc;
+                value = 0;
+                shift = 0;
+                do {
+                    b = data[position++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                freqs[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Growable buffer that postings are encoded into.
+     */
+    static class PostingsWriter {
+        private byte[] data = new byte[16];
+        private int size;
+
+        /**
+         * Appends an article, which must come after the previous one.
+         *
+         * @param doc
+         * @param previousDoc the previous article or -1 if this is the first one
+         * @param freq
+         */
+        void add(final int doc, final int previousDoc, final int freq) {
+            if (size + 10 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            writeVarInt(doc - previousDoc);
+            writeVarInt(freq);
+        }
+
+        Postings toPostings(final int docFreq) {
+            return new Postings(data, 0, size, docFreq);
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+    }
+
+    /**
+     * Postings of a term in the in memory buffer, which still grow.
+     */
+    static class TermPostings {
+        private final PostingsWriter writer = new PostingsWriter();
+        private int docFreq;
+        private int lastDoc = -1;
+
+        void add(final int doc, final int freq) {
+            writer.add(doc, lastDoc, freq);
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        Postings toPostings() {
+            return writer.toPostings(docFreq);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package proj.karthik.feed.reader.store;
+
+/**
+ * Articles and postings that can be searched, either a {@link SearchSegment} or the in memory
+ * buffer of the {@link SearchIndex}. Articles are numbered from 0 in article id order.
+ */
+interface SearchSource {
+
+    int getDocCount();
+
+    /**
+     * Returns the number of terms in all articles together.
+     *
+     * @return totalLength
+     */
+    long getTotalLength();
+
+    long getDocId(int doc);
+
+    String getFeed(int doc);
+
+    /**
+     * Returns the number of terms in the article.
+     *
+     * @param doc
+     * @return length
+     */
+    int getLength(int doc);
+
+    /**
+     * Returns the postings of the term or null if no article contains it.
+     *
+     * @param term
+     * @return postings
+     */
+    SearchSegment.Postings getPostings(String term);
+}
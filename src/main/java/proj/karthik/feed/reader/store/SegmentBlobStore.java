@@ -0,0 +1,354 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+
+/**
+ * SegmentBlobStore is an append only store for large values such as article bodies.
+ * <p>
+ * Blobs are appended to the active segment file in the feed directory as records made of a
+ * header holding the payload length and its CRC32, followed by the payload itself. Once the
+ * active segment grows past {@code blob_segment_bytes} it is sealed and a new one is started.
+ * Every append is forced to disk before its {@link BlobRef} is handed out, so a reference stored
+ * in the database always points at durable bytes.
+ * <p>
+ * Sealed segments no longer change, so each is mapped read only once and reads return a slice of
+ * the mapping without copying the payload out of the page cache. The active segment keeps
+ * growing and is read with positional reads instead, as mapping it again on every append would
+ * leave a trail of stale mappings that are only released on GC. A crash in the middle of an
+ * append can leave a partial record at the end of the active segment. It is cut off when the
+ * store is initialized.
+ */
+public class SegmentBlobStore implements StoreService {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentBlobStore.class);
+    private static final Pattern PATTERN_SEGMENT = Pattern.compile("segment-(\\d+)\\.log");
+    private static final String SEGMENT_FORMAT = "segment-%010d.log";
+    private static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int HEADER_BYTES = 8;
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentBytes;
+    private final ConcurrentMap<Integer, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private FileChannel activeChannel;
+    private volatile FileChannel activeReader;
+    private volatile int activeSegment;
+    private long activeSize;
+    private long recoveredBytes;
+
+    @Inject
+    public SegmentBlobStore(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.enabled = Constants.BODY_STORE_SEGMENT.equals(
+                appConfig.getProperty(Constants.BODY_STORE, "").trim());
+        this.directory = Paths.get(appConfig.getProperty(Constants.FEED_DIR,
+                Paths.get(".", "data", "feed").toString()));
+        String segmentBytes = appConfig.getProperty(Constants.BLOB_SEGMENT_BYTES);
+        this.segmentBytes = segmentBytes == null ? DEFAULT_SEGMENT_BYTES
+                : Long.parseLong(segmentBytes.trim());
+        // Offsets within a segment are read through int indexed buffers.
+        if (this.segmentBytes <= 0 || this.segmentBytes > Integer.MAX_VALUE) {
+            throw new AppException(500, "%s must be between 1 and %s", Constants.BLOB_SEGMENT_BYTES,
+                    String.valueOf(Integer.MAX_VALUE));
+        }
+    }
+
+    @Override
+    public synchronized void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            int lastSegment = -1;
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory)) {
+                for (Path segment : segments) {
+                    Matcher matcher = PATTERN_SEGMENT.matcher(segment.getFileName().toString());
+                    if (matcher.matches()) {
+                        lastSegment = Math.max(lastSegment, Integer.parseInt(matcher.group(1)));
+                    }
+                }
+            }
+            activeSegment = Math.max(lastSegment, 0);
+            activeChannel = open(activeSegment);
+            activeSize = recover(activeChannel);
+            activeReader = openReader(activeSegment);
+            LOG.info("Blob store opened at {}, active segment: {}", directory, activeSegment);
+        } catch (IOException e) {
+            throw new AppException(500, "Error opening blob store at %s", e,
+                    directory.toString());
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (activeReader != null) {
+            close(activeReader);
+            activeReader = null;
+        }
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing segment {}", activeSegment, e);
+            }
+            activeChannel = null;
+        }
+    }
+
+    /**
+     * Returns true if new blobs are written to this store.
+     *
+     * @return isEnabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends the blob to the active segment and returns its location once it is on disk.
+     *
+     * @param blob
+     * @return blobRef
+     */
+    public synchronized BlobRef append(final byte[] blob) {
+        if (activeChannel == null) {
+            throw new AppException(500, "Blob store is not open");
+        }
+        try {
+            if (activeSize > 0 && activeSize + HEADER_BYTES + blob.length > segmentBytes) {
+                roll();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(blob);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(blob.length).putInt((int) crc.getValue()).flip();
+            ByteBuffer[] record = {header, ByteBuffer.wrap(blob)};
+            long offset = activeSize;
+            long position = offset;
+            while (record[1].hasRemaining()) {
+                position += activeChannel.position(position).write(record);
+            }
+            activeChannel.force(false);
+            activeSize = position;
+            appends.incrementAndGet();
+            return new BlobRef(activeSegment, offset, blob.length);
+        } catch (IOException e) {
+            throw new AppException(500, "Error appending to segment %s", e,
+                    String.valueOf(activeSegment));
+        }
+    }
+
+    /**
+     * Returns a read only view of the blob at the given location. The view of a blob in a sealed
+     * segment is backed by its memory mapping, so it must not be held on to for longer than
+     * needed.
+     *
+     * @param blobRef
+     * @return blob
+     */
+    public ByteBuffer read(final BlobRef blobRef) {
+        ByteBuffer record = readRecord(blobRef);
+        int length = record.getInt();
+        int checksum = record.getInt();
+        if (length != blobRef.getLength()) {
+            throw new AppException(500, "Blob %s does not match its record", blobRef.toString());
+        }
+        record.limit(record.position() + length);
+        ByteBuffer blob = record.slice();
+        CRC32 crc = new CRC32();
+        crc.update(blob.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new AppException(500, "Checksum mismatch for blob %s", blobRef.toString());
+        }
+        reads.incrementAndGet();
+        return blob.asReadOnlyBuffer();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(Constants.BODY_STORE, enabled ? Constants.BODY_STORE_SEGMENT : "inline");
+        stats.put("active_segment", activeSegment);
+        stats.put("mapped_segments", mappings.size());
+        stats.put("appends", appends.get());
+        stats.put("reads", reads.get());
+        stats.put("recovered_bytes", recoveredBytes);
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private FileChannel open(final int segment) throws IOException {
+        return FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private FileChannel openReader(final int segment) throws IOException {
+        return FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+    }
+
+    private Path segmentPath(final int segment) {
+        return directory.resolve(String.format(SEGMENT_FORMAT, segment));
+    }
+
+    private void roll() throws IOException {
+        activeChannel.force(true);
+        activeChannel.close();
+        // Readers look at the reader before the segment number, so a reader of the next
+        // segment is only seen together with the new segment number.
+        close(activeReader);
+        activeSegment++;
+        activeChannel = open(activeSegment);
+        activeReader = openReader(activeSegment);
+        activeSize = 0;
+        LOG.info("Rolled blob store to segment {}", activeSegment);
+    }
+
+    /**
+     * Scans the records of the segment and truncates it after the last complete record with a
+     * valid checksum. Returns the resulting size of the segment.
+     */
+    private long recover(final FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_BYTES);
+            payload.flip();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        if (position < size) {
+            LOG.warn("Truncating torn tail of segment {} from {} to {} bytes", activeSegment,
+                    size, position);
+            channel.truncate(position);
+            channel.force(true);
+            recoveredBytes = size - position;
+        }
+        return position;
+    }
+
+    private void readFully(final FileChannel channel, final ByteBuffer buffer,
+            final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment at " + offset);
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Returns a buffer positioned at the record of the blob. Records of the active segment are
+     * copied out with a positional read, records of sealed segments are read from their mapping.
+     */
+    private ByteBuffer readRecord(final BlobRef blobRef) {
+        while (true) {
+            FileChannel reader = activeReader;
+            if (reader == null || blobRef.getSegment() != activeSegment) {
+                ByteBuffer record = mappings.computeIfAbsent(blobRef.getSegment(), this::map)
+                        .duplicate();
+                if (record.capacity() < blobRef.getOffset() + HEADER_BYTES
+                        + blobRef.getLength()) {
+                    throw new AppException(500, "Segment %s is shorter than expected",
+                            String.valueOf(blobRef.getSegment()));
+                }
+                record.position((int) blobRef.getOffset());
+                return record;
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + blobRef.getLength());
+            try {
+                readFully(reader, record, blobRef.getOffset());
+                record.flip();
+                return record;
+            } catch (ClosedByInterruptException e) {
+                reopenReader(reader);
+                throw new AppException(500, "Interrupted while reading blob %s", e,
+                        blobRef.toString());
+            } catch (ClosedChannelException e) {
+                // The segment was sealed or the reader was closed by an interrupted read in the
+                // meantime. Look again.
+                reopenReader(reader);
+            } catch (IOException e) {
+                throw new AppException(500, "Error reading blob %s", e, blobRef.toString());
+            }
+        }
+    }
+
+    /**
+     * Opens the reader of the active segment again if it was closed by an interrupted read.
+     */
+    private synchronized void reopenReader(final FileChannel reader) {
+        if (activeReader != reader || reader.isOpen()) {
+            return;
+        }
+        try {
+            activeReader = openReader(activeSegment);
+        } catch (IOException e) {
+            throw new AppException(500, "Error opening segment %s", e,
+                    String.valueOf(activeSegment));
+        }
+    }
+
+    private void close(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing segment reader", e);
+        }
+    }
+
+    /**
+     * Maps the whole segment. Only sealed segments are mapped, so the mapping never has to grow.
+     */
+    private MappedByteBuffer map(final int segment) {
+        try (FileChannel channel = openReader(segment)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new AppException(500, "Error mapping segment %s", e, String.valueOf(segment));
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package proj.karthik.feed.reader.store;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * StoreService is the service that provides storage related API methods.
  */
@@ -14,4 +17,13 @@ public interface StoreService {
      * Shuts down the service
      */
     void shutdown();
+
+    /**
+     * Returns runtime statistics of the service.
+     *
+     * @return stats
+     */
+    default Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
 }
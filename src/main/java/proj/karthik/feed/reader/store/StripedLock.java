@@ -0,0 +1,183 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of {@link ReadWriteLock}s that keys are hashed onto. Operations on keys that
+ * land on different stripes run in parallel, so writers only wait for the ones touching the same
+ * user or feed. With a single stripe this is one store wide lock, with no stripes nothing is
+ * locked at all and the caller relies on the database alone.
+ * <p>
+ * Operations on several keys lock their stripes in stripe order, so they cannot deadlock with
+ * each other. A stripe is locked once however many of the keys land on it.
+ */
+class StripedLock {
+    static final int MAX_STRIPES = 1 << 16;
+    private final ReadWriteLock[] stripes;
+    private final int mask;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+
+    /**
+     * @param stripes rounded up to a power of two up to {@value #MAX_STRIPES}, 0 for no locking
+     */
+    StripedLock(final int stripes) {
+        int count = stripes <= 0 ? 0
+                : Integer.highestOneBit(2 * Math.min(stripes, MAX_STRIPES) - 1);
+        this.stripes = new ReadWriteLock[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * Returns true if nothing is locked.
+     *
+     * @return isLockFree
+     */
+    boolean isLockFree() {
+        return stripes.length == 0;
+    }
+
+    /**
+     * Runs the operation while holding the read lock of the key's stripe.
+     *
+     * @param key
+     * @param readProtected
+     * @param <T>
+     * @return result
+     */
+    <T> T read(final Object key, final ReadProtected<T> readProtected) {
+        if (isLockFree()) {
+            return readProtected.read();
+        }
+        Lock lock = stripeOf(key).readLock();
+        acquire(lock);
+        try {
+            return readProtected.read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the operation while holding the read locks of the stripes of all the keys.
+     *
+     * @param keys
+     * @param readProtected
+     * @param <T>
+     * @return result
+     */
+    <T> T read(final Collection<?> keys, final ReadProtected<T> readProtected) {
+        if (isLockFree()) {
+            return readProtected.read();
+        }
+        Lock[] locks = stripesOf(keys).stream()
+                .map(stripe -> stripes[stripe].readLock())
+                .toArray(Lock[]::new);
+        return locked(locks, readProtected);
+    }
+
+    /**
+     * Runs the operation while holding the write lock of the key's stripe.
+     *
+     * @param key
+     * @param writeProtected
+     */
+    void write(final Object key, final WriteProtected writeProtected) {
+        if (isLockFree()) {
+            writeProtected.write();
+            return;
+        }
+        Lock lock = stripeOf(key).writeLock();
+        acquire(lock);
+        try {
+            writeProtected.write();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the operation while holding the write locks of the stripes of all the keys.
+     *
+     * @param keys
+     * @param writeProtected
+     */
+    void write(final Collection<?> keys, final WriteProtected writeProtected) {
+        if (isLockFree()) {
+            writeProtected.write();
+            return;
+        }
+        Lock[] locks = stripesOf(keys).stream()
+                .map(stripe -> stripes[stripe].writeLock())
+                .toArray(Lock[]::new);
+        locked(locks, () -> {
+            writeProtected.write();
+            return null;
+        });
+    }
+
+    /**
+     * Returns the number of stripes and how often a lock was taken and had to be waited for.
+     *
+     * @return stats
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stripes", stripes.length);
+        stats.put("acquired", acquired.sum());
+        stats.put("contended", contended.sum());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private ReadWriteLock stripeOf(final Object key) {
+        return stripes[indexOf(key)];
+    }
+
+    private int indexOf(final Object key) {
+        int hash = key.hashCode();
+        // Spreads the high bits down, the low ones of sequential ids and similar names are
+        // poorly distributed on their own.
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9 >>> 16 & mask;
+    }
+
+    private TreeSet<Integer> stripesOf(final Collection<?> keys) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        keys.forEach(key -> indexes.add(indexOf(key)));
+        return indexes;
+    }
+
+    private <T> T locked(final Lock[] locks, final ReadProtected<T> readProtected) {
+        int held = 0;
+        try {
+            for (Lock lock : locks) {
+                acquire(lock);
+                held++;
+            }
+            return readProtected.read();
+        } finally {
+            for (int i = held - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    private void acquire(final Lock lock) {
+        acquired.increment();
+        if (!lock.tryLock()) {
+            contended.increment();
+            lock.lock();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+import proj.karthik.feed.reader.entity.Feed;
+
+/**
+ * All subscriptions held in memory in both directions: the feeds of every user and the
+ * subscribers of every feed.
+ * <p>
+ * Feed names are interned to small ints the first time they are seen, and the interned id
+ * indexes arrays of feeds and subscriber sets. A user's feeds are a sorted array of interned
+ * ids, a feed's subscribers an open addressed set of user ids, so neither side boxes a
+ * {@link Long} or repeats a feed name per subscription. A feed keeps its id for good, its
+ * {@link Feed} is dropped along with its last subscriber so that a feed deleted and created
+ * again is looked up afresh.
+ * <p>
+ * Reads share a read lock and changes take the write lock. The subscription store loads and
+ * changes the graph, and the other components read subscriptions from it rather than keep
+ * copies of their own.
+ */
+public class SubscriptionGraph {
+    private static final int[] NO_FEEDS = new int[0];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> feedIds = new HashMap<>();
+    private final LongHashMap<int[]> userFeeds = new LongHashMap<>();
+    private Feed[] feeds = new Feed[16];
+    private LongHashSet[] subscribers = new LongHashSet[16];
+    private long subscriptions;
+
+    /**
+     * Returns the feed if it has subscribers.
+     *
+     * @param name
+     * @return feed, null if nobody is subscribed to it
+     */
+    Feed getFeed(final String name) {
+        lock.readLock().lock();
+        try {
+            Integer feedId = feedIds.get(name);
+            return feedId == null ? null : feeds[feedId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records that the user subscribed to the feed.
+     *
+     * @param userId
+     * @param feed
+     * @return false if the user was subscribed to the feed already
+     */
+    boolean subscribe(final long userId, final Feed feed) {
+        lock.writeLock().lock();
+        try {
+            int feedId = intern(feed.getName());
+            if (feeds[feedId] == null) {
+                feeds[feedId] = new Feed(feed.getName(), feed.getCreatedOn());
+                subscribers[feedId] = new LongHashSet();
+            }
+            if (!subscribers[feedId].add(userId)) {
+                return false;
+            }
+            int[] current = userFeeds.get(userId);
+            if (current == null) {
+                current = NO_FEEDS;
+            }
+            int index = -Arrays.binarySearch(current, feedId) - 1;
+            int[] updated = new int[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            updated[index] = feedId;
+            System.arraycopy(current, index, updated, index + 1, current.length - index);
+            userFeeds.put(userId, updated);
+            subscriptions++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records that the user unsubscribed from the feed.
+     *
+     * @param userId
+     * @param feed
+     */
+    void unsubscribe(final long userId, final String feed) {
+        lock.writeLock().lock();
+        try {
+            Integer feedId = feedIds.get(feed);
+            if (feedId == null || feeds[feedId] == null
+                    || !subscribers[feedId].remove(userId)) {
+                return;
+            }
+            if (subscribers[feedId].size() == 0) {
+                feeds[feedId] = null;
+                subscribers[feedId] = null;
+            }
+            int[] current = userFeeds.get(userId);
+            int index = Arrays.binarySearch(current, feedId);
+            if (current.length == 1) {
+                userFeeds.remove(userId);
+            } else {
+                int[] updated = new int[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, updated.length - index);
+                userFeeds.put(userId, updated);
+            }
+            subscriptions--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the feeds the user is subscribed to, ordered by name.
+     *
+     * @param userId
+     * @return feeds
+     */
+    List<Feed> getFeeds(final long userId) {
+        List<Feed> subscribed = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            int[] feedIds = userFeeds.get(userId);
+            if (feedIds != null) {
+                for (int feedId : feedIds) {
+                    Feed feed = feeds[feedId];
+                    subscribed.add(new Feed(feed.getName(), feed.getCreatedOn()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        subscribed.sort(Comparator.comparing(Feed::getName));
+        return subscribed;
+    }
+
+    /**
+     * Returns the names of the feeds the user is subscribed to, ordered by name.
+     *
+     * @param userId
+     * @return feed names
+     */
+    List<String> getFeedNames(final long userId) {
+        List<String> subscribed = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            int[] feedIds = userFeeds.get(userId);
+            if (feedIds != null) {
+                for (int feedId : feedIds) {
+                    subscribed.add(feeds[feedId].getName());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        subscribed.sort(Comparator.naturalOrder());
+        return subscribed;
+    }
+
+    /**
+     * Returns the number of users subscribed to every feed that has subscribers.
+     *
+     * @return subscriber count by feed name
+     */
+    Map<String, Integer> getSubscriberCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int feedId = 0; feedId < feeds.length; feedId++) {
+                if (feeds[feedId] != null) {
+                    counts.put(feeds[feedId].getName(), subscribers[feedId].size());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of users subscribed to the feed.
+     *
+     * @param feed
+     * @return subscriber count
+     */
+    int getSubscriberCount(final String feed) {
+        lock.readLock().lock();
+        try {
+            LongHashSet feedSubscribers = subscribersOf(feed);
+            return feedSubscribers == null ? 0 : feedSubscribers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the id of every user subscribed to the feed to the consumer, holding the read
+     * lock. The consumer must not change subscriptions.
+     *
+     * @param feed
+     * @param consumer
+     * @return number of subscribers
+     */
+    int forEachSubscriber(final String feed, final LongConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            LongHashSet feedSubscribers = subscribersOf(feed);
+            if (feedSubscribers == null) {
+                return 0;
+            }
+            feedSubscribers.forEach(consumer);
+            return feedSubscribers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Map<String, Object> getStats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("users", userFeeds.size());
+            stats.put("feeds", Arrays.stream(feeds).filter(feed -> feed != null).count());
+            stats.put("interned_feeds", feedIds.size());
+            stats.put("subscriptions", subscriptions);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private LongHashSet subscribersOf(final String feed) {
+        Integer feedId = feedIds.get(feed);
+        return feedId == null ? null : subscribers[feedId];
+    }
+
+    private int intern(final String feed) {
+        Integer feedId = feedIds.get(feed);
+        if (feedId != null) {
+            return feedId;
+        }
+        int interned = feedIds.size();
+        if (interned == feeds.length) {
+            feeds = Arrays.copyOf(feeds, interned * 2);
+            subscribers = Arrays.copyOf(subscribers, interned * 2);
+        }
+        feedIds.put(feed, interned);
+        return interned;
+    }
+}
@@ -1,8 +1,10 @@
 package proj.karthik.feed.reader.store;
 
 import java.util.List;
+import java.util.function.LongConsumer;
 
 import proj.karthik.feed.reader.entity.Feed;
+import proj.karthik.feed.reader.sql.ResultHandler;
 
 /**
  * {@link StoreService} interface for handling Subscription related operations.
@@ -58,4 +60,41 @@ public interface SubscriptionStore extends StoreService {
      * @return feeds
      */
     List<Feed> getUserSubscriptionsById(long userId);
+
+    /**
+     * Streams the feeds that an user with the given user id is subscribed to, to the handler.
+     *
+     * @param userId
+     * @param handler
+     * @return number of feeds streamed
+     */
+    int streamUserSubscriptionsById(long userId, ResultHandler<Feed> handler);
+
+    /**
+     * Returns the names of the feeds that an user with the given user id is subscribed to,
+     * ordered by name. Reading a timeline looks the feeds up here rather than in the database.
+     *
+     * @param userId
+     * @return feed names
+     */
+    List<String> getFeedNames(long userId);
+
+    /**
+     * Returns a version of the subscriptions of the given user id. The version changes whenever
+     * the user subscribes to or unsubscribes from a feed.
+     *
+     * @param userId
+     * @return version
+     */
+    String getSubscriptionVersion(long userId);
+
+    /**
+     * Hands the id of every user subscribed to the given feed to the consumer, for delivering
+     * to the subscribers of a feed without a query.
+     *
+     * @param feed
+     * @param consumer
+     * @return number of subscribers
+     */
+    int forEachSubscriber(String feed, LongConsumer consumer);
 }
@@ -0,0 +1,90 @@
+package proj.karthik.feed.reader.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import proj.karthik.feed.reader.AppException;
+
+/**
+ * Opaque token that records how far a client has synced each of its feeds. It holds the sequence
+ * number of the last article seen per feed, so that the next sync only returns articles with a
+ * higher sequence number.
+ */
+public class SyncToken {
+    private static final Pattern PATTERN_ENTRY_SEPARATOR = Pattern.compile("\n");
+    private static final Pattern PATTERN_SEPARATOR = Pattern.compile(":");
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    /** Token of a client that has not synced anything yet. */
+    public static final SyncToken EMPTY = new SyncToken(Collections.emptySortedMap());
+
+    private final SortedMap<String, Long> sequences;
+
+    public SyncToken(final Map<String, Long> sequences) {
+        this.sequences = Collections.unmodifiableSortedMap(new TreeMap<>(sequences));
+    }
+
+    /**
+     * Decodes a token previously produced by {@link #encode()}. An empty token is a client that
+     * has not synced anything yet.
+     *
+     * @param token
+     * @return syncToken
+     */
+    public static SyncToken decode(final String token) {
+        if (token.isEmpty()) {
+            return EMPTY;
+        }
+        try {
+            String decoded = new String(DECODER.decode(token), StandardCharsets.UTF_8);
+            Map<String, Long> sequences = new TreeMap<>();
+            for (String entry : PATTERN_ENTRY_SEPARATOR.split(decoded)) {
+                // Feed names may contain the separator, sequence numbers cannot.
+                String[] parts = PATTERN_SEPARATOR.split(entry, 2);
+                if (parts.length != 2) {
+                    throw new AppException(400, "Invalid sync token: %s", token);
+                }
+                sequences.put(parts[1], Long.parseLong(parts[0]));
+            }
+            return new SyncToken(sequences);
+        } catch (IllegalArgumentException e) {
+            throw new AppException(400, "Invalid sync token: %s", e, token);
+        }
+    }
+
+    /**
+     * Encodes the token as an url safe string.
+     *
+     * @return encodedToken
+     */
+    public String encode() {
+        StringBuilder raw = new StringBuilder();
+        sequences.forEach((feed, sequence) -> {
+            if (raw.length() > 0) {
+                raw.append('\n');
+            }
+            raw.append(sequence).append(':').append(feed);
+        });
+        return ENCODER.encodeToString(raw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the sequence number of the last article of the feed the client has seen, or 0 if
+     * the client has not synced the feed yet.
+     *
+     * @param feed
+     * @return sequence
+     */
+    public long getSequence(final String feed) {
+        return sequences.getOrDefault(feed, 0L);
+    }
+
+    public Map<String, Long> getSequences() {
+        return sequences;
+    }
+}
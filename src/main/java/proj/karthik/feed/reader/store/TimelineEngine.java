@@ -0,0 +1,368 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.StatementRegistry;
+
+/**
+ * TimelineEngine decides how the articles of each feed reach the timelines of its subscribers.
+ * <p>
+ * When fan out on write is enabled, feeds with at most {@code fanout_threshold} subscribers are
+ * pushed: every new article is copied into the inbox of each subscriber at write time. Feeds
+ * with more subscribers are pulled: their articles are only stored once and are merged into a
+ * timeline at read time. A pulled feed is pushed again once its subscriber count drops to half
+ * the threshold, so that a feed hovering around the threshold does not keep moving its
+ * articles in and out of the inboxes. Subscriber counts are read from the
+ * {@link SubscriptionGraph} the subscription store keeps.
+ * <p>
+ * The pulled feeds are recorded in the database, so a restart resumes where the last run left
+ * off. The inbox is only rebuilt when fan out was just enabled or the threshold changed, since
+ * it is not maintained while fan out is disabled.
+ * <p>
+ * Article inserts run under the read lock of the feed's stripe while subscription changes and
+ * feed reclassification run under its write lock. That way an article is never pushed to a feed
+ * whose subscribers are changing or whose inbox entries are being moved. The engine keeps
+ * locking when the store locks are turned off, the classification lives in memory where the
+ * database cannot protect it.
+ */
+public class TimelineEngine extends DatabaseStoreService {
+    private static final Logger LOG = LoggerFactory.getLogger(TimelineEngine.class);
+    private static final String TIMELINE_SQL_PROPERTIES = "/timeline_sql.properties";
+    private final StatementRegistry timelineSqlStatements;
+    private final boolean fanOutOnWrite;
+    private final int fanOutThreshold;
+    private final FeedDictionary feedDictionary;
+    private final SubscriptionGraph subscriptionGraph;
+    private final Set<String> pulledFeeds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Feed classes.
+     */
+    public enum FeedClass {
+        PUSH, PULL
+    }
+
+    @Inject
+    public TimelineEngine(@Named(Constants.APP_CONF) Properties appConfig, SQLUtils sqlUtils,
+            FeedDictionary feedDictionary, SubscriptionGraph subscriptionGraph) {
+        super(sqlUtils);
+        this.feedDictionary = feedDictionary;
+        this.subscriptionGraph = subscriptionGraph;
+        this.fanOutOnWrite = isEnabled(appConfig, Constants.FANOUT_ON_WRITE);
+        String threshold = appConfig.getProperty(Constants.FANOUT_THRESHOLD);
+        this.fanOutThreshold = threshold == null ? Integer.MAX_VALUE
+                : Integer.parseInt(threshold.trim());
+        timelineSqlStatements = loadStatements(TIMELINE_SQL_PROPERTIES);
+    }
+
+    @Override
+    public void init() {
+        sqlUtils.ddl(statement -> {
+            // create table IF NOT EXISTS INBOX_STATE(fanout_threshold int);
+            statement.execute(timelineSqlStatements.get("CREATE_TBL_INBOX_STATE"));
+            if (fanOutOnWrite) {
+                // create table IF NOT EXISTS INBOX(user_id bigint, article_id bigint,
+                // created_on timestamp, feed_id int, PRIMARY KEY (user_id, article_id),
+                // FOREIGN KEY (user_id) REFERENCES public.user(id),
+                // FOREIGN KEY (article_id) REFERENCES public.article(id));
+                statement.execute(timelineSqlStatements.get("CREATE_TBL_INBOX"));
+                statement.execute(timelineSqlStatements.get("CREATE_IDX_INBOX_TIMELINE"));
+                // create table IF NOT EXISTS PULLED_FEED(feed_id int PRIMARY KEY);
+                statement.execute(timelineSqlStatements.get("CREATE_TBL_PULLED_FEED"));
+            }
+        });
+        if (!fanOutOnWrite) {
+            // The inbox is not maintained from here on, so it has to be rebuilt the next time
+            // fan out is enabled.
+            sqlUtils.dml(connection -> connection.prepareStatement(
+                    timelineSqlStatements.get("CLEAR_INBOX_STATE")));
+            return;
+        }
+        LOG.info("Fan out on write enabled with threshold: {}", fanOutThreshold);
+        List<Integer> inboxState = sqlUtils.query(connection -> connection.prepareStatement(
+                timelineSqlStatements.get("SELECT_INBOX_STATE")), resultSet -> resultSet.getInt(1));
+        if (inboxState.size() == 1 && inboxState.get(0) == fanOutThreshold) {
+            // The inbox was kept up to date since the last start, only the classification of
+            // the feeds has to be loaded.
+            pulledFeeds.addAll(sqlUtils.query(connection -> connection.prepareStatement(
+                    timelineSqlStatements.get("SELECT_PULLED_FEEDS")),
+                    resultSet -> feedDictionary.getName(resultSet.getInt(1))));
+            subscriptionGraph.getSubscriberCounts().forEach((feed, count) -> {
+                if (count > fanOutThreshold) {
+                    toPull(feed);
+                }
+            });
+        } else {
+            rebuildInbox();
+        }
+    }
+
+    /**
+     * Returns true if articles are fanned out to inboxes at write time.
+     *
+     * @return fanOutOnWrite
+     */
+    public boolean isFanOutOnWrite() {
+        return fanOutOnWrite;
+    }
+
+    /**
+     * Returns the class of the given feed.
+     *
+     * @param feed
+     * @return feedClass
+     */
+    public FeedClass classify(final String feed) {
+        return fanOutOnWrite && !pulledFeeds.contains(feed) ? FeedClass.PUSH : FeedClass.PULL;
+    }
+
+    /**
+     * Returns true if any feed is currently pulled at read time in addition to the inbox.
+     *
+     * @return hasPulledFeeds
+     */
+    public boolean hasPulledFeeds() {
+        return fanOutOnWrite && !pulledFeeds.isEmpty();
+    }
+
+    /**
+     * Returns true if the given feed is merged into timelines at read time in addition to the
+     * inbox.
+     *
+     * @param feed
+     * @return isPulled
+     */
+    public boolean isPulled(final String feed) {
+        return fanOutOnWrite && pulledFeeds.contains(feed);
+    }
+
+    /**
+     * Runs the publication of an article to the given feed. The publisher is told whether the
+     * article has to be pushed to the subscribers' inboxes.
+     *
+     * @param feed
+     * @param publisher
+     */
+    public void publish(final String feed, final Consumer<Boolean> publisher) {
+        read(feed, () -> {
+            publisher.accept(classify(feed) == FeedClass.PUSH);
+            return null;
+        });
+    }
+
+    /**
+     * Runs the publication of articles to several feeds at once. The publisher is told which of
+     * the feeds have their articles pushed to the subscribers' inboxes.
+     *
+     * @param feeds
+     * @param publisher
+     */
+    public void publish(final Collection<String> feeds, final Consumer<Set<String>> publisher) {
+        read(feeds, () -> {
+            publisher.accept(feeds.stream()
+                    .filter(feed -> classify(feed) == FeedClass.PUSH)
+                    .collect(Collectors.toSet()));
+            return null;
+        });
+    }
+
+    /**
+     * Runs a change to the subscribers of the given feed. The change is told whether the
+     * subscribers' inboxes have to be updated and returns the change in subscriber count. No
+     * article of the feed is published while the change runs. The feed is reclassified once the
+     * change is done.
+     *
+     * @param feed
+     * @param change
+     */
+    public void changeSubscribers(final String feed, final Function<Boolean, Integer> change) {
+        int[] changed = new int[1];
+        write(feed, () -> changed[0] = change.apply(classify(feed) == FeedClass.PUSH));
+        int delta = changed[0];
+        if (!fanOutOnWrite || delta == 0) {
+            return;
+        }
+        int count = subscriptionGraph.getSubscriberCount(feed);
+        if (!pulledFeeds.contains(feed) && count > fanOutThreshold) {
+            write(feed, () -> toPull(feed));
+        } else if (pulledFeeds.contains(feed) && count <= fanOutThreshold / 2) {
+            write(feed, () -> toPush(feed));
+        }
+    }
+
+    @Override
+    protected StripedLock createLocks(final int stripes) {
+        return new StripedLock(Math.max(1, stripes));
+    }
+
+    /**
+     * Returns the number of feeds that currently fall into each {@link FeedClass}.
+     *
+     * @return feedClassCounts
+     */
+    public Map<FeedClass, Integer> getFeedClassCounts() {
+        Map<FeedClass, Integer> counts = new LinkedHashMap<>();
+        counts.put(FeedClass.PUSH, 0);
+        counts.put(FeedClass.PULL, 0);
+        subscriptionGraph.getSubscriberCounts().keySet()
+                .forEach(feed -> counts.merge(classify(feed), 1, Integer::sum));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(Constants.FANOUT_ON_WRITE, fanOutOnWrite);
+        stats.put(Constants.FANOUT_THRESHOLD, fanOutThreshold);
+        getFeedClassCounts().forEach((feedClass, count) ->
+                stats.put(feedClass.name().toLowerCase() + "_feeds", count));
+        return stats;
+    }
+
+    /**
+     * Merges lists that are each sorted newest first into a single list sorted newest first,
+     * dropping duplicates of the same article. At most {@code limit} elements are returned.
+     *
+     * @param sources
+     * @param position returns the timeline position of an element
+     * @param limit
+     * @param <T> Element type
+     * @return merged
+     */
+    public static <T> List<T> merge(final List<List<T>> sources,
+            final Function<T, ArticleCursor> position, final int limit) {
+        if (sources.size() == 1) {
+            List<T> source = sources.get(0);
+            return source.size() <= limit ? source : new ArrayList<>(source.subList(0, limit));
+        }
+        PriorityQueue<PeekingIterator<T>> heads = new PriorityQueue<>(
+                Math.max(1, sources.size()), (left, right) -> ArticleCursor.NEWEST_FIRST.compare(
+                        position.apply(left.peek()), position.apply(right.peek())));
+        for (List<T> source : sources) {
+            Iterator<T> iterator = source.iterator();
+            if (iterator.hasNext()) {
+                heads.add(Iterators.peekingIterator(iterator));
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        long lastId = 0;
+        while (!heads.isEmpty() && merged.size() < limit) {
+            PeekingIterator<T> head = heads.poll();
+            T next = head.next();
+            long id = position.apply(next).getId();
+            // Copies of the same article sort next to each other because they share the same
+            // position.
+            if (merged.isEmpty() || id != lastId) {
+                merged.add(next);
+                lastId = id;
+            }
+            if (head.hasNext()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Classifies every feed by its subscriber count and rebuilds the inboxes of the pushed feeds
+     * from the subscriptions. This is only needed when fan out was just enabled or the threshold
+     * changed, as the inbox is not maintained while fan out is disabled.
+     */
+    private void rebuildInbox() {
+        LOG.info("Rebuilding the inbox for fan out threshold: {}", fanOutThreshold);
+        subscriptionGraph.getSubscriberCounts().forEach((feed, count) -> {
+            if (count > fanOutThreshold) {
+                pulledFeeds.add(feed);
+            }
+        });
+        sqlUtils.transaction(() -> {
+            sqlUtils.dml(connection -> connection.prepareStatement(
+                    timelineSqlStatements.get("CLEAR_INBOX_STATE")),
+                    connection -> connection.prepareStatement(
+                            timelineSqlStatements.get("CLEAR_PULLED_FEEDS")));
+            sqlUtils.batchDML(connection -> {
+                PreparedStatement addPulledFeed = connection.prepareStatement(
+                        timelineSqlStatements.get("ADD_PULLED_FEED"));
+                for (String feed : pulledFeeds) {
+                    bind(addPulledFeed, feed).addBatch();
+                }
+                return addPulledFeed;
+            });
+            // The state is written last, so that an interrupted rebuild is redone on the next
+            // start.
+            return sqlUtils.dml(connection -> connection.prepareStatement(
+                    timelineSqlStatements.get("CLEAR_INBOX")),
+                    connection -> connection.prepareStatement(
+                            timelineSqlStatements.get("REBUILD_INBOX")),
+                    connection -> {
+                        PreparedStatement setInboxState = connection.prepareStatement(
+                                timelineSqlStatements.get("SET_INBOX_STATE"));
+                        setInboxState.setInt(1, fanOutThreshold);
+                        return setInboxState;
+                    });
+        });
+    }
+
+    private void toPull(final String feed) {
+        if (pulledFeeds.contains(feed)) {
+            return;
+        }
+        LOG.info("Feed {} crossed the fan out threshold. Pulling it at read time", feed);
+        // Readers merge the feed in before its inbox entries go away. Any overlap in between
+        // is dropped by the merge. The feed is recorded as pulled first, so that a restart in
+        // between still treats it as pulled.
+        pulledFeeds.add(feed);
+        sqlUtils.dml(connection -> bind(connection.prepareStatement(
+                timelineSqlStatements.get("ADD_PULLED_FEED")), feed));
+        deleteInbox(feed);
+    }
+
+    private void toPush(final String feed) {
+        if (!pulledFeeds.contains(feed)) {
+            return;
+        }
+        LOG.info("Feed {} fell below the fan out threshold. Pushing it to inboxes", feed);
+        sqlUtils.dml(connection -> bind(connection.prepareStatement(
+                timelineSqlStatements.get("BACKFILL_INBOX_BY_FEED")), feed),
+                connection -> bind(connection.prepareStatement(
+                        timelineSqlStatements.get("DELETE_PULLED_FEED")), feed));
+        pulledFeeds.remove(feed);
+    }
+
+    private void deleteInbox(final String feed) {
+        sqlUtils.dml(connection -> bind(connection.prepareStatement(
+                timelineSqlStatements.get("DELETE_INBOX_BY_FEED")), feed));
+    }
+
+    private PreparedStatement bind(final PreparedStatement statement, final String feed)
+            throws SQLException {
+        statement.setInt(1, feedDictionary.getId(feed));
+        return statement;
+    }
+}
@@ -0,0 +1,179 @@
+package proj.karthik.feed.reader.store;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import proj.karthik.feed.reader.Constants;
+
+/**
+ * TimelineVersions keeps in memory versions of what each user reads, so that clients polling an
+ * unchanged timeline or subscription list can be answered without a query.
+ * <p>
+ * Every feed has a version that goes up when an article is added to it, and every user has a
+ * version that changes when the user's subscriptions change. A user's subscription version is
+ * the user version. A user's timeline version is the user version together with the sum of the
+ * versions of the subscribed feeds: while the subscriptions stay the same the sum only ever goes
+ * up, and changing them changes the user version. The subscribed feeds are loaded once and kept
+ * until the next subscription change.
+ * <p>
+ * User versions are kept for a bounded number of users, {@value Constants#TIMELINE_VERSION_USERS}
+ * by default {@value #DEFAULT_USERS}, least recently used ones are dropped, and so is the user
+ * once deleted. User versions are drawn from one sequence, so a user that is dropped and read
+ * again gets a version never handed out before: the client fetches once more instead of being
+ * answered with a stale 304.
+ * <p>
+ * Versions only live as long as the process, so they are prefixed with the time the process
+ * started to keep them from repeating across restarts. Changes must be recorded after they are
+ * committed. A version read before the change then only ever describes older data than what the
+ * reader gets to see, which makes the client fetch again on its next poll.
+ */
+public class TimelineVersions {
+    public static final int DEFAULT_USERS = 100000;
+    private final long epoch = System.currentTimeMillis();
+    private final ConcurrentMap<String, AtomicLong> feedVersions = new ConcurrentHashMap<>();
+    private final AtomicLong userSequence = new AtomicLong();
+    private final AtomicLong feedLoads = new AtomicLong();
+    private final AtomicLong userEvictions = new AtomicLong();
+    private volatile int capacity = DEFAULT_USERS;
+    // Guarded by itself, in access order so that the least recently read user goes first.
+    private final Map<Long, UserVersion> userVersions = new LinkedHashMap<Long, UserVersion>(16,
+            0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, UserVersion> eldest) {
+            if (size() > capacity) {
+                userEvictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Sizes the user versions from the application configuration. Injected right after
+     * construction, before the versions are shared with other threads.
+     *
+     * @param appConfig
+     */
+    @Inject(optional = true)
+    public void configureCapacity(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.capacity = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.TIMELINE_VERSION_USERS, String.valueOf(DEFAULT_USERS)).trim()));
+    }
+
+    /**
+     * Records that an article was added to the feed.
+     *
+     * @param feed
+     */
+    public void articleAdded(final String feed) {
+        feedVersions.computeIfAbsent(feed, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Records that the user's subscriptions changed.
+     *
+     * @param userId
+     */
+    public void subscriptionsChanged(final long userId) {
+        // The next read starts over with a new version and loads the feeds again.
+        removeUser(userId);
+    }
+
+    /**
+     * Records that the user was deleted.
+     *
+     * @param userId
+     */
+    public void userDeleted(final long userId) {
+        removeUser(userId);
+    }
+
+    /**
+     * Returns the version of the user's subscriptions.
+     *
+     * @param userId
+     * @return version
+     */
+    public String getSubscriptionVersion(final long userId) {
+        return epoch + "." + getUser(userId).version;
+    }
+
+    /**
+     * Returns the version of the user's timeline.
+     *
+     * @param userId
+     * @param feedLoader loads the feeds the user is subscribed to when they are not known yet
+     * @return version
+     */
+    public String getTimelineVersion(final long userId,
+            final LongFunction<List<String>> feedLoader) {
+        UserVersion user = getUser(userId);
+        List<String> feeds = user.feeds;
+        if (feeds == null) {
+            feedLoads.incrementAndGet();
+            feeds = feedLoader.apply(userId);
+            // A change in the meantime dropped the user, the feeds go to a version nobody reads.
+            user.feeds = feeds;
+        }
+        long feedVersion = 0;
+        for (String feed : feeds) {
+            AtomicLong counter = feedVersions.get(feed);
+            feedVersion += counter == null ? 0 : counter.get();
+        }
+        return epoch + "." + user.version + "." + feedVersion;
+    }
+
+    /**
+     * Returns version counters.
+     *
+     * @return stats
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (userVersions) {
+            stats.put("versioned_users", userVersions.size());
+        }
+        stats.put("user_evictions", userEvictions.get());
+        stats.put("versioned_feeds", feedVersions.size());
+        stats.put("feed_loads", feedLoads.get());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private UserVersion getUser(final long userId) {
+        synchronized (userVersions) {
+            return userVersions.computeIfAbsent(userId,
+                    id -> new UserVersion(userSequence.incrementAndGet()));
+        }
+    }
+
+    private void removeUser(final long userId) {
+        synchronized (userVersions) {
+            userVersions.remove(userId);
+        }
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Version of a user's subscriptions and the subscribed feeds as of that version.
+     */
+    private static class UserVersion {
+        private final long version;
+        private volatile List<String> feeds;
+
+        UserVersion(final long version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import proj.karthik.feed.reader.entity.User;
+
+/**
+ * Bounded cache of the users behind a user name, so that by-name calls do not query the user
+ * table every time. Names that have no users are kept apart in a smaller negative cache, so
+ * lookups of unknown names neither reach the database nor push known names out. Both are least
+ * recently used caches.
+ * <p>
+ * The store invalidates a name once a change to its users committed. A lookup that raced with a
+ * change is not cached: every invalidation bumps a version, and a result read under an older
+ * version is dropped.
+ */
+class UserNameCache {
+    private final int capacity;
+    private final int negativeCapacity;
+    private final Map<String, List<User>> users;
+    private final Map<String, Boolean> unknown;
+    private long version;
+    private long hits;
+    private long negativeHits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param capacity names with users to keep, 0 turns the cache off
+     * @param negativeCapacity names without users to keep
+     */
+    UserNameCache(final int capacity, final int negativeCapacity) {
+        this.capacity = Math.max(0, capacity);
+        this.negativeCapacity = Math.max(0, negativeCapacity);
+        this.users = new LinkedHashMap<String, List<User>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, List<User>> eldest) {
+                return evict(size() > UserNameCache.this.capacity);
+            }
+        };
+        this.unknown = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return evict(size() > UserNameCache.this.negativeCapacity);
+            }
+        };
+    }
+
+    /**
+     * Returns the cached users of the name, an empty list if the name is known to have none.
+     *
+     * @param name
+     * @return users, empty if the name is not cached
+     */
+    synchronized Optional<List<User>> get(final String name) {
+        List<User> cached = users.get(name);
+        if (cached != null) {
+            hits++;
+            return Optional.of(cached);
+        }
+        if (unknown.get(name) != null) {
+            negativeHits++;
+            return Optional.of(Collections.emptyList());
+        }
+        misses++;
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the version to pass to {@link #put(String, List, long)} for a lookup that starts
+     * now.
+     *
+     * @return version
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches the users of the name unless the cache was invalidated since the lookup started.
+     *
+     * @param name
+     * @param found
+     * @param lookupVersion
+     * @return the cached users
+     */
+    synchronized List<User> put(final String name, final List<User> found,
+            final long lookupVersion) {
+        List<User> cached = Collections.unmodifiableList(found);
+        if (capacity == 0 || lookupVersion != version) {
+            return cached;
+        }
+        if (found.isEmpty()) {
+            if (negativeCapacity > 0) {
+                unknown.put(name, Boolean.TRUE);
+            }
+        } else {
+            users.put(name, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Forgets the users of the name.
+     *
+     * @param name
+     */
+    synchronized void invalidate(final String name) {
+        version++;
+        invalidations++;
+        users.remove(name);
+        unknown.remove(name);
+    }
+
+    /**
+     * Forgets the name of the user with the given id.
+     *
+     * @param userId
+     */
+    synchronized void invalidate(final long userId) {
+        version++;
+        invalidations++;
+        users.values().removeIf(cached -> cached.stream()
+                .anyMatch(user -> user.getId() == userId));
+    }
+
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", capacity);
+        stats.put("size", users.size());
+        stats.put("negative_size", unknown.size());
+        stats.put("hits", hits);
+        stats.put("negative_hits", negativeHits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private boolean evict(final boolean full) {
+        if (full) {
+            evictions++;
+        }
+        return full;
+    }
+}
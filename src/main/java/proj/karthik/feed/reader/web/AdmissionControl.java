@@ -0,0 +1,213 @@
+package proj.karthik.feed.reader.web;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.sql.Lane;
+import spark.Request;
+import spark.Response;
+
+import static proj.karthik.feed.reader.Constants.ID;
+import static proj.karthik.feed.reader.Constants.NAME;
+
+/**
+ * Decides which requests are handled when more arrive than the stores can keep up with, so that
+ * the ones admitted stay fast instead of every request waiting on locks and connections until
+ * they all time out together.
+ * <p>
+ * A request is admitted if its user, given by id or name, and its route class (reads, writes or
+ * bulk uploads) both have a token left in their buckets, and the number of requests in flight is
+ * under a limit that adapts to their latency. A user or route class over its rate gets
+ * {@code 429}, an overloaded server {@code 503}, both straight away and with a
+ * {@code Retry-After} header. Stats requests are always admitted, so that an overloaded server
+ * can still be looked at.
+ */
+public class AdmissionControl {
+    private static final String ADMITTED_AT = "admission.admitted_at";
+    private static final String BULK_PATH = "/api/1/articles/bulk";
+    private static final String STATS_PATH = "/api/1/stats";
+    private static final double DEFAULT_USER_RATE = 50;
+    private static final int DEFAULT_USER_BUCKETS = 10000;
+    private static final long DEFAULT_LATENCY_TARGET_MILLIS = 200;
+    private static final int DEFAULT_MIN_CONCURRENCY = 4;
+    private static final int DEFAULT_MAX_CONCURRENCY = 200;
+    private static final long OVERLOAD_RETRY_AFTER_SECONDS = 1;
+    private final boolean enabled;
+    private final double userRate;
+    private final double userBurst;
+    private final int userBucketCapacity;
+    private final Map<String, TokenBucket> userBuckets;
+    private final Map<Lane, TokenBucket> routeBuckets = new EnumMap<>(Lane.class);
+    private final ConcurrencyLimit concurrencyLimit;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedUser = new AtomicLong();
+    private final AtomicLong rejectedRoute = new AtomicLong();
+    private final AtomicLong rejectedOverload = new AtomicLong();
+
+    @Inject
+    public AdmissionControl(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.enabled = Boolean.parseBoolean(
+                appConfig.getProperty(Constants.ADMISSION_CONTROL, "false").trim());
+        this.userRate = getRate(appConfig, Constants.ADMISSION_USER_RATE, DEFAULT_USER_RATE);
+        this.userBurst = Double.parseDouble(appConfig.getProperty(
+                Constants.ADMISSION_USER_BURST, String.valueOf(userRate * 2)).trim());
+        this.userBucketCapacity = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.ADMISSION_USER_BUCKETS, String.valueOf(DEFAULT_USER_BUCKETS)).trim()));
+        this.userBuckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, TokenBucket> eldest) {
+                return size() > userBucketCapacity;
+            }
+        };
+        long now = System.nanoTime();
+        addRouteBucket(Lane.READ, getRate(appConfig, Constants.ADMISSION_READ_RATE, 0), now);
+        addRouteBucket(Lane.WRITE, getRate(appConfig, Constants.ADMISSION_WRITE_RATE, 0), now);
+        addRouteBucket(Lane.BULK, getRate(appConfig, Constants.ADMISSION_BULK_RATE, 0), now);
+        this.concurrencyLimit = new ConcurrencyLimit(
+                Integer.parseInt(appConfig.getProperty(Constants.ADMISSION_MIN_CONCURRENCY,
+                        String.valueOf(DEFAULT_MIN_CONCURRENCY)).trim()),
+                Integer.parseInt(appConfig.getProperty(Constants.ADMISSION_MAX_CONCURRENCY,
+                        String.valueOf(DEFAULT_MAX_CONCURRENCY)).trim()),
+                TimeUnit.MILLISECONDS.toNanos(Long.parseLong(appConfig.getProperty(
+                        Constants.ADMISSION_LATENCY_TARGET_MS,
+                        String.valueOf(DEFAULT_LATENCY_TARGET_MILLIS)).trim())));
+    }
+
+    /**
+     * Returns true if requests go through admission control.
+     *
+     * @return isEnabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Admits the request or turns it away. Runs before the route, an admitted request has to be
+     * passed to {@link #complete(Request, Response)} once it is done.
+     *
+     * @param request
+     * @param response
+     * @throws RejectedException if the request is not admitted
+     */
+    public void admit(final Request request, final Response response) {
+        if (STATS_PATH.equals(request.pathInfo())) {
+            return;
+        }
+        long now = System.nanoTime();
+        String user = getUserKey(request);
+        if (user != null && userRate > 0) {
+            TokenBucket bucket;
+            synchronized (userBuckets) {
+                bucket = userBuckets.computeIfAbsent(user,
+                        key -> new TokenBucket(userRate, userBurst, now));
+            }
+            long waitNanos = bucket.tryAcquire(now);
+            if (waitNanos > 0) {
+                rejectedUser.incrementAndGet();
+                throw new RejectedException(429, toSeconds(waitNanos), "Too many requests for %s",
+                        user);
+            }
+        }
+        Lane routeClass = getRouteClass(request);
+        TokenBucket routeBucket = routeBuckets.get(routeClass);
+        if (routeBucket != null) {
+            long waitNanos = routeBucket.tryAcquire(now);
+            if (waitNanos > 0) {
+                rejectedRoute.incrementAndGet();
+                throw new RejectedException(429, toSeconds(waitNanos), "Too many %s requests",
+                        routeClass.getName());
+            }
+        }
+        if (!concurrencyLimit.tryAcquire()) {
+            rejectedOverload.incrementAndGet();
+            throw new RejectedException(503, OVERLOAD_RETRY_AFTER_SECONDS,
+                    "Server is overloaded, %s requests in flight",
+                    String.valueOf(concurrencyLimit.getLimit()));
+        }
+        admitted.incrementAndGet();
+        request.attribute(ADMITTED_AT, now);
+    }
+
+    /**
+     * Releases the slot of an admitted request and records how long it took. Requests that were
+     * not admitted are ignored.
+     *
+     * @param request
+     * @param response
+     */
+    public void complete(final Request request, final Response response) {
+        Long admittedAt = request.attribute(ADMITTED_AT);
+        if (admittedAt != null) {
+            concurrencyLimit.release(System.nanoTime() - admittedAt);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("limit", concurrencyLimit.getLimit());
+        stats.put("in_flight", concurrencyLimit.getInFlight());
+        stats.put("admitted", admitted.get());
+        stats.put("rejected_user", rejectedUser.get());
+        stats.put("rejected_route", rejectedRoute.get());
+        stats.put("rejected_overload", rejectedOverload.get());
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private static double getRate(final Properties appConfig, final String key,
+            final double defaultRate) {
+        return Math.max(0, Double.parseDouble(appConfig.getProperty(key,
+                String.valueOf(defaultRate)).trim()));
+    }
+
+    /**
+     * Route classes without a rate are not limited. Their bucket holds one second worth of
+     * requests.
+     */
+    private void addRouteBucket(final Lane routeClass, final double rate, final long now) {
+        if (rate > 0) {
+            routeBuckets.put(routeClass, new TokenBucket(rate, rate, now));
+        }
+    }
+
+    /**
+     * Returns the key of the bucket of the user the request is for, null if it is for no user.
+     * A user given by id and by name has a bucket for each.
+     */
+    private static String getUserKey(final Request request) {
+        String id = StringUtils.trimToNull(request.queryParams(ID));
+        if (id != null) {
+            return "id " + id;
+        }
+        String name = StringUtils.trimToNull(request.queryParams(NAME));
+        return name != null ? "name " + name : null;
+    }
+
+    /**
+     * Returns the lane the request runs in, which is its route class.
+     */
+    private static Lane getRouteClass(final Request request) {
+        if ("GET".equals(request.requestMethod())) {
+            return Lane.READ;
+        }
+        return BULK_PATH.equals(request.pathInfo()) ? Lane.BULK : Lane.WRITE;
+    }
+
+    private static long toSeconds(final long nanos) {
+        return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) /
+                TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,85 @@
+package proj.karthik.feed.reader.web;
+
+/**
+ * Limit on the number of requests handled at once that adapts to their latency.
+ * <p>
+ * Latencies are judged in windows of about as many requests as the limit. When more than a tenth
+ * of a window took longer than the target, the limit is cut by a tenth; when the window stayed
+ * within the target while the limit was reached, the limit grows by one. So the limit settles
+ * just under the concurrency at which requests start to queue for locks and connections, and
+ * requests over it are turned away rather than queued.
+ */
+class ConcurrencyLimit {
+    private static final int MIN_WINDOW = 10;
+    private static final double BACKOFF = 0.9;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private int limit;
+    private int inFlight;
+    private int windowSize;
+    private int windowSlow;
+    private boolean windowSaturated;
+
+    /**
+     * @param minLimit
+     * @param maxLimit limit to start from
+     * @param targetNanos latency requests should stay within
+     */
+    ConcurrencyLimit(final int minLimit, final int maxLimit, final long targetNanos) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetNanos = targetNanos;
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Takes a slot if the limit has not been reached, to be released by
+     * {@link #release(long)} once the request is done.
+     *
+     * @return true if a slot was taken
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight >= limit) {
+            windowSaturated = true;
+            return false;
+        }
+        inFlight++;
+        if (inFlight == limit) {
+            windowSaturated = true;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the slot of a request that took the given time.
+     *
+     * @param latencyNanos
+     */
+    synchronized void release(final long latencyNanos) {
+        inFlight--;
+        windowSize++;
+        if (latencyNanos > targetNanos) {
+            windowSlow++;
+        }
+        if (windowSize < Math.max(MIN_WINDOW, limit)) {
+            return;
+        }
+        if (windowSlow * 10 > windowSize) {
+            limit = Math.max(minLimit, (int) (limit * BACKOFF));
+        } else if (windowSaturated) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        windowSize = 0;
+        windowSlow = 0;
+        windowSaturated = false;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,243 @@
+package proj.karthik.feed.reader.web;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.sql.Lane;
+
+/**
+ * Executors that requests are handled on, one for every {@link Lane}.
+ * <p>
+ * Reads, interactive writes and bulk uploads each run on threads of their own, which check out
+ * connections from the pool of their lane. So a burst of bulk uploads fills the bulk lane and
+ * its pool, and timeline reads keep their threads and connections. A lane runs at most its
+ * number of threads at once, further requests wait in its queue, and once that is full they are
+ * turned away with {@code 503} rather than hold a web server thread for long.
+ * <p>
+ * When requests are handled on virtual threads, lane work runs on the calling thread instead,
+ * at most the number of threads of the lane at once. Further requests park on the permits of the
+ * lane, as many as its queue holds, so a lane keeps its budget without a second thread pool.
+ */
+public class ExecutionLanes {
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionLanes.class);
+    private static final int DEFAULT_READ_THREADS = 16;
+    private static final int DEFAULT_WRITE_THREADS = 8;
+    private static final int DEFAULT_BULK_THREADS = 2;
+    private static final int DEFAULT_QUEUE_CAPACITY = 200;
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+    private static final long FULL_RETRY_AFTER_SECONDS = 1;
+    private final boolean enabled;
+    private final int queueCapacity;
+    private final Map<Lane, ThreadPoolExecutor> executors = new EnumMap<>(Lane.class);
+    private final Map<Lane, Semaphore> permits = new EnumMap<>(Lane.class);
+    private final Map<Lane, AtomicLong> rejected = new EnumMap<>(Lane.class);
+
+    @Inject
+    public ExecutionLanes(@Named(Constants.APP_CONF) Properties appConfig,
+            WorkerPool workerPool) {
+        this(appConfig, workerPool.isVirtual());
+    }
+
+    /**
+     * @param appConfig
+     * @param virtual true if requests are handled on virtual threads
+     */
+    ExecutionLanes(final Properties appConfig, final boolean virtual) {
+        this.enabled = isEnabled(appConfig);
+        this.queueCapacity = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.LANE_QUEUE_CAPACITY, String.valueOf(DEFAULT_QUEUE_CAPACITY)).trim()));
+        if (!enabled) {
+            return;
+        }
+        for (Lane lane : Lane.values()) {
+            int threads = getThreads(appConfig, lane);
+            if (virtual) {
+                permits.put(lane, new Semaphore(threads, true));
+                LOG.info("Running at most {} {} requests at a time", threads, lane.getName());
+            } else {
+                executors.put(lane, newExecutor(lane, threads, queueCapacity));
+                LOG.info("Running {} requests on {} threads", lane.getName(), threads);
+            }
+            rejected.put(lane, new AtomicLong());
+        }
+    }
+
+    /**
+     * Returns true if execution lanes are configured.
+     *
+     * @param appConfig
+     * @return true if requests run in lanes
+     */
+    static boolean isEnabled(final Properties appConfig) {
+        return Boolean.parseBoolean(
+                appConfig.getProperty(Constants.EXECUTION_LANES, "false").trim());
+    }
+
+    /**
+     * Returns the number of requests of the lane that run at once.
+     *
+     * @param appConfig
+     * @param lane
+     * @return threads of the lane
+     */
+    static int getThreads(final Properties appConfig, final Lane lane) {
+        return Math.max(1, Integer.parseInt(appConfig.getProperty(
+                String.format(Constants.LANE_THREADS, lane.getName()),
+                String.valueOf(getDefaultThreads(lane))).trim()));
+    }
+
+    /**
+     * Returns true if requests run on the executors of their lanes.
+     *
+     * @return isEnabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs the task on the executor of the lane and waits for its result. Runs it on the calling
+     * thread if lanes are disabled or the thread already runs in a lane, and in the lane on the
+     * calling thread once a permit of the lane is free when requests run on virtual threads.
+     *
+     * @param lane
+     * @param task
+     * @param <T> Result type
+     * @return result of the task
+     * @throws RejectedException if the queue of the lane is full
+     * @throws Exception thrown by the task
+     */
+    public <T> T run(final Lane lane, final Callable<T> task) throws Exception {
+        if (!enabled || Lane.current() != null) {
+            return task.call();
+        }
+        Semaphore lanePermits = permits.get(lane);
+        if (lanePermits != null) {
+            return runWithPermit(lane, lanePermits, task);
+        }
+        ThreadPoolExecutor executor = executors.get(lane);
+        FutureTask<T> future = new FutureTask<>(task);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            rejected.get(lane).incrementAndGet();
+            throw new RejectedException(503, FULL_RETRY_AFTER_SECONDS,
+                    "Too many %s requests waiting", lane.getName());
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AppException(503, "Interrupted while waiting for the %s lane",
+                    lane.getName());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        executors.forEach((lane, executor) -> {
+            Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("threads", executor.getPoolSize());
+            laneStats.put("active", executor.getActiveCount());
+            laneStats.put("queued", executor.getQueue().size());
+            laneStats.put("completed", executor.getCompletedTaskCount());
+            laneStats.put("rejected", rejected.get(lane).get());
+            stats.put(lane.getName(), laneStats);
+        });
+        permits.forEach((lane, lanePermits) -> {
+            Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("available", lanePermits.availablePermits());
+            laneStats.put("waiting", lanePermits.getQueueLength());
+            laneStats.put("rejected", rejected.get(lane).get());
+            stats.put(lane.getName(), laneStats);
+        });
+        return stats;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Runs the task in the lane on the calling thread, waiting for a permit of the lane if all of
+     * them are taken and fewer than the queue capacity wait already.
+     */
+    private <T> T runWithPermit(final Lane lane, final Semaphore lanePermits,
+            final Callable<T> task) throws Exception {
+        if (!lanePermits.tryAcquire()) {
+            if (lanePermits.getQueueLength() >= queueCapacity) {
+                rejected.get(lane).incrementAndGet();
+                throw new RejectedException(503, FULL_RETRY_AFTER_SECONDS,
+                        "Too many %s requests waiting", lane.getName());
+            }
+            try {
+                lanePermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AppException(503, "Interrupted while waiting for the %s lane",
+                        lane.getName());
+            }
+        }
+        try {
+            return lane.call(task);
+        } finally {
+            lanePermits.release();
+        }
+    }
+
+    private static int getDefaultThreads(final Lane lane) {
+        switch (lane) {
+            case READ:
+                return DEFAULT_READ_THREADS;
+            case BULK:
+                return DEFAULT_BULK_THREADS;
+            default:
+                return DEFAULT_WRITE_THREADS;
+        }
+    }
+
+    /**
+     * Threads of the executor run in the lane, and stop once idle so that a quiet lane holds
+     * no threads.
+     */
+    private static ThreadPoolExecutor newExecutor(final Lane lane, final int threads,
+            final int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(lane.wrap(runnable),
+                            "lane-" + lane.getName() + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,31 @@
+package proj.karthik.feed.reader.web;
+
+import proj.karthik.feed.reader.AppException;
+
+/**
+ * Request turned away by admission control. Thrown on every rejection under overload, so it
+ * carries no stack trace.
+ */
+class RejectedException extends AppException {
+    private final long retryAfterSeconds;
+
+    RejectedException(final int code, final long retryAfterSeconds, final String message,
+            final String... args) {
+        super(code, message, args);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Returns the number of seconds after which the request may be admitted.
+     *
+     * @return retryAfterSeconds
+     */
+    long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -1,33 +1,80 @@
 package proj.karthik.feed.reader.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.http.HttpServletResponse;
 
 import proj.karthik.feed.reader.AppException;
 import proj.karthik.feed.reader.entity.Article;
-import proj.karthik.feed.reader.entity.Feed;
+import proj.karthik.feed.reader.entity.ArticleDelta;
+import proj.karthik.feed.reader.entity.BulkResult;
+import proj.karthik.feed.reader.entity.UnreadCounts;
+import proj.karthik.feed.reader.entity.User;
+import proj.karthik.feed.reader.entity.Views;
+import proj.karthik.feed.reader.sql.Lane;
+import proj.karthik.feed.reader.sql.SQLUtils;
 import proj.karthik.feed.reader.store.ArticleStore;
+import proj.karthik.feed.reader.store.ArticleWriteQueue;
 import proj.karthik.feed.reader.store.FeedStore;
+import proj.karthik.feed.reader.store.ReadStateStore;
 import proj.karthik.feed.reader.store.SubscriptionStore;
 import proj.karthik.feed.reader.store.UserStore;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 
+import static proj.karthik.feed.reader.Constants.AFTER;
 import static proj.karthik.feed.reader.Constants.APPLICATION_JSON;
+import static proj.karthik.feed.reader.Constants.APP_CONF;
+import static proj.karthik.feed.reader.Constants.BULK_CHUNK_SIZE;
+import static proj.karthik.feed.reader.Constants.DEFAULT_BULK_CHUNK_SIZE;
+import static proj.karthik.feed.reader.Constants.DEFAULT_PAGE_SIZE;
+import static proj.karthik.feed.reader.Constants.DURABLE;
 import static proj.karthik.feed.reader.Constants.FEED;
+import static proj.karthik.feed.reader.Constants.HEADER_ETAG;
+import static proj.karthik.feed.reader.Constants.HEADER_IF_NONE_MATCH;
+import static proj.karthik.feed.reader.Constants.HEADER_NEXT_CURSOR;
+import static proj.karthik.feed.reader.Constants.HEADER_RETRY_AFTER;
+import static proj.karthik.feed.reader.Constants.HEADER_SYNC_GAP;
+import static proj.karthik.feed.reader.Constants.HEADER_SYNC_TOKEN;
+import static proj.karthik.feed.reader.Constants.HEADLINES;
 import static proj.karthik.feed.reader.Constants.ID;
+import static proj.karthik.feed.reader.Constants.LIMIT;
+import static proj.karthik.feed.reader.Constants.MAX_PAGE_SIZE;
 import static proj.karthik.feed.reader.Constants.NAME;
+import static proj.karthik.feed.reader.Constants.OFFSET;
 import static proj.karthik.feed.reader.Constants.PORT;
+import static proj.karthik.feed.reader.Constants.QUERY;
+import static proj.karthik.feed.reader.Constants.SINCE;
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
 import static spark.Spark.delete;
 import static spark.Spark.exception;
 import static spark.Spark.get;
@@ -45,16 +92,43 @@ public class RouteManager {
     private final FeedStore feedStore;
     private final SubscriptionStore subscriptionStore;
     private final UserStore userStore;
+    private final ReadStateStore readStateStore;
+    private final ArticleWriteQueue articleWriteQueue;
+    private final WorkerPool workerPool;
+    private final AdmissionControl admissionControl;
+    private final ExecutionLanes executionLanes;
+    private final int bulkChunkSize;
+    private SQLUtils sqlUtils;
 
     @Inject
-    public RouteManager(ObjectMapper objectMapper,
+    public RouteManager(@Named(APP_CONF) Properties appConfig, ObjectMapper objectMapper,
             ArticleStore articleStore, FeedStore feedStore, SubscriptionStore subscriptionStore,
-            UserStore userStore ) {
+            UserStore userStore, ReadStateStore readStateStore,
+            ArticleWriteQueue articleWriteQueue, WorkerPool workerPool,
+            AdmissionControl admissionControl, ExecutionLanes executionLanes) {
         this.objectMapper = objectMapper;
         this.articleStore = articleStore;
         this.feedStore = feedStore;
         this.subscriptionStore = subscriptionStore;
         this.userStore = userStore;
+        this.readStateStore = readStateStore;
+        this.articleWriteQueue = articleWriteQueue;
+        this.workerPool = workerPool;
+        this.admissionControl = admissionControl;
+        this.executionLanes = executionLanes;
+        this.bulkChunkSize = Math.max(1, Integer.parseInt(appConfig.getProperty(BULK_CHUNK_SIZE,
+                String.valueOf(DEFAULT_BULK_CHUNK_SIZE))));
+    }
+
+    /**
+     * Adds the statistics of the database to those of the application. Injected right after
+     * construction when the stores use a database.
+     *
+     * @param sqlUtils
+     */
+    @Inject(optional = true)
+    public void configureSqlStats(SQLUtils sqlUtils) {
+        this.sqlUtils = sqlUtils;
     }
 
     public void initRoutes(Properties conf) {
@@ -63,14 +137,29 @@ public class RouteManager {
             LOG.info("Starting web server at port:{}", port);
             port(port);
         }
-        post("/api/1/users", this::addUser);
-        delete("/api/1/users", this::deleteUser);
-        post("/api/1/subscriptions", this::subscribe);
-        delete("/api/1/subscriptions", this::unsubscribe);
-        post("/api/1/articles", this::addArticle);
-        get("/api/1/articles", this::getArticles);
-        post("/api/1/feeds", this::addFeed);
-        get("/api/1/feeds", this::getFeed);
+        workerPool.init();
+        if (admissionControl.isEnabled()) {
+            before("/api/*", admissionControl::admit);
+            // Runs after every request, also the ones that failed or were turned away.
+            afterAfter("/api/*", admissionControl::complete);
+        }
+        post("/api/1/users", inLane(Lane.WRITE, this::addUser));
+        delete("/api/1/users", inLane(Lane.WRITE, this::deleteUser));
+        post("/api/1/subscriptions", inLane(Lane.WRITE, this::subscribe));
+        delete("/api/1/subscriptions", inLane(Lane.WRITE, this::unsubscribe));
+        post("/api/1/articles", inLane(Lane.WRITE, this::addArticle));
+        post("/api/1/articles/bulk", inLane(Lane.BULK, this::addArticles));
+        get("/api/1/articles", inLane(Lane.READ, this::getArticles));
+        // Registered before the article id route, which would match it as well.
+        get("/api/1/articles/search", inLane(Lane.READ, this::searchArticles));
+        get("/api/1/articles/:id", inLane(Lane.READ, this::getArticle));
+        post("/api/1/articles/:id/read", inLane(Lane.WRITE, this::markArticleRead));
+        post("/api/1/feeds", inLane(Lane.WRITE, this::addFeed));
+        get("/api/1/feeds", inLane(Lane.READ, this::getFeed));
+        post("/api/1/feeds/read", inLane(Lane.WRITE, this::markFeedRead));
+        get("/api/1/unread", inLane(Lane.READ, this::getUnreadCounts));
+        // Runs on the web server thread, so that a server with full lanes can be looked at.
+        get("/api/1/stats", this::getStats);
         exception(AppException.class, this::addExceptionHandler);
     }
 
@@ -130,22 +219,17 @@ public class RouteManager {
     }
 
     protected Response getFeed(Request request, Response response) {
-        String userName = request.queryParams(NAME);
-        String id = request.queryParams(ID);
-        List<Feed> feeds;
-        if (StringUtils.isNotBlank(id)) {
-            long userId = Long.parseLong(id.trim());
-            feeds = subscriptionStore.getUserSubscriptionsById(userId);
-        } else {
-            feeds = subscriptionStore.getUserSubscriptionsByName(userName);
-        }
-        response.status(200);
-        try {
-            response.type(APPLICATION_JSON);
-            response.body(objectMapper.writeValueAsString(feeds));
-        } catch (JsonProcessingException e) {
-            throw new AppException(500, "Error formatting result as JSON", e);
+        Optional<Long> userId = getUserId(request);
+        if (userId.isPresent() && isNotModified(request, response, "f"
+                + subscriptionStore.getSubscriptionVersion(userId.get()))) {
+            return response;
         }
+        streamJson(response, generator -> {
+            if (userId.isPresent()) {
+                subscriptionStore.streamUserSubscriptionsById(userId.get(),
+                        generator::writeObject);
+            }
+        });
         return response;
     }
 
@@ -153,7 +237,21 @@ public class RouteManager {
         String feed = req.queryParams(FEED);
         try {
             Article article = objectMapper.readValue(req.body(), new TypeReference<Article>() {});
-            articleStore.add(article, feed);
+            if (articleWriteQueue.isEnabled()) {
+                article.setFeed(feed);
+                CompletableFuture<BulkResult> added = articleWriteQueue.submit(article);
+                if (!Boolean.parseBoolean(req.queryParams(DURABLE))) {
+                    // Accepted, the article is committed with the next group.
+                    res.status(202);
+                    return res;
+                }
+                BulkResult result = articleWriteQueue.await(added);
+                if (result.getStatus() != 200) {
+                    throw new AppException(result.getStatus(), "%s", result.getError());
+                }
+            } else {
+                articleStore.add(article, feed);
+            }
             res.status(200);
             return res;
         } catch (IOException e) {
@@ -162,29 +260,324 @@ public class RouteManager {
         }
     }
 
+    /**
+     * Adds the articles of a newline delimited JSON body, one article per line. Lines are parsed
+     * as they arrive and added in chunks, each chunk in one transaction, and the result of every
+     * line is streamed back once its chunk is committed. Articles without a feed of their own go
+     * to the feed given as query parameter.
+     */
+    protected Response addArticles(final Request request, final Response response) {
+        String feed = request.queryParams(FEED);
+        ObjectReader reader = objectMapper.readerFor(Article.class);
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+                request.raw().getInputStream(), StandardCharsets.UTF_8))) {
+            streamJson(response, generator -> {
+                // A chunk holds at most bulkChunkSize lines, so memory stays bounded.
+                List<Article> articles = new ArrayList<>(bulkChunkSize);
+                // Results of the lines of the chunk, in line order. Articles that still have to
+                // be added hold a null.
+                List<BulkResult> results = new ArrayList<>();
+                List<Integer> lineNumbers = new ArrayList<>();
+                int lineNumber = 0;
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    lineNumber++;
+                    if (StringUtils.isBlank(line)) {
+                        continue;
+                    }
+                    lineNumbers.add(lineNumber);
+                    Article article = null;
+                    try {
+                        article = reader.readValue(line);
+                    } catch (JsonProcessingException e) {
+                        LOG.warn("Error parsing article object on line {}", lineNumber, e);
+                    }
+                    if (article == null) {
+                        results.add(new BulkResult(400, "Article object must have a valid title "
+                                + "and body"));
+                    } else {
+                        if (article.getFeed() == null) {
+                            article.setFeed(feed);
+                        }
+                        articles.add(article);
+                        results.add(null);
+                    }
+                    if (results.size() == bulkChunkSize) {
+                        addChunk(articles, results, lineNumbers, generator);
+                    }
+                }
+                addChunk(articles, results, lineNumbers, generator);
+            });
+        } catch (IOException e) {
+            throw new AppException(400, "Error reading articles", e);
+        }
+        return response;
+    }
+
     protected Response getArticles(final Request request, final Response response) {
+        String after = StringUtils.trimToNull(request.queryParams(AFTER));
+        int limit = getLimit(request);
+        boolean headlines = Boolean.parseBoolean(request.queryParams(HEADLINES));
+        String since = request.queryParams(SINCE);
+        Optional<Long> userId = getUserId(request);
+        // The version is read before anything else, so an article added in the meantime can
+        // only make the response newer than its ETag, never older.
+        if (userId.isPresent() && isNotModified(request, response, "a"
+                + articleStore.getTimelineVersion(userId.get()) + "."
+                + Integer.toHexString(Objects.hash(after, limit, headlines, since)))) {
+            return response;
+        }
+        ObjectWriter writer = objectMapper.writerWithView(
+                headlines ? Views.Headline.class : Views.Full.class);
+        if (since != null && userId.isPresent()) {
+            ArticleDelta delta = articleStore.getArticlesSince(userId.get(), since.trim(), limit);
+            response.header(HEADER_SYNC_TOKEN, delta.getSyncToken());
+            response.header(HEADER_SYNC_GAP, String.valueOf(delta.isGap()));
+            streamJson(response, generator -> {
+                for (Article article : delta.getArticles()) {
+                    writer.writeValue(generator, article);
+                }
+            });
+            return response;
+        }
+        // The page boundary is resolved up front so that the next cursor can go out as a header
+        // before the article bodies are streamed.
+        String nextCursor = userId.isPresent()
+                ? articleStore.getNextCursor(userId.get(), limit, after) : null;
+        if (nextCursor != null) {
+            response.header(HEADER_NEXT_CURSOR, nextCursor);
+        }
+        streamJson(response, generator -> {
+            if (userId.isPresent()) {
+                articleStore.streamArticles(userId.get(), after, nextCursor, headlines,
+                        article -> writer.writeValue(generator, article));
+            }
+        });
+        return response;
+    }
+
+    protected Response searchArticles(final Request request, final Response response) {
+        String query = request.queryParams(QUERY);
+        int offset = getOffset(request);
+        int limit = getLimit(request);
+        boolean headlines = Boolean.parseBoolean(request.queryParams(HEADLINES));
+        Optional<Long> userId = getUserId(request);
+        List<Article> articles = userId.isPresent()
+                ? articleStore.search(userId.get(), query, offset, limit, headlines)
+                : Collections.emptyList();
+        ObjectWriter writer = objectMapper.writerWithView(
+                headlines ? Views.Headline.class : Views.Full.class);
+        streamJson(response, generator -> {
+            for (Article article : articles) {
+                writer.writeValue(generator, article);
+            }
+        });
+        return response;
+    }
+
+    protected String getArticle(final Request request, final Response response) {
+        long articleId = getArticleId(request);
+        Article article = articleStore.getArticle(articleId).orElseThrow(() ->
+                new AppException(404, "Article %s not found", String.valueOf(articleId)));
+        return toJson(response, article);
+    }
+
+    protected Response markArticleRead(final Request request, final Response response) {
+        long articleId = getArticleId(request);
+        readStateStore.markArticleRead(getExistingUserId(request), articleId);
+        response.status(200);
+        return response;
+    }
+
+    protected Response markFeedRead(final Request request, final Response response) {
+        String feed = request.queryParams(FEED);
+        readStateStore.markFeedRead(getExistingUserId(request), feed);
+        response.status(200);
+        return response;
+    }
+
+    protected String getUnreadCounts(final Request request, final Response response) {
+        Optional<Long> userId = getUserId(request);
+        UnreadCounts unreadCounts = new UnreadCounts(userId.isPresent()
+                ? readStateStore.getUnreadCounts(userId.get()) : Collections.emptyMap());
+        return toJson(response, unreadCounts);
+    }
+
+    protected String getStats(final Request request, final Response response) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("articles", articleStore.getStats());
+        stats.put("feeds", feedStore.getStats());
+        stats.put("subscriptions", subscriptionStore.getStats());
+        stats.put("users", userStore.getStats());
+        stats.put("read_state", readStateStore.getStats());
+        stats.put("write_queue", articleWriteQueue.getStats());
+        if (sqlUtils != null) {
+            stats.put("sql", sqlUtils.getStats());
+        }
+        stats.put("workers", workerPool.getStats());
+        stats.put("admission", admissionControl.getStats());
+        stats.put("lanes", executionLanes.getStats());
+        return toJson(response, stats);
+    }
+
+    protected int getLimit(final Request request) {
+        String limit = request.queryParams(LIMIT);
+        if (StringUtils.isBlank(limit)) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        try {
+            return Math.min(Integer.parseInt(limit.trim()), MAX_PAGE_SIZE);
+        } catch (NumberFormatException e) {
+            throw new AppException(400, "Invalid limit: %s", e, limit);
+        }
+    }
+
+    protected int getOffset(final Request request) {
+        String offset = request.queryParams(OFFSET);
+        if (StringUtils.isBlank(offset)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(offset.trim());
+        } catch (NumberFormatException e) {
+            throw new AppException(400, "Invalid offset: %s", e, offset);
+        }
+    }
+
+    /**
+     * Adds the buffered articles of a bulk upload and writes the results of the buffered lines.
+     * The buffers are cleared for the next chunk.
+     */
+    protected void addChunk(final List<Article> articles, final List<BulkResult> results,
+            final List<Integer> lineNumbers, final JsonGenerator generator) throws IOException {
+        Iterator<BulkResult> added = articles.isEmpty()
+                ? Collections.emptyIterator() : articleStore.add(articles).iterator();
+        for (int i = 0; i < results.size(); i++) {
+            BulkResult result = results.get(i) == null ? added.next() : results.get(i);
+            result.setLine(lineNumbers.get(i));
+            generator.writeObject(result);
+        }
+        // Lets the client follow the progress of a long upload.
+        generator.flush();
+        articles.clear();
+        results.clear();
+        lineNumbers.clear();
+    }
+
+    /**
+     * Resolves the user id from the id or name query parameters. Returns empty if the named
+     * user does not exist.
+     */
+    protected Optional<Long> getUserId(final Request request) {
         String userName = request.queryParams(NAME);
         String id = request.queryParams(ID);
-        List<Article> articles;
         if (StringUtils.isNotBlank(id)) {
-            long userId = Long.parseLong(id.trim());
-            articles = articleStore.getArticles(userId);
-        } else {
-            articles = articleStore.getArticles(userName);
+            return Optional.of(Long.parseLong(id.trim()));
         }
+        List<User> users = userStore.getId(userName);
+        return users.isEmpty() ? Optional.empty() : Optional.of(users.get(0).getId());
+    }
+
+    /**
+     * Resolves the user id like {@link #getUserId(Request)}, failing if there is no such user.
+     */
+    protected long getExistingUserId(final Request request) {
+        return getUserId(request).orElseThrow(() -> new AppException(404, "User %s not found",
+                request.queryParams(NAME)));
+    }
+
+    protected long getArticleId(final Request request) {
+        String id = request.params(ID);
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            throw new AppException(400, "Invalid article id: %s", e, id);
+        }
+    }
+
+    /**
+     * Sets the ETag of the response and answers 304 Not Modified if it matches one of the tags
+     * in the If-None-Match header of the request. Returns true if the response is complete.
+     */
+    protected boolean isNotModified(final Request request, final Response response,
+            final String version) {
+        String etag = "\"" + version + "\"";
+        response.header(HEADER_ETAG, etag);
+        String ifNoneMatch = request.headers(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // Weak comparison, as required for If-None-Match.
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                response.status(304);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a JSON array straight to the underlying servlet output stream. Elements are
+     * serialized as they are produced, so the response is never materialized on the heap.
+     * <p>
+     * The status goes out with the first buffer that is flushed, so a failure of the first query
+     * still answers with the error status. A failure after that cannot change the status any
+     * more, the connection is aborted instead so that the client never sees a truncated array
+     * as a complete one.
+     */
+    protected void streamJson(final Response response, final JsonArrayWriter writer) {
+        HttpServletResponse raw = response.raw();
         response.status(200);
+        response.type(APPLICATION_JSON);
         try {
-            response.type(APPLICATION_JSON);
-            response.body(objectMapper.writeValueAsString(articles));
-        } catch (JsonProcessingException e) {
-            throw new AppException(500, "Error formatting result as JSON", e);
+            OutputStream out = raw.getOutputStream();
+            // Closing the generator must not end the array or the response, only a complete
+            // array does that.
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                generator.writeStartArray();
+                writer.write(generator);
+                generator.writeEndArray();
+            } catch (IOException | RuntimeException e) {
+                abort(raw, e);
+                throw e;
+            }
+            generator.close();
+            out.close();
+        } catch (IOException e) {
+            throw new AppException(500, "Error streaming result as JSON", e);
         }
-        return response;
+    }
+
+    /**
+     * Returns a route that handles requests in the given lane.
+     *
+     * @param lane
+     * @param route
+     * @return route
+     */
+    protected Route inLane(final Lane lane, final Route route) {
+        return (request, response) -> executionLanes.run(lane,
+                () -> route.handle(request, response));
     }
 
     protected Response addExceptionHandler(AppException exception, Request request,
             Response response) {
-        LOG.error("Error while processing request", exception);
+        if (exception instanceof RejectedException) {
+            // Turning requests away is how overload is handled, not an error.
+            LOG.debug("Rejected {}: {}", request.pathInfo(), exception.getMessage());
+            response.header(HEADER_RETRY_AFTER, String.valueOf(
+                    ((RejectedException) exception).getRetryAfterSeconds()));
+        } else {
+            LOG.error("Error while processing request", exception);
+        }
         response.status(exception.getCode());
         try {
             response.body(objectMapper.writeValueAsString(exception.getErrorMap()));
@@ -194,4 +587,45 @@ public class RouteManager {
         }
         return response;
     }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    /**
+     * Returns the value as the JSON body of the response. Spark writes whatever the route
+     * returns, so a body set on the response would be replaced by the response object itself.
+     */
+    private String toJson(final Response response, final Object value) {
+        response.status(200);
+        response.type(APPLICATION_JSON);
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new AppException(500, "Error formatting result as JSON", e);
+        }
+    }
+
+    /**
+     * Drops what was streamed of a response that failed. Nothing of it has reached the client
+     * unless the response is committed, then the connection is aborted.
+     */
+    private void abort(final HttpServletResponse raw, final Exception failure) {
+        if (!raw.isCommitted()) {
+            raw.resetBuffer();
+            return;
+        }
+        LOG.warn("Aborting response that failed after it was committed", failure);
+        if (raw instanceof org.eclipse.jetty.server.Response) {
+            ((org.eclipse.jetty.server.Response) raw).getHttpChannel().abort(failure);
+        }
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Writes the elements of a streamed JSON array.
+     */
+    @FunctionalInterface
+    protected interface JsonArrayWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
 }
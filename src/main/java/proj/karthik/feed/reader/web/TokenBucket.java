@@ -0,0 +1,45 @@
+package proj.karthik.feed.reader.web;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limit that lets requests through at a steady rate, plus bursts of up to its capacity.
+ * The bucket refills continuously at the rate and every request takes a token out of it.
+ * <p>
+ * Time is passed in by the caller, in {@link System#nanoTime()} units.
+ */
+class TokenBucket {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param ratePerSecond tokens added every second
+     * @param capacity tokens the bucket holds, it starts full
+     * @param now
+     */
+    TokenBucket(final double ratePerSecond, final double capacity, final long now) {
+        this.tokensPerNano = ratePerSecond / NANOS_PER_SECOND;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * Takes a token if there is one.
+     *
+     * @param now
+     * @return 0 if a token was taken, otherwise the nanoseconds until there is one
+     */
+    synchronized long tryAcquire(final long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
@@ -0,0 +1,273 @@
+package proj.karthik.feed.reader.web;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.sql.Lane;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
+import static spark.Spark.threadPool;
+
+/**
+ * Threads the embedded web server handles requests on.
+ * <p>
+ * By default every request holds a pooled platform thread from the moment it is read until its
+ * response is written, including the time it waits for store locks and database connections.
+ * The pool starts the minimum number of threads, grows up to the maximum and lets threads above
+ * the minimum go after the idle timeout. Requests that find every thread busy wait in the queue,
+ * and once a bounded queue is full the connections they came on are closed.
+ * <p>
+ * With {@code worker_mode=virtual} the pool only reads and writes connections, and every request
+ * is handled on a virtual thread of its own, on JDKs that have them, so waiting does not hold a
+ * platform thread. Nearly every request needs a database connection, so the number handled at
+ * once is limited to the size of the connection pool: the others park until one finishes rather
+ * than queue up inside the connection pool, or {@value #DEFAULT_CONCURRENCY} without a database.
+ * With execution lanes every lane limits its own requests, and the limit here is the sum of
+ * theirs. On older JDKs the platform pool is used.
+ */
+public class WorkerPool {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerPool.class);
+    private static final String PLATFORM = "platform";
+    private static final int DEFAULT_MIN_THREADS = 8;
+    private static final int DEFAULT_MAX_THREADS = 200;
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    private static final int DEFAULT_CONCURRENCY = 10;
+    private static final String VIRTUAL_THREAD_PREFIX = "worker-";
+    private final Properties appConfig;
+    private final String mode;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int idleTimeoutMillis;
+    private final int queueCapacity;
+    private final ThreadFactory virtualThreadFactory;
+    private int concurrency;
+    private Semaphore permits;
+    private volatile QueuedThreadPool platformPool;
+
+    @Inject
+    public WorkerPool(@Named(Constants.APP_CONF) Properties appConfig) {
+        this.appConfig = appConfig;
+        this.minThreads = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.WORKER_THREADS_MIN, String.valueOf(DEFAULT_MIN_THREADS)).trim()));
+        this.maxThreads = Math.max(minThreads, Integer.parseInt(appConfig.getProperty(
+                Constants.WORKER_THREADS_MAX, String.valueOf(DEFAULT_MAX_THREADS)).trim()));
+        this.idleTimeoutMillis = Integer.parseInt(appConfig.getProperty(
+                Constants.WORKER_IDLE_TIMEOUT_MS, String.valueOf(DEFAULT_IDLE_TIMEOUT_MILLIS))
+                .trim());
+        this.queueCapacity = Math.max(0, Integer.parseInt(appConfig.getProperty(
+                Constants.WORKER_QUEUE_CAPACITY, "0").trim()));
+        configureConcurrency(DEFAULT_CONCURRENCY);
+        String configuredMode = appConfig.getProperty(Constants.WORKER_MODE, PLATFORM).trim();
+        ThreadFactory threadFactory = null;
+        if (Constants.WORKER_MODE_VIRTUAL.equalsIgnoreCase(configuredMode)) {
+            threadFactory = newVirtualThreadFactory();
+        }
+        this.virtualThreadFactory = threadFactory;
+        this.mode = threadFactory != null ? Constants.WORKER_MODE_VIRTUAL : PLATFORM;
+    }
+
+    /**
+     * Sizes the number of requests handled at once on virtual threads to the connection pool.
+     * Injected right after construction when the stores use a database, before the web server
+     * starts.
+     *
+     * @param dataSource
+     */
+    @Inject(optional = true)
+    public void configureDataSource(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource) {
+            configureConcurrency(((HikariDataSource) dataSource).getMaximumPoolSize());
+        }
+    }
+
+    /**
+     * Makes the web server use these workers. Has to be called before the first route is added,
+     * which starts the server.
+     */
+    public void init() {
+        EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+                new EmbeddedJettyFactory(this::createServer));
+        threadPool(maxThreads, minThreads, idleTimeoutMillis);
+        if (isVirtual()) {
+            LOG.info("Handling requests on virtual threads, at most {} at a time", concurrency);
+        } else {
+            LOG.info("Handling requests on {} to {} threads with {} queue", minThreads,
+                    maxThreads, queueCapacity > 0 ? "a " + queueCapacity + " request" :
+                            "an unbounded");
+        }
+    }
+
+    /**
+     * Returns true if requests run on virtual threads.
+     *
+     * @return isVirtual
+     */
+    public boolean isVirtual() {
+        return virtualThreadFactory != null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        QueuedThreadPool pool = platformPool;
+        stats.put("max_threads", maxThreads);
+        stats.put("threads", pool != null ? pool.getThreads() : 0);
+        stats.put("busy_threads", pool != null ? pool.getBusyThreads() : 0);
+        stats.put("queued", pool != null ? pool.getQueueSize() : 0);
+        if (isVirtual()) {
+            stats.put("concurrency", concurrency);
+            stats.put("active", concurrency - permits.availablePermits());
+            stats.put("waiting", permits.getQueueLength());
+        }
+        return stats;
+    }
+
+    /**
+     * Creates the Jetty server the web server runs on.
+     *
+     * @param maxThreads
+     * @param minThreads
+     * @param idleTimeoutMillis
+     * @return server
+     */
+    Server createServer(final int maxThreads, final int minThreads, final int idleTimeoutMillis) {
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeoutMillis,
+                queueCapacity > 0 ? new BlockingArrayQueue<>(queueCapacity) : null);
+        platformPool = pool;
+        if (!isVirtual()) {
+            return new Server(pool);
+        }
+        return new Server(pool) {
+            @Override
+            public void setHandler(final Handler handler) {
+                // Spark sets its own handler on the server, requests are handed to it on
+                // virtual threads.
+                super.setHandler(dispatch(handler, virtualThreadFactory));
+            }
+        };
+    }
+
+    /**
+     * Wraps the handler so that every request is handled on a new thread from the factory, at
+     * most the configured number at a time. The pool thread that read the request goes back to
+     * the connections straight away.
+     *
+     * @param handler
+     * @param threadFactory
+     * @return dispatching handler
+     */
+    Handler dispatch(final Handler handler, final ThreadFactory threadFactory) {
+        DispatchHandler dispatchHandler = new DispatchHandler(threadFactory, permits);
+        dispatchHandler.setHandler(handler);
+        return dispatchHandler;
+    }
+
+    //------------------------------------- Private methods -------------------------------------//
+
+    private void configureConcurrency(final int poolSize) {
+        int defaultConcurrency = poolSize;
+        if (ExecutionLanes.isEnabled(appConfig)) {
+            defaultConcurrency = 0;
+            for (Lane lane : Lane.values()) {
+                defaultConcurrency += ExecutionLanes.getThreads(appConfig, lane);
+            }
+        }
+        this.concurrency = Math.max(1, Integer.parseInt(appConfig.getProperty(
+                Constants.WORKER_CONCURRENCY, String.valueOf(defaultConcurrency)).trim()));
+        this.permits = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * Returns a factory of virtual threads, null if the JDK has none. Looked up reflectively, the
+     * application is built for JDKs that predate them.
+     */
+    private static ThreadFactory newVirtualThreadFactory() {
+        try {
+            // Thread.ofVirtual().name("worker-", 0).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, VIRTUAL_THREAD_PREFIX, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Virtual threads are not available on Java {}, handling requests on " +
+                    "platform threads", System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    private static class DispatchHandler extends HandlerWrapper {
+        private final ThreadFactory threadFactory;
+        private final Semaphore permits;
+
+        private DispatchHandler(final ThreadFactory threadFactory, final Semaphore permits) {
+            this.threadFactory = threadFactory;
+            this.permits = permits;
+        }
+
+        @Override
+        public void handle(final String target, final Request baseRequest,
+                final HttpServletRequest request, final HttpServletResponse response) {
+            AsyncContext context = baseRequest.startAsync();
+            // Waiting for a permit is not a timeout, the request is answered once handled.
+            context.setTimeout(0);
+            threadFactory.newThread(() -> {
+                try {
+                    permits.acquire();
+                    try {
+                        super.handle(target, baseRequest, request, response);
+                    } finally {
+                        permits.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                } catch (IOException | ServletException | RuntimeException e) {
+                    LOG.error("Error handling {}", target, e);
+                    sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } finally {
+                    baseRequest.setHandled(true);
+                    context.complete();
+                }
+            }).start();
+        }
+
+        private void sendError(final HttpServletResponse response, final int status) {
+            if (response.isCommitted()) {
+                return;
+            }
+            try {
+                response.sendError(status);
+            } catch (IOException e) {
+                LOG.debug("Could not send error {}", status, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package proj.karthik.feed.reader;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.store.ArticleStore;
+import proj.karthik.feed.reader.store.MemArticleStore;
+import proj.karthik.feed.reader.web.RouteManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test for {@link CoreModule}
+ */
+public class CoreModuleTest {
+
+    @Test
+    public void testMemoryBackend() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.STORE_BACKEND, Constants.STORE_BACKEND_MEMORY);
+        // No database configuration is read, the directory does not exist.
+        Injector injector = Guice.createInjector(new CoreModule(config,
+                Paths.get("target", "no-such-conf")));
+        assertEquals(MemArticleStore.class, injector.getInstance(ArticleStore.class).getClass());
+        assertNull(injector.getExistingBinding(Key.get(DataSource.class)));
+        assertNull(injector.getExistingBinding(Key.get(SQLUtils.class)));
+        injector.getInstance(RouteManager.class);
+    }
+}
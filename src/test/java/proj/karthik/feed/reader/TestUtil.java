@@ -3,8 +3,14 @@ package proj.karthik.feed.reader;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.sql.DataSource;
 
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.store.ArticleStore;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -26,9 +32,30 @@ public class TestUtil {
      * @return dataSource
      */
     public static DataSource getTestDataSource(String name) {
+        return getTestDataSource(name, new HikariConfig());
+    }
+
+    /**
+     * Returns a {@link DataSource} like {@link #getTestDataSource(String)} whose pool holds at
+     * most the given number of connections and gives up waiting for one after the timeout.
+     *
+     * @param name
+     * @param poolSize
+     * @param timeoutMillis
+     * @return dataSource
+     */
+    public static DataSource getTestDataSource(String name, int poolSize, long timeoutMillis) {
         HikariConfig config = new HikariConfig();
+        config.setMaximumPoolSize(poolSize);
+        config.setConnectionTimeout(timeoutMillis);
+        return getTestDataSource(name, config);
+    }
+
+    private static DataSource getTestDataSource(String name, HikariConfig config) {
         config.setDataSourceClassName("org.h2.jdbcx.JdbcDataSource");
         config.setConnectionTestQuery("VALUES 1");
+        // Same as the application, every DMLStatement batch commits or rolls back as a whole.
+        config.setAutoCommit(false);
         config.addDataSourceProperty("URL", String.format("jdbc:h2:mem:%s", name));
         config.addDataSourceProperty("user", "sa");
         config.addDataSourceProperty("password", "sa");
@@ -86,4 +113,28 @@ public class TestUtil {
         assertEquals(AppException.class, throwable.getClass());
         assertEquals(ARTICLE_TITLE_ATTRIBUTE_CANNOT_BE_EMPTY, throwable.getMessage());
     }
+
+    /**
+     * Asserts the exception carries the given response code.
+     * @param code
+     * @param throwable
+     */
+    public static void assertCode(final int code, final Throwable throwable) {
+        assertEquals(AppException.class, throwable.getClass());
+        assertEquals(code, ((AppException) throwable).getCode());
+    }
+
+    /**
+     * Returns the whole timeline of the given user id, newest first, read through
+     * {@link ArticleStore#streamArticles}.
+     *
+     * @param articleStore
+     * @param userId
+     * @return articles
+     */
+    public static List<Article> getTimeline(final ArticleStore articleStore, final long userId) {
+        List<Article> articles = new ArrayList<>();
+        articleStore.streamArticles(userId, null, null, false, articles::add);
+        return articles;
+    }
 }
@@ -17,6 +17,7 @@ import java.util.Properties;
 import proj.karthik.feed.reader.CoreModule;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import static proj.karthik.feed.reader.Constants.CREATED_ON;
@@ -32,6 +33,8 @@ public class SerializationTest {
             put("title", "test title");
             put("body", "test body");
             put("created_on", null);
+            put("id", null);
+            put("feed", null);
         }
     };
     private static final Map<String, String> EXPECTED_WITH_NO_BODY = new HashMap<String, String>(){
@@ -39,6 +42,8 @@ public class SerializationTest {
             put("title", "test title");
             put("body", null);
             put("created_on", null);
+            put("id", null);
+            put("feed", null);
         }
     };
     private static final Injector INJECTOR = Guice.createInjector(new JsonModule(new Properties(),
@@ -61,6 +66,19 @@ public class SerializationTest {
                 TypeReference<Map<String, String>>(){}));
     }
 
+    @Test
+    public void testArticleIdIgnoredOnInput() throws Exception {
+        Article article = OBJECT_MAPPER.readValue(
+                "{\"id\":42,\"title\":\"test title\",\"body\":\"test body\"}",
+                Article.class);
+        assertNull(article.getId());
+        assertEquals("test title", article.getTitle());
+        article.setId(null);
+        assertNull(article.getId());
+        article.setId(42L);
+        assertEquals(42L, (long) article.getId());
+    }
+
     @Test
     public void testFeedSerialization() throws Exception {
         Timestamp createdOn = new Timestamp(System.currentTimeMillis());
@@ -0,0 +1,197 @@
+package proj.karthik.feed.reader.sql;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.NegativeTest;
+import proj.karthik.feed.reader.TestUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link SQLUtils}
+ */
+public class SQLUtilsTest {
+    private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
+            SQLUtilsTest.class.getName(), 1, 1000);
+    private static final String SELECT = "select id from ITEM where id = ?";
+    private static final String COUNT = "select count(*) from ITEM";
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        new SQLUtils(DATA_SOURCE).ddl(statement -> {
+            statement.execute("create table IF NOT EXISTS ITEM(id bigint PRIMARY KEY)");
+            statement.execute("insert into ITEM values (1), (2), (3)");
+        });
+    }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        SQLUtils sqlUtils = newSQLUtils(2);
+        for (long id = 1; id <= 3; id++) {
+            assertEquals(id, (long) select(sqlUtils, id).get(0));
+        }
+        // Prepared once on the only connection of the pool, then reused across checkouts.
+        Map<String, Object> stats = getStatementCacheStats(sqlUtils);
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(2L, stats.get("hits"));
+        assertEquals(1, stats.get("connections"));
+
+        // The same statement prepared twice in one checkout is not shared.
+        List<Long> ids = sqlUtils.query(connection -> {
+            PreparedStatement first = connection.prepareStatement(SELECT);
+            PreparedStatement second = connection.prepareStatement(SELECT);
+            first.setLong(1, 1);
+            second.setLong(1, 2);
+            return second;
+        }, resultSet -> resultSet.getLong(1));
+        assertEquals(2L, (long) ids.get(0));
+        assertEquals(1L, getStatementCacheStats(sqlUtils).get("bypassed"));
+
+        // Parameters do not leak from one checkout to the next.
+        negative(() -> sqlUtils.query(connection -> connection.prepareStatement(SELECT),
+                resultSet -> resultSet.getLong(1)), throwable ->
+                assertEquals(AppException.class, throwable.getClass()));
+        assertEquals(1L, (long) select(sqlUtils, 1).get(0));
+
+        // A third statement evicts the least recently used one.
+        sqlUtils.query(connection -> connection.prepareStatement(COUNT),
+                resultSet -> resultSet.getLong(1));
+        sqlUtils.query(connection -> connection.prepareStatement("values 1"),
+                resultSet -> resultSet.getLong(1));
+        assertEquals(1L, getStatementCacheStats(sqlUtils).get("evicted"));
+        assertEquals(1L, (long) select(sqlUtils, 1).get(0));
+        assertTrue((double) getStatementCacheStats(sqlUtils).get("hit_rate") > 0.5);
+    }
+
+    @Test
+    public void testStatementCacheOff() throws Exception {
+        SQLUtils sqlUtils = newSQLUtils(0);
+        select(sqlUtils, 1);
+        select(sqlUtils, 1);
+        Map<String, Object> stats = getStatementCacheStats(sqlUtils);
+        assertEquals(0L, stats.get("hits"));
+        assertEquals(0L, stats.get("misses"));
+    }
+
+    @Test
+    public void testLanes() throws Exception {
+        SQLUtils sqlUtils = new SQLUtils(DATA_SOURCE);
+        sqlUtils.configureLanes(TestUtil.getTestDataSource("readLane"),
+                TestUtil.getTestDataSource("bulkLane"));
+        String[] databases = new String[3];
+        Lane.READ.wrap(() -> databases[0] = getDatabase(sqlUtils)).run();
+        Lane.BULK.wrap(() -> databases[1] = getDatabase(sqlUtils)).run();
+        Lane.WRITE.wrap(() -> databases[2] = getDatabase(sqlUtils)).run();
+        assertEquals("READLANE", databases[0]);
+        assertEquals("BULKLANE", databases[1]);
+        // Writes and threads in no lane use the default pool.
+        assertEquals(getDatabase(sqlUtils), databases[2]);
+        assertNull(Lane.current());
+        Map<?, ?> pools = (Map<?, ?>) sqlUtils.getStats().get("pools");
+        assertEquals(3, pools.size());
+    }
+
+    @Test
+    public void testStatementRegistry() throws Exception {
+        StatementRegistry registry = StatementRegistry.load("/user_sql.properties");
+        assertTrue(registry.size() > 0);
+        assertEquals("delete from USER where id=?;", registry.get("DELETE_USER_BY_ID"));
+        negative(() -> registry.get("UNKNOWN"), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(500, ((AppException) throwable).getCode());
+        });
+        negative(() -> StatementRegistry.load("/missing_sql.properties"),
+                throwable -> assertEquals(500, ((AppException) throwable).getCode()));
+        assertInvalid("select * from ITEM where name = 'a");
+        assertInvalid("select count(* from ITEM");
+        assertInvalid("delete from ITEM; drop table ITEM");
+        assertInvalid(" ");
+    }
+
+    @Test
+    public void testConstraintViolations() throws Exception {
+        SQLUtils sqlUtils = new SQLUtils(TestUtil.getTestDataSource(
+                SQLUtilsTest.class.getName() + "Constraints"));
+        sqlUtils.ddl(statement -> {
+            statement.execute("create table PARENT(id bigint PRIMARY KEY)");
+            statement.execute("create table CHILD(id bigint PRIMARY KEY, parent_id bigint, "
+                    + "FOREIGN KEY(parent_id) REFERENCES public.parent(id))");
+            statement.execute("insert into PARENT values (1)");
+            statement.execute("insert into CHILD values (1, 1)");
+        });
+        assertCode(409, () -> sqlUtils.dml(connection -> connection.prepareStatement(
+                "insert into PARENT values (1)")));
+        assertCode(409, () -> sqlUtils.dml(connection -> connection.prepareStatement(
+                "delete from PARENT where id = 1")));
+        assertCode(404, () -> sqlUtils.dml(connection -> connection.prepareStatement(
+                "insert into CHILD values (2, 2)")));
+        assertCode(404, () -> sqlUtils.batchDML(connection -> {
+            PreparedStatement insert = connection.prepareStatement(
+                    "insert into CHILD values (?, ?)");
+            insert.setLong(1, 3);
+            insert.setLong(2, 3);
+            insert.addBatch();
+            return insert;
+        }));
+        assertCode(500, () -> sqlUtils.dml(connection -> connection.prepareStatement(
+                "insert into MISSING values (1)")));
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private void assertCode(final int code, final NegativeTest negativeTest) {
+        negative(negativeTest, throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(code, ((AppException) throwable).getCode());
+        });
+    }
+
+    private SQLUtils newSQLUtils(final int cacheSize) {
+        Properties config = new Properties();
+        config.setProperty(Constants.STATEMENT_CACHE_SIZE, String.valueOf(cacheSize));
+        SQLUtils sqlUtils = new SQLUtils(DATA_SOURCE);
+        sqlUtils.configureStatementCache(config);
+        return sqlUtils;
+    }
+
+    private List<Long> select(final SQLUtils sqlUtils, final long id) {
+        return sqlUtils.query(connection -> {
+            PreparedStatement select = connection.prepareStatement(SELECT);
+            select.setLong(1, id);
+            return select;
+        }, resultSet -> resultSet.getLong(1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getDatabase(final SQLUtils sqlUtils) {
+        return sqlUtils.query(connection -> connection.prepareStatement("call DATABASE()"),
+                resultSet -> resultSet.getString(1)).get(0);
+    }
+
+    private Map<String, Object> getStatementCacheStats(final SQLUtils sqlUtils) {
+        return (Map<String, Object>) sqlUtils.getStats().get("statement_cache");
+    }
+
+    private void assertInvalid(final String sql) {
+        Properties statements = new Properties();
+        statements.setProperty("INVALID", sql);
+        negative(() -> new StatementRegistry("test", statements), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(500, ((AppException) throwable).getCode());
+        });
+    }
+}
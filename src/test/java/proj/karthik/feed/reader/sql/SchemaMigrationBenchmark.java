@@ -0,0 +1,201 @@
+package proj.karthik.feed.reader.sql;
+
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.store.BodyCodec;
+import proj.karthik.feed.reader.store.DbArticleStore;
+import proj.karthik.feed.reader.store.DbFeedStore;
+import proj.karthik.feed.reader.store.DbSubscriptionStore;
+import proj.karthik.feed.reader.store.DbUserStore;
+import proj.karthik.feed.reader.store.FeedDictionary;
+import proj.karthik.feed.reader.store.RecentArticleCache;
+import proj.karthik.feed.reader.store.SearchIndex;
+import proj.karthik.feed.reader.store.SegmentBlobStore;
+import proj.karthik.feed.reader.store.SubscriptionGraph;
+import proj.karthik.feed.reader.store.TimelineEngine;
+import proj.karthik.feed.reader.store.TimelineVersions;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Query plans and latencies of the hot queries before and after the schema migrations, on a
+ * generated data set. It takes a while and is not part of the regular build, run it with
+ * {@code mvn test -Dtest=SchemaMigrationBenchmark}.
+ */
+public class SchemaMigrationBenchmark {
+    private static final int USERS = 5000;
+    private static final int FEEDS = 200;
+    private static final int SUBSCRIPTIONS_PER_USER = 20;
+    private static final int ARTICLES = 50000;
+    private static final int WARMUP_RUNS = 20;
+    private static final int RUNS = 200;
+    private static final Timestamp NOW = new Timestamp(System.currentTimeMillis());
+    private static final Timestamp EPOCH = new Timestamp(0);
+
+    @Test
+    public void benchmark() throws Exception {
+        SQLUtils sqlUtils = new SQLUtils(TestUtil.getTestDataSource(
+                SchemaMigrationBenchmark.class.getName()));
+        createTables(sqlUtils);
+        generateData(sqlUtils);
+        Map<String, Query> queries = getQueries();
+        Map<String, String> before = run(sqlUtils, queries, "before");
+        new SchemaMigrator(sqlUtils).migrate();
+        Map<String, String> after = run(sqlUtils, queries, "after");
+        // The others already had an index to read through and are there to compare against.
+        assertIndexed("LIST_USER_BY_NAME", "IDX_USER_NAME", before, after);
+        assertIndexed("SELECT_ARTICLE_BOUNDARY_FOR_USERID", "IDX_ARTICLE_FEED_ID_TIMELINE",
+                before, after);
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private void createTables(final SQLUtils sqlUtils) {
+        FeedDictionary feedDictionary = new FeedDictionary();
+        SubscriptionGraph subscriptionGraph = new SubscriptionGraph();
+        DbUserStore userStore = new DbUserStore(sqlUtils);
+        TimelineEngine timelineEngine = new TimelineEngine(new Properties(), sqlUtils,
+                feedDictionary, subscriptionGraph);
+        RecentArticleCache recentArticleCache = new RecentArticleCache(new Properties());
+        TimelineVersions timelineVersions = new TimelineVersions();
+        new DbFeedStore(new Properties(), sqlUtils, feedDictionary).init();
+        userStore.init();
+        DbSubscriptionStore subscriptionStore = new DbSubscriptionStore(sqlUtils, userStore,
+                timelineEngine, timelineVersions, feedDictionary, subscriptionGraph);
+        subscriptionStore.init();
+        new DbArticleStore(sqlUtils, subscriptionStore, timelineEngine,
+                recentArticleCache, new SegmentBlobStore(new Properties()),
+                new BodyCodec(new Properties()), timelineVersions,
+                new SearchIndex(new Properties()), feedDictionary).init();
+    }
+
+    private void generateData(final SQLUtils sqlUtils) {
+        long start = System.currentTimeMillis();
+        sqlUtils.ddl(statement -> {
+            statement.execute("insert into USER select x, 'user' || x, CURRENT_TIMESTAMP() " +
+                    "from system_range(1, " + USERS + ")");
+            statement.execute("insert into FEED(name, created_on, id) select 'feed' || x, " +
+                    "CURRENT_TIMESTAMP(), x from system_range(1, " + FEEDS + ")");
+            // Every user subscribes to feeds spread over the whole range.
+            statement.execute("insert into SUBSCRIPTION(user_id, feed_id) " +
+                    "select u.x, f.id from system_range(1, " + USERS + ") u " +
+                    "join system_range(1, " + SUBSCRIPTIONS_PER_USER + ") k " +
+                    "join (select x id from system_range(1, " + FEEDS + ")) f " +
+                    "on f.id = mod(u.x + k.x * " + (FEEDS / SUBSCRIPTIONS_PER_USER) + ", " +
+                    FEEDS + ") + 1");
+            statement.execute("insert into ARTICLE(title, created_on, body, feed_id, " +
+                    "feed_seq) select 'title' || x, dateadd('SECOND', x, " +
+                    "timestamp '2017-01-01 00:00:00'), 'body', mod(x, " + FEEDS + ") + 1, " +
+                    "x / " + FEEDS + " + 1 " +
+                    "from system_range(1, " + ARTICLES + ")");
+        });
+        System.out.printf("Generated %d users, %d feeds, %d subscriptions and %d articles " +
+                        "in %d ms%n", USERS, FEEDS, USERS * SUBSCRIPTIONS_PER_USER, ARTICLES,
+                System.currentTimeMillis() - start);
+    }
+
+    private Map<String, Query> getQueries() {
+        StatementRegistry userSql = StatementRegistry.load("/user_sql.properties");
+        StatementRegistry articleSql = StatementRegistry.load("/article_sql.properties");
+        Map<String, Query> queries = new LinkedHashMap<>();
+        queries.put("LIST_USER_BY_NAME", new Query(userSql.get("LIST_USER_BY_NAME"),
+                (statement, run) -> statement.setString(1, "user" + (run % USERS + 1))));
+        queries.put("SELECT_ARTICLE_RANGE_FOR_USERID", new Query(
+                articleSql.get("SELECT_ARTICLE_RANGE_FOR_USERID"), (statement, run) -> {
+                    statement.setLong(1, run % USERS + 1);
+                    statement.setTimestamp(2, NOW);
+                    statement.setTimestamp(3, NOW);
+                    statement.setLong(4, Long.MAX_VALUE);
+                    statement.setTimestamp(5, EPOCH);
+                    statement.setTimestamp(6, EPOCH);
+                    statement.setLong(7, 0);
+                }));
+        queries.put("SELECT_ARTICLE_BOUNDARY_FOR_USERID", new Query(
+                articleSql.get("SELECT_ARTICLE_BOUNDARY_FOR_USERID"), (statement, run) -> {
+                    statement.setLong(1, run % USERS + 1);
+                    statement.setTimestamp(2, NOW);
+                    statement.setTimestamp(3, NOW);
+                    statement.setLong(4, Long.MAX_VALUE);
+                    statement.setInt(5, 20);
+                }));
+        queries.put("FEED_SELECT_ARTICLE_KEYS", new Query(
+                articleSql.get("FEED_SELECT_ARTICLE_KEYS"), (statement, run) -> {
+                    statement.setInt(1, run % FEEDS + 1);
+                    statement.setTimestamp(2, NOW);
+                    statement.setTimestamp(3, NOW);
+                    statement.setLong(4, Long.MAX_VALUE);
+                    statement.setInt(5, 20);
+                }));
+        return queries;
+    }
+
+    private void assertIndexed(final String query, final String index,
+            final Map<String, String> before, final Map<String, String> after) {
+        assertFalse(query + ": " + before.get(query), before.get(query).contains(index));
+        assertTrue(query + ": " + after.get(query), after.get(query).contains(index));
+    }
+
+    /**
+     * Prints the plan and latencies of every query and returns the plans.
+     */
+    private Map<String, String> run(final SQLUtils sqlUtils, final Map<String, Query> queries,
+            final String label) {
+        Map<String, String> plans = new LinkedHashMap<>();
+        System.out.printf("%n---- %s migrations ----%n", label);
+        for (Map.Entry<String, Query> query : queries.entrySet()) {
+            String plan = String.join("\n", sqlUtils.query(connection -> {
+                PreparedStatement explain = connection.prepareStatement(
+                        "explain " + query.getValue().sql);
+                query.getValue().binder.bind(explain, 0);
+                return explain;
+            }, resultSet -> resultSet.getString(1)));
+            plans.put(query.getKey(), plan);
+            List<Long> micros = new ArrayList<>(RUNS);
+            for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+                int current = run;
+                long start = System.nanoTime();
+                sqlUtils.query(connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            query.getValue().sql);
+                    query.getValue().binder.bind(statement, current);
+                    return statement;
+                }, resultSet -> resultSet.getObject(1));
+                if (run >= WARMUP_RUNS) {
+                    micros.add((System.nanoTime() - start) / 1000);
+                }
+            }
+            long[] sorted = micros.stream().mapToLong(Long::longValue).sorted().toArray();
+            System.out.printf("%s: p50 %d us, p99 %d us%n%s%n%n", query.getKey(),
+                    sorted[sorted.length / 2], sorted[sorted.length * 99 / 100], plan);
+        }
+        return plans;
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    @FunctionalInterface
+    private interface Binder {
+        void bind(PreparedStatement statement, int run) throws SQLException;
+    }
+
+    private static class Query {
+        private final String sql;
+        private final Binder binder;
+
+        private Query(final String sql, final Binder binder) {
+            this.sql = sql;
+            this.binder = binder;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package proj.karthik.feed.reader.sql;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.NegativeTest;
+import proj.karthik.feed.reader.TestUtil;
+
+import static org.junit.Assert.assertEquals;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link SchemaMigrator}
+ */
+public class SchemaMigratorTest {
+    private static final String CREATE_ITEM = "create table ITEM(id bigint PRIMARY KEY, " +
+            "name varchar)";
+    private static final String INDEX_ITEM = "create index IDX_ITEM_NAME on ITEM(name)";
+
+    @Test
+    public void testMigrate() throws Exception {
+        SQLUtils sqlUtils = newSQLUtils("migrate");
+        SchemaMigrator migrator = newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM,
+                "V2_ITEM_NAME_INDEX", INDEX_ITEM);
+        assertEquals(2, migrator.getLatestVersion());
+        assertEquals(2, migrator.migrate());
+        assertEquals(2, migrator.getVersion());
+        // Applied migrations are not run again, the index would already exist.
+        assertEquals(0, migrator.migrate());
+
+        SchemaMigrator next = newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM,
+                "V2_ITEM_NAME_INDEX", INDEX_ITEM,
+                "V3_ITEM_ROW", "insert into ITEM values (1, 'a')");
+        assertEquals(1, next.migrate());
+        assertEquals(3, next.getVersion());
+        assertEquals(3, sqlUtils.query(connection -> connection.prepareStatement(
+                "select count(*) from SCHEMA_VERSION"), resultSet -> resultSet.getInt(1))
+                .get(0).intValue());
+
+        // A build that knows fewer migrations than the database has seen does not start.
+        negative(() -> newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM).migrate(), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals("Database schema version 3 is newer than version 1 known to this " +
+                    "build", throwable.getMessage());
+        });
+    }
+
+    @Test
+    public void testFailedMigration() throws Exception {
+        SQLUtils sqlUtils = newSQLUtils("failed");
+        negative(() -> newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM, "V2_ITEM_NAME_INDEX",
+                "create index IDX_ITEM_NAME on MISSING(name)").migrate(),
+                throwable -> assertEquals(AppException.class, throwable.getClass()));
+        // The migrations before the failed one stay applied, the failed one runs next time.
+        assertEquals(1, newMigrator(sqlUtils).getVersion());
+        assertEquals(1, newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM, "V2_ITEM_NAME_INDEX",
+                INDEX_ITEM).migrate());
+    }
+
+    @Test
+    public void testInvalidMigrations() throws Exception {
+        SQLUtils sqlUtils = newSQLUtils("invalid");
+        assertInvalid(() -> newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM, "V3_ITEM_NAME_INDEX",
+                INDEX_ITEM), "Migration version 2 is missing");
+        assertInvalid(() -> newMigrator(sqlUtils, "V1_ITEM", CREATE_ITEM, "V01_ITEM_NAME_INDEX",
+                INDEX_ITEM), null);
+        assertInvalid(() -> newMigrator(sqlUtils, "ITEM", CREATE_ITEM),
+                "Migration ITEM is not named V<version>_<DESCRIPTION>");
+        // The migrations shipped with the application are valid.
+        assertEquals(8, new SchemaMigrator(sqlUtils).getLatestVersion());
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private SQLUtils newSQLUtils(final String name) {
+        return new SQLUtils(TestUtil.getTestDataSource(SchemaMigratorTest.class.getName()
+                + name));
+    }
+
+    private SchemaMigrator newMigrator(final SQLUtils sqlUtils, final String... migrations) {
+        Properties statements = new Properties();
+        for (int i = 0; i < migrations.length; i += 2) {
+            statements.setProperty(migrations[i], migrations[i + 1]);
+        }
+        return new SchemaMigrator(sqlUtils, new StatementRegistry("test", statements));
+    }
+
+    private void assertInvalid(final NegativeTest negativeTest, final String message) {
+        negative(negativeTest, throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(500, ((AppException) throwable).getCode());
+            if (message != null) {
+                assertEquals(message, throwable.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,321 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.ArticleDelta;
+import proj.karthik.feed.reader.entity.BulkResult;
+import proj.karthik.feed.reader.entity.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.getTimeline;
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link ArticleStore}, run against each backend by its subclasses.
+ */
+public abstract class ArticleStoreTest {
+    protected static final String TEST = "test";
+    protected static final String TITLE = "title";
+    protected static final String BODY = "body";
+    protected static final Article ARTICLE = new Article(TITLE, BODY);
+    protected static final String USER = "user";
+
+    @Test
+    public void testArticleCrudOperations() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        ArticleStore articleStore = getArticleStore();
+        feedStore.add(TEST);
+        userStore.add(USER);
+        subscriptionStore.addSubscriptionByName(TEST, USER);
+
+        int totalArticles = 10;
+        for (int i = 0; i < totalArticles; i++) {
+            articleStore.add(ARTICLE, TEST);
+        }
+        List<User> users = userStore.getId(USER);
+        List<Article> articles = getTimeline(articleStore, users.get(0).getId());
+        assertArticles(totalArticles, articles);
+        assertFalse(articleStore.getArticle(Long.MAX_VALUE).isPresent());
+    }
+
+    @Test
+    public void testArticlePagination() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        ArticleStore articleStore = getArticleStore();
+        feedStore.add("paged");
+        feedStore.add("pagedOther");
+        userStore.add("pagedUser");
+        subscriptionStore.addSubscriptionByName("paged", "pagedUser");
+        subscriptionStore.addSubscriptionByName("pagedOther", "pagedUser");
+        int totalArticles = 7;
+        for (int i = 0; i < totalArticles; i++) {
+            articleStore.add(new Article(TITLE + i, BODY), i % 3 == 0 ? "pagedOther" : "paged");
+        }
+        long userId = userStore.getId("pagedUser").get(0).getId();
+        Set<Long> seen = new HashSet<>();
+        List<String> titles = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            List<Article> page = new ArrayList<>();
+            cursor = readPage(articleStore, userId, 3, cursor, page);
+            page.forEach(article -> {
+                assertTrue(seen.add(article.getId()));
+                titles.add(article.getTitle());
+            });
+            pages++;
+        } while (cursor != null);
+        assertEquals(totalArticles, seen.size());
+        assertEquals(3, pages);
+        // The feeds are merged newest first.
+        for (int i = 0; i < totalArticles; i++) {
+            assertEquals(TITLE + (totalArticles - 1 - i), titles.get(i));
+        }
+
+        List<Article> page = new ArrayList<>();
+        assertNull(readPage(articleStore, userId, totalArticles, null, page));
+        assertEquals(totalArticles, page.size());
+        assertEquals(TITLE + (totalArticles - 1), page.get(0).getTitle());
+        negative(() -> articleStore.getNextCursor(userId, 0, null), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(400, ((AppException) throwable).getCode());
+        });
+    }
+
+    @Test
+    public void testStreamArticles() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        ArticleStore articleStore = getArticleStore();
+        feedStore.add("streamed");
+        userStore.add("streamedUser");
+        subscriptionStore.addSubscriptionByName("streamed", "streamedUser");
+        for (int i = 0; i < 5; i++) {
+            articleStore.add(new Article(TITLE + i, BODY), "streamed");
+        }
+        long userId = userStore.getId("streamedUser").get(0).getId();
+        String nextCursor = articleStore.getNextCursor(userId, 3, null);
+        assertNotNull(nextCursor);
+        List<Article> streamed = new ArrayList<>();
+        assertEquals(3, articleStore.streamArticles(userId, null, nextCursor, false,
+                streamed::add));
+        assertEquals(TITLE + 4, streamed.get(0).getTitle());
+
+        assertNull(articleStore.getNextCursor(userId, 3, nextCursor));
+        streamed.clear();
+        assertEquals(2, articleStore.streamArticles(userId, nextCursor, null, false,
+                streamed::add));
+        assertEquals(TITLE + 0, streamed.get(1).getTitle());
+
+        // Headlines leave out the body.
+        streamed.clear();
+        assertEquals(5, articleStore.streamArticles(userId, null, null, true, streamed::add));
+        streamed.forEach(article -> {
+            assertNull(article.getBody());
+            assertEquals("streamed", article.getFeed());
+        });
+        Article article = articleStore.getArticle(streamed.get(0).getId()).get();
+        assertEquals(BODY, article.getBody());
+        assertEquals(TITLE + 4, article.getTitle());
+
+        // The version of the timeline moves with new articles.
+        String version = articleStore.getTimelineVersion(userId);
+        assertEquals(version, articleStore.getTimelineVersion(userId));
+        articleStore.add(new Article(TITLE + 5, BODY), "streamed");
+        assertNotEquals(version, articleStore.getTimelineVersion(userId));
+    }
+
+    @Test
+    public void testArticlesSince() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        ArticleStore articleStore = getArticleStore();
+        feedStore.add("synced");
+        userStore.add("syncedUser");
+        subscriptionStore.addSubscriptionByName("synced", "syncedUser");
+        long userId = userStore.getId("syncedUser").get(0).getId();
+        for (int i = 0; i < 3; i++) {
+            articleStore.add(new Article(TITLE + i, BODY), "synced");
+        }
+        ArticleDelta delta = articleStore.getArticlesSince(userId, "", 10);
+        assertEquals(3, delta.getArticles().size());
+        assertEquals(TITLE + 2, delta.getArticles().get(0).getTitle());
+        assertFalse(delta.isGap());
+
+        // Only what arrived since the last sync.
+        articleStore.add(new Article(TITLE + 3, BODY), "synced");
+        articleStore.add(new Article(TITLE + 4, BODY), "synced");
+        delta = articleStore.getArticlesSince(userId, delta.getSyncToken(), 10);
+        assertEquals(2, delta.getArticles().size());
+        assertEquals(TITLE + 3, delta.getArticles().get(1).getTitle());
+        assertFalse(delta.isGap());
+        String syncToken = delta.getSyncToken();
+        delta = articleStore.getArticlesSince(userId, syncToken, 10);
+        assertEquals(0, delta.getArticles().size());
+        assertEquals(syncToken, delta.getSyncToken());
+
+        // More than the limit leaves a gap behind the newest articles.
+        for (int i = 5; i < 9; i++) {
+            articleStore.add(new Article(TITLE + i, BODY), "synced");
+        }
+        delta = articleStore.getArticlesSince(userId, syncToken, 3);
+        assertEquals(3, delta.getArticles().size());
+        assertEquals(TITLE + 8, delta.getArticles().get(0).getTitle());
+        assertTrue(delta.isGap());
+        assertEquals(Long.valueOf(9), SyncToken.decode(delta.getSyncToken()).getSequences()
+                .get("synced"));
+
+        // A token that is ahead of the store is a gap as well.
+        delta = articleStore.getArticlesSince(userId, new SyncToken(
+                Collections.singletonMap("synced", 100L)).encode(), 10);
+        assertEquals(0, delta.getArticles().size());
+        assertTrue(delta.isGap());
+
+        negative(() -> articleStore.getArticlesSince(userId, "not-a-token", 10), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(400, ((AppException) throwable).getCode());
+        });
+        subscriptionStore.deleteSubscriptionByName("synced", "syncedUser");
+    }
+
+    @Test
+    public void testBulkAdd() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        ArticleStore articleStore = getArticleStore();
+        feedStore.add("bulkA");
+        feedStore.add("bulkB");
+        userStore.add("bulkUser");
+        subscriptionStore.addSubscriptionByName("bulkA", "bulkUser");
+        subscriptionStore.addSubscriptionByName("bulkB", "bulkUser");
+        long userId = userStore.getId("bulkUser").get(0).getId();
+        articleStore.add(new Article("single", "bulk body"), "bulkA");
+        ArticleDelta delta = articleStore.getArticlesSince(userId, "", 10);
+
+        List<Article> articles = new ArrayList<>();
+        articles.add(newArticle("bulk 1", "bulk body", "bulkA"));
+        articles.add(newArticle("bulk 2", "bulk body", "bulkB"));
+        articles.add(newArticle("bulk 3", null, "bulkA"));
+        articles.add(newArticle("bulk 4", "bulk body", "noSuchFeed"));
+        articles.add(newArticle("bulk 5", "bulk body", "bulkA"));
+        List<BulkResult> results = articleStore.add(articles);
+        assertEquals(5, results.size());
+        assertEquals(200, results.get(0).getStatus());
+        assertEquals(200, results.get(1).getStatus());
+        assertEquals(400, results.get(2).getStatus());
+        assertEquals(404, results.get(3).getStatus());
+        assertNull(results.get(3).getId());
+        assertTrue(results.get(4).getId() > results.get(1).getId());
+        assertTrue(results.get(1).getId() > results.get(0).getId());
+
+        assertEquals(4, getTimeline(articleStore, userId).size());
+        delta = articleStore.getArticlesSince(userId, delta.getSyncToken(), 10);
+        assertEquals(3, delta.getArticles().size());
+        assertEquals("bulk 5", delta.getArticles().get(0).getTitle());
+        assertEquals(Long.valueOf(3), SyncToken.decode(delta.getSyncToken()).getSequences()
+                .get("bulkA"));
+        assertEquals("bulk body", articleStore.getArticle(results.get(4).getId()).get()
+                .getBody());
+        assertEquals(1L, articleStore.getStats().get("bulk_chunks"));
+        assertEquals(3L, articleStore.getStats().get("bulk_articles"));
+
+        // A list with nothing to add commits nothing.
+        results = articleStore.add(Collections.singletonList(
+                newArticle("bulk 6", "bulk body", "noSuchFeed")));
+        assertEquals(404, results.get(0).getStatus());
+        assertEquals(1L, articleStore.getStats().get("bulk_chunks"));
+        subscriptionStore.deleteSubscriptionByName("bulkA", "bulkUser");
+        subscriptionStore.deleteSubscriptionByName("bulkB", "bulkUser");
+    }
+
+    @Test
+    public void testAddToMissingFeed() throws Exception {
+        negative(() -> getArticleStore().add(ARTICLE, "noSuchFeed"), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(404, ((AppException) throwable).getCode());
+        });
+    }
+
+    @Test
+    public void testGetArticlesWithInvalidCursor() throws Exception {
+        negative(() -> getArticleStore().getNextCursor(1L, 10, "not-a-cursor"), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(400, ((AppException) throwable).getCode());
+        });
+    }
+
+    @Test
+    public void testAddWithNullFeedName() throws Exception {
+        negative(() -> getArticleStore().add(ARTICLE, null), TestUtil::assertFeedNullErrorMsg);
+    }
+
+    @Test
+    public void testAddWithNullArticleTitle() throws Exception {
+        negative(() -> getArticleStore().add(new Article(null, BODY), TEST),
+                TestUtil::assertArticleTitleNullErrorMsg);
+    }
+
+    @Test
+    public void testAddWithNullArticleBody() throws Exception {
+        negative(() -> getArticleStore().add(new Article(TITLE, null), TEST),
+                TestUtil::assertArticleBodyNullErrorMsg);
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    protected abstract FeedStore getFeedStore();
+
+    protected abstract UserStore getUserStore();
+
+    protected abstract SubscriptionStore getSubscriptionStore();
+
+    protected abstract ArticleStore getArticleStore();
+
+    /**
+     * Reads a page of the user's timeline the way the articles route does, and returns the
+     * cursor of the next page or null after the last one.
+     */
+    protected static String readPage(final ArticleStore store, final long userId,
+            final int limit, final String after, final List<Article> page) {
+        String nextCursor = store.getNextCursor(userId, limit, after);
+        store.streamArticles(userId, after, nextCursor, false, page::add);
+        return nextCursor;
+    }
+
+    protected void assertArticles(final int totalArticles, final List<Article> articles) {
+        assertEquals(totalArticles, articles.size());
+        articles.stream().forEach(article1 -> {
+            assertEquals(TITLE, article1.getTitle());
+            assertEquals(BODY, article1.getBody());
+            assertNotNull(article1.getCreatedOn());
+        });
+    }
+
+    protected Article newArticle(final String title, final String body, final String feed) {
+        Article article = new Article(title, body);
+        article.setFeed(feed);
+        return article;
+    }
+}
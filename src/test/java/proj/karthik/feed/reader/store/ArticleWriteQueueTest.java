@@ -0,0 +1,137 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.BulkResult;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link ArticleWriteQueue}
+ */
+public class ArticleWriteQueueTest {
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        ArticleStore articleStore = createMock(ArticleStore.class);
+        List<Integer> batches = new ArrayList<>();
+        expect(articleStore.add(anyObject(List.class))).andAnswer(() -> {
+            List<?> articles = (List<?>) getCurrentArguments()[0];
+            batches.add(articles.size());
+            return articles.stream()
+                    .map(article -> new BulkResult(Long.parseLong(((Article) article).getTitle())))
+                    .collect(Collectors.toList());
+        }).times(3);
+        replay(articleStore);
+        ArticleWriteQueue queue = new ArticleWriteQueue(newConfig(100, 3), articleStore);
+        queue.init();
+        List<CompletableFuture<BulkResult>> results = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            results.add(queue.submit(newArticle(String.valueOf(i))));
+        }
+        for (int i = 0; i < 7; i++) {
+            assertEquals(Long.valueOf(i), queue.await(results.get(i)).getId());
+        }
+        queue.shutdown();
+        // Two full groups, the last one is committed once it waited for the delay.
+        assertEquals(3, batches.size());
+        assertEquals(7, batches.stream().mapToInt(Integer::intValue).sum());
+        Map<String, Object> stats = queue.getStats();
+        assertEquals(7L, stats.get("committed"));
+        assertEquals(3L, ((Map<?, ?>) stats.get("batch_size")).get("count"));
+        assertEquals(3L, ((Map<?, ?>) stats.get("batch_size")).get("max"));
+
+        // Nothing is accepted once the queue is stopped.
+        negative(() -> queue.submit(newArticle("late")), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(503, ((AppException) throwable).getCode());
+        });
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ArticleStore articleStore = createMock(ArticleStore.class);
+        expect(articleStore.add(anyObject(List.class))).andAnswer(() -> {
+            committing.countDown();
+            release.await();
+            return ((List<?>) getCurrentArguments()[0]).stream()
+                    .map(article -> new BulkResult(404, "Feed not found"))
+                    .collect(Collectors.toList());
+        }).times(2);
+        replay(articleStore);
+        ArticleWriteQueue queue = new ArticleWriteQueue(newConfig(1, 1), articleStore);
+        queue.init();
+        CompletableFuture<BulkResult> first = queue.submit(newArticle("first"));
+        committing.await();
+        CompletableFuture<BulkResult> second = queue.submit(newArticle("second"));
+        negative(() -> queue.submit(newArticle("third")), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(503, ((AppException) throwable).getCode());
+        });
+        assertEquals(1L, queue.getStats().get("rejected"));
+        assertEquals(1, queue.getStats().get("depth"));
+        release.countDown();
+        assertEquals(404, queue.await(first).getStatus());
+        assertEquals(404, queue.await(second).getStatus());
+        queue.shutdown();
+        assertEquals(2L, queue.getStats().get("failed"));
+
+        Article article = newArticle("noFeed");
+        article.setFeed(null);
+        negative(() -> queue.submit(article), TestUtil::assertFeedNullErrorMsg);
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(4);
+        histogram.record(5);
+        Map<String, Object> buckets = histogram.toMap();
+        assertEquals(5L, buckets.get("count"));
+        assertEquals(5L, buckets.get("max"));
+        assertEquals(2L, buckets.get("le_1"));
+        assertEquals(2L, buckets.get("le_4"));
+        assertEquals(1L, buckets.get("le_8"));
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private Properties newConfig(final int capacity, final int batchSize) {
+        Properties config = new Properties();
+        config.setProperty(Constants.ASYNC_INGEST, "true");
+        config.setProperty(Constants.ASYNC_QUEUE_CAPACITY, String.valueOf(capacity));
+        config.setProperty(Constants.ASYNC_BATCH_SIZE, String.valueOf(batchSize));
+        config.setProperty(Constants.ASYNC_MAX_DELAY_MS, "200");
+        return config;
+    }
+
+    private Article newArticle(final String title) {
+        Article article = new Article(title, "body");
+        article.setFeed("feed");
+        return article;
+    }
+}
@@ -0,0 +1,90 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link BodyCodec}
+ */
+public class BodyCodecTest {
+    private static final String BODY = String.join(" ", Collections.nCopies(200,
+            "Plain text body \u00fc"));
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String codec : Arrays.asList("deflate", "fast")) {
+            BodyCodec bodyCodec = newCodec(codec, null);
+            byte[] encoded = bodyCodec.encode(BODY);
+            assertTrue(bodyCodec.isEncoded(encoded));
+            assertTrue(encoded.length < BODY.length() / 2);
+            assertEquals(BODY, bodyCodec.decode(ByteBuffer.wrap(encoded)));
+            assertEquals(1L, bodyCodec.getStats().get("encoded"));
+            assertEquals(1L, bodyCodec.getStats().get("decoded"));
+        }
+    }
+
+    @Test
+    public void testPlainBodies() throws Exception {
+        BodyCodec bodyCodec = newCodec("deflate", "1000");
+        // Below the threshold.
+        byte[] encoded = bodyCodec.encode("short body");
+        assertFalse(bodyCodec.isEncoded(encoded));
+        assertEquals("short body", bodyCodec.decode(ByteBuffer.wrap(encoded)));
+
+        // Does not compress. LZF only removes repeated sequences, which random text has none of.
+        StringBuilder incompressible = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            incompressible.append((char) (0x800 + random.nextInt(0xD000)));
+        }
+        BodyCodec fast = newCodec("fast", null);
+        encoded = fast.encode(incompressible.toString());
+        assertFalse(fast.isEncoded(encoded));
+        assertArrayEquals(incompressible.toString().getBytes(StandardCharsets.UTF_8), encoded);
+        assertEquals(1L, bodyCodec.getStats().get("skipped"));
+        assertEquals(1L, fast.getStats().get("skipped"));
+
+        // Bodies stored before compression was enabled, or by another codec, stay readable.
+        BodyCodec none = newCodec("none", null);
+        assertFalse(none.isEnabled());
+        assertEquals(BODY, none.decode(ByteBuffer.wrap(none.encode(BODY))));
+        assertEquals(BODY, none.decode(ByteBuffer.wrap(newCodec("fast", null).encode(BODY))));
+        assertEquals(BODY, bodyCodec.decode(ByteBuffer.wrap(newCodec("fast", null)
+                .encode(BODY))));
+    }
+
+    @Test
+    public void testUnknownCodec() throws Exception {
+        negative(() -> newCodec("zip", null), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals("Unknown body codec: zip", throwable.getMessage());
+        });
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private BodyCodec newCodec(final String codec, final String minBytes) {
+        Properties config = new Properties();
+        config.setProperty(Constants.BODY_CODEC, codec);
+        if (minBytes != null) {
+            config.setProperty(Constants.BODY_CODEC_MIN_BYTES, minBytes);
+        }
+        return new BodyCodec(config);
+    }
+}
@@ -3,95 +3,606 @@ package proj.karthik.feed.reader.store;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.TestUtil;
 import proj.karthik.feed.reader.entity.Article;
-import proj.karthik.feed.reader.entity.User;
+import proj.karthik.feed.reader.entity.ArticleDelta;
+import proj.karthik.feed.reader.entity.BulkResult;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import static proj.karthik.feed.reader.TestUtil.getTimeline;
 import static proj.karthik.feed.reader.TestUtil.negative;
 
 /**
- * Unit test for {@link DbFeedStore}
+ * Unit test for {@link DbArticleStore}
  */
-public class DbArticleStoreTest {
+public class DbArticleStoreTest extends ArticleStoreTest {
     private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
             DbArticleStoreTest.class.getName());
     private static final SQLUtils SQL_UTILS = new SQLUtils(DATA_SOURCE);
-    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS);
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS,
+            FEED_DICTIONARY);
     private static final DbUserStore USER_STORE = new DbUserStore(SQL_UTILS);
+    private static final TimelineEngine TIMELINE_ENGINE =
+            new TimelineEngine(new Properties(), SQL_UTILS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final RecentArticleCache RECENT_ARTICLE_CACHE =
+            new RecentArticleCache(new Properties() {
+                {
+                    setProperty(Constants.RECENT_ARTICLES_PER_FEED, "5");
+                }
+            });
+    private static final SegmentBlobStore BLOB_STORE =
+            new SegmentBlobStore(new Properties());
+    private static final BodyCodec BODY_CODEC = new BodyCodec(new Properties() {
+        {
+            setProperty(Constants.BODY_CODEC, "deflate");
+        }
+    });
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
     private static final DbSubscriptionStore subscriptionStore =
-            new DbSubscriptionStore(SQL_UTILS, USER_STORE);
-    private static final DbArticleStore articleStore = new DbArticleStore(SQL_UTILS, USER_STORE);
-    private static final String TEST = "test";
-    private static final String TITLE = "title";
-    private static final String BODY = "body";
-    private static final Article ARTICLE = new Article(TITLE, BODY);
-    private static final String USER = "user";
+            new DbSubscriptionStore(SQL_UTILS, USER_STORE, TIMELINE_ENGINE,
+                    TIMELINE_VERSIONS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final DbArticleStore articleStore =
+            new DbArticleStore(SQL_UTILS, subscriptionStore, TIMELINE_ENGINE,
+                    RECENT_ARTICLE_CACHE, BLOB_STORE, BODY_CODEC,
+                    TIMELINE_VERSIONS, new SearchIndex(new Properties()), FEED_DICTIONARY);
+    private static final Properties FANOUT_CONFIG = new Properties() {
+        {
+            setProperty(Constants.FANOUT_ON_WRITE, "true");
+            setProperty(Constants.RECENT_ARTICLES_PER_FEED, "0");
+            setProperty(Constants.BODY_STORE, Constants.BODY_STORE_SEGMENT);
+            setProperty(Constants.FEED_DIR, Paths.get("target", "DbArticleStoreTest-"
+                    + System.nanoTime()).toString());
+            setProperty(Constants.BODY_CODEC, "fast");
+            setProperty(Constants.SEARCH_INDEX, "true");
+            setProperty(Constants.SEARCH_INDEX_DIR, Paths.get("target", "DbArticleStoreTest-index-"
+                    + System.nanoTime()).toString());
+            setProperty(Constants.SEARCH_FLUSH_DOCS, "2");
+        }
+    };
+    private static final Properties HYBRID_CONFIG = new Properties() {
+        {
+            setProperty(Constants.FANOUT_ON_WRITE, "true");
+            setProperty(Constants.RECENT_ARTICLES_PER_FEED, "0");
+            setProperty(Constants.FANOUT_THRESHOLD, "1");
+        }
+    };
+    private static final SQLUtils INBOX_SQL_UTILS = new SQLUtils(TestUtil.getTestDataSource(
+            DbArticleStoreTest.class.getName() + "Inbox"));
+    private static final FeedDictionary INBOX_FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph INBOX_SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore INBOX_FEED_STORE = new DbFeedStore(new Properties(),
+            INBOX_SQL_UTILS, INBOX_FEED_DICTIONARY);
+    private static final DbUserStore INBOX_USER_STORE = new DbUserStore(INBOX_SQL_UTILS);
+    private static final TimelineEngine INBOX_TIMELINE_ENGINE =
+            new TimelineEngine(FANOUT_CONFIG, INBOX_SQL_UTILS, INBOX_FEED_DICTIONARY,
+                    INBOX_SUBSCRIPTION_GRAPH);
+    private static final RecentArticleCache INBOX_RECENT_ARTICLE_CACHE =
+            new RecentArticleCache(FANOUT_CONFIG);
+    private static final SegmentBlobStore INBOX_BLOB_STORE =
+            new SegmentBlobStore(FANOUT_CONFIG);
+    private static final BodyCodec INBOX_BODY_CODEC = new BodyCodec(FANOUT_CONFIG);
+    private static final TimelineVersions INBOX_TIMELINE_VERSIONS = new TimelineVersions();
+    private static final SearchIndex INBOX_SEARCH_INDEX = new SearchIndex(FANOUT_CONFIG);
+    private static final DbSubscriptionStore INBOX_SUBSCRIPTION_STORE =
+            new DbSubscriptionStore(INBOX_SQL_UTILS, INBOX_USER_STORE, INBOX_TIMELINE_ENGINE,
+                    INBOX_TIMELINE_VERSIONS, INBOX_FEED_DICTIONARY, INBOX_SUBSCRIPTION_GRAPH);
+    private static final DbArticleStore INBOX_ARTICLE_STORE =
+            new DbArticleStore(INBOX_SQL_UTILS, INBOX_SUBSCRIPTION_STORE,
+                    INBOX_TIMELINE_ENGINE, INBOX_RECENT_ARTICLE_CACHE, INBOX_BLOB_STORE,
+                    INBOX_BODY_CODEC, INBOX_TIMELINE_VERSIONS, INBOX_SEARCH_INDEX,
+                    INBOX_FEED_DICTIONARY);
+    private static final SQLUtils HYBRID_SQL_UTILS = new SQLUtils(TestUtil.getTestDataSource(
+            DbArticleStoreTest.class.getName() + "Hybrid"));
+    private static final FeedDictionary HYBRID_FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph HYBRID_SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore HYBRID_FEED_STORE = new DbFeedStore(new Properties(),
+            HYBRID_SQL_UTILS, HYBRID_FEED_DICTIONARY);
+    private static final DbUserStore HYBRID_USER_STORE = new DbUserStore(HYBRID_SQL_UTILS);
+    private static final TimelineEngine HYBRID_TIMELINE_ENGINE =
+            new TimelineEngine(HYBRID_CONFIG, HYBRID_SQL_UTILS, HYBRID_FEED_DICTIONARY,
+                    HYBRID_SUBSCRIPTION_GRAPH);
+    private static final RecentArticleCache HYBRID_RECENT_ARTICLE_CACHE =
+            new RecentArticleCache(HYBRID_CONFIG);
+    private static final SegmentBlobStore HYBRID_BLOB_STORE =
+            new SegmentBlobStore(HYBRID_CONFIG);
+    private static final BodyCodec HYBRID_BODY_CODEC = new BodyCodec(HYBRID_CONFIG);
+    private static final TimelineVersions HYBRID_TIMELINE_VERSIONS = new TimelineVersions();
+    private static final DbSubscriptionStore HYBRID_SUBSCRIPTION_STORE =
+            new DbSubscriptionStore(HYBRID_SQL_UTILS, HYBRID_USER_STORE, HYBRID_TIMELINE_ENGINE,
+                    HYBRID_TIMELINE_VERSIONS, HYBRID_FEED_DICTIONARY, HYBRID_SUBSCRIPTION_GRAPH);
+    private static final DbArticleStore HYBRID_ARTICLE_STORE =
+            new DbArticleStore(HYBRID_SQL_UTILS, HYBRID_SUBSCRIPTION_STORE,
+                    HYBRID_TIMELINE_ENGINE, HYBRID_RECENT_ARTICLE_CACHE, HYBRID_BLOB_STORE,
+                    HYBRID_BODY_CODEC, HYBRID_TIMELINE_VERSIONS, new SearchIndex(HYBRID_CONFIG),
+                    HYBRID_FEED_DICTIONARY);
 
     @BeforeClass
     public static void setUp() throws Exception {
         FEED_STORE.init();
         USER_STORE.init();
         subscriptionStore.init();
+        BLOB_STORE.init();
         articleStore.init();
+        TIMELINE_ENGINE.init();
+        INBOX_FEED_STORE.init();
+        INBOX_USER_STORE.init();
+        INBOX_SUBSCRIPTION_STORE.init();
+        INBOX_BLOB_STORE.init();
+        INBOX_SEARCH_INDEX.init();
+        INBOX_ARTICLE_STORE.init();
+        INBOX_TIMELINE_ENGINE.init();
+        HYBRID_FEED_STORE.init();
+        HYBRID_USER_STORE.init();
+        HYBRID_SUBSCRIPTION_STORE.init();
+        HYBRID_BLOB_STORE.init();
+        HYBRID_ARTICLE_STORE.init();
+        HYBRID_TIMELINE_ENGINE.init();
+        new SchemaMigrator(SQL_UTILS).migrate();
+        new SchemaMigrator(INBOX_SQL_UTILS).migrate();
+        new SchemaMigrator(HYBRID_SQL_UTILS).migrate();
     }
 
     @Test
-    public void testArticleCrudOperations() throws Exception {
-        FEED_STORE.add(TEST);
-        USER_STORE.add(USER);
-        subscriptionStore.addSubscriptionByName(TEST, USER);
-
-        int totalArticles = 10;
-        for (int i = 0; i < totalArticles; i++) {
-            articleStore.add(ARTICLE, TEST);
+    public void testRecentArticleCache() throws Exception {
+        FEED_STORE.add("cached");
+        FEED_STORE.add("cachedOther");
+        USER_STORE.add("cachedUser");
+        long userId = USER_STORE.getId("cachedUser").get(0).getId();
+        subscriptionStore.addSubscriptionById("cached", userId);
+        subscriptionStore.addSubscriptionById("cachedOther", userId);
+        for (int i = 0; i < 8; i++) {
+            articleStore.add(new Article(TITLE + i, BODY), "cached");
         }
-        List<Article> articles = articleStore.getArticles(USER);
-        assertArticles(totalArticles, articles);
-        List<User> users = USER_STORE.getId(USER);
-        articles = articleStore.getArticles(users.get(0).getId());
-        assertArticles(totalArticles, articles);
+        articleStore.add(new Article("other", BODY), "cachedOther");
+        long hits = (Long) RECENT_ARTICLE_CACHE.getStats().get("hits");
+        long misses = (Long) RECENT_ARTICLE_CACHE.getStats().get("misses");
+
+        // The first page fits in the newest five articles of each feed.
+        List<Article> page = new ArrayList<>();
+        String nextCursor = readPage(articleStore, userId, 3, null, page);
+        assertEquals("other", page.get(0).getTitle());
+        assertEquals(TITLE + 7, page.get(1).getTitle());
+        assertEquals(hits + 2, RECENT_ARTICLE_CACHE.getStats().get("hits"));
 
+        // The rest reaches past what was buffered and is read from the database.
+        page.clear();
+        assertNull(readPage(articleStore, userId, 10, nextCursor, page));
+        assertEquals(6, page.size());
+        assertEquals(TITLE + 5, page.get(0).getTitle());
+        assertEquals(TITLE + 0, page.get(5).getTitle());
+        assertEquals(misses + 2, RECENT_ARTICLE_CACHE.getStats().get("misses"));
+
+        // Unsubscribing is visible to cached reads right away.
+        subscriptionStore.deleteSubscriptionById("cachedOther", userId);
+        page.clear();
+        readPage(articleStore, userId, 3, null, page);
+        assertEquals(TITLE + 7, page.get(0).getTitle());
+        assertEquals(hits + 4, RECENT_ARTICLE_CACHE.getStats().get("hits"));
     }
 
     @Test
-    public void testAddWithNullFeedName() throws Exception {
-        negative(() -> articleStore.add(ARTICLE, null), TestUtil::assertFeedNullErrorMsg);
+    public void testFanOutOnWrite() throws Exception {
+        INBOX_FEED_STORE.add(TEST);
+        INBOX_FEED_STORE.add("other");
+        INBOX_USER_STORE.add(USER);
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionByName(TEST, USER);
+        for (int i = 0; i < 4; i++) {
+            INBOX_ARTICLE_STORE.add(ARTICLE, TEST);
+            INBOX_ARTICLE_STORE.add(new Article("other", BODY), "other");
+        }
+        long userId = INBOX_USER_STORE.getId(USER).get(0).getId();
+        assertArticles(4, getTimeline(INBOX_ARTICLE_STORE, userId));
+
+        // Subscribing backfills the inbox with the feed's existing articles.
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionById("other", userId);
+        assertEquals(8, getTimeline(INBOX_ARTICLE_STORE, userId).size());
+        List<Article> page = new ArrayList<>();
+        String nextCursor = readPage(INBOX_ARTICLE_STORE, userId, 5, null, page);
+        assertEquals(5, page.size());
+        page.clear();
+        assertNull(readPage(INBOX_ARTICLE_STORE, userId, 5, nextCursor, page));
+        assertEquals(3, page.size());
+
+        // Unsubscribing removes them again.
+        INBOX_SUBSCRIPTION_STORE.deleteSubscriptionByName("other", USER);
+        assertArticles(4, getTimeline(INBOX_ARTICLE_STORE, userId));
     }
 
     @Test
-    public void testAddWithNullArticleTitle() throws Exception {
-        negative(() -> articleStore.add(new Article(null, BODY), TEST),
-                TestUtil::assertArticleTitleNullErrorMsg);
+    public void testInboxKeptAcrossRestarts() throws Exception {
+        INBOX_FEED_STORE.add("restarted");
+        INBOX_USER_STORE.add("restartedUser");
+        long userId = INBOX_USER_STORE.getId("restartedUser").get(0).getId();
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionById("restarted", userId);
+        for (int i = 0; i < 3; i++) {
+            INBOX_ARTICLE_STORE.add(new Article(TITLE + i, BODY), "restarted");
+        }
+        INBOX_SQL_UTILS.dml(connection -> {
+            PreparedStatement deleteInbox = connection.prepareStatement(
+                    "delete from INBOX where user_id = ? and article_id = "
+                            + "(select max(article_id) from INBOX where user_id = ?)");
+            deleteInbox.setLong(1, userId);
+            deleteInbox.setLong(2, userId);
+            return deleteInbox;
+        });
+
+        // A restart with fan out still enabled does not rebuild the inbox.
+        new TimelineEngine(FANOUT_CONFIG, INBOX_SQL_UTILS, INBOX_FEED_DICTIONARY,
+                INBOX_SUBSCRIPTION_GRAPH).init();
+        assertEquals(2, getTimeline(INBOX_ARTICLE_STORE, userId).size());
+
+        // Once fan out was disabled in between, the inbox is rebuilt.
+        new TimelineEngine(new Properties(), INBOX_SQL_UTILS, INBOX_FEED_DICTIONARY,
+                INBOX_SUBSCRIPTION_GRAPH).init();
+        new TimelineEngine(FANOUT_CONFIG, INBOX_SQL_UTILS, INBOX_FEED_DICTIONARY,
+                INBOX_SUBSCRIPTION_GRAPH).init();
+        assertEquals(3, getTimeline(INBOX_ARTICLE_STORE, userId).size());
     }
 
     @Test
-    public void testAddWithNullArticleBody() throws Exception {
-        negative(() -> articleStore.add(new Article(TITLE, null), TEST),
-                TestUtil::assertArticleBodyNullErrorMsg);
+    public void testHybridTimeline() throws Exception {
+        HYBRID_FEED_STORE.add(TEST);
+        HYBRID_FEED_STORE.add("popular");
+        HYBRID_USER_STORE.add(USER);
+        HYBRID_USER_STORE.add("other");
+        long userId = HYBRID_USER_STORE.getId(USER).get(0).getId();
+        long otherId = HYBRID_USER_STORE.getId("other").get(0).getId();
+        HYBRID_SUBSCRIPTION_STORE.addSubscriptionById(TEST, userId);
+        HYBRID_SUBSCRIPTION_STORE.addSubscriptionById("popular", userId);
+        assertEquals(TimelineEngine.FeedClass.PUSH, HYBRID_TIMELINE_ENGINE.classify("popular"));
+
+        // A second subscriber takes the feed over the threshold.
+        HYBRID_SUBSCRIPTION_STORE.addSubscriptionById("popular", otherId);
+        assertEquals(TimelineEngine.FeedClass.PULL, HYBRID_TIMELINE_ENGINE.classify("popular"));
+        assertEquals(TimelineEngine.FeedClass.PUSH, HYBRID_TIMELINE_ENGINE.classify(TEST));
+        for (int i = 0; i < 4; i++) {
+            HYBRID_ARTICLE_STORE.add(ARTICLE, TEST);
+            HYBRID_ARTICLE_STORE.add(new Article("popular", BODY), "popular");
+        }
+        assertEquals(8, getTimeline(HYBRID_ARTICLE_STORE, userId).size());
+        assertEquals(4, getTimeline(HYBRID_ARTICLE_STORE, otherId).size());
+
+        // Pages are merged from the inbox and the pulled feed without gaps or duplicates.
+        Set<Long> seen = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            List<Article> page = new ArrayList<>();
+            cursor = readPage(HYBRID_ARTICLE_STORE, userId, 3, cursor, page);
+            page.forEach(article -> assertTrue(seen.add(article.getId())));
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals(8, seen.size());
+
+        String nextCursor = HYBRID_ARTICLE_STORE.getNextCursor(userId, 5, null);
+        assertNotNull(nextCursor);
+        List<Article> streamed = new ArrayList<>();
+        assertEquals(5, HYBRID_ARTICLE_STORE.streamArticles(userId, null, nextCursor, false,
+                streamed::add));
+        assertEquals(3, HYBRID_ARTICLE_STORE.streamArticles(userId, nextCursor,
+                HYBRID_ARTICLE_STORE.getNextCursor(userId, 5, nextCursor), true, streamed::add));
+        assertEquals(8, streamed.size());
+        assertNull(streamed.get(7).getBody());
+
+        // The feed is only pushed again once it falls to half the threshold.
+        HYBRID_SUBSCRIPTION_STORE.deleteSubscriptionById("popular", otherId);
+        assertEquals(TimelineEngine.FeedClass.PULL, HYBRID_TIMELINE_ENGINE.classify("popular"));
+        HYBRID_SUBSCRIPTION_STORE.deleteSubscriptionById("popular", userId);
+        assertEquals(TimelineEngine.FeedClass.PUSH, HYBRID_TIMELINE_ENGINE.classify("popular"));
+        assertEquals(4, getTimeline(HYBRID_ARTICLE_STORE, userId).size());
+        HYBRID_SUBSCRIPTION_STORE.addSubscriptionById("popular", userId);
+        assertEquals(8, getTimeline(HYBRID_ARTICLE_STORE, userId).size());
+        assertEquals(Integer.valueOf(2), HYBRID_TIMELINE_ENGINE.getFeedClassCounts()
+                .get(TimelineEngine.FeedClass.PUSH));
     }
 
     @Test
-    public void testGetArticlesWithNullUser() throws Exception {
-        negative(() -> articleStore.getArticles(null), TestUtil::assertUserNameNullErrorMsg);
+    public void testCompressedBodies() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("Article bodies are plain text and compress well. ");
+        }
+        // Stored in the ARTICLE table by the default store and in a body segment by the inbox one.
+        FEED_STORE.add("compressed");
+        USER_STORE.add("compressedUser");
+        subscriptionStore.addSubscriptionByName("compressed", "compressedUser");
+        articleStore.add(new Article("long", body.toString()), "compressed");
+        articleStore.add(new Article("short", BODY), "compressed");
+        INBOX_FEED_STORE.add("compressed");
+        INBOX_USER_STORE.add("compressedUser");
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionByName("compressed", "compressedUser");
+        INBOX_ARTICLE_STORE.add(new Article("long", body.toString()), "compressed");
+        INBOX_ARTICLE_STORE.add(new Article("short", BODY), "compressed");
+        long userId = USER_STORE.getId("compressedUser").get(0).getId();
+        long inboxUserId = INBOX_USER_STORE.getId("compressedUser").get(0).getId();
+        for (DbArticleStore store : new DbArticleStore[] {articleStore, INBOX_ARTICLE_STORE}) {
+            List<Article> articles = getTimeline(store,
+                    store == articleStore ? userId : inboxUserId);
+            assertEquals(2, articles.size());
+            for (Article article : articles) {
+                assertEquals("long".equals(article.getTitle()) ? body.toString() : BODY,
+                        article.getBody());
+                assertEquals(article.getBody(), store.getArticle(article.getId()).get()
+                        .getBody());
+            }
+        }
+        // The short body is below the size threshold and is stored as it is.
+        assertEquals(1L, BODY_CODEC.getStats().get("encoded"));
+        assertEquals(1L, INBOX_BODY_CODEC.getStats().get("encoded"));
+        assertTrue((Double) BODY_CODEC.getStats().get("compression_ratio") > 10);
     }
 
-    //----------------------------------- Private methods ----------------------------------------//
-    private void assertArticles(final int totalArticles, final List<Article> articles) {
-        assertEquals(totalArticles, articles.size());
-        articles.stream().forEach(article1 -> {
-            assertEquals(TITLE, article1.getTitle());
-            assertEquals(BODY, article1.getBody());
-            assertNotNull(article1.getCreatedOn());
+    @Test
+    public void testSearch() throws Exception {
+        INBOX_FEED_STORE.add("searched");
+        INBOX_FEED_STORE.add("searchedOther");
+        INBOX_USER_STORE.add("searchUser");
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionByName("searched", "searchUser");
+        long userId = INBOX_USER_STORE.getId("searchUser").get(0).getId();
+        INBOX_ARTICLE_STORE.add(new Article("Rust compiler", "The compiler got faster."),
+                "searched");
+        INBOX_ARTICLE_STORE.add(new Article("Release notes", "A faster compiler, a faster "
+                + "linker and a faster compiler cache."), "searched");
+        INBOX_ARTICLE_STORE.add(new Article("Gardening", "Tomatoes grow faster in the sun."),
+                "searched");
+        INBOX_ARTICLE_STORE.add(new Article("Compiler news", "Faster compiler."),
+                "searchedOther");
+
+        // All words have to match, more occurrences rank higher and other feeds are left out.
+        List<Article> found = INBOX_ARTICLE_STORE.search(userId, "Faster COMPILER", 0, 10,
+                false);
+        assertEquals(2, found.size());
+        assertEquals("Release notes", found.get(0).getTitle());
+        assertEquals("Rust compiler", found.get(1).getTitle());
+        assertEquals("The compiler got faster.", found.get(1).getBody());
+        found = INBOX_ARTICLE_STORE.search(userId, "faster compiler", 1, 10, true);
+        assertEquals(1, found.size());
+        assertEquals("Rust compiler", found.get(0).getTitle());
+        assertNull(found.get(0).getBody());
+        assertEquals(3, INBOX_ARTICLE_STORE.search(userId, "faster", 0, 10, false).size());
+        assertTrue(INBOX_ARTICLE_STORE.search(userId, "linker tomatoes", 0, 10, false)
+                .isEmpty());
+
+        // Articles that are still indexed but gone from the database are left out.
+        long gardening = INBOX_ARTICLE_STORE.search(userId, "tomatoes", 0, 10, true).get(0)
+                .getId();
+        INBOX_SQL_UTILS.dml(connection -> {
+            PreparedStatement deleteInbox = connection.prepareStatement(
+                    "delete from INBOX where article_id = ?");
+            deleteInbox.setLong(1, gardening);
+            return deleteInbox;
+        }, connection -> {
+            PreparedStatement deleteArticle = connection.prepareStatement(
+                    "delete from ARTICLE where id = ?");
+            deleteArticle.setLong(1, gardening);
+            return deleteArticle;
+        });
+        found = INBOX_ARTICLE_STORE.search(userId, "faster", 0, 10, false);
+        assertEquals(2, found.size());
+        assertTrue(found.stream().noneMatch(article -> article.getId() == gardening));
+
+        negative(() -> INBOX_ARTICLE_STORE.search(userId, "...", 0, 10, false), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(400, ((AppException) throwable).getCode());
         });
+        negative(() -> articleStore.search(userId, "faster", 0, 10, false), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(503, ((AppException) throwable).getCode());
+        });
+        INBOX_SUBSCRIPTION_STORE.deleteSubscriptionByName("searched", "searchUser");
     }
 
+    @Test
+    public void testBulkAddToInbox() throws Exception {
+        INBOX_FEED_STORE.add("bulkA");
+        INBOX_FEED_STORE.add("bulkB");
+        INBOX_USER_STORE.add("bulkUser");
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionByName("bulkA", "bulkUser");
+        INBOX_SUBSCRIPTION_STORE.addSubscriptionByName("bulkB", "bulkUser");
+        long userId = INBOX_USER_STORE.getId("bulkUser").get(0).getId();
+        INBOX_ARTICLE_STORE.add(new Article("single", "bulk body"), "bulkA");
+        ArticleDelta delta = INBOX_ARTICLE_STORE.getArticlesSince(userId, "", 10);
+
+        List<Article> articles = new ArrayList<>();
+        articles.add(newArticle("bulk 1", "bulk body", "bulkA"));
+        articles.add(newArticle("bulk 2", "bulk body", "bulkB"));
+        articles.add(newArticle("bulk 3", null, "bulkA"));
+        articles.add(newArticle("bulk 4", "bulk body", "noSuchFeed"));
+        articles.add(newArticle("bulk 5", "bulk body", "bulkA"));
+        List<BulkResult> results = INBOX_ARTICLE_STORE.add(articles);
+        assertEquals(5, results.size());
+        assertEquals(200, results.get(0).getStatus());
+        assertEquals(200, results.get(1).getStatus());
+        assertEquals(400, results.get(2).getStatus());
+        assertEquals(404, results.get(3).getStatus());
+        assertNull(results.get(3).getId());
+        assertTrue(results.get(4).getId() > results.get(1).getId());
+        assertTrue(results.get(1).getId() > results.get(0).getId());
+
+        // Fanned out to the inbox, numbered after the single article and indexed.
+        assertEquals(4, getTimeline(INBOX_ARTICLE_STORE, userId).size());
+        delta = INBOX_ARTICLE_STORE.getArticlesSince(userId, delta.getSyncToken(), 10);
+        assertEquals(3, delta.getArticles().size());
+        assertEquals("bulk 5", delta.getArticles().get(0).getTitle());
+        assertEquals(Long.valueOf(3), SyncToken.decode(delta.getSyncToken()).getSequences()
+                .get("bulkA"));
+        assertEquals("bulk body", INBOX_ARTICLE_STORE.getArticle(results.get(4).getId()).get()
+                .getBody());
+        // The three added in bulk and the single one.
+        assertEquals(4, INBOX_ARTICLE_STORE.search(userId, "bulk body", 0, 10, false).size());
+        assertEquals(1L, INBOX_ARTICLE_STORE.getStats().get("bulk_chunks"));
+        assertEquals(3L, INBOX_ARTICLE_STORE.getStats().get("bulk_articles"));
+
+        // A list with nothing to add commits nothing.
+        results = INBOX_ARTICLE_STORE.add(Collections.singletonList(
+                newArticle("bulk 6", "bulk body", "noSuchFeed")));
+        assertEquals(404, results.get(0).getStatus());
+        assertEquals(1L, INBOX_ARTICLE_STORE.getStats().get("bulk_chunks"));
+        INBOX_SUBSCRIPTION_STORE.deleteSubscriptionByName("bulkA", "bulkUser");
+        INBOX_SUBSCRIPTION_STORE.deleteSubscriptionByName("bulkB", "bulkUser");
+    }
+
+    @Test
+    public void testLockFreeAdds() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.LOCK_STRIPES, "0");
+        DbArticleStore lockFree = new DbArticleStore(SQL_UTILS, subscriptionStore,
+                TIMELINE_ENGINE, RECENT_ARTICLE_CACHE, BLOB_STORE, BODY_CODEC, TIMELINE_VERSIONS,
+                new SearchIndex(new Properties()), FEED_DICTIONARY);
+        lockFree.configureLocks(config);
+        FEED_STORE.add("lockFree");
+        USER_STORE.add("lockFreeUser");
+        subscriptionStore.addSubscriptionByName("lockFree", "lockFreeUser");
+        long userId = USER_STORE.getId("lockFreeUser").get(0).getId();
+
+        // Writers of the same feed race for sequence numbers, the ones that lose retry.
+        List<Thread> threads = new ArrayList<>();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 5; i++) {
+                    lockFree.add(Arrays.asList(newArticle("lockFree", "body", "lockFree"),
+                            newArticle("lockFree", "body", "lockFree"))).stream()
+                            .filter(result -> result.getStatus() != 200)
+                            .forEach(result -> errors.add(result.getError()));
+                    try {
+                        lockFree.add(new Article("lockFree", "body"), "lockFree");
+                    } catch (AppException e) {
+                        errors.add(e.getMessage());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        ArticleDelta delta = articleStore.getArticlesSince(userId, "", 100);
+        assertEquals(60, delta.getArticles().size());
+        assertEquals(Long.valueOf(60), SyncToken.decode(delta.getSyncToken()).getSequences()
+                .get("lockFree"));
+        assertEquals(60, delta.getArticles().stream().map(Article::getId).distinct().count());
+        subscriptionStore.deleteSubscriptionByName("lockFree", "lockFreeUser");
+    }
+
+    /**
+     * A database created before feeds had integer ids gets them at startup, along with every
+     * subscription and article that refers to a feed, and the migrations drop the name columns.
+     */
+    @Test
+    public void testFeedIdMigration() throws Exception {
+        SQLUtils sqlUtils = new SQLUtils(TestUtil.getTestDataSource(
+                DbArticleStoreTest.class.getName() + "Migration"));
+        DbUserStore userStore = new DbUserStore(sqlUtils);
+        userStore.init();
+        userStore.add(USER);
+        long userId = userStore.getId(USER).get(0).getId();
+        sqlUtils.ddl(statement -> {
+            statement.execute("create table FEED(name varchar PRIMARY KEY, "
+                    + "created_on timestamp)");
+            statement.execute("create table SUBSCRIPTION(user_id bigint, feed_name varchar, "
+                    + "PRIMARY KEY (user_id, feed_name), FOREIGN KEY(feed_name) REFERENCES "
+                    + "public.feed(name), FOREIGN KEY(user_id) REFERENCES public.user(id))");
+            statement.execute("create table ARTICLE(id bigint auto_increment PRIMARY KEY, "
+                    + "title varchar(1024), created_on timestamp, body varchar, "
+                    + "feed_name varchar, FOREIGN KEY (feed_name) REFERENCES public.feed(name))");
+            statement.execute("insert into FEED values ('old', CURRENT_TIMESTAMP()), "
+                    + "('other', CURRENT_TIMESTAMP())");
+            statement.execute("insert into SUBSCRIPTION values (" + userId + ", 'old')");
+            statement.execute("insert into ARTICLE(title, created_on, body, feed_name) values "
+                    + "('title', CURRENT_TIMESTAMP(), 'body', 'old'), "
+                    + "('title', CURRENT_TIMESTAMP(), 'body', 'other')");
+        });
+        FeedDictionary feedDictionary = new FeedDictionary();
+        SubscriptionGraph subscriptionGraph = new SubscriptionGraph();
+        DbFeedStore feedStore = new DbFeedStore(new Properties(), sqlUtils, feedDictionary);
+        TimelineEngine timelineEngine = new TimelineEngine(new Properties(), sqlUtils,
+                feedDictionary, subscriptionGraph);
+        RecentArticleCache recentArticleCache = new RecentArticleCache(new Properties());
+        TimelineVersions timelineVersions = new TimelineVersions();
+        DbSubscriptionStore subscriptionStore = new DbSubscriptionStore(sqlUtils, userStore,
+                timelineEngine, timelineVersions, feedDictionary, subscriptionGraph);
+        DbArticleStore articleStore = new DbArticleStore(sqlUtils,
+                subscriptionStore, timelineEngine, recentArticleCache,
+                new SegmentBlobStore(new Properties()), new BodyCodec(new Properties()),
+                timelineVersions, new SearchIndex(new Properties()), feedDictionary);
+        feedStore.init();
+        subscriptionStore.init();
+        articleStore.init();
+        timelineEngine.init();
+        new SchemaMigrator(sqlUtils).migrate();
+
+        assertNotEquals(FeedDictionary.NO_ID, feedDictionary.getId("old"));
+        assertEquals("old", subscriptionStore.getUserSubscriptionsById(userId).get(0)
+                .getName());
+        assertArticles(1, getTimeline(articleStore, userId));
+        feedStore.add("new");
+        subscriptionStore.addSubscriptionById("new", userId);
+        articleStore.add(ARTICLE, "new");
+        assertArticles(2, getTimeline(articleStore, userId));
+        assertEquals(0L, (long) sqlUtils.query(connection -> connection.prepareStatement(
+                "select count(*) from INFORMATION_SCHEMA.COLUMNS where column_name = "
+                        + "'FEED_NAME' and table_name in ('ARTICLE', 'SUBSCRIPTION')"),
+                resultSet -> resultSet.getLong(1)).get(0));
+
+        // The foreign key on feed_id is added after the feed_id indexes and is backed by them.
+        assertEquals(Arrays.asList("IDX_ARTICLE_FEED_ID_TIMELINE", "IDX_ARTICLE_FEED_SEQ"),
+                sqlUtils.query(connection -> connection.prepareStatement(
+                        "select distinct index_name from INFORMATION_SCHEMA.INDEXES "
+                                + "where table_name = 'ARTICLE' and column_name = 'FEED_ID' "
+                                + "order by index_name"),
+                        resultSet -> resultSet.getString(1)));
+        assertEquals(1L, (long) sqlUtils.query(connection -> connection.prepareStatement(
+                "select count(*) from INFORMATION_SCHEMA.CONSTRAINTS "
+                        + "where constraint_name = 'FK_ARTICLE_FEED_ID'"),
+                resultSet -> resultSet.getLong(1)).get(0));
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return subscriptionStore;
+    }
+
+    @Override
+    protected ArticleStore getArticleStore() {
+        return articleStore;
+    }
 }
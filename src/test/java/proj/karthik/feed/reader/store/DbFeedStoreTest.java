@@ -12,15 +12,15 @@ import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.TestUtil;
 import proj.karthik.feed.reader.entity.Feed;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
 
 import static org.junit.Assert.assertEquals;
-
-import static proj.karthik.feed.reader.TestUtil.negative;
+import static org.junit.Assert.assertNull;
 
 /**
  * Unit test for {@link DbFeedStore}
  */
-public class DbFeedStoreTest {
+public class DbFeedStoreTest extends FeedStoreTest {
     private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
             DbFeedStoreTest.class.getName());
     private static final SQLUtils SQL_UTILS = new SQLUtils(DATA_SOURCE);
@@ -30,8 +30,26 @@ public class DbFeedStoreTest {
         }
     };
 
-    private static final DbFeedStore feedStore = new DbFeedStore(APP_CONFIG, SQL_UTILS);
-    private static final String TEST = "test";
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore feedStore = new DbFeedStore(APP_CONFIG, SQL_UTILS,
+            FEED_DICTIONARY);
+    private static final DbUserStore USER_STORE = new DbUserStore(SQL_UTILS);
+    private static final TimelineEngine TIMELINE_ENGINE =
+            new TimelineEngine(new Properties(), SQL_UTILS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final RecentArticleCache RECENT_ARTICLE_CACHE =
+            new RecentArticleCache(new Properties());
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
+    private static final DbSubscriptionStore SUBSCRIPTION_STORE =
+            new DbSubscriptionStore(SQL_UTILS, USER_STORE, TIMELINE_ENGINE,
+                    TIMELINE_VERSIONS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final DbArticleStore ARTICLE_STORE =
+            new DbArticleStore(SQL_UTILS, SUBSCRIPTION_STORE, TIMELINE_ENGINE,
+                    RECENT_ARTICLE_CACHE, new SegmentBlobStore(new Properties()),
+                    new BodyCodec(new Properties()), TIMELINE_VERSIONS,
+                    new SearchIndex(new Properties()), FEED_DICTIONARY);
+    private static final DbReadStateStore READ_STATE_STORE =
+            new DbReadStateStore(SQL_UTILS, FEED_DICTIONARY);
 
     @BeforeClass
     public static void setUp() throws Exception {
@@ -42,26 +60,57 @@ public class DbFeedStoreTest {
         feedStore.delete("test2");
         feeds = feedStore.list();
         assertEquals(0, feeds.size());
+        USER_STORE.init();
+        SUBSCRIPTION_STORE.init();
+        ARTICLE_STORE.init();
+        READ_STATE_STORE.init();
+        new SchemaMigrator(SQL_UTILS).migrate();
     }
 
     @Test
-    public void testFeedCrudOperations() throws Exception {
-        feedStore.add(TEST);
-        List<Feed> feeds = feedStore.list();
-        assertEquals(1, feeds.size());
-        assertEquals(TEST, feeds.get(0).getName());
-        feedStore.delete(TEST);
-        feeds = feedStore.list();
-        assertEquals(0, feeds.size());
+    public void testFeedDictionaryReload() throws Exception {
+        feedStore.add("reloaded");
+        int reloadedId = FEED_DICTIONARY.getId("reloaded");
+
+        // The ids are kept by the database and loaded again at startup.
+        FeedDictionary reloaded = new FeedDictionary();
+        new DbFeedStore(new Properties(), SQL_UTILS, reloaded).init();
+        assertEquals(reloadedId, reloaded.getId("reloaded"));
+        assertEquals("reloaded", reloaded.getName(reloadedId));
+
+        feedStore.delete("reloaded");
+        assertNull(FEED_DICTIONARY.getName(reloadedId));
     }
 
-    @Test
-    public void testAddWithNullFeedName() throws Exception {
-        negative(() -> feedStore.add(null), TestUtil::assertFeedNullErrorMsg);
+    //------------------------------------- private methods --------------------------------------//
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return feedStore;
     }
 
-    @Test
-    public void testDeleteWithNullFeedName() throws Exception {
-        negative(() -> feedStore.delete(null), TestUtil::assertFeedNullErrorMsg);
+    @Override
+    protected FeedDictionary getFeedDictionary() {
+        return FEED_DICTIONARY;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
+    }
+
+    @Override
+    protected ArticleStore getArticleStore() {
+        return ARTICLE_STORE;
+    }
+
+    @Override
+    protected ReadStateStore getReadStateStore() {
+        return READ_STATE_STORE;
     }
 }
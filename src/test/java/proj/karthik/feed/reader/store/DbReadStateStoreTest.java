@@ -0,0 +1,155 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.getTimeline;
+
+/**
+ * Unit test for {@link DbReadStateStore}
+ */
+public class DbReadStateStoreTest extends ReadStateStoreTest {
+    private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
+            DbReadStateStoreTest.class.getName());
+    private static final SQLUtils SQL_UTILS = new SQLUtils(DATA_SOURCE);
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS,
+            FEED_DICTIONARY);
+    private static final DbUserStore USER_STORE = new DbUserStore(SQL_UTILS);
+    private static final TimelineEngine TIMELINE_ENGINE =
+            new TimelineEngine(new Properties(), SQL_UTILS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final RecentArticleCache RECENT_ARTICLE_CACHE =
+            new RecentArticleCache(new Properties());
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
+    private static final DbSubscriptionStore SUBSCRIPTION_STORE =
+            new DbSubscriptionStore(SQL_UTILS, USER_STORE, TIMELINE_ENGINE,
+                    TIMELINE_VERSIONS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final DbArticleStore ARTICLE_STORE =
+            new DbArticleStore(SQL_UTILS, SUBSCRIPTION_STORE, TIMELINE_ENGINE,
+                    RECENT_ARTICLE_CACHE, new SegmentBlobStore(new Properties()),
+                    new BodyCodec(new Properties()), TIMELINE_VERSIONS,
+                    new SearchIndex(new Properties()), FEED_DICTIONARY);
+    private static final DbReadStateStore READ_STATE_STORE =
+            new DbReadStateStore(SQL_UTILS, FEED_DICTIONARY);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        FEED_STORE.init();
+        USER_STORE.init();
+        SUBSCRIPTION_STORE.init();
+        ARTICLE_STORE.init();
+        READ_STATE_STORE.init();
+        new SchemaMigrator(SQL_UTILS).migrate();
+    }
+
+    @Test
+    public void testLockFreeMarks() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.LOCK_STRIPES, "0");
+        DbReadStateStore lockFree = new DbReadStateStore(SQL_UTILS, FEED_DICTIONARY);
+        lockFree.configureLocks(config);
+        assertTrue(lockFree.isLockFree());
+        FEED_STORE.add("lockFreeMarks");
+        USER_STORE.add("lockFreeMarks");
+        long userId = USER_STORE.getId("lockFreeMarks").get(0).getId();
+        SUBSCRIPTION_STORE.addSubscriptionById("lockFreeMarks", userId);
+        for (int i = 0; i < 40; i++) {
+            ARTICLE_STORE.add(new Article("m" + i, "body"), "lockFreeMarks");
+        }
+        List<Long> ids = getTimeline(ARTICLE_STORE, userId).stream()
+                .map(Article::getId)
+                .collect(Collectors.toList());
+
+        // Concurrent marks of the same feed race on one row, the ones that lose read it again.
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> {
+                for (int i = first; i < ids.size(); i += 4) {
+                    lockFree.markArticleRead(userId, ids.get(i));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0L, (long) lockFree.getUnreadCounts(userId).get("lockFreeMarks"));
+        assertEquals(40L, lockFree.getStats().get("articles_marked"));
+        SUBSCRIPTION_STORE.deleteSubscriptionById("lockFreeMarks", userId);
+    }
+
+    @Test
+    public void testReadMarks() throws Exception {
+        ReadMarks marks = new ReadMarks(0, null);
+        assertTrue(marks.markRead(3));
+        assertFalse(marks.markRead(3));
+        assertEquals(0, marks.getHighWaterMark());
+        assertEquals(9, marks.getUnread(10));
+        assertTrue(marks.markRead(1));
+        assertTrue(marks.markRead(2));
+        // The mark moves over 1 to 3 and the bitmap is empty again.
+        assertEquals(3, marks.getHighWaterMark());
+        assertNull(marks.getBitmap());
+        assertFalse(marks.markRead(2));
+
+        // The bitmap survives a round trip through its stored form.
+        assertTrue(marks.markRead(6));
+        marks = new ReadMarks(marks.getHighWaterMark(), marks.getBitmap());
+        assertEquals(6, marks.getUnread(10));
+        assertEquals(2, marks.getUnread(5));
+
+        // Reading beyond the window moves the mark, counting the oldest articles as read.
+        assertTrue(marks.markRead(3 + ReadMarks.MAX_WINDOW + 100));
+        assertEquals(103, marks.getHighWaterMark());
+        assertEquals(ReadMarks.MAX_WINDOW - 1, marks.getUnread(3 + ReadMarks.MAX_WINDOW + 100));
+        assertTrue(marks.getBitmap().length <= ReadMarks.MAX_WINDOW / 8);
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
+    }
+
+    @Override
+    protected ArticleStore getArticleStore() {
+        return ARTICLE_STORE;
+    }
+
+    @Override
+    protected ReadStateStore getReadStateStore() {
+        return READ_STATE_STORE;
+    }
+}
@@ -3,109 +3,166 @@ package proj.karthik.feed.reader.store;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import proj.karthik.feed.reader.AppException;
 import proj.karthik.feed.reader.TestUtil;
 import proj.karthik.feed.reader.entity.Feed;
-import proj.karthik.feed.reader.entity.User;
+import proj.karthik.feed.reader.sql.DMLStatement;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
 
 import static org.junit.Assert.assertEquals;
 
 import static proj.karthik.feed.reader.TestUtil.negative;
 
 /**
- * Unit test for {@link DbFeedStore}
+ * Unit test for {@link DbSubscriptionStore}
  */
-public class DbSubscriptionStoreTest {
+public class DbSubscriptionStoreTest extends SubscriptionStoreTest {
     private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
             DbSubscriptionStoreTest.class.getName());
     private static final SQLUtils SQL_UTILS = new SQLUtils(DATA_SOURCE);
-    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS);
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS,
+            FEED_DICTIONARY);
     private static final DbUserStore USER_STORE = new DbUserStore(SQL_UTILS);
+    private static final TimelineEngine TIMELINE_ENGINE =
+            new TimelineEngine(new Properties(), SQL_UTILS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
     private static final DbSubscriptionStore SUBSCRIPTION_STORE =
-            new DbSubscriptionStore(SQL_UTILS, USER_STORE);
+            new DbSubscriptionStore(SQL_UTILS, USER_STORE, TIMELINE_ENGINE,
+                    new TimelineVersions(), FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
     private static final String TEST = "test";
     private static final String USER = "user";
+    private static final long POOL_TIMEOUT_MILLIS = 1000;
 
     @BeforeClass
     public static void setUp() throws Exception {
         FEED_STORE.init();
         USER_STORE.init();
         SUBSCRIPTION_STORE.init();
+        new SchemaMigrator(SQL_UTILS).migrate();
     }
 
+    /**
+     * Runs the by-name operations on a pool of a single connection. Looking up the user while
+     * holding the connection of the subscription statement would wait on the pool until it
+     * times out, within a unit of work both share the one connection.
+     */
     @Test
-    public void testSubscriptionCrudOperations() throws Exception {
-        FEED_STORE.add(TEST);
-        USER_STORE.add(USER);
-        List<User> users = USER_STORE.getId(USER);
-        User user = users.get(0);
-
-        List<Feed> feedSubscriptions = SUBSCRIPTION_STORE.getUserSubscriptionsByName(USER);
-        assertEquals(0, feedSubscriptions.size());
-
-        feedSubscriptions = subscribeByName(TEST, user);
-        assertEquals(1, feedSubscriptions.size());
-        feedSubscriptions = unsubscribeById(TEST, user);
-        assertEquals(0, feedSubscriptions.size());
-
-        feedSubscriptions = subscribeById(TEST, user);
-        assertEquals(1, feedSubscriptions.size());
-        feedSubscriptions = unsubscribeByName(TEST, user);
-        assertEquals(0, feedSubscriptions.size());
+    public void testSingleConnectionPool() throws Exception {
+        DataSource dataSource = TestUtil.getTestDataSource(
+                DbSubscriptionStoreTest.class.getName() + "Pool", 1, POOL_TIMEOUT_MILLIS);
+        SQLUtils sqlUtils = new SQLUtils(dataSource);
+        FeedDictionary feedDictionary = new FeedDictionary();
+        SubscriptionGraph subscriptionGraph = new SubscriptionGraph();
+        DbFeedStore feedStore = new DbFeedStore(new Properties(), sqlUtils, feedDictionary);
+        DbUserStore userStore = new DbUserStore(sqlUtils);
+        DbSubscriptionStore subscriptionStore = new DbSubscriptionStore(sqlUtils, userStore,
+                new TimelineEngine(new Properties(), sqlUtils, feedDictionary, subscriptionGraph),
+                new TimelineVersions(), feedDictionary, subscriptionGraph);
+        feedStore.init();
+        userStore.init();
+        subscriptionStore.init();
+        feedStore.add(TEST);
+        userStore.add(USER);
+
+        // A nested checkout exhausts the pool.
+        DMLStatement lookup = connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "select id from USER where name = ?");
+            statement.setString(1, USER);
+            return statement;
+        };
+        negative(() -> sqlUtils.query(connection -> {
+            sqlUtils.query(lookup, resultSet -> resultSet.getLong(1));
+            return lookup.execute(connection);
+        }, resultSet -> resultSet.getLong(1)), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals("Error getting connection from the pool", throwable.getMessage());
+        });
+        assertEquals(1, sqlUtils.transaction(() -> sqlUtils.query(connection -> {
+            sqlUtils.query(lookup, resultSet -> resultSet.getLong(1));
+            return lookup.execute(connection);
+        }, resultSet -> resultSet.getLong(1))).size());
+
+        // Concurrent by-name calls take turns on the connection instead of timing out.
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            String userName = USER + i;
+            userStore.add(userName);
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 10; round++) {
+                        subscriptionStore.addSubscriptionByName(TEST, userName);
+                        assertEquals(1,
+                                subscriptionStore.getUserSubscriptionsByName(userName).size());
+                        subscriptionStore.deleteSubscriptionByName(TEST, userName);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(0, subscriptionStore.getUserSubscriptionsByName(USER).size());
+        subscriptionStore.addSubscriptionByName(TEST, USER);
+        assertEquals(1, subscriptionStore.getUserSubscriptionsByName(USER).size());
+        assertEquals(0, subscriptionStore.getUserSubscriptionsByName("unknown").size());
     }
 
     @Test
-    public void testSubscribeByNameWithNullFeedName() throws Exception {
-        negative(() -> SUBSCRIPTION_STORE.addSubscriptionByName(null, USER),
-                TestUtil::assertFeedNullErrorMsg);
+    public void testSubscriptionGraphReload() throws Exception {
+        String feed = "reloaded";
+        FEED_STORE.add(feed);
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            USER_STORE.add(feed + i);
+            long userId = USER_STORE.getId(feed + i).get(0).getId();
+            SUBSCRIPTION_STORE.addSubscriptionById(feed, userId);
+            userIds.add(userId);
+        }
+        SUBSCRIPTION_STORE.deleteSubscriptionById(feed, userIds.get(1));
+
+        // A new store loads the same graph from the database.
+        DbSubscriptionStore reloaded = new DbSubscriptionStore(SQL_UTILS, USER_STORE,
+                TIMELINE_ENGINE, new TimelineVersions(), FEED_DICTIONARY, new SubscriptionGraph());
+        reloaded.init();
+        assertEquals(subscribers(SUBSCRIPTION_STORE, feed), subscribers(reloaded, feed));
+        Feed subscribed = reloaded.getUserSubscriptionsById(userIds.get(2)).get(0);
+        assertEquals(feed, subscribed.getName());
+        assertEquals(FEED_STORE.list().stream().filter(listed -> listed.getName().equals(feed))
+                .findFirst().get().getCreatedOn(), subscribed.getCreatedOn());
+        assertEquals(0, reloaded.getUserSubscriptionsById(userIds.get(1)).size());
     }
 
-    @Test
-    public void testSubscribeByIdWithNullFeedName() throws Exception {
-        negative(() -> SUBSCRIPTION_STORE.addSubscriptionById(null, -1L),
-                TestUtil::assertFeedNullErrorMsg);
-    }
-
-    @Test
-    public void testSubscribeWithNullUserName() throws Exception {
-        negative(() -> SUBSCRIPTION_STORE.addSubscriptionByName(TEST, null),
-                TestUtil::assertUserNameNullErrorMsg);
-    }
-
-    @Test
-    public void testUnsubscribeByIdWithNullFeedName() throws Exception {
-        negative(() -> SUBSCRIPTION_STORE.deleteSubscriptionById(null, -1L),
-                TestUtil::assertFeedNullErrorMsg);
-    }
-
-    @Test
-    public void testUnsubscribeWithNullUserName() throws Exception {
-        negative(() -> SUBSCRIPTION_STORE.deleteSubscriptionByName(TEST, null),
-                TestUtil::assertUserNameNullErrorMsg);
-    }
     //------------------------------------- private methods --------------------------------------//
-    private List<Feed> subscribeById(String feed, User user) {
-        SUBSCRIPTION_STORE.addSubscriptionById(feed, user.getId());
-        return SUBSCRIPTION_STORE.getUserSubscriptionsById(user.getId());
-    }
 
-    private List<Feed> subscribeByName(String feed, User user) {
-        SUBSCRIPTION_STORE.addSubscriptionByName(feed, user.getName());
-        return SUBSCRIPTION_STORE.getUserSubscriptionsByName(user.getName());
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
     }
 
-    private List<Feed> unsubscribeById(String feed, User user) {
-        SUBSCRIPTION_STORE.deleteSubscriptionById(feed, user.getId());
-        return SUBSCRIPTION_STORE.getUserSubscriptionsById(user.getId());
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
     }
 
-    private List<Feed> unsubscribeByName(String feed, User user) {
-        SUBSCRIPTION_STORE.deleteSubscriptionByName(feed, user.getName());
-        return SUBSCRIPTION_STORE.getUserSubscriptionsByName(user.getName());
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
     }
 }
@@ -4,94 +4,124 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.TestUtil;
 import proj.karthik.feed.reader.entity.User;
 import proj.karthik.feed.reader.sql.SQLUtils;
 
 import static org.junit.Assert.assertEquals;
-
-import static proj.karthik.feed.reader.TestUtil.negative;
+import static org.junit.Assert.assertTrue;
 
 /**
- * Unit test for {@link DbFeedStore}
+ * Unit test for {@link DbUserStore}
  */
-public class DbUserStoreTest {
+public class DbUserStoreTest extends UserStoreTest {
     private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
             DbUserStoreTest.class.getName());
     private static final SQLUtils SQL_UTILS = new SQLUtils(DATA_SOURCE);
     private static final DbUserStore USER_STORE = new DbUserStore(SQL_UTILS);
-    private static final String TEST = "test";
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS,
+            FEED_DICTIONARY);
+    private static final DbSubscriptionStore SUBSCRIPTION_STORE =
+            new DbSubscriptionStore(SQL_UTILS, USER_STORE,
+                    new TimelineEngine(new Properties(), SQL_UTILS, FEED_DICTIONARY,
+                            SUBSCRIPTION_GRAPH),
+                    new TimelineVersions(), FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final DbReadStateStore READ_STATE_STORE =
+            new DbReadStateStore(SQL_UTILS, FEED_DICTIONARY);
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
 
     @BeforeClass
     public static void setUp() throws Exception {
+        FEED_STORE.init();
         USER_STORE.init();
+        USER_STORE.configureVersions(TIMELINE_VERSIONS);
+        SUBSCRIPTION_STORE.init();
+        READ_STATE_STORE.init();
     }
 
     @Test
-    public void testAddDeleteUserByName() throws Exception {
-        USER_STORE.add(TEST);
-        List<User> users = USER_STORE.getId(TEST);
-        assertEquals(1, users.size());
-        assertEquals(TEST, users.get(0).getName());
-        USER_STORE.delete(TEST);
-        users = USER_STORE.getId(TEST);
-        assertEquals(0, users.size());
+    public void testNameCache() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.USER_CACHE_SIZE, "2");
+        config.setProperty(Constants.USER_NEGATIVE_CACHE_SIZE, "1");
+        DbUserStore userStore = new DbUserStore(SQL_UTILS);
+        userStore.configureNameCache(config);
+        String name = "cached";
+        userStore.add(name);
+        List<User> users = userStore.getId(name);
+        assertEquals(users, userStore.getId(name));
+        assertEquals(1L, getNameCacheStats(userStore).get("hits"));
+        assertEquals(1L, getNameCacheStats(userStore).get("misses"));
+
+        // Unknown names are answered from the negative cache until the name is added.
+        assertEquals(0, userStore.getId("unknown").size());
+        assertEquals(0, userStore.getId("unknown").size());
+        assertEquals(1L, getNameCacheStats(userStore).get("negative_hits"));
+        userStore.add("unknown");
+        assertEquals(1, userStore.getId("unknown").size());
+
+        // Adding and deleting users invalidates their names.
+        userStore.add(name);
+        assertEquals(2, userStore.getId(name).size());
+        userStore.delete(users.get(0).getId());
+        assertEquals(1, userStore.getId(name).size());
+        userStore.delete(name);
+        assertEquals(0, userStore.getId(name).size());
+
+        // Names beyond the capacity push out the least recently used ones.
+        userStore.add("first");
+        userStore.add("second");
+        userStore.add("third");
+        userStore.getId("first");
+        userStore.getId("second");
+        userStore.getId("third");
+        Map<String, Object> stats = getNameCacheStats(userStore);
+        assertEquals(2, stats.get("size"));
+        assertEquals(1, stats.get("negative_size"));
+        assertTrue((long) stats.get("evictions") > 0);
+        userStore.delete("unknown");
+        userStore.delete("first");
+        userStore.delete("second");
+        userStore.delete("third");
     }
 
-    @Test
-    public void testAddDeleteUserById() throws Exception {
-        USER_STORE.add(TEST);
-        List<User> users = USER_STORE.getId(TEST);
-        assertEquals(1, users.size());
-        assertEquals(TEST, users.get(0).getName());
-        USER_STORE.delete(users.get(0).getId());
-        users = USER_STORE.getId(TEST);
-        assertEquals(0, users.size());
-    }
+    //------------------------------------- private methods --------------------------------------//
 
-    @Test
-    public void testNonUniqueUserNames() throws Exception {
-        int userCount = 10;
-        for (int i = 0; i < userCount; i++) {
-            USER_STORE.add(TEST);
-        }
-
-        List<User> users = USER_STORE.getId(TEST);
-        assertEquals(10, users.size());
-
-        AtomicInteger currentCount = new AtomicInteger(10);
-        users.stream().forEach(user -> {
-            USER_STORE.delete(user.getId());
-            List<User> currentUsers = USER_STORE.getId(TEST);
-            assertEquals(currentUsers.size(), currentCount.decrementAndGet());
-        });
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
     }
 
-    @Test
-    public void testNonExistentUser() throws Exception {
-        List<User> users = USER_STORE.getId(TEST);
-        assertEquals(0, users.size());
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
 
-        USER_STORE.delete(TEST);
-        USER_STORE.delete(1);
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
     }
 
-    @Test
-    public void testAddNullUser() throws Exception {
-        negative(() -> USER_STORE.add(null), TestUtil::assertUserNameNullErrorMsg);
+    @Override
+    protected ReadStateStore getReadStateStore() {
+        return READ_STATE_STORE;
     }
 
-    @Test
-    public void testDeleteNullUser() throws Exception {
-        negative(() -> USER_STORE.delete(null), TestUtil::assertUserNameNullErrorMsg);
+    @Override
+    protected TimelineVersions getTimelineVersions() {
+        return TIMELINE_VERSIONS;
     }
 
-    @Test
-    public void testGetIdForNullUser() throws Exception {
-        negative(() -> USER_STORE.getId(null), TestUtil::assertUserNameNullErrorMsg);
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getNameCacheStats(final DbUserStore userStore) {
+        return (Map<String, Object>) userStore.getStats().get("name_cache");
     }
 }
@@ -0,0 +1,114 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.entity.Feed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.assertCode;
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link FeedStore}, run against each backend by its subclasses.
+ */
+public abstract class FeedStoreTest {
+    private static final String TEST = "test";
+
+    @Test
+    public void testFeedCrudOperations() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        int existing = feedStore.list().size();
+        feedStore.add(TEST);
+        List<Feed> feeds = feedStore.list();
+        assertEquals(existing + 1, feeds.size());
+        assertTrue(feeds.stream().anyMatch(feed -> feed.getName().equals(TEST)));
+        feedStore.delete(TEST);
+        feeds = feedStore.list();
+        assertEquals(existing, feeds.size());
+        // Deleting a feed that does not exist is not an error, as it is not in the store.
+        feedStore.delete(TEST);
+    }
+
+    @Test
+    public void testFeedDictionary() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        FeedDictionary feedDictionary = getFeedDictionary();
+        feedStore.add("first");
+        feedStore.add("second");
+        int first = feedDictionary.getId("first");
+        int second = feedDictionary.getId("second");
+        assertTrue(first != FeedDictionary.NO_ID && second != FeedDictionary.NO_ID);
+        assertNotEquals(first, second);
+        assertEquals("second", feedDictionary.getName(second));
+        assertEquals(FeedDictionary.NO_ID, feedDictionary.getId("unknown"));
+
+        // A deleted feed loses its id, a feed added again gets a new one.
+        feedStore.delete("first");
+        assertEquals(FeedDictionary.NO_ID, feedDictionary.getId("first"));
+        feedStore.add("first");
+        assertTrue(feedDictionary.getId("first") > second);
+        feedStore.delete("first");
+        feedStore.delete("second");
+    }
+
+    @Test
+    public void testDuplicateFeed() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        feedStore.add("duplicate");
+        negative(() -> feedStore.add("duplicate"), throwable -> assertCode(409, throwable));
+        feedStore.delete("duplicate");
+    }
+
+    @Test
+    public void testDeleteReferencedFeed() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        feedStore.add("referenced");
+        userStore.add("referencedUser");
+        long userId = userStore.getId("referencedUser").get(0).getId();
+        subscriptionStore.addSubscriptionById("referenced", userId);
+        negative(() -> feedStore.delete("referenced"), throwable -> assertCode(409, throwable));
+
+        // Articles and read state keep the feed as well once the subscription is gone.
+        getReadStateStore().markFeedRead(userId, "referenced");
+        subscriptionStore.deleteSubscriptionById("referenced", userId);
+        negative(() -> feedStore.delete("referenced"), throwable -> assertCode(409, throwable));
+        feedStore.add("articles");
+        getArticleStore().add(new Article("title", "body"), "articles");
+        negative(() -> feedStore.delete("articles"), throwable -> assertCode(409, throwable));
+        assertTrue(feedStore.list().stream()
+                .anyMatch(feed -> feed.getName().equals("referenced")));
+    }
+
+    @Test
+    public void testAddWithNullFeedName() throws Exception {
+        negative(() -> getFeedStore().add(null), TestUtil::assertFeedNullErrorMsg);
+    }
+
+    @Test
+    public void testDeleteWithNullFeedName() throws Exception {
+        negative(() -> getFeedStore().delete(null), TestUtil::assertFeedNullErrorMsg);
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    protected abstract FeedStore getFeedStore();
+
+    protected abstract FeedDictionary getFeedDictionary();
+
+    protected abstract UserStore getUserStore();
+
+    protected abstract SubscriptionStore getSubscriptionStore();
+
+    protected abstract ArticleStore getArticleStore();
+
+    protected abstract ReadStateStore getReadStateStore();
+}
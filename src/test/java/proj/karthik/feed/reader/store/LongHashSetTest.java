@@ -0,0 +1,69 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link LongHashSet} and {@link LongHashMap}
+ */
+public class LongHashSetTest {
+    private static final int OPERATIONS = 20000;
+
+    @Test
+    public void testSet() throws Exception {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < OPERATIONS; i++) {
+            // A small key range keeps collisions and removals frequent, 0 included.
+            long value = random.nextInt(512) - 64;
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long value = -64; value < 448; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertEquals(expected.stream().sorted().collect(Collectors.toList()),
+                Arrays.stream(values).boxed().collect(Collectors.toList()));
+        assertFalse(new LongHashSet().contains(0));
+        assertTrue(new LongHashSet().add(0));
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        LongHashMap<String> map = new LongHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < OPERATIONS; i++) {
+            long key = random.nextInt(512) - 64;
+            if (random.nextBoolean()) {
+                map.put(key, "v" + i);
+                expected.put(key, "v" + i);
+            } else {
+                map.remove(key);
+                expected.remove(key);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = -64; key < 448; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.entity.Article;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link MemArticleStore}
+ */
+public class MemArticleStoreTest extends ArticleStoreTest {
+    private static final Properties SEARCH_CONFIG = new Properties() {
+        {
+            setProperty(Constants.SEARCH_INDEX, "true");
+            setProperty(Constants.SEARCH_INDEX_DIR, Paths.get("target",
+                    "MemArticleStoreTest-index-" + System.nanoTime()).toString());
+            setProperty(Constants.SEARCH_FLUSH_DOCS, "2");
+        }
+    };
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final MemTables TABLES = new MemTables(FEED_DICTIONARY);
+    private static final MemFeedStore FEED_STORE = new MemFeedStore(new Properties(), TABLES,
+            FEED_DICTIONARY);
+    private static final MemUserStore USER_STORE = new MemUserStore(TABLES);
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
+    private static final MemSubscriptionStore subscriptionStore =
+            new MemSubscriptionStore(TABLES, TIMELINE_VERSIONS);
+    private static final MemArticleStore articleStore = new MemArticleStore(TABLES,
+            TIMELINE_VERSIONS, new SearchIndex(new Properties()));
+    private static final FeedDictionary SEARCH_FEED_DICTIONARY = new FeedDictionary();
+    private static final MemTables SEARCH_TABLES = new MemTables(SEARCH_FEED_DICTIONARY);
+    private static final MemFeedStore SEARCH_FEED_STORE = new MemFeedStore(new Properties(),
+            SEARCH_TABLES, SEARCH_FEED_DICTIONARY);
+    private static final MemUserStore SEARCH_USER_STORE = new MemUserStore(SEARCH_TABLES);
+    private static final MemSubscriptionStore SEARCH_SUBSCRIPTION_STORE =
+            new MemSubscriptionStore(SEARCH_TABLES, new TimelineVersions());
+    private static final SearchIndex SEARCH_INDEX = new SearchIndex(SEARCH_CONFIG);
+    private static final MemArticleStore SEARCH_ARTICLE_STORE = new MemArticleStore(
+            SEARCH_TABLES, new TimelineVersions(), SEARCH_INDEX);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        articleStore.init();
+        SEARCH_INDEX.init();
+        SEARCH_ARTICLE_STORE.init();
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        SEARCH_FEED_STORE.add("searched");
+        SEARCH_FEED_STORE.add("searchedOther");
+        SEARCH_USER_STORE.add("searchUser");
+        SEARCH_SUBSCRIPTION_STORE.addSubscriptionByName("searched", "searchUser");
+        long userId = SEARCH_USER_STORE.getId("searchUser").get(0).getId();
+        SEARCH_ARTICLE_STORE.add(new Article("Rust compiler", "The compiler got faster."),
+                "searched");
+        SEARCH_ARTICLE_STORE.add(new Article("Release notes", "Faster compiler, faster "
+                + "compiler cache."), "searched");
+        SEARCH_ARTICLE_STORE.add(new Article("Gardening", "Tomatoes grow faster in the sun."),
+                "searched");
+        SEARCH_ARTICLE_STORE.add(new Article("Compiler news", "Faster compiler."),
+                "searchedOther");
+
+        // All words have to match, more occurrences rank higher and other feeds are left out.
+        List<Article> found = SEARCH_ARTICLE_STORE.search(userId, "Faster COMPILER", 0, 10,
+                false);
+        assertEquals(2, found.size());
+        assertEquals("Release notes", found.get(0).getTitle());
+        assertEquals("Rust compiler", found.get(1).getTitle());
+        assertEquals("The compiler got faster.", found.get(1).getBody());
+        found = SEARCH_ARTICLE_STORE.search(userId, "faster compiler", 1, 10, true);
+        assertEquals(1, found.size());
+        assertEquals("Rust compiler", found.get(0).getTitle());
+        assertNull(found.get(0).getBody());
+        assertEquals(3, SEARCH_ARTICLE_STORE.search(userId, "faster", 0, 10, false).size());
+
+        negative(() -> SEARCH_ARTICLE_STORE.search(userId, "...", 0, 10, false), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(400, ((AppException) throwable).getCode());
+        });
+        negative(() -> articleStore.search(userId, "faster", 0, 10, false), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(503, ((AppException) throwable).getCode());
+        });
+
+        // The index outlives the tables, a new store numbers its articles after the indexed ones
+        // and leaves out those it no longer has.
+        SEARCH_INDEX.shutdown();
+        SearchIndex searchIndex = new SearchIndex(SEARCH_CONFIG);
+        searchIndex.init();
+        long indexedUpTo = searchIndex.getIndexedUpTo();
+        assertTrue(indexedUpTo >= 4);
+        FeedDictionary feedDictionary = new FeedDictionary();
+        MemTables tables = new MemTables(feedDictionary);
+        MemArticleStore restarted = new MemArticleStore(tables, new TimelineVersions(),
+                searchIndex);
+        restarted.init();
+        new MemFeedStore(new Properties(), tables, feedDictionary).add("searched");
+        MemUserStore userStore = new MemUserStore(tables);
+        userStore.add("searchUser");
+        long restartedUserId = userStore.getId("searchUser").get(0).getId();
+        new MemSubscriptionStore(tables, new TimelineVersions())
+                .addSubscriptionById("searched", restartedUserId);
+        restarted.add(new Article("Linker news", "A faster compiler."), "searched");
+        found = restarted.search(restartedUserId, "faster compiler", 0, 10, false);
+        assertEquals(1, found.size());
+        assertEquals("Linker news", found.get(0).getTitle());
+        assertTrue(found.get(0).getId() > indexedUpTo);
+        searchIndex.shutdown();
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return subscriptionStore;
+    }
+
+    @Override
+    protected ArticleStore getArticleStore() {
+        return articleStore;
+    }
+}
@@ -0,0 +1,77 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.BeforeClass;
+
+import java.util.List;
+import java.util.Properties;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.entity.Feed;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link MemFeedStore}
+ */
+public class MemFeedStoreTest extends FeedStoreTest {
+    private static final Properties APP_CONFIG = new Properties() {
+        {
+            setProperty(Constants.DEFAULT_FEEDS, "test1, test2");
+        }
+    };
+
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final MemTables TABLES = new MemTables(FEED_DICTIONARY);
+    private static final MemFeedStore feedStore = new MemFeedStore(APP_CONFIG, TABLES,
+            FEED_DICTIONARY);
+    private static final MemUserStore USER_STORE = new MemUserStore(TABLES);
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
+    private static final MemSubscriptionStore SUBSCRIPTION_STORE =
+            new MemSubscriptionStore(TABLES, TIMELINE_VERSIONS);
+    private static final MemArticleStore ARTICLE_STORE = new MemArticleStore(TABLES,
+            TIMELINE_VERSIONS, new SearchIndex(new Properties()));
+    private static final MemReadStateStore READ_STATE_STORE = new MemReadStateStore(TABLES);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        feedStore.init();
+        List<Feed> feeds = feedStore.list();
+        assertEquals(2, feeds.size());
+        feedStore.delete("test1");
+        feedStore.delete("test2");
+        feeds = feedStore.list();
+        assertEquals(0, feeds.size());
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return feedStore;
+    }
+
+    @Override
+    protected FeedDictionary getFeedDictionary() {
+        return FEED_DICTIONARY;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
+    }
+
+    @Override
+    protected ArticleStore getArticleStore() {
+        return ARTICLE_STORE;
+    }
+
+    @Override
+    protected ReadStateStore getReadStateStore() {
+        return READ_STATE_STORE;
+    }
+}
@@ -0,0 +1,69 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import proj.karthik.feed.reader.entity.Article;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link MemReadStateStore}
+ */
+public class MemReadStateStoreTest extends ReadStateStoreTest {
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final MemTables TABLES = new MemTables(FEED_DICTIONARY);
+    private static final MemFeedStore FEED_STORE = new MemFeedStore(new Properties(), TABLES,
+            FEED_DICTIONARY);
+    private static final MemUserStore USER_STORE = new MemUserStore(TABLES);
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
+    private static final MemSubscriptionStore SUBSCRIPTION_STORE =
+            new MemSubscriptionStore(TABLES, TIMELINE_VERSIONS);
+    private static final MemArticleStore ARTICLE_STORE = new MemArticleStore(TABLES,
+            TIMELINE_VERSIONS, new SearchIndex(new Properties()));
+    private static final MemReadStateStore READ_STATE_STORE = new MemReadStateStore(TABLES);
+
+    @Test
+    public void testReadStateStats() throws Exception {
+        FEED_STORE.add("stats");
+        USER_STORE.add("stats");
+        long userId = USER_STORE.getId("stats").get(0).getId();
+        SUBSCRIPTION_STORE.addSubscriptionById("stats", userId);
+        ARTICLE_STORE.add(new Article("title", "body"), "stats");
+        long readStates = (long) READ_STATE_STORE.getStats().get("read_states");
+        READ_STATE_STORE.markFeedRead(userId, "stats");
+        assertEquals(readStates + 1, READ_STATE_STORE.getStats().get("read_states"));
+        // Reading the feed again keeps the one read state.
+        READ_STATE_STORE.markFeedRead(userId, "stats");
+        assertEquals(readStates + 1, READ_STATE_STORE.getStats().get("read_states"));
+        SUBSCRIPTION_STORE.deleteSubscriptionById("stats", userId);
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
+    }
+
+    @Override
+    protected ArticleStore getArticleStore() {
+        return ARTICLE_STORE;
+    }
+
+    @Override
+    protected ReadStateStore getReadStateStore() {
+        return READ_STATE_STORE;
+    }
+}
@@ -0,0 +1,33 @@
+package proj.karthik.feed.reader.store;
+
+import java.util.Properties;
+
+/**
+ * Unit test for {@link MemSubscriptionStore}
+ */
+public class MemSubscriptionStoreTest extends SubscriptionStoreTest {
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final MemTables TABLES = new MemTables(FEED_DICTIONARY);
+    private static final MemFeedStore FEED_STORE = new MemFeedStore(new Properties(), TABLES,
+            FEED_DICTIONARY);
+    private static final MemUserStore USER_STORE = new MemUserStore(TABLES);
+    private static final MemSubscriptionStore SUBSCRIPTION_STORE =
+            new MemSubscriptionStore(TABLES, new TimelineVersions());
+
+    //------------------------------------- private methods --------------------------------------//
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
+    }
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+}
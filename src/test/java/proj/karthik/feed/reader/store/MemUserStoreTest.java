@@ -0,0 +1,52 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.BeforeClass;
+
+import java.util.Properties;
+
+/**
+ * Unit test for {@link MemUserStore}
+ */
+public class MemUserStoreTest extends UserStoreTest {
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final MemTables TABLES = new MemTables(FEED_DICTIONARY);
+    private static final MemUserStore USER_STORE = new MemUserStore(TABLES);
+    private static final MemFeedStore FEED_STORE = new MemFeedStore(new Properties(), TABLES,
+            FEED_DICTIONARY);
+    private static final MemSubscriptionStore SUBSCRIPTION_STORE =
+            new MemSubscriptionStore(TABLES, new TimelineVersions());
+    private static final MemReadStateStore READ_STATE_STORE = new MemReadStateStore(TABLES);
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        USER_STORE.configureVersions(TIMELINE_VERSIONS);
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    @Override
+    protected UserStore getUserStore() {
+        return USER_STORE;
+    }
+
+    @Override
+    protected FeedStore getFeedStore() {
+        return FEED_STORE;
+    }
+
+    @Override
+    protected SubscriptionStore getSubscriptionStore() {
+        return SUBSCRIPTION_STORE;
+    }
+
+    @Override
+    protected ReadStateStore getReadStateStore() {
+        return READ_STATE_STORE;
+    }
+
+    @Override
+    protected TimelineVersions getTimelineVersions() {
+        return TIMELINE_VERSIONS;
+    }
+}
@@ -0,0 +1,99 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import static proj.karthik.feed.reader.TestUtil.assertCode;
+import static proj.karthik.feed.reader.TestUtil.getTimeline;
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link ReadStateStore}, run against each backend by its subclasses.
+ */
+public abstract class ReadStateStoreTest {
+
+    @Test
+    public void testUnreadCounts() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        ArticleStore articleStore = getArticleStore();
+        ReadStateStore readStateStore = getReadStateStore();
+        feedStore.add("unreadA");
+        feedStore.add("unreadB");
+        userStore.add("unread");
+        long userId = userStore.getId("unread").get(0).getId();
+        subscriptionStore.addSubscriptionById("unreadA", userId);
+        subscriptionStore.addSubscriptionById("unreadB", userId);
+        for (int i = 0; i < 5; i++) {
+            articleStore.add(new Article("a" + i, "body"), "unreadA");
+        }
+        articleStore.add(new Article("b0", "body"), "unreadB");
+        Map<String, Long> unread = readStateStore.getUnreadCounts(userId);
+        assertEquals(2, unread.size());
+        assertEquals(5L, (long) unread.get("unreadA"));
+        assertEquals(1L, (long) unread.get("unreadB"));
+
+        // Out of order reads, read twice, then the gap is filled.
+        Map<String, Long> ids = getTimeline(articleStore, userId).stream()
+                .collect(Collectors.toMap(Article::getTitle, Article::getId));
+        readStateStore.markArticleRead(userId, ids.get("a4"));
+        readStateStore.markArticleRead(userId, ids.get("a2"));
+        readStateStore.markArticleRead(userId, ids.get("a2"));
+        assertEquals(3L, (long) readStateStore.getUnreadCounts(userId).get("unreadA"));
+        readStateStore.markArticleRead(userId, ids.get("a0"));
+        readStateStore.markArticleRead(userId, ids.get("a1"));
+        assertEquals(1L, (long) readStateStore.getUnreadCounts(userId).get("unreadA"));
+
+        // New articles are counted without touching the read state.
+        articleStore.add(new Article("a5", "body"), "unreadA");
+        assertEquals(2L, (long) readStateStore.getUnreadCounts(userId).get("unreadA"));
+
+        readStateStore.markFeedRead(userId, "unreadA");
+        unread = readStateStore.getUnreadCounts(userId);
+        assertEquals(0L, (long) unread.get("unreadA"));
+        assertEquals(1L, (long) unread.get("unreadB"));
+
+        // Unsubscribed feeds are not counted.
+        subscriptionStore.deleteSubscriptionById("unreadB", userId);
+        assertFalse(readStateStore.getUnreadCounts(userId).containsKey("unreadB"));
+        subscriptionStore.deleteSubscriptionById("unreadA", userId);
+    }
+
+    @Test
+    public void testMarkMissing() throws Exception {
+        ReadStateStore readStateStore = getReadStateStore();
+        getUserStore().add("markMissing");
+        long userId = getUserStore().getId("markMissing").get(0).getId();
+        negative(() -> readStateStore.markArticleRead(userId, Long.MAX_VALUE),
+                throwable -> assertCode(404, throwable));
+        negative(() -> readStateStore.markFeedRead(userId, "noSuchFeed"),
+                throwable -> assertCode(404, throwable));
+        // Read state refers to a user as it does to a feed.
+        getFeedStore().add("markMissing");
+        negative(() -> readStateStore.markFeedRead(Long.MAX_VALUE, "markMissing"),
+                throwable -> assertCode(404, throwable));
+        negative(() -> readStateStore.markFeedRead(userId, null),
+                TestUtil::assertFeedNullErrorMsg);
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    protected abstract FeedStore getFeedStore();
+
+    protected abstract UserStore getUserStore();
+
+    protected abstract SubscriptionStore getSubscriptionStore();
+
+    protected abstract ArticleStore getArticleStore();
+
+    protected abstract ReadStateStore getReadStateStore();
+}
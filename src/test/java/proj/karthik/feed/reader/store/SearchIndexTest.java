@@ -0,0 +1,133 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import proj.karthik.feed.reader.Constants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link SearchIndex}
+ */
+public class SearchIndexTest {
+    private static final Set<String> FEEDS = new HashSet<>(Arrays.asList("a", "b"));
+
+    @Test
+    public void testTokenize() throws Exception {
+        List<String> terms = new ArrayList<>();
+        assertEquals(4, SearchIndex.tokenize("Hello, W\u00f6rld! 42-times", terms::add));
+        assertEquals(Arrays.asList("hello", "w\u00f6rld", "42", "times"), terms);
+        assertEquals(0, SearchIndex.tokenize(null, terms::add));
+    }
+
+    @Test
+    public void testMergeAndReload() throws Exception {
+        Path directory = newDirectory("mergeAndReload");
+        SearchIndex index = newIndex(directory);
+        index.init();
+        for (int i = 1; i <= 25; i++) {
+            index.add(i, i % 2 == 0 ? "a" : "b", "title " + i, i % 5 == 0 ? "fizz buzz" : "fizz");
+        }
+        // Writes and merges run in the background and finish on shutdown.
+        index.shutdown();
+        assertEquals(5L, index.getStats().get("flushes"));
+        assertEquals(1L, index.getStats().get("merges"));
+        // The merged segment replaced the first four, leaving the last one on its own.
+        assertEquals(2, listSegments(directory).size());
+
+        SearchIndex reloaded = newIndex(directory);
+        reloaded.init();
+        assertEquals(25, reloaded.getIndexedUpTo());
+        assertEquals(25L, reloaded.getStats().get("indexed_docs"));
+        assertEquals(Arrays.asList(25L, 20L, 15L, 10L, 5L),
+                reloaded.search("buzz fizz", FEEDS, 0, 10));
+        assertEquals(Arrays.asList(20L, 10L), reloaded.search("buzz fizz",
+                Collections.singleton("a"), 0, 10));
+        assertEquals(Arrays.asList(15L, 10L), reloaded.search("buzz", FEEDS, 2, 2));
+        assertEquals(Collections.singletonList(7L), reloaded.search("7", FEEDS, 0, 10));
+        // Already indexed articles are ignored, new ones go into the buffer.
+        reloaded.add(3, "a", "buzz", "buzz");
+        reloaded.add(26, "a", "buzz", "buzz");
+        assertEquals(26L, (long) reloaded.search("buzz", FEEDS, 0, 10).get(0));
+        assertEquals(6, reloaded.search("buzz", FEEDS, 0, 10).size());
+        reloaded.shutdown();
+    }
+
+    @Test
+    public void testLeftOverSegments() throws Exception {
+        Path directory = newDirectory("leftOverSegments");
+        SearchIndex index = newIndex(directory);
+        index.init();
+        for (int i = 1; i <= 20; i++) {
+            index.add(i, "a", "title", "body");
+        }
+        index.shutdown();
+        List<Path> segments = listSegments(directory);
+        assertEquals(1, segments.size());
+        assertEquals(1L, index.getStats().get("merges"));
+
+        // A crash after writing the merged segment but before deleting the merged ones leaves
+        // both behind, a crash in the middle of a write leaves a temporary file.
+        Path replaced = directory.resolve("index-0000000000.seg");
+        SearchSegment.of(0, Collections.singletonList("a"), new long[] {1}, new int[] {0},
+                new int[] {0}, Collections.emptyMap()).write(replaced);
+        Files.write(directory.resolve("index-0000000099.seg.tmp"), new byte[] {1, 2, 3});
+        SearchIndex reloaded = newIndex(directory);
+        reloaded.init();
+        assertEquals(20L, reloaded.getStats().get("indexed_docs"));
+        assertEquals(segments, listSegments(directory));
+        assertEquals(Collections.singletonList(segments.get(0)), listFiles(directory));
+        reloaded.shutdown();
+
+        // A damaged segment makes the index start over.
+        byte[] data = Files.readAllBytes(segments.get(0));
+        data[data.length / 2] ^= 0xFF;
+        Files.write(segments.get(0), data);
+        SearchIndex rebuilt = newIndex(directory);
+        rebuilt.init();
+        assertEquals(0, rebuilt.getIndexedUpTo());
+        assertTrue(listFiles(directory).isEmpty());
+        rebuilt.shutdown();
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private SearchIndex newIndex(final Path directory) {
+        Properties config = new Properties();
+        config.setProperty(Constants.SEARCH_INDEX, "true");
+        config.setProperty(Constants.SEARCH_INDEX_DIR, directory.toString());
+        config.setProperty(Constants.SEARCH_FLUSH_DOCS, "5");
+        config.setProperty(Constants.SEARCH_MERGE_FACTOR, "4");
+        return new SearchIndex(config);
+    }
+
+    private Path newDirectory(final String name) {
+        return Paths.get("target", "SearchIndexTest-" + name + "-" + System.nanoTime());
+    }
+
+    private List<Path> listSegments(final Path directory) throws Exception {
+        return listFiles(directory).stream()
+                .filter(file -> file.getFileName().toString().endsWith(".seg"))
+                .collect(Collectors.toList());
+    }
+
+    private List<Path> listFiles(final Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+
+import static org.junit.Assert.assertEquals;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link SegmentBlobStore}
+ */
+public class SegmentBlobStoreTest {
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        SegmentBlobStore blobStore = open(newDirectory("appendAndRead"), null);
+        List<BlobRef> refs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            refs.add(blobStore.append(bytes("body " + i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("body " + i, string(blobStore.read(refs.get(i))));
+        }
+        assertEquals(0, refs.get(9).getSegment());
+        blobStore.shutdown();
+    }
+
+    @Test
+    public void testSegmentRolling() throws Exception {
+        Path directory = newDirectory("segmentRolling");
+        SegmentBlobStore blobStore = open(directory, "64");
+        List<BlobRef> refs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            refs.add(blobStore.append(bytes(String.format("%040d", i))));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, refs.get(i).getSegment());
+            assertEquals(0, refs.get(i).getOffset());
+        }
+        blobStore.shutdown();
+
+        // Appends continue in the last segment after a restart.
+        blobStore = open(directory, "1024");
+        BlobRef ref = blobStore.append(bytes("after restart"));
+        assertEquals(4, ref.getSegment());
+        assertEquals(String.format("%040d", 0), string(blobStore.read(refs.get(0))));
+        assertEquals("after restart", string(blobStore.read(ref)));
+        blobStore.shutdown();
+    }
+
+    @Test
+    public void testOnlySealedSegmentsAreMapped() throws Exception {
+        SegmentBlobStore blobStore = open(newDirectory("sealedMapped"), "64");
+        BlobRef first = blobStore.append(bytes(String.format("%040d", 0)));
+        assertEquals(String.format("%040d", 0), string(blobStore.read(first)));
+        BlobRef second = blobStore.append(bytes("second"));
+        assertEquals("second", string(blobStore.read(second)));
+        assertEquals(0, blobStore.getStats().get("mapped_segments"));
+
+        // Reading a just appended blob does not map the growing segment again.
+        BlobRef third = blobStore.append(bytes(String.format("%040d", 3)));
+        assertEquals(String.format("%040d", 3), string(blobStore.read(third)));
+        assertEquals(String.format("%040d", 0), string(blobStore.read(first)));
+        assertEquals(String.format("%040d", 0), string(blobStore.read(first)));
+        assertEquals(1, blobStore.getStats().get("mapped_segments"));
+        blobStore.shutdown();
+    }
+
+    @Test
+    public void testSegmentBytesOutOfRange() throws Exception {
+        Path directory = newDirectory("segmentBytesOutOfRange");
+        for (String segmentBytes : new String[] {"0", String.valueOf(1L << 31)}) {
+            negative(() -> new SegmentBlobStore(config(directory, segmentBytes)), throwable -> {
+                assertEquals(AppException.class, throwable.getClass());
+                assertEquals(500, ((AppException) throwable).getCode());
+            });
+        }
+    }
+
+    @Test
+    public void testTornTailRecovery() throws Exception {
+        Path directory = newDirectory("tornTail");
+        SegmentBlobStore blobStore = open(directory, null);
+        BlobRef first = blobStore.append(bytes("first"));
+        BlobRef second = blobStore.append(bytes("second"));
+        blobStore.shutdown();
+
+        // A record header that promises more bytes than were written before the crash.
+        try (FileChannel channel = FileChannel.open(directory.resolve(
+                "segment-0000000000.log"), StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(12);
+            torn.putInt(100).putInt(42).putInt(7).flip();
+            channel.write(torn);
+        }
+
+        blobStore = open(directory, null);
+        assertEquals(12L, blobStore.getStats().get("recovered_bytes"));
+        assertEquals("first", string(blobStore.read(first)));
+        assertEquals("second", string(blobStore.read(second)));
+        BlobRef third = blobStore.append(bytes("third"));
+        assertEquals(second.getOffset() + 8 + second.getLength(), third.getOffset());
+        assertEquals("third", string(blobStore.read(third)));
+        blobStore.shutdown();
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        Path directory = newDirectory("checksumMismatch");
+        SegmentBlobStore blobStore = open(directory, null);
+        blobStore.append(bytes("intact"));
+        BlobRef ref = blobStore.append(bytes("corrupted"));
+        blobStore.shutdown();
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(
+                "segment-0000000000.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes("X")), ref.getOffset() + 8);
+        }
+
+        SegmentBlobStore reader = new SegmentBlobStore(config(directory, null));
+        negative(() -> reader.read(ref), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(500, ((AppException) throwable).getCode());
+        });
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private SegmentBlobStore open(final Path directory, final String segmentBytes) {
+        SegmentBlobStore blobStore = new SegmentBlobStore(config(directory, segmentBytes));
+        blobStore.init();
+        return blobStore;
+    }
+
+    private Properties config(final Path directory, final String segmentBytes) {
+        Properties config = new Properties();
+        config.setProperty(Constants.BODY_STORE, Constants.BODY_STORE_SEGMENT);
+        config.setProperty(Constants.FEED_DIR, directory.toString());
+        if (segmentBytes != null) {
+            config.setProperty(Constants.BLOB_SEGMENT_BYTES, segmentBytes);
+        }
+        return config;
+    }
+
+    private Path newDirectory(final String name) {
+        return Paths.get("target", "SegmentBlobStoreTest-" + name + "-" + System.nanoTime());
+    }
+
+    private byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String string(final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
@@ -0,0 +1,167 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link StripedLock}
+ */
+public class StripedLockTest {
+    private static final Logger LOG = LoggerFactory.getLogger(StripedLockTest.class);
+    private static final int KEYS = 1024;
+    private static final long RUN_MILLIS = 200;
+
+    @Test
+    public void testStripes() throws Exception {
+        StripedLock locks = new StripedLock(3);
+        assertEquals(4, locks.getStats().get("stripes"));
+        assertFalse(locks.isLockFree());
+        assertTrue(new StripedLock(0).isLockFree());
+
+        // A writer holding a key keeps out writers of the same key only.
+        String other = otherStripe(locks, "feed");
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> locks.write("feed", () -> {
+            holding.countDown();
+            await(release);
+        }));
+        holder.start();
+        holding.await();
+        AtomicBoolean parallel = new AtomicBoolean();
+        locks.write(other, () -> parallel.set(true));
+        assertTrue(parallel.get());
+        AtomicBoolean same = new AtomicBoolean();
+        Thread waiter = new Thread(() -> locks.write("feed", () -> same.set(true)));
+        waiter.start();
+        waiter.join(100);
+        assertFalse(same.get());
+        release.countDown();
+        waiter.join();
+        holder.join();
+        assertTrue(same.get());
+        assertEquals(1L, locks.getStats().get("contended"));
+
+        // Keys sharing a stripe lock it once, so several keys can be taken together.
+        AtomicInteger runs = new AtomicInteger();
+        locks.write(Arrays.asList("a", "b", "c", "d", "e", "a"), runs::incrementAndGet);
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * Mixed load of 80% reads and 20% writes over random keys, each holding its lock for a
+     * short critical section. Logs the throughput of a single global lock, striped locks and no
+     * locks for one thread and for more threads than cores.
+     */
+    @Test
+    public void testContention() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = Arrays.asList(1, Math.max(4, 2 * cores));
+        List<Integer> stripeCounts = Arrays.asList(1, DatabaseStoreService.DEFAULT_LOCK_STRIPES,
+                0);
+        LOG.info("Lock contention on {} cores, ops/s by threads {}", cores, threadCounts);
+        for (int stripes : stripeCounts) {
+            List<Long> throughputs = new ArrayList<>();
+            for (int threads : threadCounts) {
+                StripedLock locks = new StripedLock(stripes);
+                long[] values = new long[KEYS];
+                long ops = run(locks, values, threads);
+                assertTrue(ops > 0);
+                if (stripes > 0) {
+                    // Every operation took exactly one lock.
+                    assertEquals(locks.getStats().get("acquired"), ops);
+                }
+                throughputs.add(ops * 1000 / RUN_MILLIS);
+            }
+            LOG.info("stripes {}: {}", stripes == 0 ? "none" : stripes, throughputs);
+        }
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private long run(final StripedLock locks, final long[] values, final int threads)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        LongAdder writes = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                await(start);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int key = random.nextInt(KEYS);
+                    if (random.nextInt(5) == 0) {
+                        locks.write(key, () -> {
+                            values[key]++;
+                            work();
+                        });
+                        writes.increment();
+                    } else {
+                        locks.read(key, () -> values[key] + work());
+                    }
+                    ops.increment();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        TimeUnit.MILLISECONDS.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (!locks.isLockFree()) {
+            assertEquals(writes.sum(), Arrays.stream(values).sum());
+        }
+        return ops.sum();
+    }
+
+    /**
+     * Stands in for the statement run under the lock.
+     */
+    private static long work() {
+        long sum = 0;
+        for (int i = 0; i < 200; i++) {
+            sum += i * 31L ^ sum;
+        }
+        return sum;
+    }
+
+    private static String otherStripe(final StripedLock locks, final String key) {
+        for (int i = 0; ; i++) {
+            String other = key + i;
+            // Two keys are on different stripes if locking both takes two locks.
+            long before = (long) locks.getStats().get("acquired");
+            locks.read(Arrays.asList(key, other), () -> null);
+            if ((long) locks.getStats().get("acquired") - before == 2) {
+                return other;
+            }
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
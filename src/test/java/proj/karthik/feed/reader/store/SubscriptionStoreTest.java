@@ -0,0 +1,210 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Feed;
+import proj.karthik.feed.reader.entity.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.assertCode;
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link SubscriptionStore}, run against each backend by its subclasses.
+ */
+public abstract class SubscriptionStoreTest {
+    private static final String TEST = "test";
+    private static final String USER = "user";
+
+    @Test
+    public void testSubscriptionCrudOperations() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        feedStore.add(TEST);
+        userStore.add(USER);
+        List<User> users = userStore.getId(USER);
+        User user = users.get(0);
+
+        List<Feed> feedSubscriptions = subscriptionStore.getUserSubscriptionsByName(USER);
+        assertEquals(0, feedSubscriptions.size());
+
+        String version = subscriptionStore.getSubscriptionVersion(user.getId());
+        feedSubscriptions = subscribeByName(TEST, user);
+        assertEquals(1, feedSubscriptions.size());
+        assertNotEquals(version, subscriptionStore.getSubscriptionVersion(user.getId()));
+        feedSubscriptions = unsubscribeById(TEST, user);
+        assertEquals(0, feedSubscriptions.size());
+
+        feedSubscriptions = subscribeById(TEST, user);
+        assertEquals(1, feedSubscriptions.size());
+        List<Feed> streamed = new ArrayList<>();
+        assertEquals(1, subscriptionStore.streamUserSubscriptionsById(user.getId(),
+                streamed::add));
+        assertEquals(TEST, streamed.get(0).getName());
+        feedSubscriptions = unsubscribeByName(TEST, user);
+        assertEquals(0, feedSubscriptions.size());
+        assertEquals(0, subscriptionStore.getUserSubscriptionsByName("unknown").size());
+    }
+
+    @Test
+    public void testSubscribeMissing() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        feedStore.add("missing");
+        userStore.add("missingUser");
+        long userId = userStore.getId("missingUser").get(0).getId();
+        negative(() -> subscriptionStore.addSubscriptionById("noSuchFeed", userId),
+                throwable -> assertCode(404, throwable));
+        negative(() -> subscriptionStore.addSubscriptionByName("noSuchFeed", "missingUser"),
+                throwable -> assertCode(404, throwable));
+        negative(() -> subscriptionStore.addSubscriptionById("missing", Long.MAX_VALUE),
+                throwable -> assertCode(404, throwable));
+        // There is no user of the name to subscribe.
+        subscriptionStore.addSubscriptionByName("missing", "noSuchUser");
+        assertEquals(0, subscribers(subscriptionStore, "missing").size());
+    }
+
+    @Test
+    public void testDuplicateSubscription() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        feedStore.add("duplicate");
+        userStore.add("duplicate");
+        userStore.add("duplicate");
+        List<User> users = userStore.getId("duplicate");
+        subscriptionStore.addSubscriptionById("duplicate", users.get(1).getId());
+        negative(() -> subscriptionStore.addSubscriptionById("duplicate", users.get(1).getId()),
+                throwable -> assertCode(409, throwable));
+        // Either every user of the name is subscribed or none is.
+        negative(() -> subscriptionStore.addSubscriptionByName("duplicate", "duplicate"),
+                throwable -> assertCode(409, throwable));
+        assertEquals(0, subscriptionStore.getUserSubscriptionsById(users.get(0).getId())
+                .size());
+        subscriptionStore.deleteSubscriptionByName("duplicate", "duplicate");
+        subscriptionStore.addSubscriptionByName("duplicate", "duplicate");
+        assertEquals(2, subscribers(subscriptionStore, "duplicate").size());
+    }
+
+    @Test
+    public void testSubscribeByNameWithNullFeedName() throws Exception {
+        negative(() -> getSubscriptionStore().addSubscriptionByName(null, USER),
+                TestUtil::assertFeedNullErrorMsg);
+    }
+
+    @Test
+    public void testSubscribeByIdWithNullFeedName() throws Exception {
+        negative(() -> getSubscriptionStore().addSubscriptionById(null, -1L),
+                TestUtil::assertFeedNullErrorMsg);
+    }
+
+    @Test
+    public void testSubscribeWithNullUserName() throws Exception {
+        negative(() -> getSubscriptionStore().addSubscriptionByName(TEST, null),
+                TestUtil::assertUserNameNullErrorMsg);
+    }
+
+    @Test
+    public void testUnsubscribeByIdWithNullFeedName() throws Exception {
+        negative(() -> getSubscriptionStore().deleteSubscriptionById(null, -1L),
+                TestUtil::assertFeedNullErrorMsg);
+    }
+
+    @Test
+    public void testUnsubscribeWithNullUserName() throws Exception {
+        negative(() -> getSubscriptionStore().deleteSubscriptionByName(TEST, null),
+                TestUtil::assertUserNameNullErrorMsg);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSubscriptionGraph() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        String feed = "graph";
+        feedStore.add(feed);
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            userStore.add(feed + i);
+            long userId = userStore.getId(feed + i).get(0).getId();
+            subscriptionStore.addSubscriptionById(feed, userId);
+            userIds.add(userId);
+        }
+        subscriptionStore.deleteSubscriptionById(feed, userIds.get(1));
+        assertEquals(userIds.get(0), subscribers(subscriptionStore, feed).get(0));
+        assertEquals(2, subscribers(subscriptionStore, feed).size());
+        assertEquals(0, subscribers(subscriptionStore, "unknown").size());
+        Map<String, Object> stats = (Map<String, Object>) subscriptionStore.getStats()
+                .get("graph");
+        assertTrue((long) stats.get("subscriptions") >= 2);
+        Feed subscribed = subscriptionStore.getUserSubscriptionsById(userIds.get(2)).get(0);
+        assertEquals(feedStore.list().stream().filter(listed -> listed.getName().equals(feed))
+                .findFirst().get().getCreatedOn(), subscribed.getCreatedOn());
+    }
+
+    @Test
+    public void testFeedNames() throws Exception {
+        FeedStore feedStore = getFeedStore();
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        feedStore.add("namesB");
+        feedStore.add("namesA");
+        userStore.add("namesUser");
+        long userId = userStore.getId("namesUser").get(0).getId();
+        assertEquals(Collections.emptyList(), subscriptionStore.getFeedNames(userId));
+        subscriptionStore.addSubscriptionById("namesB", userId);
+        subscriptionStore.addSubscriptionById("namesA", userId);
+        assertEquals(Arrays.asList("namesA", "namesB"), subscriptionStore.getFeedNames(userId));
+        subscriptionStore.deleteSubscriptionById("namesB", userId);
+        assertEquals(Collections.singletonList("namesA"), subscriptionStore.getFeedNames(userId));
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    protected abstract SubscriptionStore getSubscriptionStore();
+
+    protected abstract FeedStore getFeedStore();
+
+    protected abstract UserStore getUserStore();
+
+    protected List<Long> subscribers(SubscriptionStore subscriptionStore, String feed) {
+        List<Long> subscribers = new ArrayList<>();
+        assertEquals(subscriptionStore.forEachSubscriber(feed, subscribers::add),
+                subscribers.size());
+        Collections.sort(subscribers);
+        return subscribers;
+    }
+
+    private List<Feed> subscribeById(String feed, User user) {
+        getSubscriptionStore().addSubscriptionById(feed, user.getId());
+        return getSubscriptionStore().getUserSubscriptionsById(user.getId());
+    }
+
+    private List<Feed> subscribeByName(String feed, User user) {
+        getSubscriptionStore().addSubscriptionByName(feed, user.getName());
+        return getSubscriptionStore().getUserSubscriptionsByName(user.getName());
+    }
+
+    private List<Feed> unsubscribeById(String feed, User user) {
+        getSubscriptionStore().deleteSubscriptionById(feed, user.getId());
+        return getSubscriptionStore().getUserSubscriptionsById(user.getId());
+    }
+
+    private List<Feed> unsubscribeByName(String feed, User user) {
+        getSubscriptionStore().deleteSubscriptionByName(feed, user.getName());
+        return getSubscriptionStore().getUserSubscriptionsByName(user.getName());
+    }
+}
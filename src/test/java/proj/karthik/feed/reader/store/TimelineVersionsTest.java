@@ -0,0 +1,64 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import proj.karthik.feed.reader.Constants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Unit test for {@link TimelineVersions}
+ */
+public class TimelineVersionsTest {
+
+    @Test
+    public void testVersions() throws Exception {
+        TimelineVersions versions = new TimelineVersions();
+        String subscriptionVersion = versions.getSubscriptionVersion(1L);
+        String timelineVersion = versions.getTimelineVersion(1L, userId -> Arrays.asList("a"));
+        assertEquals(subscriptionVersion, versions.getSubscriptionVersion(1L));
+        assertEquals(timelineVersion, versions.getTimelineVersion(1L, userId -> null));
+
+        // Articles of the subscribed feeds move the timeline only.
+        versions.articleAdded("b");
+        assertEquals(timelineVersion, versions.getTimelineVersion(1L, userId -> null));
+        versions.articleAdded("a");
+        assertNotEquals(timelineVersion, versions.getTimelineVersion(1L, userId -> null));
+        assertEquals(subscriptionVersion, versions.getSubscriptionVersion(1L));
+
+        // A subscription change loads the feeds again.
+        versions.subscriptionsChanged(1L);
+        assertNotEquals(subscriptionVersion, versions.getSubscriptionVersion(1L));
+        versions.getTimelineVersion(1L, userId -> Arrays.asList("a", "b"));
+        assertEquals(2L, versions.getStats().get("feed_loads"));
+    }
+
+    @Test
+    public void testBoundedUsers() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.TIMELINE_VERSION_USERS, "2");
+        TimelineVersions versions = new TimelineVersions();
+        versions.configureCapacity(config);
+        String first = versions.getSubscriptionVersion(1L);
+        versions.getSubscriptionVersion(2L);
+        // Reading the first user keeps it, the second is the least recently read.
+        assertEquals(first, versions.getSubscriptionVersion(1L));
+        for (long userId = 3; userId < 100; userId++) {
+            versions.getSubscriptionVersion(userId);
+        }
+        assertEquals(2, versions.getStats().get("versioned_users"));
+        assertEquals(97L, versions.getStats().get("user_evictions"));
+
+        // A user read again after it was dropped never gets a version handed out before.
+        String second = versions.getSubscriptionVersion(2L);
+        assertNotEquals(first, versions.getSubscriptionVersion(1L));
+        assertNotEquals(second, versions.getSubscriptionVersion(3L));
+        String deleted = versions.getSubscriptionVersion(4L);
+        versions.userDeleted(4L);
+        assertNotEquals(deleted, versions.getSubscriptionVersion(4L));
+    }
+}
@@ -0,0 +1,146 @@
+package proj.karthik.feed.reader.store;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.assertCode;
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link UserStore}, run against each backend by its subclasses.
+ */
+public abstract class UserStoreTest {
+    private static final String TEST = "test";
+
+    @Test
+    public void testAddDeleteUserByName() throws Exception {
+        UserStore userStore = getUserStore();
+        userStore.add(TEST);
+        List<User> users = userStore.getId(TEST);
+        assertEquals(1, users.size());
+        assertEquals(TEST, users.get(0).getName());
+        userStore.delete(TEST);
+        users = userStore.getId(TEST);
+        assertEquals(0, users.size());
+    }
+
+    @Test
+    public void testAddDeleteUserById() throws Exception {
+        UserStore userStore = getUserStore();
+        userStore.add(TEST);
+        List<User> users = userStore.getId(TEST);
+        assertEquals(1, users.size());
+        assertEquals(TEST, users.get(0).getName());
+        userStore.delete(users.get(0).getId());
+        users = userStore.getId(TEST);
+        assertEquals(0, users.size());
+    }
+
+    @Test
+    public void testNonUniqueUserNames() throws Exception {
+        UserStore userStore = getUserStore();
+        int userCount = 10;
+        for (int i = 0; i < userCount; i++) {
+            userStore.add(TEST);
+        }
+
+        List<User> users = userStore.getId(TEST);
+        assertEquals(10, users.size());
+        for (int i = 1; i < users.size(); i++) {
+            assertTrue(users.get(i).getId() > users.get(i - 1).getId());
+        }
+
+        AtomicInteger currentCount = new AtomicInteger(10);
+        users.stream().forEach(user -> {
+            userStore.delete(user.getId());
+            List<User> currentUsers = userStore.getId(TEST);
+            assertEquals(currentUsers.size(), currentCount.decrementAndGet());
+        });
+    }
+
+    @Test
+    public void testNonExistentUser() throws Exception {
+        UserStore userStore = getUserStore();
+        List<User> users = userStore.getId(TEST);
+        assertEquals(0, users.size());
+
+        userStore.delete(TEST);
+        userStore.delete(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testDeleteReferencedUser() throws Exception {
+        UserStore userStore = getUserStore();
+        SubscriptionStore subscriptionStore = getSubscriptionStore();
+        getFeedStore().add("referenced");
+        userStore.add("referenced");
+        userStore.add("referenced");
+        List<User> users = userStore.getId("referenced");
+        long userId = users.get(1).getId();
+        subscriptionStore.addSubscriptionById("referenced", userId);
+        negative(() -> userStore.delete(userId), throwable -> assertCode(409, throwable));
+        // By name either every user of the name goes or none does.
+        negative(() -> userStore.delete("referenced"), throwable -> assertCode(409, throwable));
+        assertEquals(2, userStore.getId("referenced").size());
+
+        getReadStateStore().markFeedRead(userId, "referenced");
+        subscriptionStore.deleteSubscriptionById("referenced", userId);
+        negative(() -> userStore.delete(userId), throwable -> assertCode(409, throwable));
+        userStore.delete(users.get(0).getId());
+        assertEquals(1, userStore.getId("referenced").size());
+    }
+
+    @Test
+    public void testDeleteDropsTimelineVersion() throws Exception {
+        UserStore userStore = getUserStore();
+        TimelineVersions timelineVersions = getTimelineVersions();
+        userStore.add("versioned");
+        long userId = userStore.getId("versioned").get(0).getId();
+        String version = timelineVersions.getSubscriptionVersion(userId);
+        assertEquals(version, timelineVersions.getSubscriptionVersion(userId));
+        userStore.delete("versioned");
+        assertNotEquals(version, timelineVersions.getSubscriptionVersion(userId));
+
+        userStore.add("versioned");
+        long addedId = userStore.getId("versioned").get(0).getId();
+        version = timelineVersions.getSubscriptionVersion(addedId);
+        userStore.delete(addedId);
+        assertNotEquals(version, timelineVersions.getSubscriptionVersion(addedId));
+    }
+
+    @Test
+    public void testAddNullUser() throws Exception {
+        negative(() -> getUserStore().add(null), TestUtil::assertUserNameNullErrorMsg);
+    }
+
+    @Test
+    public void testDeleteNullUser() throws Exception {
+        negative(() -> getUserStore().delete(null), TestUtil::assertUserNameNullErrorMsg);
+    }
+
+    @Test
+    public void testGetIdForNullUser() throws Exception {
+        negative(() -> getUserStore().getId(null), TestUtil::assertUserNameNullErrorMsg);
+    }
+
+    //------------------------------------- private methods --------------------------------------//
+
+    protected abstract UserStore getUserStore();
+
+    protected abstract FeedStore getFeedStore();
+
+    protected abstract SubscriptionStore getSubscriptionStore();
+
+    protected abstract ReadStateStore getReadStateStore();
+
+    protected abstract TimelineVersions getTimelineVersions();
+}
@@ -0,0 +1,169 @@
+package proj.karthik.feed.reader.web;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.NegativeTest;
+import spark.Request;
+import spark.Response;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.Constants.ID;
+import static proj.karthik.feed.reader.Constants.NAME;
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link AdmissionControl}
+ */
+public class AdmissionControlTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        // Starts full, then refills one token every 100ms.
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(100 * MILLI, bucket.tryAcquire(0));
+        assertEquals(40 * MILLI, bucket.tryAcquire(60 * MILLI));
+        assertEquals(0, bucket.tryAcquire(100 * MILLI));
+        // Idle time does not fill it beyond its capacity.
+        assertEquals(0, bucket.tryAcquire(10000 * MILLI));
+        assertEquals(0, bucket.tryAcquire(10000 * MILLI));
+        assertTrue(bucket.tryAcquire(10000 * MILLI) > 0);
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 20, 100 * MILLI);
+        acquire(limit, 20);
+        assertFalse(limit.tryAcquire());
+        assertEquals(20, limit.getInFlight());
+        // A window of fast requests that reached the limit does not raise it beyond the maximum.
+        release(limit, 20, MILLI);
+        assertEquals(20, limit.getLimit());
+        // A window of slow requests cuts the limit by a tenth.
+        acquire(limit, 20);
+        release(limit, 20, 200 * MILLI);
+        assertEquals(18, limit.getLimit());
+        // A few slow requests in a window are tolerated, and the limit was not reached.
+        acquire(limit, 9);
+        release(limit, 1, 200 * MILLI);
+        release(limit, 8, MILLI);
+        acquire(limit, 9);
+        release(limit, 9, MILLI);
+        assertEquals(18, limit.getLimit());
+        // Fast requests that reach the limit raise it by one.
+        acquire(limit, 18);
+        release(limit, 18, MILLI);
+        assertEquals(19, limit.getLimit());
+        // It never goes below the minimum.
+        for (int i = 0; i < 100; i++) {
+            acquire(limit, limit.getLimit());
+            release(limit, limit.getLimit(), 200 * MILLI);
+        }
+        assertEquals(2, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void testAdmit() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.ADMISSION_CONTROL, "true");
+        config.setProperty(Constants.ADMISSION_USER_RATE, "1");
+        config.setProperty(Constants.ADMISSION_USER_BURST, "1");
+        config.setProperty(Constants.ADMISSION_BULK_RATE, "1");
+        config.setProperty(Constants.ADMISSION_MIN_CONCURRENCY, "1");
+        config.setProperty(Constants.ADMISSION_MAX_CONCURRENCY, "2");
+        AdmissionControl admissionControl = new AdmissionControl(config);
+        assertTrue(admissionControl.isEnabled());
+        Response response = createMock(Response.class);
+        replay(response);
+
+        Request first = request("GET", "/api/1/articles", null, "first");
+        admissionControl.admit(first, response);
+        assertRejected(() -> admissionControl.admit(request("GET", "/api/1/articles", null,
+                "first"), response), 429, "Too many requests for name first");
+        // Another user, or the same user by id, has a bucket of their own.
+        Request second = request("POST", "/api/1/articles/bulk", "1", "first");
+        admissionControl.admit(second, response);
+        assertRejected(() -> admissionControl.admit(request("POST", "/api/1/articles/bulk",
+                null, null), response), 429, "Too many bulk requests");
+        // Two requests are in flight, the limit of this server.
+        assertRejected(() -> admissionControl.admit(request("POST", "/api/1/feeds", null,
+                null), response), 503, "Server is overloaded, 2 requests in flight");
+        Request stats = request("GET", "/api/1/stats", null, null);
+        admissionControl.admit(stats, response);
+        admissionControl.complete(stats, response);
+
+        admissionControl.complete(first, response);
+        Request third = request("POST", "/api/1/feeds", null, null);
+        admissionControl.admit(third, response);
+        admissionControl.complete(second, response);
+        admissionControl.complete(third, response);
+        Map<String, Object> adminStats = admissionControl.getStats();
+        assertEquals(0, adminStats.get("in_flight"));
+        assertEquals(3L, adminStats.get("admitted"));
+        assertEquals(1L, adminStats.get("rejected_user"));
+        assertEquals(1L, adminStats.get("rejected_route"));
+        assertEquals(1L, adminStats.get("rejected_overload"));
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private void acquire(final ConcurrencyLimit limit, final int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+    }
+
+    private void release(final ConcurrencyLimit limit, final int count, final long latency) {
+        for (int i = 0; i < count; i++) {
+            limit.release(latency);
+        }
+    }
+
+    private Request request(final String method, final String path, final String id,
+            final String name) {
+        Map<String, Object> attributes = new HashMap<>();
+        Request request = createNiceMock(Request.class);
+        expect(request.requestMethod()).andStubReturn(method);
+        expect(request.pathInfo()).andStubReturn(path);
+        expect(request.queryParams(ID)).andStubReturn(id);
+        expect(request.queryParams(NAME)).andStubReturn(name);
+        request.attribute(anyString(), anyObject());
+        expectLastCall().andStubAnswer(() -> attributes.put((String) getCurrentArguments()[0],
+                getCurrentArguments()[1]));
+        expect(request.attribute(anyString())).andStubAnswer(() -> attributes.get(
+                (String) getCurrentArguments()[0]));
+        replay(request);
+        return request;
+    }
+
+    private void assertRejected(final NegativeTest negativeTest,
+            final int code, final String message) {
+        negative(negativeTest, throwable -> {
+            assertEquals(RejectedException.class, throwable.getClass());
+            RejectedException rejected = (RejectedException) throwable;
+            assertEquals(code, rejected.getCode());
+            assertEquals(message, rejected.getMessage());
+            assertTrue(rejected.getRetryAfterSeconds() >= 1);
+        });
+    }
+}
@@ -0,0 +1,332 @@
+package proj.karthik.feed.reader.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
+import proj.karthik.feed.reader.store.ArticleWriteQueue;
+import proj.karthik.feed.reader.store.BodyCodec;
+import proj.karthik.feed.reader.store.DbArticleStore;
+import proj.karthik.feed.reader.store.DbFeedStore;
+import proj.karthik.feed.reader.store.DbReadStateStore;
+import proj.karthik.feed.reader.store.DbSubscriptionStore;
+import proj.karthik.feed.reader.store.DbUserStore;
+import proj.karthik.feed.reader.store.FeedDictionary;
+import proj.karthik.feed.reader.store.RecentArticleCache;
+import proj.karthik.feed.reader.store.SearchIndex;
+import proj.karthik.feed.reader.store.SegmentBlobStore;
+import proj.karthik.feed.reader.store.SubscriptionGraph;
+import proj.karthik.feed.reader.store.TimelineEngine;
+import proj.karthik.feed.reader.store.TimelineVersions;
+import spark.Spark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency of timeline reads on their own and while bulk uploads run, with execution lanes, or
+ * without them when run with {@code -Dexecution_lanes=false}. The clients run in the same
+ * process as the server. It takes a while and is not part of the regular build, run it with
+ * {@code mvn test -Dtest=ExecutionLanesBenchmark}.
+ */
+public class ExecutionLanesBenchmark {
+    private static final int READERS = 50;
+    private static final int UPLOADERS = 4;
+    private static final int ARTICLES_PER_UPLOAD = 2000;
+    private static final int USERS = 500;
+    private static final int FEEDS = 20;
+    private static final int SUBSCRIPTIONS_PER_USER = 3;
+    private static final int ARTICLES_PER_FEED = 50;
+    private static final int POOL_SIZE = 10;
+    private static final int BULK_POOL_SIZE = 2;
+    private static final long WARMUP_MILLIS = 5000;
+    private static final long RUN_MILLIS = 10000;
+
+    @Test
+    public void benchmark() throws Exception {
+        // Logging every request at debug level would be most of what is measured.
+        Logger.getRootLogger().setLevel(Level.INFO);
+        System.setProperty("http.maxConnections", String.valueOf(READERS + UPLOADERS));
+        Properties config = new Properties();
+        config.setProperty(Constants.EXECUTION_LANES,
+                System.getProperty(Constants.EXECUTION_LANES, "true"));
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        config.setProperty(Constants.PORT, String.valueOf(port));
+        String name = ExecutionLanesBenchmark.class.getName();
+        DataSource dataSource = TestUtil.getTestDataSource(name, POOL_SIZE, 30000);
+        SQLUtils sqlUtils = new SQLUtils(dataSource);
+        ExecutionLanes lanes = new ExecutionLanes(config, false);
+        if (lanes.isEnabled()) {
+            // Same database, pools of their own.
+            sqlUtils.configureLanes(TestUtil.getTestDataSource(name, POOL_SIZE, 30000),
+                    TestUtil.getTestDataSource(name, BULK_POOL_SIZE, 30000));
+        }
+        RouteManager routeManager = createRouteManager(config, dataSource, sqlUtils, lanes);
+        routeManager.initRoutes(config);
+        Spark.awaitInitialization();
+        try {
+            run(port, WARMUP_MILLIS, 0);
+            Result alone = run(port, RUN_MILLIS, 0);
+            Result ingest = run(port, RUN_MILLIS, UPLOADERS);
+            System.out.printf("%nExecution lanes %s, %d readers:%n",
+                    lanes.isEnabled() ? "on" : "off", READERS);
+            print("reads alone", alone);
+            print(String.format("reads during %d bulk uploaders (%d articles added)", UPLOADERS,
+                    ingest.articles), ingest);
+            assertTrue(alone.latencies.length > 0 && ingest.latencies.length > 0);
+            assertEquals(0, alone.errors + ingest.errors);
+        } finally {
+            Spark.stop();
+        }
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private RouteManager createRouteManager(final Properties config,
+            final DataSource dataSource, final SQLUtils sqlUtils, final ExecutionLanes lanes) {
+        FeedDictionary feedDictionary = new FeedDictionary();
+        SubscriptionGraph subscriptionGraph = new SubscriptionGraph();
+        DbFeedStore feedStore = new DbFeedStore(new Properties(), sqlUtils, feedDictionary);
+        DbUserStore userStore = new DbUserStore(sqlUtils);
+        TimelineEngine timelineEngine = new TimelineEngine(new Properties(), sqlUtils,
+                feedDictionary, subscriptionGraph);
+        RecentArticleCache recentArticleCache = new RecentArticleCache(new Properties());
+        TimelineVersions timelineVersions = new TimelineVersions();
+        SegmentBlobStore blobStore = new SegmentBlobStore(new Properties());
+        DbSubscriptionStore subscriptionStore = new DbSubscriptionStore(sqlUtils, userStore,
+                timelineEngine, timelineVersions, feedDictionary, subscriptionGraph);
+        DbArticleStore articleStore = new DbArticleStore(sqlUtils,
+                subscriptionStore, timelineEngine, recentArticleCache, blobStore,
+                new BodyCodec(new Properties()), timelineVersions,
+                new SearchIndex(new Properties()), feedDictionary);
+        DbReadStateStore readStateStore = new DbReadStateStore(sqlUtils, feedDictionary);
+        feedStore.init();
+        userStore.init();
+        subscriptionStore.init();
+        blobStore.init();
+        articleStore.init();
+        readStateStore.init();
+        timelineEngine.init();
+        new SchemaMigrator(sqlUtils).migrate();
+        for (int feed = 0; feed < FEEDS; feed++) {
+            feedStore.add("feed" + feed);
+            for (int article = 0; article < ARTICLES_PER_FEED; article++) {
+                articleStore.add(new Article("title" + article, "body" + article),
+                        "feed" + feed);
+            }
+        }
+        for (int user = 0; user < USERS; user++) {
+            userStore.add("user" + user);
+            for (int subscription = 0; subscription < SUBSCRIPTIONS_PER_USER; subscription++) {
+                subscriptionStore.addSubscriptionByName("feed" + ((user + subscription) % FEEDS),
+                        "user" + user);
+            }
+        }
+        WorkerPool workerPool = new WorkerPool(config);
+        workerPool.configureDataSource(dataSource);
+        RouteManager routeManager = new RouteManager(config, new ObjectMapper(), articleStore,
+                feedStore, subscriptionStore, userStore, readStateStore,
+                new ArticleWriteQueue(new Properties(), articleStore), workerPool,
+                new AdmissionControl(config), lanes);
+        routeManager.configureSqlStats(sqlUtils);
+        return routeManager;
+    }
+
+    /**
+     * Has every reader read timeline pages for the given time, while the given number of
+     * uploaders add articles, and returns the latencies of the reads.
+     */
+    private Result run(final int port, final long millis, final int uploaders)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        List<Uploader> uploaderThreads = new ArrayList<>();
+        for (int i = 0; i < uploaders; i++) {
+            Uploader uploader = new Uploader(port, i, end);
+            uploader.setDaemon(true);
+            uploader.start();
+            uploaderThreads.add(uploader);
+        }
+        List<Reader> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Reader reader = new Reader(port, i % USERS, end);
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+        int total = 0;
+        long errors = 0;
+        for (Reader reader : readers) {
+            reader.join();
+            total += reader.count;
+            errors += reader.errors;
+        }
+        long articles = 0;
+        for (Uploader uploader : uploaderThreads) {
+            uploader.join();
+            articles += uploader.articles;
+            errors += uploader.errors;
+        }
+        long[] latencies = new long[total];
+        int next = 0;
+        for (Reader reader : readers) {
+            System.arraycopy(reader.latencies, 0, latencies, next, reader.count);
+            next += reader.count;
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, articles, errors);
+    }
+
+    private static void print(final String phase, final Result result) {
+        System.out.printf("  %s: %.0f requests/s, p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms%n",
+                phase, result.latencies.length * 1000.0 / RUN_MILLIS, result.percentile(50),
+                result.percentile(99), result.percentile(99.9));
+    }
+
+    /**
+     * Reads the response fully so that the connection is kept for the next request.
+     */
+    private static boolean drain(final HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream()
+                : connection.getErrorStream()) {
+            byte[] buffer = new byte[8192];
+            while (body != null && body.read(buffer) >= 0) {
+                // drained
+            }
+        }
+        return status == 200;
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Connection that reads the timeline of one user over and over.
+     */
+    private static class Reader extends Thread {
+        private final int port;
+        private final int user;
+        private final long end;
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        private Reader(final int port, final int user, final long end) {
+            this.port = port;
+            this.user = user;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try {
+                URL url = new URL("http://localhost:" + port + "/api/1/articles?name=user" +
+                        user + "&limit=20&headlines=true");
+                while (System.currentTimeMillis() < end) {
+                    long start = System.nanoTime();
+                    if (!drain((HttpURLConnection) url.openConnection())) {
+                        errors++;
+                        continue;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+            } catch (IOException e) {
+                errors++;
+            }
+        }
+    }
+
+    /**
+     * Connection that uploads articles to one feed in bulk over and over.
+     */
+    private static class Uploader extends Thread {
+        private final int port;
+        private final int feed;
+        private final long end;
+        private long articles;
+        private long errors;
+
+        private Uploader(final int port, final int feed, final long end) {
+            this.port = port;
+            this.feed = feed;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < ARTICLES_PER_UPLOAD; i++) {
+                lines.append("{\"title\":\"bulk").append(i).append("\",\"body\":\"body")
+                        .append(i).append("\"}\n");
+            }
+            byte[] body = lines.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                URL url = new URL("http://localhost:" + port + "/api/1/articles/bulk?feed=feed" +
+                        feed);
+                while (System.currentTimeMillis() < end) {
+                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                    connection.setRequestMethod("POST");
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(body.length);
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+                    if (drain(connection)) {
+                        articles += ARTICLES_PER_UPLOAD;
+                    } else {
+                        errors++;
+                    }
+                }
+            } catch (IOException e) {
+                errors++;
+            }
+        }
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final long articles;
+        private final long errors;
+
+        private Result(final long[] latencies, final long articles, final long errors) {
+            this.latencies = latencies;
+            this.articles = articles;
+            this.errors = errors;
+        }
+
+        private double percentile(final double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(latencies.length - 1,
+                    Math.ceil(percentile / 100 * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package proj.karthik.feed.reader.web;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.sql.Lane;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link ExecutionLanes}
+ */
+public class ExecutionLanesTest {
+
+    @Test
+    public void testRun() throws Exception {
+        ExecutionLanes lanes = new ExecutionLanes(newConfig(), false);
+        assertTrue(lanes.isEnabled());
+        assertEquals("lane-read-1 READ", lanes.run(Lane.READ,
+                () -> Thread.currentThread().getName() + " " + Lane.current()));
+        assertEquals(Lane.BULK, lanes.run(Lane.BULK, Lane::current));
+        // A lane thread runs tasks of other lanes itself.
+        assertEquals(Lane.WRITE, lanes.run(Lane.WRITE, () -> lanes.run(Lane.READ,
+                Lane::current)));
+        assertNull(Lane.current());
+        // Exceptions of the task are thrown as they are.
+        negative(() -> lanes.run(Lane.WRITE, () -> {
+            throw new AppException(404, "Missing");
+        }), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(404, ((AppException) throwable).getCode());
+        });
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        // Lanes are off unless configured.
+        ExecutionLanes lanes = new ExecutionLanes(new Properties(), false);
+        assertFalse(lanes.isEnabled());
+        assertEquals(Thread.currentThread().getName(), lanes.run(Lane.READ,
+                () -> Thread.currentThread().getName()));
+        assertEquals(1, lanes.getStats().size());
+    }
+
+    @Test
+    public void testFullLane() throws Exception {
+        Properties config = newConfig();
+        config.setProperty(String.format(Constants.LANE_THREADS, "bulk"), "1");
+        config.setProperty(Constants.LANE_QUEUE_CAPACITY, "1");
+        ExecutionLanes lanes = new ExecutionLanes(config, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread running = runInBackground(lanes, () -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread queued = runInBackground(lanes, () -> null);
+        while (((Map<?, ?>) lanes.getStats().get("bulk")).get("queued").equals(0)) {
+            Thread.sleep(1);
+        }
+        negative(() -> lanes.run(Lane.BULK, () -> null), throwable -> {
+            assertEquals(RejectedException.class, throwable.getClass());
+            assertEquals(503, ((RejectedException) throwable).getCode());
+        });
+        // Other lanes are not held up by the full one.
+        assertEquals(Lane.READ, lanes.run(Lane.READ, Lane::current));
+        release.countDown();
+        running.join();
+        queued.join();
+        assertEquals(1L, ((Map<?, ?>) lanes.getStats().get("bulk")).get("rejected"));
+    }
+
+    @Test
+    public void testPermits() throws Exception {
+        Properties config = newConfig();
+        config.setProperty(String.format(Constants.LANE_THREADS, "bulk"), "1");
+        config.setProperty(Constants.LANE_QUEUE_CAPACITY, "1");
+        ExecutionLanes lanes = new ExecutionLanes(config, true);
+        // Lane work runs on the calling thread.
+        assertEquals(Thread.currentThread().getName() + " READ", lanes.run(Lane.READ,
+                () -> Thread.currentThread().getName() + " " + Lane.current()));
+        assertNull(Lane.current());
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread running = runInBackground(lanes, () -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread waiting = runInBackground(lanes, () -> null);
+        while (((Map<?, ?>) lanes.getStats().get("bulk")).get("waiting").equals(0)) {
+            Thread.sleep(1);
+        }
+        negative(() -> lanes.run(Lane.BULK, () -> null), throwable -> {
+            assertEquals(RejectedException.class, throwable.getClass());
+            assertEquals(503, ((RejectedException) throwable).getCode());
+        });
+        // Other lanes have permits of their own.
+        assertEquals(Lane.READ, lanes.run(Lane.READ, Lane::current));
+        release.countDown();
+        running.join();
+        waiting.join();
+        Map<?, ?> bulkStats = (Map<?, ?>) lanes.getStats().get("bulk");
+        assertEquals(1, bulkStats.get("available"));
+        assertEquals(1L, bulkStats.get("rejected"));
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private Properties newConfig() {
+        Properties config = new Properties();
+        config.setProperty(Constants.EXECUTION_LANES, "true");
+        return config;
+    }
+
+    private Thread runInBackground(final ExecutionLanes lanes, final Callable<?> task) {
+        Thread thread = new Thread(() -> {
+            try {
+                lanes.run(Lane.BULK, task);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
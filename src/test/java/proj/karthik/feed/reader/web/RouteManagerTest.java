@@ -1,42 +1,86 @@
 package proj.karthik.feed.reader.web;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.easymock.Capture;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.sql.DataSource;
 
+import proj.karthik.feed.reader.AppException;
+import proj.karthik.feed.reader.Constants;
 import proj.karthik.feed.reader.TestUtil;
 import proj.karthik.feed.reader.entity.Article;
 import proj.karthik.feed.reader.entity.Feed;
 import proj.karthik.feed.reader.entity.User;
 import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
+import proj.karthik.feed.reader.store.ArticleWriteQueue;
+import proj.karthik.feed.reader.store.BodyCodec;
 import proj.karthik.feed.reader.store.DbArticleStore;
 import proj.karthik.feed.reader.store.DbFeedStore;
+import proj.karthik.feed.reader.store.DbReadStateStore;
 import proj.karthik.feed.reader.store.DbSubscriptionStore;
 import proj.karthik.feed.reader.store.DbSubscriptionStoreTest;
 import proj.karthik.feed.reader.store.DbUserStore;
+import proj.karthik.feed.reader.store.FeedDictionary;
+import proj.karthik.feed.reader.store.RecentArticleCache;
+import proj.karthik.feed.reader.store.SearchIndex;
+import proj.karthik.feed.reader.store.SegmentBlobStore;
+import proj.karthik.feed.reader.store.SubscriptionGraph;
+import proj.karthik.feed.reader.store.TimelineEngine;
+import proj.karthik.feed.reader.store.TimelineVersions;
 import spark.Request;
 import spark.Response;
 
+import static org.easymock.EasyMock.anyString;
 import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
+import static proj.karthik.feed.reader.Constants.AFTER;
 import static proj.karthik.feed.reader.Constants.BODY;
+import static proj.karthik.feed.reader.Constants.DURABLE;
+import static proj.karthik.feed.reader.Constants.FEED;
+import static proj.karthik.feed.reader.Constants.HEADER_ETAG;
+import static proj.karthik.feed.reader.Constants.HEADER_IF_NONE_MATCH;
+import static proj.karthik.feed.reader.Constants.HEADER_RETRY_AFTER;
+import static proj.karthik.feed.reader.Constants.HEADER_NEXT_CURSOR;
+import static proj.karthik.feed.reader.Constants.HEADER_SYNC_GAP;
+import static proj.karthik.feed.reader.Constants.HEADER_SYNC_TOKEN;
+import static proj.karthik.feed.reader.Constants.HEADLINES;
 import static proj.karthik.feed.reader.Constants.ID;
+import static proj.karthik.feed.reader.Constants.LIMIT;
 import static proj.karthik.feed.reader.Constants.NAME;
+import static proj.karthik.feed.reader.Constants.OFFSET;
+import static proj.karthik.feed.reader.Constants.QUERY;
+import static proj.karthik.feed.reader.Constants.SINCE;
 import static proj.karthik.feed.reader.Constants.TITLE;
+import static proj.karthik.feed.reader.TestUtil.getTimeline;
 import static proj.karthik.feed.reader.TestUtil.negative;
 
 /**
@@ -47,23 +91,64 @@ public class RouteManagerTest {
     private static final DataSource DATA_SOURCE = TestUtil.getTestDataSource(
             DbSubscriptionStoreTest.class.getName());
     private static final SQLUtils SQL_UTILS = new SQLUtils(DATA_SOURCE);
-    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS);
+    private static final FeedDictionary FEED_DICTIONARY = new FeedDictionary();
+    private static final SubscriptionGraph SUBSCRIPTION_GRAPH = new SubscriptionGraph();
+    private static final DbFeedStore FEED_STORE = new DbFeedStore(new Properties(), SQL_UTILS,
+            FEED_DICTIONARY);
     private static final DbUserStore USER_STORE = new DbUserStore(SQL_UTILS);
-    private static final DbArticleStore ARTICLE_STORE = new DbArticleStore(SQL_UTILS, USER_STORE);
+    private static final TimelineEngine TIMELINE_ENGINE =
+            new TimelineEngine(new Properties(), SQL_UTILS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final RecentArticleCache RECENT_ARTICLE_CACHE =
+            new RecentArticleCache(new Properties());
+    private static final SegmentBlobStore BLOB_STORE =
+            new SegmentBlobStore(new Properties());
+    private static final BodyCodec BODY_CODEC = new BodyCodec(new Properties());
+    private static final TimelineVersions TIMELINE_VERSIONS = new TimelineVersions();
     private static final DbSubscriptionStore SUBSCRIPTION_STORE =
-            new DbSubscriptionStore(SQL_UTILS, USER_STORE);
-    private static final RouteManager ROUTE_MANAGER = new RouteManager(OBJECT_MAPPER, ARTICLE_STORE,
-            FEED_STORE, SUBSCRIPTION_STORE, USER_STORE);
+            new DbSubscriptionStore(SQL_UTILS, USER_STORE, TIMELINE_ENGINE,
+                    TIMELINE_VERSIONS, FEED_DICTIONARY, SUBSCRIPTION_GRAPH);
+    private static final DbArticleStore ARTICLE_STORE =
+            new DbArticleStore(SQL_UTILS, SUBSCRIPTION_STORE, TIMELINE_ENGINE,
+                    RECENT_ARTICLE_CACHE, BLOB_STORE, BODY_CODEC, TIMELINE_VERSIONS,
+                    new SearchIndex(new Properties()), FEED_DICTIONARY);
+    private static final DbReadStateStore READ_STATE_STORE =
+            new DbReadStateStore(SQL_UTILS, FEED_DICTIONARY);
+    private static final Properties BULK_CONFIG = new Properties() {
+        {
+            setProperty(Constants.BULK_CHUNK_SIZE, "2");
+        }
+    };
+    private static final RouteManager ROUTE_MANAGER = new RouteManager(BULK_CONFIG, OBJECT_MAPPER,
+            ARTICLE_STORE, FEED_STORE, SUBSCRIPTION_STORE, USER_STORE, READ_STATE_STORE,
+            new ArticleWriteQueue(new Properties(), ARTICLE_STORE),
+            new WorkerPool(new Properties()),
+            new AdmissionControl(new Properties()), new ExecutionLanes(new Properties(), false));
+    private static final ArticleWriteQueue ASYNC_WRITE_QUEUE = new ArticleWriteQueue(
+            new Properties() {
+                {
+                    setProperty(Constants.ASYNC_INGEST, "true");
+                }
+            }, ARTICLE_STORE);
+    private static final RouteManager ASYNC_ROUTE_MANAGER = new RouteManager(new Properties(),
+            OBJECT_MAPPER, ARTICLE_STORE, FEED_STORE, SUBSCRIPTION_STORE, USER_STORE,
+            READ_STATE_STORE, ASYNC_WRITE_QUEUE, new WorkerPool(new Properties()),
+            new AdmissionControl(new Properties()), new ExecutionLanes(new Properties(), false));
     private static final String FEED = "feed";
     private static final String ADD_USER = "addUser";
 
     @BeforeClass
     public static void setUp() throws Exception {
+        ROUTE_MANAGER.configureSqlStats(SQL_UTILS);
+        ASYNC_ROUTE_MANAGER.configureSqlStats(SQL_UTILS);
         FEED_STORE.init();
         FEED_STORE.add(FEED);
         USER_STORE.init();
         SUBSCRIPTION_STORE.init();
+        BLOB_STORE.init();
         ARTICLE_STORE.init();
+        READ_STATE_STORE.init();
+        ASYNC_WRITE_QUEUE.init();
+        new SchemaMigrator(SQL_UTILS).migrate();
     }
 
     @Test
@@ -227,7 +312,8 @@ public class RouteManagerTest {
     public void testAddArticle() throws Exception {
         USER_STORE.add("addArticle");
         SUBSCRIPTION_STORE.addSubscriptionByName(FEED, "addArticle");
-        List<Article> articles = ARTICLE_STORE.getArticles("addArticle");
+        long userId = USER_STORE.getId("addArticle").get(0).getId();
+        List<Article> articles = getTimeline(ARTICLE_STORE, userId);
         assertEquals(0, articles.size());
         Request request = createMock(Request.class);
         expect(request.queryParams(FEED)).andReturn(FEED);
@@ -236,7 +322,7 @@ public class RouteManagerTest {
         replay(request, response);
         ROUTE_MANAGER.addArticle(request, response);
         verify(request, response);
-        articles = ARTICLE_STORE.getArticles("addArticle");
+        articles = getTimeline(ARTICLE_STORE, userId);
         assertEquals(1, articles.size());
     }
 
@@ -283,13 +369,14 @@ public class RouteManagerTest {
         expect(request.queryParams(ID)).andReturn(null);
         expect(request.queryParams(NAME)).andReturn("getFeedsByName");
         Response response = getSuccessResponse();
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
         response.type("application/json");
-        Capture<String> captured = Capture.newInstance();
-        response.body(capture(captured));
+        ByteArrayOutputStream captured = expectStreamedBody(response);
         replay(request, response);
         ROUTE_MANAGER.getFeed(request, response);
         verify(request, response);
-        assertEquals(1, OBJECT_MAPPER.readValue(captured.getValue(), List.class).size());
+        assertEquals(1, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
         SUBSCRIPTION_STORE.deleteSubscriptionByName(FEED, "getFeedsByName");
     }
 
@@ -302,13 +389,14 @@ public class RouteManagerTest {
         expect(request.queryParams(ID)).andReturn(String.valueOf(users.get(0).getId()));
         expect(request.queryParams(NAME)).andReturn(null);
         Response response = getSuccessResponse();
-        Capture<String> captured = Capture.newInstance();
-        response.body(capture(captured));
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
         response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
         replay(request, response);
         ROUTE_MANAGER.getFeed(request, response);
         verify(request, response);
-        assertEquals(1, OBJECT_MAPPER.readValue(captured.getValue(), List.class).size());
+        assertEquals(1, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
         SUBSCRIPTION_STORE.deleteSubscriptionByName(FEED, "getFeedsById");
     }
 
@@ -334,14 +422,19 @@ public class RouteManagerTest {
         Request request = createMock(Request.class);
         expect(request.queryParams(ID)).andReturn(null);
         expect(request.queryParams(NAME)).andReturn("getArticlesByName");
+        expect(request.queryParams(LIMIT)).andReturn(null);
+        expect(request.queryParams(HEADLINES)).andReturn(null);
+        expect(request.queryParams(AFTER)).andReturn(null);
+        expect(request.queryParams(SINCE)).andReturn(null);
         Response response = getSuccessResponse();
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
         response.type("application/json");
-        Capture<String> captured = Capture.newInstance();
-        response.body(capture(captured));
+        ByteArrayOutputStream captured = expectStreamedBody(response);
         replay(request, response);
         ROUTE_MANAGER.getArticles(request, response);
         verify(request, response);
-        assertEquals(1, OBJECT_MAPPER.readValue(captured.getValue(), List.class).size());
+        assertEquals(1, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
         SUBSCRIPTION_STORE.deleteSubscriptionByName("getArticlesByName", "getArticlesByName");
     }
 
@@ -355,17 +448,68 @@ public class RouteManagerTest {
         Request request = createMock(Request.class);
         expect(request.queryParams(ID)).andReturn(String.valueOf(users.get(0).getId()));
         expect(request.queryParams(NAME)).andReturn(null);
+        expect(request.queryParams(LIMIT)).andReturn(null);
+        expect(request.queryParams(HEADLINES)).andReturn(null);
+        expect(request.queryParams(AFTER)).andReturn(null);
+        expect(request.queryParams(SINCE)).andReturn(null);
         Response response = getSuccessResponse();
-        Capture<String> captured = Capture.newInstance();
-        response.body(capture(captured));
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
         response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
         replay(request, response);
         ROUTE_MANAGER.getArticles(request, response);
         verify(request, response);
-        assertEquals(1, OBJECT_MAPPER.readValue(captured.getValue(), List.class).size());
+        assertEquals(1, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
         SUBSCRIPTION_STORE.deleteSubscriptionByName(FEED, "getArticlesById");
     }
 
+    @Test
+    public void testGetArticlesPaged() throws Exception {
+        FEED_STORE.add("getArticlesPaged");
+        USER_STORE.add("getArticlesPaged");
+        SUBSCRIPTION_STORE.addSubscriptionByName("getArticlesPaged", "getArticlesPaged");
+        for (int i = 0; i < 3; i++) {
+            ARTICLE_STORE.add(new Article("title", "body"), "getArticlesPaged");
+        }
+        Request request = createMock(Request.class);
+        expect(request.queryParams(ID)).andReturn(null);
+        expect(request.queryParams(NAME)).andReturn("getArticlesPaged");
+        expect(request.queryParams(LIMIT)).andReturn("2");
+        expect(request.queryParams(HEADLINES)).andReturn(null);
+        expect(request.queryParams(AFTER)).andReturn(null);
+        expect(request.queryParams(SINCE)).andReturn(null);
+        Response response = getSuccessResponse();
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
+        Capture<String> cursor = Capture.newInstance();
+        response.header(eq(HEADER_NEXT_CURSOR), capture(cursor));
+        response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+        assertEquals(2, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
+
+        request = createMock(Request.class);
+        expect(request.queryParams(ID)).andReturn(null);
+        expect(request.queryParams(NAME)).andReturn("getArticlesPaged");
+        expect(request.queryParams(LIMIT)).andReturn("2");
+        expect(request.queryParams(HEADLINES)).andReturn(null);
+        expect(request.queryParams(AFTER)).andReturn(cursor.getValue());
+        expect(request.queryParams(SINCE)).andReturn(null);
+        response = getSuccessResponse();
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
+        response.type("application/json");
+        captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+        assertEquals(1, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
+        SUBSCRIPTION_STORE.deleteSubscriptionByName("getArticlesPaged", "getArticlesPaged");
+    }
+
     @Test
     public void testGetArticlesWithNull() throws Exception {
         negative(() -> {
@@ -373,11 +517,381 @@ public class RouteManagerTest {
             expect(request.queryParams(ID)).andReturn(null);
             expect(request.queryParams(NAME)).andReturn(null);
             expect(request.queryParams(FEED)).andReturn(null);
+            expect(request.queryParams(LIMIT)).andReturn(null);
+            expect(request.queryParams(HEADLINES)).andReturn(null);
+            expect(request.queryParams(AFTER)).andReturn(null);
+            expect(request.queryParams(SINCE)).andReturn(null);
+        expect(request.queryParams(SINCE)).andReturn(null);
             Response response = createMock(Response.class);
             replay(request, response);
             ROUTE_MANAGER.getArticles(request, response);
         }, TestUtil::assertUserNameNullErrorMsg);
     }
+
+    @Test
+    public void testGetArticleHeadlines() throws Exception {
+        FEED_STORE.add("getArticleHeadlines");
+        USER_STORE.add("getArticleHeadlines");
+        SUBSCRIPTION_STORE.addSubscriptionByName("getArticleHeadlines", "getArticleHeadlines");
+        ARTICLE_STORE.add(new Article("title", "body"), "getArticleHeadlines");
+        Request request = createMock(Request.class);
+        expect(request.queryParams(ID)).andReturn(null);
+        expect(request.queryParams(NAME)).andReturn("getArticleHeadlines");
+        expect(request.queryParams(LIMIT)).andReturn(null);
+        expect(request.queryParams(HEADLINES)).andReturn("true");
+        expect(request.queryParams(AFTER)).andReturn(null);
+        expect(request.queryParams(SINCE)).andReturn(null);
+        Response response = getSuccessResponse();
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(null);
+        response.header(eq(HEADER_ETAG), anyString());
+        response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+        List<Map<String, Object>> headlines = OBJECT_MAPPER.readValue(captured.toString(),
+                new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(1, headlines.size());
+        assertFalse(headlines.get(0).containsKey(BODY));
+        assertEquals("getArticleHeadlines", headlines.get(0).get(FEED));
+
+        // The body is fetched separately by id.
+        request = createMock(Request.class);
+        expect(request.params(ID)).andReturn(String.valueOf(headlines.get(0).get(ID)));
+        response = getSuccessResponse();
+        response.type("application/json");
+        replay(request, response);
+        // The article is what the route returns, Spark writes that as the body.
+        String body = ROUTE_MANAGER.getArticle(request, response);
+        verify(request, response);
+        Article article = OBJECT_MAPPER.readValue(body, Article.class);
+        assertEquals("body", article.getBody());
+        SUBSCRIPTION_STORE.deleteSubscriptionByName("getArticleHeadlines",
+                "getArticleHeadlines");
+    }
+
+    @Test
+    public void testGetArticlesNotModified() throws Exception {
+        FEED_STORE.add("notModified");
+        USER_STORE.add("notModified");
+        SUBSCRIPTION_STORE.addSubscriptionByName("notModified", "notModified");
+        ARTICLE_STORE.add(new Article("title", "body"), "notModified");
+        String userId = String.valueOf(USER_STORE.getId("notModified").get(0).getId());
+        Request request = getArticlesRequest(userId, null);
+        Response response = getSuccessResponse();
+        Capture<String> etag = Capture.newInstance();
+        response.header(eq(HEADER_ETAG), capture(etag));
+        response.type("application/json");
+        expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+
+        // Polling with the ETag neither queries the timeline nor writes a body.
+        request = getArticlesRequest(userId, "W/" + etag.getValue());
+        response = getResponse(304);
+        response.header(HEADER_ETAG, etag.getValue());
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+
+        // A new article in a subscribed feed changes the ETag.
+        ARTICLE_STORE.add(new Article("title", "body"), "notModified");
+        request = getArticlesRequest(userId, etag.getValue());
+        response = getSuccessResponse();
+        Capture<String> newEtag = Capture.newInstance();
+        response.header(eq(HEADER_ETAG), capture(newEtag));
+        response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+        assertEquals(2, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
+        assertNotEquals(etag.getValue(), newEtag.getValue());
+
+        // So does a subscription change, for both timelines and feed listings.
+        String timelineVersion = ARTICLE_STORE.getTimelineVersion(Long.parseLong(userId));
+        String subscriptionVersion = SUBSCRIPTION_STORE.getSubscriptionVersion(
+                Long.parseLong(userId));
+        SUBSCRIPTION_STORE.addSubscriptionByName(FEED, "notModified");
+        assertNotEquals(timelineVersion, ARTICLE_STORE.getTimelineVersion(Long.parseLong(userId)));
+        assertNotEquals(subscriptionVersion, SUBSCRIPTION_STORE.getSubscriptionVersion(
+                Long.parseLong(userId)));
+        SUBSCRIPTION_STORE.deleteSubscriptionByName(FEED, "notModified");
+        SUBSCRIPTION_STORE.deleteSubscriptionByName("notModified", "notModified");
+    }
+
+    @Test
+    public void testGetArticlesSince() throws Exception {
+        FEED_STORE.add("getArticlesSince");
+        USER_STORE.add("getArticlesSince");
+        SUBSCRIPTION_STORE.addSubscriptionByName("getArticlesSince", "getArticlesSince");
+        ARTICLE_STORE.add(new Article("title", "body"), "getArticlesSince");
+        String userId = String.valueOf(USER_STORE.getId("getArticlesSince").get(0).getId());
+        Request request = getArticlesRequest(userId, null, "");
+        Response response = getSuccessResponse();
+        response.header(eq(HEADER_ETAG), anyString());
+        Capture<String> syncToken = Capture.newInstance();
+        response.header(eq(HEADER_SYNC_TOKEN), capture(syncToken));
+        response.header(HEADER_SYNC_GAP, "false");
+        response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+        assertEquals(1, OBJECT_MAPPER.readValue(captured.toString(), List.class).size());
+
+        // The next sync only returns the new article.
+        ARTICLE_STORE.add(new Article("new", "body"), "getArticlesSince");
+        request = getArticlesRequest(userId, null, syncToken.getValue());
+        response = getSuccessResponse();
+        response.header(eq(HEADER_ETAG), anyString());
+        response.header(eq(HEADER_SYNC_TOKEN), anyString());
+        response.header(HEADER_SYNC_GAP, "false");
+        response.type("application/json");
+        captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.getArticles(request, response);
+        verify(request, response);
+        List<Map<String, Object>> articles = OBJECT_MAPPER.readValue(captured.toString(),
+                new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(1, articles.size());
+        assertEquals("new", articles.get(0).get(TITLE));
+        SUBSCRIPTION_STORE.deleteSubscriptionByName("getArticlesSince", "getArticlesSince");
+    }
+
+    @Test
+    public void testUnreadCounts() throws Exception {
+        FEED_STORE.add("unreadCounts");
+        USER_STORE.add("unreadCounts");
+        SUBSCRIPTION_STORE.addSubscriptionByName("unreadCounts", "unreadCounts");
+        ARTICLE_STORE.add(new Article("first", "body"), "unreadCounts");
+        ARTICLE_STORE.add(new Article("second", "body"), "unreadCounts");
+        long userId = USER_STORE.getId("unreadCounts").get(0).getId();
+        long articleId = getTimeline(ARTICLE_STORE, userId).stream()
+                .filter(article -> "second".equals(article.getTitle()))
+                .findFirst().get().getId();
+        Request request = createMock(Request.class);
+        expect(request.params(ID)).andReturn(String.valueOf(articleId));
+        expect(request.queryParams(ID)).andReturn(null);
+        expect(request.queryParams(NAME)).andReturn("unreadCounts");
+        Response response = getSuccessResponse();
+        replay(request, response);
+        ROUTE_MANAGER.markArticleRead(request, response);
+        verify(request, response);
+
+        Map<?, ?> unread = getUnreadCounts("unreadCounts");
+        assertEquals(1, unread.get("total"));
+        assertEquals(1, ((Map<?, ?>) unread.get("feeds")).get("unreadCounts"));
+
+        request = createMock(Request.class);
+        expect(request.queryParams(FEED)).andReturn("unreadCounts");
+        expect(request.queryParams(ID)).andReturn(null);
+        expect(request.queryParams(NAME)).andReturn("unreadCounts");
+        response = getSuccessResponse();
+        replay(request, response);
+        ROUTE_MANAGER.markFeedRead(request, response);
+        verify(request, response);
+        assertEquals(0, getUnreadCounts("unreadCounts").get("total"));
+
+        // Unknown users have nothing unread and cannot mark anything read.
+        assertEquals(0, getUnreadCounts("noSuchUser").get("total"));
+        negative(() -> {
+            Request markRequest = createMock(Request.class);
+            expect(markRequest.queryParams(FEED)).andReturn("unreadCounts");
+            expect(markRequest.queryParams(ID)).andReturn(null);
+            expect(markRequest.queryParams(NAME)).andReturn("noSuchUser").anyTimes();
+            replay(markRequest);
+            ROUTE_MANAGER.markFeedRead(markRequest, createMock(Response.class));
+        }, throwable -> assertEquals(404, ((AppException) throwable).getCode()));
+        SUBSCRIPTION_STORE.deleteSubscriptionByName("unreadCounts", "unreadCounts");
+    }
+
+    @Test
+    public void testAddArticleAsync() throws Exception {
+        FEED_STORE.add("addArticleAsync");
+        USER_STORE.add("addArticleAsync");
+        SUBSCRIPTION_STORE.addSubscriptionByName("addArticleAsync", "addArticleAsync");
+        Request request = createMock(Request.class);
+        expect(request.queryParams(FEED)).andReturn("addArticleAsync");
+        expect(request.body()).andReturn(OBJECT_MAPPER.writeValueAsString(getArticleMap()));
+        expect(request.queryParams(DURABLE)).andReturn(null);
+        Response response = getResponse(202);
+        replay(request, response);
+        ASYNC_ROUTE_MANAGER.addArticle(request, response);
+        verify(request, response);
+
+        // A durable add returns once its group committed, which includes everything before it.
+        request = createMock(Request.class);
+        expect(request.queryParams(FEED)).andReturn("addArticleAsync");
+        expect(request.body()).andReturn(OBJECT_MAPPER.writeValueAsString(getArticleMap()));
+        expect(request.queryParams(DURABLE)).andReturn("true");
+        response = getSuccessResponse();
+        replay(request, response);
+        ASYNC_ROUTE_MANAGER.addArticle(request, response);
+        verify(request, response);
+        long userId = USER_STORE.getId("addArticleAsync").get(0).getId();
+        assertEquals(2, getTimeline(ARTICLE_STORE, userId).size());
+
+        negative(() -> {
+            Request missingFeed = createMock(Request.class);
+            expect(missingFeed.queryParams(FEED)).andReturn("noSuchFeed");
+            expect(missingFeed.body()).andReturn(OBJECT_MAPPER.writeValueAsString(
+                    getArticleMap()));
+            expect(missingFeed.queryParams(DURABLE)).andReturn("true");
+            replay(missingFeed);
+            ASYNC_ROUTE_MANAGER.addArticle(missingFeed, createMock(Response.class));
+        }, throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(404, ((AppException) throwable).getCode());
+        });
+        SUBSCRIPTION_STORE.deleteSubscriptionByName("addArticleAsync", "addArticleAsync");
+    }
+
+    @Test
+    public void testAddArticlesInBulk() throws Exception {
+        FEED_STORE.add("addArticlesInBulk");
+        FEED_STORE.add("addArticlesInBulkOther");
+        Request request = createMock(Request.class);
+        expect(request.queryParams(FEED)).andReturn("addArticlesInBulk");
+        expectRequestBody(request, "{\"title\": \"t1\", \"body\": \"b1\"}\n"
+                + "not json\n"
+                + "\n"
+                + "{\"title\": \"t2\", \"body\": \"b2\", \"feed\": \"addArticlesInBulkOther\"}\n"
+                + "{\"title\": \"t3\"}\n"
+                + "{\"title\": \"t4\", \"body\": \"b4\", \"feed\": \"noSuchFeed\"}\n"
+                + "{\"title\": \"t5\", \"body\": \"b5\"}");
+        Response response = getSuccessResponse();
+        response.type("application/json");
+        ByteArrayOutputStream captured = expectStreamedBody(response);
+        replay(request, response);
+        ROUTE_MANAGER.addArticles(request, response);
+        verify(request, response);
+
+        List<Map<String, Object>> results = OBJECT_MAPPER.readValue(captured.toString(),
+                new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(6, results.size());
+        int[] lines = {1, 2, 4, 5, 6, 7};
+        int[] statuses = {200, 400, 200, 400, 404, 200};
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(lines[i], results.get(i).get("line"));
+            assertEquals(statuses[i], results.get(i).get("status"));
+        }
+        Article added = ARTICLE_STORE.getArticle(((Number) results.get(0).get(ID)).longValue())
+                .get();
+        assertEquals("addArticlesInBulk", added.getFeed());
+        assertEquals("b1", added.getBody());
+        added = ARTICLE_STORE.getArticle(((Number) results.get(2).get(ID)).longValue()).get();
+        assertEquals("addArticlesInBulkOther", added.getFeed());
+    }
+
+    @Test
+    public void testSearchArticlesDisabled() throws Exception {
+        USER_STORE.add("searchArticles");
+        negative(() -> {
+            Request request = createMock(Request.class);
+            expect(request.queryParams(QUERY)).andReturn("title");
+            expect(request.queryParams(OFFSET)).andReturn("0");
+            expect(request.queryParams(LIMIT)).andReturn(null);
+            expect(request.queryParams(HEADLINES)).andReturn(null);
+            expect(request.queryParams(ID)).andReturn(null);
+            expect(request.queryParams(NAME)).andReturn("searchArticles");
+            replay(request);
+            ROUTE_MANAGER.searchArticles(request, createMock(Response.class));
+        }, throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(503, ((AppException) throwable).getCode());
+        });
+        USER_STORE.delete("searchArticles");
+    }
+
+    @Test
+    public void testGetMissingArticle() throws Exception {
+        negative(() -> {
+            Request request = createMock(Request.class);
+            expect(request.params(ID)).andReturn(String.valueOf(Long.MAX_VALUE));
+            Response response = createMock(Response.class);
+            replay(request, response);
+            ROUTE_MANAGER.getArticle(request, response);
+        }, throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(404, ((AppException) throwable).getCode());
+        });
+    }
+
+    @Test
+    public void testRejectedRequest() throws Exception {
+        Request request = createMock(Request.class);
+        expect(request.pathInfo()).andStubReturn("/api/1/articles");
+        Response response = getResponse(429);
+        response.header(HEADER_RETRY_AFTER, "3");
+        Capture<String> body = Capture.newInstance();
+        response.body(capture(body));
+        replay(request, response);
+        ROUTE_MANAGER.addExceptionHandler(new RejectedException(429, 3,
+                "Too many requests for %s", "name karthik"), request, response);
+        verify(request, response);
+        Map<?, ?> error = OBJECT_MAPPER.readValue(body.getValue(), Map.class);
+        assertEquals("Too many requests for name karthik", error.get("cause"));
+    }
+
+    @Test
+    public void testGetStats() throws Exception {
+        Request request = createMock(Request.class);
+        Response response = getSuccessResponse();
+        response.type("application/json");
+        replay(request, response);
+        // The stats are what the route returns, Spark writes that as the body.
+        String body = ROUTE_MANAGER.getStats(request, response);
+        verify(request, response);
+        Map<?, ?> stats = OBJECT_MAPPER.readValue(body, Map.class);
+        assertEquals(10, stats.size());
+        Map<?, ?> timeline = (Map<?, ?>) ((Map<?, ?>) stats.get("articles")).get("timeline");
+        assertEquals(false, timeline.get("fanout_on_write"));
+        Map<?, ?> statementCache = (Map<?, ?>) ((Map<?, ?>) stats.get("sql"))
+                .get("statement_cache");
+        assertTrue(((Number) statementCache.get("hits")).longValue() > 0);
+    }
+
+    @Test
+    public void testStreamFailsBeforeCommit() throws Exception {
+        Response response = getSuccessResponse();
+        response.type("application/json");
+        HttpServletResponse raw = createMock(HttpServletResponse.class);
+        expect(raw.isCommitted()).andReturn(false);
+        raw.resetBuffer();
+        ByteArrayOutputStream body = expectStreamedBody(response, raw);
+        replay(response);
+        negative(() -> ROUTE_MANAGER.streamJson(response, generator -> {
+            generator.writeString("first");
+            throw new AppException(500, "Error reading articles");
+        }), throwable -> {
+            assertEquals(AppException.class, throwable.getClass());
+            assertEquals(500, ((AppException) throwable).getCode());
+        });
+        verify(response, raw);
+        // Nothing was sent, so the error status still goes out.
+        assertEquals(0, body.size());
+    }
+
+    @Test
+    public void testStreamFailsAfterCommit() throws Exception {
+        Response response = getSuccessResponse();
+        response.type("application/json");
+        HttpServletResponse raw = createMock(HttpServletResponse.class);
+        expect(raw.isCommitted()).andReturn(true);
+        ByteArrayOutputStream body = expectStreamedBody(response, raw);
+        replay(response);
+        negative(() -> ROUTE_MANAGER.streamJson(response, generator -> {
+            generator.writeString("first");
+            generator.flush();
+            throw new AppException(500, "Error reading articles");
+        }), throwable -> assertEquals(AppException.class, throwable.getClass()));
+        verify(response, raw);
+        // The array is never closed, a client cannot take it for a complete result.
+        assertEquals("[\"first\"", body.toString("UTF-8"));
+    }
+
     //------------------------------ Private methods ---------------------------------------------//
     private Response getSuccessResponse() {
         return getResponse(200);
@@ -389,6 +903,91 @@ public class RouteManagerTest {
         return response;
     }
 
+    private Request getArticlesRequest(final String userId, final String ifNoneMatch) {
+        return getArticlesRequest(userId, ifNoneMatch, null);
+    }
+
+    private Request getArticlesRequest(final String userId, final String ifNoneMatch,
+            final String since) {
+        Request request = createMock(Request.class);
+        expect(request.queryParams(ID)).andReturn(userId);
+        expect(request.queryParams(NAME)).andReturn(null);
+        expect(request.queryParams(LIMIT)).andReturn(null);
+        expect(request.queryParams(HEADLINES)).andReturn(null);
+        expect(request.queryParams(AFTER)).andReturn(null);
+        expect(request.queryParams(SINCE)).andReturn(since);
+        expect(request.headers(HEADER_IF_NONE_MATCH)).andReturn(ifNoneMatch);
+        return request;
+    }
+
+    private Map<?, ?> getUnreadCounts(final String userName) throws IOException {
+        Request request = createMock(Request.class);
+        expect(request.queryParams(ID)).andReturn(null);
+        expect(request.queryParams(NAME)).andReturn(userName);
+        Response response = getSuccessResponse();
+        response.type("application/json");
+        replay(request, response);
+        // The counts are what the route returns, Spark writes that as the body.
+        String body = ROUTE_MANAGER.getUnreadCounts(request, response);
+        verify(request, response);
+        return OBJECT_MAPPER.readValue(body, Map.class);
+    }
+
+    private void expectRequestBody(Request request, String body) throws IOException {
+        ByteArrayInputStream content = new ByteArrayInputStream(body.getBytes(
+                StandardCharsets.UTF_8));
+        HttpServletRequest raw = createMock(HttpServletRequest.class);
+        expect(raw.getInputStream()).andReturn(new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return content.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(final ReadListener readListener) {
+            }
+
+            @Override
+            public int read() throws IOException {
+                return content.read();
+            }
+        });
+        replay(raw);
+        expect(request.raw()).andReturn(raw);
+    }
+
+    private ByteArrayOutputStream expectStreamedBody(Response response) throws IOException {
+        return expectStreamedBody(response, createMock(HttpServletResponse.class));
+    }
+
+    private ByteArrayOutputStream expectStreamedBody(Response response, HttpServletResponse raw)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        expect(raw.getOutputStream()).andReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+        replay(raw);
+        expect(response.raw()).andReturn(raw);
+        return body;
+    }
+
     private Map<String, String> getArticleMap() {
         return new HashMap<String, String>(){
             {
@@ -0,0 +1,259 @@
+package proj.karthik.feed.reader.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.TestUtil;
+import proj.karthik.feed.reader.entity.Article;
+import proj.karthik.feed.reader.sql.SQLUtils;
+import proj.karthik.feed.reader.sql.SchemaMigrator;
+import proj.karthik.feed.reader.store.ArticleWriteQueue;
+import proj.karthik.feed.reader.store.BodyCodec;
+import proj.karthik.feed.reader.store.DbArticleStore;
+import proj.karthik.feed.reader.store.DbFeedStore;
+import proj.karthik.feed.reader.store.DbReadStateStore;
+import proj.karthik.feed.reader.store.DbSubscriptionStore;
+import proj.karthik.feed.reader.store.DbUserStore;
+import proj.karthik.feed.reader.store.FeedDictionary;
+import proj.karthik.feed.reader.store.RecentArticleCache;
+import proj.karthik.feed.reader.store.SearchIndex;
+import proj.karthik.feed.reader.store.SegmentBlobStore;
+import proj.karthik.feed.reader.store.SubscriptionGraph;
+import proj.karthik.feed.reader.store.TimelineEngine;
+import proj.karthik.feed.reader.store.TimelineVersions;
+import spark.Spark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput and latency of timeline reads over many concurrent connections, with the workers
+ * configured by the {@code worker_*} system properties. The clients run
+ * in the same process as the server. It takes a while and is not part of the regular build, run
+ * it with {@code mvn test -Dtest=WorkerPoolBenchmark -Dworker_mode=virtual} on Java 21 or later
+ * for virtual threads.
+ */
+public class WorkerPoolBenchmark {
+    private static final int CONNECTIONS = 1000;
+    private static final int USERS = 1000;
+    private static final int FEEDS = 20;
+    private static final int SUBSCRIPTIONS_PER_USER = 3;
+    private static final int ARTICLES_PER_FEED = 50;
+    private static final int POOL_SIZE = 10;
+    private static final long WARMUP_MILLIS = 5000;
+    private static final long RUN_MILLIS = 15000;
+
+    @Test
+    public void benchmark() throws Exception {
+        // Logging every request at debug level would be most of what is measured.
+        Logger.getRootLogger().setLevel(Level.INFO);
+        // Every client keeps its connection open between requests.
+        System.setProperty("http.maxConnections", String.valueOf(CONNECTIONS));
+        Properties config = new Properties();
+        for (String key : Arrays.asList(Constants.WORKER_MODE, Constants.WORKER_THREADS_MIN,
+                Constants.WORKER_THREADS_MAX, Constants.WORKER_QUEUE_CAPACITY,
+                Constants.WORKER_CONCURRENCY)) {
+            if (System.getProperty(key) != null) {
+                config.setProperty(key, System.getProperty(key));
+            }
+        }
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        config.setProperty(Constants.PORT, String.valueOf(port));
+        DataSource dataSource = TestUtil.getTestDataSource(WorkerPoolBenchmark.class.getName(),
+                POOL_SIZE, 30000);
+        WorkerPool workerPool = new WorkerPool(config);
+        workerPool.configureDataSource(dataSource);
+        RouteManager routeManager = createRouteManager(config, dataSource, workerPool);
+        routeManager.initRoutes(config);
+        Spark.awaitInitialization();
+        try {
+            run(port, WARMUP_MILLIS);
+            Result result = run(port, RUN_MILLIS);
+            System.out.printf("%n%s workers on Java %s, %d connections: %d requests, %.0f " +
+                            "requests/s, p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, %d errors%n",
+                    workerPool.getStats().get("mode"), System.getProperty("java.version"),
+                    CONNECTIONS, result.latencies.length,
+                    result.latencies.length * 1000.0 / RUN_MILLIS, result.percentile(50),
+                    result.percentile(99), result.percentile(99.9), result.errors);
+            assertTrue(result.latencies.length > 0);
+            assertEquals(0, result.errors);
+        } finally {
+            Spark.stop();
+        }
+    }
+
+    //----------------------------------- Private methods ----------------------------------------//
+
+    private RouteManager createRouteManager(final Properties config,
+            final DataSource dataSource, final WorkerPool workerPool) {
+        SQLUtils sqlUtils = new SQLUtils(dataSource);
+        FeedDictionary feedDictionary = new FeedDictionary();
+        SubscriptionGraph subscriptionGraph = new SubscriptionGraph();
+        DbFeedStore feedStore = new DbFeedStore(new Properties(), sqlUtils, feedDictionary);
+        DbUserStore userStore = new DbUserStore(sqlUtils);
+        TimelineEngine timelineEngine = new TimelineEngine(new Properties(), sqlUtils,
+                feedDictionary, subscriptionGraph);
+        RecentArticleCache recentArticleCache = new RecentArticleCache(new Properties());
+        TimelineVersions timelineVersions = new TimelineVersions();
+        SegmentBlobStore blobStore = new SegmentBlobStore(new Properties());
+        DbSubscriptionStore subscriptionStore = new DbSubscriptionStore(sqlUtils, userStore,
+                timelineEngine, timelineVersions, feedDictionary, subscriptionGraph);
+        DbArticleStore articleStore = new DbArticleStore(sqlUtils,
+                subscriptionStore, timelineEngine, recentArticleCache, blobStore,
+                new BodyCodec(new Properties()), timelineVersions,
+                new SearchIndex(new Properties()), feedDictionary);
+        DbReadStateStore readStateStore = new DbReadStateStore(sqlUtils, feedDictionary);
+        feedStore.init();
+        userStore.init();
+        subscriptionStore.init();
+        blobStore.init();
+        articleStore.init();
+        readStateStore.init();
+        timelineEngine.init();
+        new SchemaMigrator(sqlUtils).migrate();
+        for (int feed = 0; feed < FEEDS; feed++) {
+            feedStore.add("feed" + feed);
+            for (int article = 0; article < ARTICLES_PER_FEED; article++) {
+                articleStore.add(new Article("title" + article, "body" + article),
+                        "feed" + feed);
+            }
+        }
+        for (int user = 0; user < USERS; user++) {
+            userStore.add("user" + user);
+            for (int subscription = 0; subscription < SUBSCRIPTIONS_PER_USER; subscription++) {
+                subscriptionStore.addSubscriptionByName("feed" + ((user + subscription) % FEEDS),
+                        "user" + user);
+            }
+        }
+        RouteManager routeManager = new RouteManager(config, new ObjectMapper(), articleStore,
+                feedStore, subscriptionStore, userStore, readStateStore,
+                new ArticleWriteQueue(new Properties(), articleStore), workerPool,
+                new AdmissionControl(config), new ExecutionLanes(config, workerPool));
+        routeManager.configureSqlStats(sqlUtils);
+        return routeManager;
+    }
+
+    /**
+     * Has every client read timeline pages for the given time and returns the latencies.
+     */
+    private Result run(final int port, final long millis) throws InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Client client = new Client(port, i % USERS, end);
+            client.setDaemon(true);
+            client.start();
+            clients.add(client);
+        }
+        int total = 0;
+        long errors = 0;
+        for (Client client : clients) {
+            client.join();
+            total += client.count;
+            errors += client.errors;
+        }
+        long[] latencies = new long[total];
+        int next = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.latencies, 0, latencies, next, client.count);
+            next += client.count;
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, errors);
+    }
+
+    /**
+     * Reads the response fully so that the connection is kept for the next request.
+     */
+    private static boolean get(final URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream()
+                : connection.getErrorStream()) {
+            byte[] buffer = new byte[8192];
+            while (body != null && body.read(buffer) >= 0) {
+                // drained
+            }
+        }
+        return status == 200;
+    }
+
+    //------------------------------------ Private Class ----------------------------------------//
+
+    /**
+     * Connection that reads the timeline of one user over and over.
+     */
+    private static class Client extends Thread {
+        private final int port;
+        private final int user;
+        private final long end;
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        private Client(final int port, final int user, final long end) {
+            this.port = port;
+            this.user = user;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try {
+                URL url = new URL("http://localhost:" + port + "/api/1/articles?name=user" +
+                        user + "&limit=20&headlines=true");
+                while (System.currentTimeMillis() < end) {
+                    long start = System.nanoTime();
+                    if (!get(url)) {
+                        errors++;
+                        continue;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+            } catch (IOException e) {
+                errors++;
+            }
+        }
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final long errors;
+
+        private Result(final long[] latencies, final long errors) {
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        private double percentile(final double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(latencies.length - 1,
+                    Math.ceil(percentile / 100 * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package proj.karthik.feed.reader.web;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import proj.karthik.feed.reader.Constants;
+import proj.karthik.feed.reader.TestUtil;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static proj.karthik.feed.reader.TestUtil.negative;
+
+/**
+ * Unit test for {@link WorkerPool}
+ */
+public class WorkerPoolTest {
+
+    @Test
+    public void testPlatformPool() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.WORKER_THREADS_MIN, "1");
+        config.setProperty(Constants.WORKER_THREADS_MAX, "2");
+        config.setProperty(Constants.WORKER_IDLE_TIMEOUT_MS, "1000");
+        config.setProperty(Constants.WORKER_QUEUE_CAPACITY, "1");
+        WorkerPool workerPool = new WorkerPool(config);
+        Server server = workerPool.createServer(2, 1, 1000);
+        QueuedThreadPool pool = (QueuedThreadPool) server.getThreadPool();
+        assertEquals(1, pool.getMinThreads());
+        assertEquals(2, pool.getMaxThreads());
+        assertEquals(1000, pool.getIdleTimeout());
+        pool.start();
+        CountDownLatch release = new CountDownLatch(1);
+        Semaphore started = new Semaphore(0);
+        Runnable blocked = () -> {
+            started.release();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            // Each task is taken off the queue before the next one is added.
+            pool.execute(blocked);
+            assertTrue(started.tryAcquire(10, TimeUnit.SECONDS));
+            pool.execute(blocked);
+            assertTrue(started.tryAcquire(10, TimeUnit.SECONDS));
+            // Both threads are busy, one task fits in the queue and the next is turned away.
+            pool.execute(blocked);
+            negative(() -> pool.execute(blocked), throwable -> assertEquals(
+                    RejectedExecutionException.class, throwable.getClass()));
+            Map<String, Object> stats = workerPool.getStats();
+            assertEquals("platform", stats.get("mode"));
+            assertEquals(2, stats.get("busy_threads"));
+            assertEquals(1, stats.get("queued"));
+        } finally {
+            release.countDown();
+            pool.stop();
+        }
+    }
+
+    @Test
+    public void testVirtualMode() throws Exception {
+        Properties config = new Properties();
+        config.setProperty(Constants.WORKER_MODE, Constants.WORKER_MODE_VIRTUAL);
+        WorkerPool workerPool = new WorkerPool(config);
+        boolean available;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            available = true;
+        } catch (NoSuchMethodException e) {
+            available = false;
+        }
+        // JDKs without virtual threads keep the platform pool.
+        assertEquals(available, workerPool.isVirtual());
+        // The platform pool reads and writes the connections either way.
+        Server server = workerPool.createServer(200, 8, 60000);
+        assertEquals(QueuedThreadPool.class, server.getThreadPool().getClass());
+        assertEquals(available ? "virtual" : "platform", workerPool.getStats().get("mode"));
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        // Without worker_concurrency the limit is the size of the connection pool.
+        WorkerPool workerPool = new WorkerPool(new Properties());
+        workerPool.configureDataSource(TestUtil.getTestDataSource(
+                WorkerPoolTest.class.getName() + "dispatch", 2, 1000));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        Handler dispatcher = workerPool.dispatch(new AbstractHandler() {
+            @Override
+            public void handle(final String target, final Request baseRequest,
+                    final HttpServletRequest request, final HttpServletResponse response) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }
+        }, runnable -> {
+            Thread thread = new Thread(runnable);
+            synchronized (threads) {
+                threads.add(thread);
+            }
+            return thread;
+        });
+        AsyncContext context = createMock(AsyncContext.class);
+        context.setTimeout(0);
+        expectLastCall().times(8);
+        context.complete();
+        expectLastCall().times(8);
+        Request request = createNiceMock(Request.class);
+        expect(request.startAsync()).andReturn(context).times(8);
+        replay(context, request);
+        // Every request returns straight away and is handled on a thread of its own.
+        for (int i = 0; i < 8; i++) {
+            dispatcher.handle("/", request, request, null);
+        }
+        assertEquals(8, threads.size());
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        verify(context);
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, running.get());
+    }
+}